@@ -0,0 +1,55 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+/**
+ * Upper bounds for the growth of time or memory needed by an
+ * operation depending on the size of its input.
+ */
+public enum Complexity {
+    CONSTANT {
+        @Override
+        double cost(double n) {
+            return 1;
+        }
+    },
+    LINEAR {
+        @Override
+        double cost(double n) {
+            return n;
+        }
+    },
+    N_LOG_N {
+        @Override
+        double cost(double n) {
+            return n * Math.log(n);
+        }
+    },
+    QUADRATIC {
+        @Override
+        double cost(double n) {
+            return n * n;
+        }
+    };
+
+    abstract double cost(double n);
+
+    /**
+     * The factor by which the cost grows when the size grows from
+     * {@code from} to {@code to}.
+     */
+    public double growth(int from, int to) {
+        return cost(to) / cost(from);
+    }
+}
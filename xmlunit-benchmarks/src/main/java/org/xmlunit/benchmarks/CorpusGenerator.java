@@ -0,0 +1,339 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import org.w3c.dom.Document;
+import org.xmlunit.builder.Input;
+import org.xmlunit.util.Convert;
+
+/**
+ * Generates pairs of synthetic control and test documents.
+ *
+ * <p>Each element but the leaves has {@link #withFanOut fan-out}
+ * children, the tree is {@link #withDepth depth} levels deep.  Each
+ * element carries the configured number of attributes and - if the
+ * text size is bigger than zero - starts with a text node.  Elements
+ * and the first attribute of each element are spread over the
+ * configured number of namespaces.</p>
+ *
+ * <p>The test document differs from the control document in the
+ * given percentage of elements, either the text or an attribute value
+ * is changed.  The order of siblings in the test document can be
+ * shuffled in order to exercise node matching.  All choices depend on
+ * the seed only, so the same settings always generate the same
+ * documents.</p>
+ *
+ * <p><b>Example Usage:</b></p>
+ *
+ * <pre>
+ * CorpusGenerator.Corpus c = new CorpusGenerator()
+ *     .withDepth(3).withFanOut(100).withDifferences(1)
+ *     .generate();
+ * DiffBuilder.compare(c.getControl()).withTest(c.getTest()).build();
+ * </pre>
+ */
+public class CorpusGenerator {
+
+    private int depth = 3;
+    private int fanOut = 10;
+    private int attributes = 1;
+    private int textSize = 10;
+    private int namespaces = 0;
+    private double differencePercentage = 0;
+    private boolean shuffleSiblings;
+    private long seed = 42;
+
+    /**
+     * Number of element levels, a depth of 1 only creates the root
+     * element, defaults to 3.
+     */
+    public CorpusGenerator withDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be positive");
+        }
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * Number of child elements of each non-leaf element, defaults to 10.
+     */
+    public CorpusGenerator withFanOut(int fanOut) {
+        if (fanOut < 1) {
+            throw new IllegalArgumentException("fanOut must be positive");
+        }
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    /**
+     * Number of attributes of each element, defaults to 1.
+     */
+    public CorpusGenerator withAttributes(int attributes) {
+        if (attributes < 0) {
+            throw new IllegalArgumentException("attributes must not be negative");
+        }
+        this.attributes = attributes;
+        return this;
+    }
+
+    /**
+     * Number of characters of the text of each element, defaults to 10.
+     */
+    public CorpusGenerator withTextSize(int textSize) {
+        if (textSize < 0) {
+            throw new IllegalArgumentException("textSize must not be negative");
+        }
+        this.textSize = textSize;
+        return this;
+    }
+
+    /**
+     * Number of namespaces elements are spread over, defaults to 0 -
+     * no namespaces at all.
+     */
+    public CorpusGenerator withNamespaces(int namespaces) {
+        if (namespaces < 0) {
+            throw new IllegalArgumentException("namespaces must not be negative");
+        }
+        this.namespaces = namespaces;
+        return this;
+    }
+
+    /**
+     * Percentage of elements that differ between control and test,
+     * defaults to 0.
+     */
+    public CorpusGenerator withDifferences(double percentage) {
+        if (percentage < 0 || percentage > 100) {
+            throw new IllegalArgumentException("percentage must be between 0 and 100");
+        }
+        this.differencePercentage = percentage;
+        return this;
+    }
+
+    /**
+     * Whether the order of siblings in the test document is
+     * shuffled, defaults to false.
+     */
+    public CorpusGenerator withShuffledSiblings(boolean shuffleSiblings) {
+        this.shuffleSiblings = shuffleSiblings;
+        return this;
+    }
+
+    /**
+     * Seed for all random choices, defaults to 42.
+     */
+    public CorpusGenerator withSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Generates the documents.
+     */
+    public Corpus generate() {
+        Generation g = new Generation(new Random(seed));
+        g.run();
+        return new Corpus(g.control.toString(), g.test.toString(), g.elements, g.differences);
+    }
+
+    /**
+     * Walks the tree depth first without recursion so very deep
+     * documents can be generated.
+     */
+    private class Generation {
+        private final Random random;
+        private final StringBuilder control = new StringBuilder();
+        private final StringBuilder test = new StringBuilder();
+        private final LinkedList<OpenElement> open = new LinkedList<OpenElement>();
+        private int elements, differences;
+
+        private Generation(Random random) {
+            this.random = random;
+        }
+
+        private void run() {
+            start(0, 0, test);
+            while (!open.isEmpty()) {
+                OpenElement e = open.getFirst();
+                if (e.level + 1 < depth && e.nextChild < fanOut) {
+                    int i = e.nextChild++;
+                    StringBuilder childTest = e.testChildren == null ? e.test : new StringBuilder();
+                    if (e.testChildren != null) {
+                        e.testChildren.add(childTest);
+                    }
+                    start(e.level + 1, e.id * fanOut + i + 1, childTest);
+                } else {
+                    open.removeFirst();
+                    end(e);
+                }
+            }
+        }
+
+        private void start(int level, int id, StringBuilder testOut) {
+            elements++;
+            String name = elementName(level, id);
+            boolean different = differencePercentage > 0
+                && random.nextDouble() * 100 < differencePercentage;
+            boolean differentText = different && (textSize > 0 || attributes == 0);
+            int differentAttribute = different && !differentText ? random.nextInt(attributes) : -1;
+            if (different) {
+                differences++;
+            }
+
+            startTag(control, name, level, id, -1);
+            startTag(testOut, name, level, id, differentAttribute);
+            String text = text(id);
+            control.append(text);
+            testOut.append(differentText ? "changed-" + text : text);
+
+            // only the test document's siblings need to be buffered
+            // in order to shuffle them
+            boolean hasChildren = level + 1 < depth;
+            open.addFirst(new OpenElement(level, id, name, testOut,
+                                          shuffleSiblings && hasChildren
+                                          ? new ArrayList<StringBuilder>(fanOut) : null));
+        }
+
+        private void end(OpenElement e) {
+            if (e.testChildren != null) {
+                Collections.shuffle(e.testChildren, random);
+                for (StringBuilder child : e.testChildren) {
+                    e.test.append(child);
+                }
+            }
+            control.append("</").append(e.name).append('>');
+            e.test.append("</").append(e.name).append('>');
+        }
+
+        private void startTag(StringBuilder sb, String name, int level, int id,
+                              int differentAttribute) {
+            sb.append('<').append(name);
+            if (level == 0) {
+                for (int n = 0; n < namespaces; n++) {
+                    sb.append(" xmlns:p").append(n).append("='urn:xmlunit:corpus:").append(n)
+                        .append('\'');
+                }
+            }
+            for (int a = 0; a < attributes; a++) {
+                sb.append(' ');
+                if (a == 0 && namespaces > 0) {
+                    sb.append('p').append((id + 1) % namespaces).append(':');
+                }
+                sb.append("attr").append(a).append("='")
+                    .append(a == differentAttribute ? "changed" : String.valueOf(id))
+                    .append('\'');
+            }
+            sb.append('>');
+        }
+
+        private String elementName(int level, int id) {
+            String local = "e" + level;
+            return namespaces > 0 ? "p" + id % namespaces + ":" + local : local;
+        }
+
+        private String text(int id) {
+            if (textSize == 0) {
+                return "";
+            }
+            StringBuilder sb = new StringBuilder(textSize);
+            sb.append(id).append(' ');
+            while (sb.length() < textSize) {
+                sb.append((char) ('a' + sb.length() % 26));
+            }
+            sb.setLength(textSize);
+            return sb.toString();
+        }
+    }
+
+    private static class OpenElement {
+        private final int level, id;
+        private final String name;
+        private final StringBuilder test;
+        private final List<StringBuilder> testChildren;
+        private int nextChild;
+
+        private OpenElement(int level, int id, String name, StringBuilder test,
+                            List<StringBuilder> testChildren) {
+            this.level = level;
+            this.id = id;
+            this.name = name;
+            this.test = test;
+            this.testChildren = testChildren;
+        }
+    }
+
+    /**
+     * A generated pair of documents.
+     */
+    public static class Corpus {
+        private final String control, test;
+        private final int elements, differences;
+
+        private Corpus(String control, String test, int elements, int differences) {
+            this.control = control;
+            this.test = test;
+            this.elements = elements;
+            this.differences = differences;
+        }
+
+        /**
+         * The serialized control document.
+         */
+        public String getControl() {
+            return control;
+        }
+
+        /**
+         * The serialized test document.
+         */
+        public String getTest() {
+            return test;
+        }
+
+        /**
+         * The parsed control document.
+         */
+        public Document getControlDocument() {
+            return Convert.toDocument(Input.fromString(control).build());
+        }
+
+        /**
+         * The parsed test document.
+         */
+        public Document getTestDocument() {
+            return Convert.toDocument(Input.fromString(test).build());
+        }
+
+        /**
+         * Number of elements of each document.
+         */
+        public int getElementCount() {
+            return elements;
+        }
+
+        /**
+         * Number of elements that differ between the documents.
+         */
+        public int getDifferenceCount() {
+            return differences;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.diff.DefaultNodeMatcher;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.diff.ElementSelectors;
+
+/**
+ * Measures {@link DiffBuilder#build} for documents of different shapes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiffBenchmark {
+
+    @Param({"SMALL", "WIDE", "DEEP", "NAMESPACED"})
+    public Documents shape;
+
+    private String controlString, testString;
+    private Document control, identicalTest, differentTest;
+
+    @Setup
+    public void parse() {
+        controlString = shape.asString(false);
+        testString = shape.asString(true);
+        control = shape.asDocument(false);
+        identicalTest = shape.asDocument(false);
+        differentTest = shape.asDocument(true);
+    }
+
+    /**
+     * Compares two identical, already parsed documents.
+     */
+    @Benchmark
+    public Diff identical() {
+        return DiffBuilder.compare(control).withTest(identicalTest).build();
+    }
+
+    /**
+     * Compares two already parsed documents with a single difference.
+     */
+    @Benchmark
+    public Diff different() {
+        return DiffBuilder.compare(control).withTest(differentTest).build();
+    }
+
+    /**
+     * Compares two already parsed documents checking for similarity
+     * with the settings most tests use.
+     */
+    @Benchmark
+    public Diff similar() {
+        return DiffBuilder.compare(control).withTest(differentTest)
+            .ignoreWhitespace()
+            .checkForSimilar()
+            .withNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byNameAndText))
+            .build();
+    }
+
+    /**
+     * Parses and compares two documents with a single difference.
+     */
+    @Benchmark
+    public Diff parseAndCompare() {
+        return DiffBuilder.compare(controlString).withTest(testString).build();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import org.w3c.dom.Document;
+import org.xmlunit.builder.Input;
+import org.xmlunit.util.Convert;
+
+/**
+ * The shapes of documents used by the benchmarks.
+ */
+public enum Documents {
+    /**
+     * A handful of elements with attributes and text.
+     */
+    SMALL {
+        @Override
+        public String asString(boolean withDifference) {
+            StringBuilder sb = new StringBuilder("<order id='42'>");
+            sb.append("<customer name='Jane Doe'><email>jane@example.com</email></customer>");
+            sb.append("<item sku='a-1' quantity='2'>Widget</item>");
+            sb.append("<item sku='b-2' quantity='1'>Gadget</item>");
+            sb.append("<total currency='EUR'>").append(withDifference ? "43.00" : "42.00")
+                .append("</total>");
+            return sb.append("</order>").toString();
+        }
+    },
+    /**
+     * A root element with {@link #SIZE} children.
+     */
+    WIDE {
+        @Override
+        public String asString(boolean withDifference) {
+            StringBuilder sb = new StringBuilder("<items>");
+            for (int i = 0; i < SIZE; i++) {
+                sb.append("<item id='").append(i).append("' kind='k").append(i % 7).append("'>")
+                    .append(withDifference && i == SIZE - 1 ? "changed" : "value " + i)
+                    .append("</item>");
+            }
+            return sb.append("</items>").toString();
+        }
+    },
+    /**
+     * Elements nested {@link #DEPTH} levels deep, each with a
+     * sibling text node.
+     */
+    DEEP {
+        @Override
+        public String asString(boolean withDifference) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < DEPTH; i++) {
+                sb.append("<level n='").append(i).append("'>text ").append(i);
+            }
+            if (withDifference) {
+                sb.append("<leaf/>");
+            }
+            for (int i = 0; i < DEPTH; i++) {
+                sb.append("</level>");
+            }
+            return sb.toString();
+        }
+    },
+    /**
+     * {@link #SIZE} elements spread over {@link #NAMESPACES}
+     * namespaces with namespace qualified attributes.
+     */
+    NAMESPACED {
+        @Override
+        public String asString(boolean withDifference) {
+            StringBuilder sb = new StringBuilder("<root xmlns='urn:default'");
+            for (int n = 0; n < NAMESPACES; n++) {
+                sb.append(" xmlns:p").append(n).append("='urn:ns").append(n).append("'");
+            }
+            sb.append(">");
+            for (int i = 0; i < SIZE; i++) {
+                String prefix = "p" + i % NAMESPACES;
+                String attrPrefix = "p" + (i + 1) % NAMESPACES;
+                sb.append("<").append(prefix).append(":e ").append(attrPrefix).append(":a='")
+                    .append(withDifference && i == SIZE - 1 ? "x" : String.valueOf(i)).append("'>")
+                    .append("<child>").append(i).append("</child>")
+                    .append("</").append(prefix).append(":e>");
+            }
+            return sb.append("</root>").toString();
+        }
+    };
+
+    /**
+     * Number of children of {@link #WIDE} and {@link #NAMESPACED} documents.
+     */
+    public static final int SIZE = 1000;
+    /**
+     * Nesting depth of {@link #DEEP} documents.
+     */
+    public static final int DEPTH = 200;
+    /**
+     * Number of namespaces in {@link #NAMESPACED} documents.
+     */
+    public static final int NAMESPACES = 20;
+
+    /**
+     * The serialized document, optionally with a single difference
+     * close to its end.
+     */
+    public abstract String asString(boolean withDifference);
+
+    /**
+     * The parsed document, optionally with a single difference close
+     * to its end.
+     */
+    public Document asDocument(boolean withDifference) {
+        return Convert.toDocument(Input.fromString(asString(withDifference)).build());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.custommonkey.xmlunit.ComparisonController;
+import org.custommonkey.xmlunit.Difference;
+import org.custommonkey.xmlunit.DifferenceEngine;
+import org.custommonkey.xmlunit.DifferenceEngineContract;
+import org.custommonkey.xmlunit.DifferenceListener;
+import org.custommonkey.xmlunit.ElementNameQualifier;
+import org.custommonkey.xmlunit.NewDifferenceEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Compares the legacy {@link DifferenceEngine} to {@link
+ * NewDifferenceEngine} which delegates to XMLUnit 2.x.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LegacyDifferenceEngineBenchmark {
+
+    private static final ComparisonController NEVER_HALT = new ComparisonController() {
+            @Override
+            public boolean haltComparison(Difference afterDifference) {
+                return false;
+            }
+        };
+
+    @Param({"legacy", "new"})
+    public String engine;
+
+    @Param({"SMALL", "WIDE", "DEEP", "NAMESPACED"})
+    public Documents shape;
+
+    private DifferenceEngineContract differenceEngine;
+    private Document control, test;
+
+    @Setup
+    public void prepare() {
+        differenceEngine = "legacy".equals(engine)
+            ? new DifferenceEngine(NEVER_HALT) : new NewDifferenceEngine(NEVER_HALT);
+        control = shape.asDocument(false);
+        test = shape.asDocument(true);
+    }
+
+    @Benchmark
+    public int compare() {
+        CountingListener l = new CountingListener();
+        differenceEngine.compare(control, test, l, new ElementNameQualifier());
+        return l.count;
+    }
+
+    private static class CountingListener implements DifferenceListener {
+        private int count;
+
+        @Override
+        public int differenceFound(Difference difference) {
+            count++;
+            return RETURN_ACCEPT_DIFFERENCE;
+        }
+
+        @Override
+        public void skippedComparison(Node control, Node test) {
+        }
+    }
+}
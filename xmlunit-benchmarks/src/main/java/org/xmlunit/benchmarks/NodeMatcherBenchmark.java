@@ -0,0 +1,128 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Node;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.DefaultNodeMatcher;
+import org.xmlunit.diff.ElementSelector;
+import org.xmlunit.diff.ElementSelectors;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.NodeCache;
+
+/**
+ * Measures {@link DefaultNodeMatcher} with each of the {@link
+ * ElementSelectors} strategies matching the shuffled children of a
+ * wide element.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NodeMatcherBenchmark {
+
+    /**
+     * Number of children to match.
+     */
+    @Param({"100", "1000"})
+    public int size;
+
+    @Param({"Default", "byName", "byNameAndText", "byNameAndAttributes",
+            "byNameAndAllAttributes", "byNameAndTextRec", "byXPath", "byXPathMemoized"})
+    public String selector;
+
+    private DefaultNodeMatcher matcher;
+    private List<Node> controlChildren, testChildren;
+
+    @Setup
+    public void prepare() {
+        matcher = new DefaultNodeMatcher(createSelector(selector));
+        controlChildren = children(createDocument());
+        testChildren = children(createDocument());
+        Collections.shuffle(testChildren, new Random(size));
+    }
+
+    @Benchmark
+    public void match(Blackhole bh) {
+        // selectors memoize per node for the duration of a comparison
+        NodeCache cache = NodeCache.begin();
+        try {
+            for (Map.Entry<Node, Node> e : matcher.match(controlChildren, testChildren)) {
+                bh.consume(e);
+            }
+        } finally {
+            cache.end();
+        }
+    }
+
+    private String createDocument() {
+        StringBuilder sb = new StringBuilder("<items>");
+        for (int i = 0; i < size; i++) {
+            sb.append("<item id='").append(i).append("' kind='k").append(i % 7).append("'>")
+                .append("<name>item ").append(i).append("</name>")
+                .append("</item>");
+        }
+        return sb.append("</items>").toString();
+    }
+
+    private static List<Node> children(String xml) {
+        Node root = Convert.toDocument(Input.fromString(xml).build()).getDocumentElement();
+        List<Node> l = new ArrayList<Node>();
+        for (Node n = root.getFirstChild(); n != null; n = n.getNextSibling()) {
+            l.add(n);
+        }
+        return l;
+    }
+
+    private static ElementSelector createSelector(String name) {
+        if ("Default".equals(name)) {
+            return ElementSelectors.Default;
+        } else if ("byName".equals(name)) {
+            return ElementSelectors.byName;
+        } else if ("byNameAndText".equals(name)) {
+            return ElementSelectors.byNameAndText;
+        } else if ("byNameAndAttributes".equals(name)) {
+            return ElementSelectors.byNameAndAttributes("id");
+        } else if ("byNameAndAllAttributes".equals(name)) {
+            return ElementSelectors.byNameAndAllAttributes;
+        } else if ("byNameAndTextRec".equals(name)) {
+            return ElementSelectors.byNameAndTextRec;
+        } else if ("byXPath".equals(name)) {
+            return ElementSelectors.byXPath("./name", ElementSelectors.byNameAndText);
+        } else if ("byXPathMemoized".equals(name)) {
+            return ElementSelectors.byXPathMemoized("./name", ElementSelectors.byNameAndText);
+        }
+        throw new IllegalArgumentException("unknown selector " + name);
+    }
+}
@@ -0,0 +1,353 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs an operation on inputs of growing size and fails if the time
+ * or memory it needs grows faster than a declared {@link Complexity}.
+ *
+ * <p>The operation is first warmed up on the largest input.  After
+ * that all sizes are measured in a number of rounds - so a
+ * disturbance like a garbage collection or another process hogging
+ * the CPU doesn't hit a single size in all its runs - each running the
+ * operation a number of times.  The median time and median number of
+ * bytes allocated by the current thread over all runs are recorded
+ * for each size.  The growth over the whole range of sizes is estimated by
+ * fitting a power law to all measurements - so a single noisy
+ * measurement doesn't decide the outcome - and compared to the
+ * growth allowed by the bound multiplied by a tolerance.  Time
+ * measurements are a lot noisier than allocation measurements and
+ * suffer from cache effects with bigger inputs, so the default
+ * tolerance for time is bigger than the one for allocation.  Allocation
+ * can only be checked on JVMs that support {@code
+ * com.sun.management.ThreadMXBean}, it is ignored elsewhere.</p>
+ *
+ * <p><b>Example Usage:</b></p>
+ *
+ * <pre>
+ * ScalabilityCheck.of("diff wide documents", workload)
+ *     .withSizes(1000, 2000, 4000, 8000)
+ *     .withTimeBound(Complexity.LINEAR)
+ *     .withAllocationBound(Complexity.LINEAR)
+ *     .verify();
+ * </pre>
+ */
+public final class ScalabilityCheck {
+
+    /**
+     * Default factor applied to the growth of time allowed by a bound.
+     */
+    public static final double DEFAULT_TIME_TOLERANCE = 3.0;
+    /**
+     * Default factor applied to the growth of allocation allowed by a
+     * bound.
+     */
+    public static final double DEFAULT_ALLOCATION_TOLERANCE = 1.5;
+
+    private static final long MIN_INITIAL_WARMUP_NANOS = 500L * 1000 * 1000;
+    private static final long MIN_WARMUP_NANOS = 100L * 1000 * 1000;
+    private static final int MIN_WARMUP_RUNS = 3;
+
+    private final String name;
+    private final Workload workload;
+    private int[] sizes = { 1000, 2000, 4000, 8000 };
+    private Complexity timeBound, allocationBound;
+    private double timeTolerance = DEFAULT_TIME_TOLERANCE;
+    private double allocationTolerance = DEFAULT_ALLOCATION_TOLERANCE;
+    private int repetitions = 5;
+    private int rounds = 3;
+
+    private ScalabilityCheck(String name, Workload workload) {
+        this.name = name;
+        this.workload = workload;
+    }
+
+    /**
+     * Creates a check for the given operation.
+     */
+    public static ScalabilityCheck of(String name, Workload workload) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        if (workload == null) {
+            throw new IllegalArgumentException("workload must not be null");
+        }
+        return new ScalabilityCheck(name, workload);
+    }
+
+    /**
+     * The sizes to measure, defaults to 1000, 2000, 4000 and 8000.
+     */
+    public ScalabilityCheck withSizes(int... sizes) {
+        if (sizes.length < 2) {
+            throw new IllegalArgumentException("at least two sizes are required");
+        }
+        int[] sorted = sizes.clone();
+        Arrays.sort(sorted);
+        if (sorted[0] < 1) {
+            throw new IllegalArgumentException("sizes must be positive");
+        }
+        this.sizes = sorted;
+        return this;
+    }
+
+    /**
+     * The bound for the growth of time needed.
+     */
+    public ScalabilityCheck withTimeBound(Complexity bound) {
+        this.timeBound = bound;
+        return this;
+    }
+
+    /**
+     * The bound for the growth of memory allocated.
+     */
+    public ScalabilityCheck withAllocationBound(Complexity bound) {
+        this.allocationBound = bound;
+        return this;
+    }
+
+    /**
+     * Factors applied to the growth allowed by the bounds, default to
+     * {@link #DEFAULT_TIME_TOLERANCE} and {@link
+     * #DEFAULT_ALLOCATION_TOLERANCE}.
+     */
+    public ScalabilityCheck withTolerances(double time, double allocation) {
+        if (time < 1 || allocation < 1) {
+            throw new IllegalArgumentException("tolerances must be at least 1");
+        }
+        this.timeTolerance = time;
+        this.allocationTolerance = allocation;
+        return this;
+    }
+
+    /**
+     * Number of measured runs per size and round, defaults to 5.
+     */
+    public ScalabilityCheck withRepetitions(int repetitions) {
+        if (repetitions < 1) {
+            throw new IllegalArgumentException("repetitions must be positive");
+        }
+        this.repetitions = repetitions;
+        return this;
+    }
+
+    /**
+     * Number of times all sizes are measured, defaults to 3.
+     */
+    public ScalabilityCheck withRounds(int rounds) {
+        if (rounds < 1) {
+            throw new IllegalArgumentException("rounds must be positive");
+        }
+        this.rounds = rounds;
+        return this;
+    }
+
+    /**
+     * Measures the operation for all sizes without checking any bounds.
+     */
+    public List<Measurement> measure() {
+        workload.prepare(sizes[sizes.length - 1]);
+        warmUp(MIN_INITIAL_WARMUP_NANOS);
+        int runs = rounds * repetitions;
+        long[][] nanos = new long[sizes.length][runs];
+        long[][] bytes = new long[sizes.length][runs];
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < sizes.length; i++) {
+                measure(sizes[i], nanos[i], bytes[i], round * repetitions);
+            }
+        }
+        boolean allocationKnown = allocatedBytes() >= 0;
+        List<Measurement> result = new ArrayList<Measurement>();
+        for (int i = 0; i < sizes.length; i++) {
+            result.add(new Measurement(sizes[i], median(nanos[i]),
+                                       allocationKnown ? median(bytes[i]) : -1));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Measures the operation for all sizes and checks the bounds.
+     *
+     * @return the measurements
+     * @throws AssertionError if time or allocation grow faster than allowed
+     */
+    public List<Measurement> verify() {
+        List<Measurement> m = measure();
+        long[] nanos = new long[m.size()];
+        long[] bytes = new long[m.size()];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = m.get(i).getNanos();
+            bytes[i] = m.get(i).getAllocatedBytes();
+        }
+        StringBuilder failures = new StringBuilder();
+        if (timeBound != null) {
+            check(failures, "time", timeBound, timeTolerance, nanos);
+        }
+        if (allocationBound != null && bytes[0] >= 0) {
+            check(failures, "allocation", allocationBound, allocationTolerance, bytes);
+        }
+        if (failures.length() > 0) {
+            failures.append(format(m));
+            throw new AssertionError(failures.toString());
+        }
+        return m;
+    }
+
+    private void check(StringBuilder failures, String what, Complexity bound, double tolerance,
+                       long[] values) {
+        int from = sizes[0], to = sizes[sizes.length - 1];
+        double growth = Math.pow((double) to / from, exponent(values));
+        double allowed = bound.growth(from, to) * tolerance;
+        if (growth > allowed) {
+            failures.append(String.format(Locale.ENGLISH,
+                                          "%s: %s grew by %.1fx from size %d to %d,"
+                                          + " %s allows at most %.1fx%n",
+                                          name, what, growth, from, to, bound, allowed));
+        }
+    }
+
+    /**
+     * Least squares fit of the exponent b in value = a * size^b.
+     */
+    private double exponent(long[] values) {
+        int n = sizes.length;
+        double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+        for (int i = 0; i < n; i++) {
+            double x = Math.log(sizes[i]);
+            double y = Math.log(Math.max(values[i], 1));
+            sumX += x;
+            sumY += y;
+            sumXY += x * y;
+            sumXX += x * x;
+        }
+        return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+    }
+
+    private void warmUp(long minNanos) {
+        long start = System.nanoTime();
+        for (int i = 0; i < MIN_WARMUP_RUNS || System.nanoTime() - start < minNanos; i++) {
+            workload.run();
+        }
+    }
+
+    /**
+     * Runs the operation on an input of the given size and stores
+     * time and allocation of each run starting at the given offset.
+     */
+    private void measure(int size, long[] nanos, long[] bytes, int offset) {
+        workload.prepare(size);
+        warmUp(MIN_WARMUP_NANOS);
+        for (int i = offset; i < offset + repetitions; i++) {
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            workload.run();
+            nanos[i] = System.nanoTime() - start;
+            bytes[i] = allocatedBytes() - bytesBefore;
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int mid = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[mid]
+            : (sorted[mid - 1] + sorted[mid]) / 2;
+    }
+
+    /**
+     * Bytes allocated by the current thread so far or -1 if the JVM
+     * can't tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+            if (b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled()) {
+                return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static String format(List<Measurement> measurements) {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ENGLISH, "%10s %12s %14s%n",
+                                                           "size", "ms", "bytes"));
+        for (Measurement m : measurements) {
+            sb.append(String.format(Locale.ENGLISH, "%10d %12.3f %14d%n", m.getSize(),
+                                    m.getNanos() / 1e6, m.getAllocatedBytes()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The operation to measure.
+     */
+    public interface Workload {
+        /**
+         * Creates the input of the given size, not measured.
+         */
+        void prepare(int size);
+
+        /**
+         * Runs the operation on the input created by the last call
+         * to prepare.
+         *
+         * @return anything, the result is only there to keep the JIT
+         * from eliminating the operation
+         */
+        Object run();
+    }
+
+    /**
+     * Time and memory needed for one size.
+     */
+    public static final class Measurement {
+        private final int size;
+        private final long nanos, allocatedBytes;
+
+        private Measurement(int size, long nanos, long allocatedBytes) {
+            this.size = size;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * The median time of the measured runs.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * The median number of bytes allocated by the measured runs or
+         * -1 if the JVM can't tell.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xmlunit.builder.Input;
+import org.xmlunit.transform.Transformation;
+
+/**
+ * Measures {@link Transformation} of a {@link Documents#WIDE}
+ * document.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransformationBenchmark {
+
+    private static final String STYLESHEET =
+        "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+        + "<xsl:template match='/items'><result>"
+        + "<xsl:for-each select='item'><xsl:sort select='@kind'/>"
+        + "<entry key='{@id}'><xsl:value-of select='.'/></entry>"
+        + "</xsl:for-each>"
+        + "</result></xsl:template>"
+        + "</xsl:stylesheet>";
+
+    private Document input;
+
+    @Setup
+    public void prepare() {
+        input = Documents.WIDE.asDocument(false);
+    }
+
+    @Benchmark
+    public Document identity() {
+        return new Transformation(new DOMSource(input)).transformToDocument();
+    }
+
+    @Benchmark
+    public Document stylesheet() {
+        Transformation t = new Transformation(new DOMSource(input));
+        t.setStylesheet(stylesheetSource());
+        return t.transformToDocument();
+    }
+
+    @Benchmark
+    public String stylesheetToString() {
+        Transformation t = new Transformation(new DOMSource(input));
+        t.setStylesheet(stylesheetSource());
+        return t.transformToString();
+    }
+
+    private static Source stylesheetSource() {
+        return Input.fromString(STYLESHEET).build();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xmlunit.builder.Input;
+import org.xmlunit.tree.CompactTree;
+import org.xmlunit.util.Convert;
+
+/**
+ * Measures the heap retained per node by a DOM document and by a
+ * {@link CompactTree} of the same document.
+ *
+ * <p>Each operation builds {@link #COPIES} trees and keeps them
+ * reachable until the heap has been measured after a full garbage
+ * collection.  The retained bytes per node - attributes included -
+ * are reported as the secondary result {@code bytesPerNode}, the
+ * primary result includes the time spent collecting garbage and is
+ * not meaningful.  Secondary results are summed up over iterations,
+ * so only a single operation is measured.  {@code COMPACT_TRAVERSED} visits every node of the
+ * tree's DOM view before measuring, which shows the DOM nodes of the
+ * view are not retained by the tree.</p>
+ *
+ * <pre>
+ * $ java -jar xmlunit-benchmarks/target/benchmarks.jar TreeMemoryBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 1, time = 1, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TreeMemoryBenchmark {
+
+    /**
+     * Number of trees kept reachable per operation.
+     */
+    public static final int COPIES = 50;
+
+    /**
+     * How the document is held.
+     */
+    public enum Representation {
+        DOM, COMPACT, COMPACT_TRAVERSED
+    }
+
+    @Param({"WIDE", "DEEP", "NAMESPACED"})
+    public Documents shape;
+
+    @Param({"DOM", "COMPACT", "COMPACT_TRAVERSED"})
+    public Representation representation;
+
+    private String xml;
+    private int nodes;
+
+    /**
+     * Secondary results of an operation.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Retained {
+        public long bytesPerNode;
+    }
+
+    @Setup
+    public void prepare() {
+        xml = shape.asString(false);
+        nodes = CompactTree.parse(Input.fromString(xml).build()).size();
+    }
+
+    @Benchmark
+    public Object retain(Retained retained) {
+        Object[] trees = new Object[COPIES];
+        long before = usedHeap();
+        for (int i = 0; i < COPIES; i++) {
+            trees[i] = build();
+        }
+        long after = usedHeap();
+        retained.bytesPerNode = (after - before) / ((long) COPIES * nodes);
+        return trees;
+    }
+
+    private Object build() {
+        if (representation == Representation.DOM) {
+            // expands DOM implementations that create nodes lazily
+            Document d = Convert.toDocument(Input.fromString(xml).build());
+            traverse(d);
+            return d;
+        }
+        CompactTree tree = CompactTree.parse(Input.fromString(xml).build());
+        if (representation == Representation.COMPACT_TRAVERSED) {
+            traverse(tree.getDocument());
+        }
+        return tree;
+    }
+
+    private static void traverse(Node root) {
+        Deque<Node> pending = new ArrayDeque<Node>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node n = pending.pop();
+            NamedNodeMap attributes = n.getAttributes();
+            if (attributes != null) {
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    attributes.item(i).getNodeValue();
+                }
+            }
+            for (Node c = n.getFirstChild(); c != null; c = c.getNextSibling()) {
+                pending.push(c);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime r = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return r.totalMemory() - r.freeMemory();
+    }
+}
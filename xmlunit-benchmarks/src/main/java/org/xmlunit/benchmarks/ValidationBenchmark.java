@@ -0,0 +1,117 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlunit.builder.Input;
+import org.xmlunit.validation.JAXPValidator;
+import org.xmlunit.validation.Languages;
+import org.xmlunit.validation.ParsingValidator;
+import org.xmlunit.validation.ValidationResult;
+
+/**
+ * Measures validation of a {@link Documents#WIDE} document using
+ * {@link JAXPValidator} and {@link ParsingValidator}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+
+    private static final String SCHEMA =
+        "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+        + "<xs:element name='items'><xs:complexType><xs:sequence>"
+        + "<xs:element name='item' maxOccurs='unbounded'><xs:complexType>"
+        + "<xs:simpleContent><xs:extension base='xs:string'>"
+        + "<xs:attribute name='id' type='xs:int' use='required'/>"
+        + "<xs:attribute name='kind' type='xs:string'/>"
+        + "</xs:extension></xs:simpleContent>"
+        + "</xs:complexType></xs:element>"
+        + "</xs:sequence></xs:complexType></xs:element>"
+        + "</xs:schema>";
+
+    private static final String DTD =
+        "<!ELEMENT items (item*)>"
+        + "<!ELEMENT item (#PCDATA)>"
+        + "<!ATTLIST item id CDATA #REQUIRED kind CDATA #IMPLIED>";
+
+    private File schemaFile, dtdFile;
+    private String instance, instanceWithDoctype;
+    private JAXPValidator jaxpValidator;
+    private ParsingValidator parsingSchemaValidator, parsingDtdValidator;
+
+    @Setup
+    public void prepare() throws IOException {
+        schemaFile = write(SCHEMA, ".xsd");
+        dtdFile = write(DTD, ".dtd");
+        instance = Documents.WIDE.asString(false);
+        instanceWithDoctype = "<!DOCTYPE items SYSTEM '" + dtdFile.toURI() + "'>" + instance;
+
+        jaxpValidator = new JAXPValidator(Languages.W3C_XML_SCHEMA_NS_URI);
+        jaxpValidator.setSchemaSource(Input.fromFile(schemaFile).build());
+        parsingSchemaValidator = new ParsingValidator(Languages.W3C_XML_SCHEMA_NS_URI);
+        parsingSchemaValidator.setSchemaSource(Input.fromFile(schemaFile).build());
+        parsingDtdValidator = new ParsingValidator(Languages.XML_DTD_NS_URI);
+    }
+
+    @TearDown
+    public void deleteFiles() {
+        schemaFile.delete();
+        dtdFile.delete();
+    }
+
+    @Benchmark
+    public ValidationResult jaxpSchema() {
+        return jaxpValidator.validateInstance(Input.fromString(instance).build());
+    }
+
+    @Benchmark
+    public ValidationResult parsingSchema() {
+        return parsingSchemaValidator.validateInstance(Input.fromString(instance).build());
+    }
+
+    @Benchmark
+    public ValidationResult parsingDtd() {
+        return parsingDtdValidator.validateInstance(Input.fromString(instanceWithDoctype).build());
+    }
+
+    private static File write(String content, String suffix) throws IOException {
+        File f = File.createTempFile("xmlunit-benchmark", suffix);
+        OutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+}
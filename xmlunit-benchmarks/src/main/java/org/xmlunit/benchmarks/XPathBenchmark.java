@@ -0,0 +1,79 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Node;
+import org.xmlunit.xpath.JAXPXPathEngine;
+
+/**
+ * Measures {@link JAXPXPathEngine} on a parsed document.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XPathBenchmark {
+
+    private JAXPXPathEngine engine;
+    private Source wide, namespaced;
+
+    @Setup
+    public void prepare() {
+        engine = new JAXPXPathEngine();
+        engine.setNamespaceContext(Collections.singletonMap("p", "urn:ns3"));
+        wide = new DOMSource(Documents.WIDE.asDocument(false));
+        namespaced = new DOMSource(Documents.NAMESPACED.asDocument(false));
+    }
+
+    @Benchmark
+    public String evaluateSimplePath() {
+        return engine.evaluate("/items/item[500]/@id", wide);
+    }
+
+    @Benchmark
+    public String evaluateFunction() {
+        return engine.evaluate("count(//item[@kind = 'k3'])", wide);
+    }
+
+    @Benchmark
+    public void selectNodes(Blackhole bh) {
+        for (Node n : engine.selectNodes("//item[starts-with(., 'value 1')]", wide)) {
+            bh.consume(n);
+        }
+    }
+
+    @Benchmark
+    public void selectNamespacedNodes(Blackhole bh) {
+        for (Node n : engine.selectNodes("//p:e", namespaced)) {
+            bh.consume(n);
+        }
+    }
+}
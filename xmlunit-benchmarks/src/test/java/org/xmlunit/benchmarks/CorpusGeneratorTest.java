@@ -0,0 +1,75 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import org.junit.Test;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.diff.ElementSelectors;
+import org.xmlunit.diff.KeyedNodeMatcher;
+
+import static org.junit.Assert.*;
+
+public class CorpusGeneratorTest {
+
+    @Test
+    public void generatesRequestedShape() {
+        CorpusGenerator.Corpus c = new CorpusGenerator()
+            .withDepth(3).withFanOut(4).withAttributes(2).withNamespaces(3)
+            .generate();
+        assertEquals(1 + 4 + 16, c.getElementCount());
+        assertEquals(0, c.getDifferenceCount());
+        assertEquals(c.getControl(), c.getTest());
+        assertEquals(16, c.getControlDocument()
+                     .getElementsByTagNameNS("*", "e2").getLength());
+    }
+
+    @Test
+    public void isDeterministic() {
+        CorpusGenerator g = new CorpusGenerator().withDifferences(10).withShuffledSiblings(true);
+        assertEquals(g.generate().getTest(), g.generate().getTest());
+        assertFalse(g.generate().getTest()
+                    .equals(g.withSeed(7).generate().getTest()));
+    }
+
+    @Test
+    public void createsDifferences() {
+        CorpusGenerator.Corpus c = new CorpusGenerator()
+            .withFanOut(20).withDifferences(10).generate();
+        assertTrue(c.getDifferenceCount() > 0);
+        Diff d = DiffBuilder.compare(c.getControl()).withTest(c.getTest()).build();
+        int differences = 0;
+        for (Object o : d.getDifferences()) {
+            differences++;
+        }
+        assertEquals(c.getDifferenceCount(), differences);
+    }
+
+    @Test
+    public void shuffledSiblingsCanBeMatched() {
+        CorpusGenerator.Corpus c = new CorpusGenerator()
+            .withDepth(2).withFanOut(50).withShuffledSiblings(true).generate();
+        assertFalse(c.getControl().equals(c.getTest()));
+        Diff d = DiffBuilder.compare(c.getControl()).withTest(c.getTest())
+            .withNodeMatcher(new KeyedNodeMatcher(ElementSelectors.byNameAndText))
+            .checkForSimilar()
+            .build();
+        assertFalse(d.toString(), d.hasDifferences());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidPercentage() {
+        new CorpusGenerator().withDifferences(101);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import javax.xml.transform.dom.DOMSource;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.DefaultNodeMatcher;
+import org.xmlunit.diff.ElementSelectors;
+import org.xmlunit.diff.KeyedNodeMatcher;
+import org.xmlunit.diff.NodeMatcher;
+import org.xmlunit.util.Convert;
+import org.xmlunit.validation.JAXPValidator;
+import org.xmlunit.validation.Languages;
+import org.xmlunit.xpath.JAXPXPathEngine;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fails if comparing, matching, validating or evaluating XPath on
+ * generated documents scales worse than expected.
+ *
+ * <p>Takes a while and depends on the machine being reasonably
+ * quiet, so it only runs with the {@code scalability} profile.</p>
+ */
+public class ScalabilityIT {
+
+    @Test
+    public void diffScalesLinearlyWithSiblings() {
+        ScalabilityCheck.of("DiffBuilder on wide documents", new DiffWorkload() {
+                @Override
+                CorpusGenerator generator(int size) {
+                    return new CorpusGenerator().withDepth(2).withFanOut(size)
+                        .withAttributes(2).withDifferences(1);
+                }
+            })
+            .withTimeBound(Complexity.LINEAR)
+            .withAllocationBound(Complexity.LINEAR)
+            .verify();
+    }
+
+    @Test
+    public void diffScalesLinearlyWithNodes() {
+        ScalabilityCheck.of("DiffBuilder on bushy documents", new DiffWorkload() {
+                @Override
+                CorpusGenerator generator(int size) {
+                    // roughly size elements
+                    return new CorpusGenerator().withDepth(3).withFanOut((int) Math.sqrt(size))
+                        .withNamespaces(4).withDifferences(1);
+                }
+            })
+            .withTimeBound(Complexity.LINEAR)
+            .withAllocationBound(Complexity.LINEAR)
+            .verify();
+    }
+
+    @Test
+    public void diffScalesLinearlyWithDepth() {
+        ScalabilityCheck.of("DiffBuilder on deep documents", new DiffWorkload() {
+                @Override
+                CorpusGenerator generator(int size) {
+                    return new CorpusGenerator().withDepth(size).withFanOut(1)
+                        .withDifferences(1);
+                }
+            })
+            .withSizes(500, 1000, 2000, 4000)
+            .withTimeBound(Complexity.LINEAR)
+            .withAllocationBound(Complexity.LINEAR)
+            .verify();
+    }
+
+    @Test
+    public void keyedMatchingOfShuffledSiblingsScalesLinearly() {
+        ScalabilityCheck.of("KeyedNodeMatcher on shuffled siblings",
+                            new MatchWorkload(new KeyedNodeMatcher(ElementSelectors.byNameAndText)))
+            .withTimeBound(Complexity.N_LOG_N)
+            .withAllocationBound(Complexity.N_LOG_N)
+            .verify();
+    }
+
+    @Test
+    public void detectsQuadraticMatchingOfShuffledSiblings() {
+        // DefaultNodeMatcher compares each control node to all
+        // remaining test nodes, the check must notice
+        try {
+            ScalabilityCheck.of("DefaultNodeMatcher on shuffled siblings",
+                                new MatchWorkload(new DefaultNodeMatcher(ElementSelectors.byNameAndText)))
+                .withSizes(500, 1000, 2000)
+                .withTimeBound(Complexity.LINEAR)
+                .withAllocationBound(Complexity.LINEAR)
+                .verify();
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(" grew by "));
+            return;
+        }
+        fail("expected quadratic sibling matching to be detected");
+    }
+
+    @Test
+    public void validationScalesLinearly() {
+        final JAXPValidator v = new JAXPValidator(Languages.W3C_XML_SCHEMA_NS_URI);
+        // a DOM source can be read more than once
+        v.setSchemaSource(Input.fromDocument(Convert.toDocument(Input.fromString(
+            "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+            + "<xs:element name='e0'><xs:complexType mixed='true'><xs:sequence>"
+            + "<xs:element name='e1' maxOccurs='unbounded'><xs:complexType mixed='true'>"
+            + "<xs:attribute name='attr0' type='xs:int'/>"
+            + "</xs:complexType></xs:element>"
+            + "</xs:sequence><xs:attribute name='attr0' type='xs:int'/></xs:complexType></xs:element>"
+            + "</xs:schema>").build())).build());
+        ScalabilityCheck.of("JAXPValidator on wide documents", new ScalabilityCheck.Workload() {
+                private String document;
+
+                @Override
+                public void prepare(int size) {
+                    document = new CorpusGenerator().withDepth(2).withFanOut(size).generate()
+                        .getControl();
+                }
+
+                @Override
+                public Object run() {
+                    return v.validateInstance(Input.fromString(document).build());
+                }
+            })
+            .withTimeBound(Complexity.LINEAR)
+            .withAllocationBound(Complexity.LINEAR)
+            .verify();
+    }
+
+    @Test
+    public void xpathScalesLinearly() {
+        final JAXPXPathEngine engine = new JAXPXPathEngine();
+        ScalabilityCheck.of("JAXPXPathEngine on wide documents", new ScalabilityCheck.Workload() {
+                private DOMSource document;
+
+                @Override
+                public void prepare(int size) {
+                    document = new DOMSource(new CorpusGenerator().withDepth(2).withFanOut(size)
+                                             .generate().getControlDocument());
+                }
+
+                @Override
+                public Object run() {
+                    return engine.evaluate("count(//e1[@attr0 mod 2 = 0])", document);
+                }
+            })
+            .withTimeBound(Complexity.LINEAR)
+            .verify();
+    }
+
+    private abstract static class DiffWorkload implements ScalabilityCheck.Workload {
+        private Document control, test;
+
+        abstract CorpusGenerator generator(int size);
+
+        @Override
+        public void prepare(int size) {
+            CorpusGenerator.Corpus c = generator(size).generate();
+            control = c.getControlDocument();
+            test = c.getTestDocument();
+        }
+
+        @Override
+        public Object run() {
+            // DefaultNodeMatcher is quadratic, see
+            // detectsQuadraticMatchingOfShuffledSiblings
+            return DiffBuilder.compare(control).withTest(test)
+                .withNodeMatcher(new KeyedNodeMatcher())
+                .build();
+        }
+    }
+
+    private static class MatchWorkload implements ScalabilityCheck.Workload {
+        private final NodeMatcher matcher;
+        private List<Node> control, test;
+
+        private MatchWorkload(NodeMatcher matcher) {
+            this.matcher = matcher;
+        }
+
+        @Override
+        public void prepare(int size) {
+            CorpusGenerator.Corpus c = new CorpusGenerator().withDepth(2).withFanOut(size)
+                .generate();
+            control = children(c.getControlDocument());
+            test = children(c.getTestDocument());
+            Collections.shuffle(test, new Random(size));
+        }
+
+        @Override
+        public Object run() {
+            int count = 0;
+            for (Object o : matcher.match(control, test)) {
+                count++;
+            }
+            return count;
+        }
+
+        private static List<Node> children(Document d) {
+            List<Node> l = new ArrayList<Node>();
+            for (Node n = d.getDocumentElement().getFirstChild(); n != null;
+                 n = n.getNextSibling()) {
+                l.add(n);
+            }
+            return l;
+        }
+    }
+}
@@ -14,6 +14,7 @@
 package org.xmlunit.builder;
 
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.URIResolver;
 import org.xmlunit.transform.Transformation;
@@ -40,6 +41,11 @@ public B withStylesheet(Source s) {
         return asB();
     }
     @Override
+    public B withTemplates(Templates t) {
+        helper.setTemplates(t);
+        return asB();
+    }
+    @Override
     public B withOutputProperty(String name, String value) {
         helper.addOutputProperty(name, value);
         return asB();
@@ -0,0 +1,381 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.builder;
+
+import org.xmlunit.XMLUnitException;
+import org.xmlunit.diff.Diff;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A batch of comparisons running concurrently.
+ * <p>
+ * Created by {@link DiffConfiguration#diffAll} or {@link DiffBuilder#buildBatch}.  Each pair of documents is
+ * compared by a task of its own, a failure to compare one pair - e.g. because a document cannot be parsed - is
+ * recorded in the pair's {@link Result} and doesn't affect the others.
+ * <p>
+ * Iterating over the batch yields the results in the order the comparisons complete, blocking until the next
+ * result is available.  An optional {@link Listener} is notified of each result on the thread that has performed
+ * the comparison.
+ * <p>
+ * <b>Example Usage:</b>
+ *
+ * <pre>
+ * BatchDiff batch = config.diffAll(pairs, executor);
+ * for (BatchDiff.Result r : batch) {
+ *     ...
+ * }
+ * BatchDiff.Statistics stats = batch.getStatistics();
+ * </pre>
+ */
+public final class BatchDiff implements Iterable<BatchDiff.Result> {
+
+    private final int size;
+    private final long startNanos = System.nanoTime();
+    private final List<Result> completed = new ArrayList<Result>();
+    private int failed, withDifferences;
+    private long totalNanos, maxNanos, lastCompletionNanos;
+
+    BatchDiff(final DiffConfiguration configuration, final List<Pair> pairs, final Executor executor,
+              final Listener listener) {
+        size = pairs.size();
+        for (int i = 0; i < size; i++) {
+            final Task task = new Task(configuration, i, pairs.get(i), listener);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                task.complete(null, ex, 0);
+            }
+        }
+    }
+
+    /**
+     * Creates a pair of documents to compare.
+     *
+     * @param control the control document, any type supported by {@link Input#from(Object)} or a
+     * {@link PreparedControl}.
+     * @param test the test document, any type supported by {@link Input#from(Object)}.
+     */
+    public static Pair pair(final Object control, final Object test) {
+        return new Pair(control, test);
+    }
+
+    /**
+     * The number of comparisons that are part of this batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Whether all comparisons have been completed.
+     */
+    public synchronized boolean isDone() {
+        return completed.size() == size;
+    }
+
+    /**
+     * Waits until all comparisons have been completed.
+     */
+    public synchronized void await() throws InterruptedException {
+        while (completed.size() < size) {
+            wait();
+        }
+    }
+
+    /**
+     * Provides aggregate statistics of the comparisons completed so far.
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(size, completed.size(), failed, withDifferences, totalNanos, maxNanos,
+                              (completed.isEmpty() ? System.nanoTime() : lastCompletionNanos) - startNanos);
+    }
+
+    /**
+     * Iterates over the results in the order the comparisons complete.
+     * <p>
+     * {@code hasNext} blocks until the next comparison has been completed, an interrupt while waiting is turned
+     * into an {@link XMLUnitException}.
+     */
+    @Override
+    public Iterator<Result> iterator() {
+        return new Iterator<Result>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Result next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return awaitResult(next++);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new XMLUnitException("Interrupted while waiting for a comparison to complete", ex);
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private synchronized Result awaitResult(final int completionIndex) throws InterruptedException {
+        while (completed.size() <= completionIndex) {
+            wait();
+        }
+        return completed.get(completionIndex);
+    }
+
+    private synchronized void add(final Result r) {
+        completed.add(r);
+        if (r.hasFailed()) {
+            failed++;
+        } else if (r.getDiff().hasDifferences()) {
+            withDifferences++;
+        }
+        totalNanos += r.getDurationNanos();
+        maxNanos = Math.max(maxNanos, r.getDurationNanos());
+        lastCompletionNanos = System.nanoTime();
+        notifyAll();
+    }
+
+    private final class Task implements Runnable {
+        private final DiffConfiguration configuration;
+        private final int index;
+        private final Pair pair;
+        private final Listener listener;
+
+        private Task(final DiffConfiguration configuration, final int index, final Pair pair,
+                     final Listener listener) {
+            this.configuration = configuration;
+            this.index = index;
+            this.pair = pair;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            Diff diff = null;
+            Throwable failure = null;
+            try {
+                diff = configuration.diff(pair.getControl(), pair.getTest());
+            } catch (Throwable t) {
+                failure = t;
+            }
+            complete(diff, failure, System.nanoTime() - start);
+        }
+
+        private void complete(final Diff diff, final Throwable failure, final long durationNanos) {
+            final Result r = new Result(index, pair, diff, failure, durationNanos);
+            try {
+                if (listener != null) {
+                    listener.diffCompleted(r);
+                }
+            } finally {
+                add(r);
+            }
+        }
+    }
+
+    /**
+     * A pair of documents to compare.
+     */
+    public static final class Pair {
+        private final Object control, test;
+
+        private Pair(final Object control, final Object test) {
+            if (control == null) {
+                throw new IllegalArgumentException("control must not be null");
+            }
+            if (test == null) {
+                throw new IllegalArgumentException("test must not be null");
+            }
+            this.control = control;
+            this.test = test;
+        }
+
+        public Object getControl() {
+            return control;
+        }
+
+        public Object getTest() {
+            return test;
+        }
+    }
+
+    /**
+     * The outcome of comparing a single pair of documents.
+     */
+    public static final class Result {
+        private final int index;
+        private final Pair pair;
+        private final Diff diff;
+        private final Throwable failure;
+        private final long durationNanos;
+
+        private Result(final int index, final Pair pair, final Diff diff, final Throwable failure,
+                       final long durationNanos) {
+            this.index = index;
+            this.pair = pair;
+            this.diff = diff;
+            this.failure = failure;
+            this.durationNanos = durationNanos;
+        }
+
+        /**
+         * The position of the pair inside the batch.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public Pair getPair() {
+            return pair;
+        }
+
+        /**
+         * The result of the comparison or null if it has failed.
+         */
+        public Diff getDiff() {
+            return diff;
+        }
+
+        /**
+         * Whether the comparison has failed with an exception.
+         */
+        public boolean hasFailed() {
+            return failure != null;
+        }
+
+        /**
+         * The exception that has made the comparison fail or null.
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * The time it took to compare the documents, including parsing and preprocessing.
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+    }
+
+    /**
+     * Is notified of each completed comparison of a batch.
+     */
+    public interface Listener {
+        /**
+         * Invoked on the thread that has performed the comparison, so implementations must be thread-safe.
+         */
+        void diffCompleted(Result result);
+    }
+
+    /**
+     * Aggregate statistics of a batch.
+     */
+    public static final class Statistics {
+        private final int size, completed, failed, withDifferences;
+        private final long totalNanos, maxNanos, elapsedNanos;
+
+        private Statistics(final int size, final int completed, final int failed, final int withDifferences,
+                           final long totalNanos, final long maxNanos, final long elapsedNanos) {
+            this.size = size;
+            this.completed = completed;
+            this.failed = failed;
+            this.withDifferences = withDifferences;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * The number of comparisons that are part of the batch.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * The number of comparisons that have been completed, including the failed ones.
+         */
+        public int getCompleted() {
+            return completed;
+        }
+
+        /**
+         * The number of comparisons that have failed with an exception.
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * The number of successful comparisons that have found differences.
+         */
+        public int getWithDifferences() {
+            return withDifferences;
+        }
+
+        /**
+         * The number of successful comparisons that didn't find any differences.
+         */
+        public int getWithoutDifferences() {
+            return completed - failed - withDifferences;
+        }
+
+        /**
+         * The sum of the durations of all completed comparisons.
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * The duration of the slowest comparison.
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * The time between the creation of the batch and the completion of the last comparison - or now if no
+         * comparison has been completed, yet.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return completed + "/" + size + " comparisons completed, " + failed + " failed, "
+                + withDifferences + " with differences, " + (elapsedNanos / 1000000) + " ms";
+        }
+    }
+}
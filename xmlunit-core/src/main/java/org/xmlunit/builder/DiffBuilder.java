@@ -14,29 +14,30 @@
 
 package org.xmlunit.builder;
 
-import org.xmlunit.diff.Comparison;
+import org.xmlunit.diff.CallbackProfiler;
 import org.xmlunit.diff.ComparisonController;
 import org.xmlunit.diff.ComparisonControllers;
 import org.xmlunit.diff.ComparisonListener;
 import org.xmlunit.diff.ComparisonResult;
 import org.xmlunit.diff.DOMDifferenceEngine;
 import org.xmlunit.diff.Diff;
-import org.xmlunit.diff.Difference;
+import org.xmlunit.diff.DiffStatistics;
 import org.xmlunit.diff.DifferenceEvaluator;
 import org.xmlunit.diff.DifferenceEvaluators;
 import org.xmlunit.diff.NodeMatcher;
-import org.xmlunit.input.CommentLessSource;
-import org.xmlunit.input.WhitespaceNormalizedSource;
-import org.xmlunit.input.WhitespaceStrippedSource;
+import org.xmlunit.diff.SkippedSubtreeListener;
+import org.xmlunit.diff.StreamingDifferenceEngine;
+import org.xmlunit.diff.SubtreeFingerprinter;
+import org.xmlunit.util.DocumentCache;
+import org.xmlunit.util.FilteredView;
 
 import javax.xml.transform.Source;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * DiffBuilder to create a {@link Diff} instance.
@@ -65,6 +66,8 @@ public class DiffBuilder {
 
     private final Source controlSource;
 
+    private final PreparedControl preparedControl;
+
     private Source testSource;
 
     private NodeMatcher nodeMatcher;
@@ -86,6 +89,26 @@ public class DiffBuilder {
 
     private boolean ignoreComments;
 
+    private boolean filteredView;
+
+    private DocumentCache documentCache;
+
+    private boolean streaming;
+
+    private boolean skipIdenticalSubtrees;
+
+    private List<SkippedSubtreeListener> skippedSubtreeListeners = new ArrayList<SkippedSubtreeListener>();
+
+    private int lookAheadWindow = StreamingDifferenceEngine.DEFAULT_LOOK_AHEAD_WINDOW;
+
+    private Executor executor;
+
+    private int parallelThreshold = DOMDifferenceEngine.DEFAULT_PARALLEL_THRESHOLD;
+
+    private boolean collectStatistics;
+
+    private CallbackProfiler callbackProfiler;
+
     /**
      * Create a DiffBuilder instance.
      * 
@@ -95,6 +118,24 @@ public class DiffBuilder {
      */
     private DiffBuilder(final Source controlSource) {
         this.controlSource = controlSource;
+        preparedControl = null;
+    }
+
+    private DiffBuilder(final PreparedControl preparedControl) {
+        controlSource = null;
+        this.preparedControl = preparedControl;
+        ignoreWhitespace = preparedControl.isIgnoreWhitespace();
+        normalizeWhitespace = preparedControl.isNormalizeWhitespace();
+        ignoreComments = preparedControl.isIgnoreComments();
+    }
+
+    /**
+     * Create a DiffBuilder without any documents, in order to create a {@link DiffConfiguration}.
+     *
+     * @see #buildConfiguration
+     */
+    public static DiffBuilder configure() {
+        return new DiffBuilder((Source) null);
     }
 
     /**
@@ -104,10 +145,29 @@ private DiffBuilder(final Source controlSource) {
      * @param control the expected reference document.
      */
     public static DiffBuilder compare(final Object control) {
+        if (control instanceof PreparedControl) {
+            return compare((PreparedControl) control);
+        }
         final Source controlSource = getSource(control);
         return new DiffBuilder(controlSource);
     }
 
+    /**
+     * Create a DiffBuilder for a control document that has been prepared by {@link #prepareControl}.
+     * <p>
+     * The control document has already been preprocessed, {@link #ignoreWhitespace},
+     * {@link #normalizeWhitespace} and {@link #ignoreComments} are preset to the values used when the
+     * control has been prepared and only affect the test document.
+     *
+     * @param control the expected reference document.
+     */
+    public static DiffBuilder compare(final PreparedControl control) {
+        if (control == null) {
+            throw new IllegalArgumentException("control must not be null");
+        }
+        return new DiffBuilder(control);
+    }
+
     /**
      * Set the Test-Source from all kind of types supported by {@link Input#from(Object)}.
      * 
@@ -264,66 +324,222 @@ public DiffBuilder withNamespaceContext(Map<String, String> uri2Prefix) {
     }
 
     /**
-     * Compare the Test-XML {@link #withTest(Object)} with the Control-XML {@link #compare(Object)} and return the
-     * collected differences in a {@link Diff} object.
+     * Apply {@link #ignoreWhitespace}, {@link #normalizeWhitespace} and {@link #ignoreComments} by looking at the
+     * documents through a {@link FilteredView} rather than creating preprocessed copies of them.
+     * <p>
+     * The differences found are the same, but the nodes passed to {@link NodeMatcher}s,
+     * {@link DifferenceEvaluator}s and listeners are the original nodes, so custom code looking at their values or
+     * children sees whitespace and comments.  Has no effect in combination with {@link #streaming()}.
+     *
+     * @see org.xmlunit.diff.DOMDifferenceEngine#setFilteredView(FilteredView)
      */
-    public Diff build() {
+    public DiffBuilder withoutCopying() {
+        filteredView = true;
+        return this;
+    }
 
-        final DOMDifferenceEngine d = new DOMDifferenceEngine();
-        final CollectResultsListener collectResultsListener = new CollectResultsListener(comparisonResultsToCheck);
-        d.addDifferenceListener(collectResultsListener);
-        if (nodeMatcher != null) {
-            d.setNodeMatcher(nodeMatcher);
-        }
-        d.setDifferenceEvaluator(differenceEvaluator);
-        d.setComparisonController(comparisonController);
-        for (ComparisonListener comparisonListener : comparisonListeners) {
-            d.addComparisonListener(comparisonListener);
-        }
-        for (ComparisonListener comparisonListener : differenceListeners) {
-            d.addDifferenceListener(comparisonListener);
-        }
-        if (namespaceContext != null) {
-            d.setNamespaceContext(namespaceContext);
+    /**
+     * Look up control and test documents given as streams, readers or files in the given cache of parsed
+     * documents rather than parsing them each time.
+     * <p>
+     * Cached documents are kept in memory completely, in combination with {@link #streaming()} they are
+     * serialized again before they are compared.
+     *
+     * @see DocumentCache
+     */
+    public DiffBuilder withDocumentCache(final DocumentCache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("cache must not be null");
         }
-        d.compare(wrap(controlSource), wrap(testSource));
+        documentCache = cache;
+        return this;
+    }
+
+    /**
+     * Skip matched subtrees that are identical without comparing them in detail.
+     * <p>
+     * Fingerprints of all subtrees of both documents are computed before the comparison, see
+     * {@link SubtreeFingerprinter}.  The fingerprints are computed after whitespace and comments have been
+     * handled according to {@link #ignoreWhitespace}, {@link #normalizeWhitespace} and {@link #ignoreComments}.
+     * Namespace prefixes are ignored when checking for similarity with the default {@link DifferenceEvaluator}.
+     * <p>
+     * Skipping is not supported in combination with {@link #streaming()}.
+     *
+     * @see org.xmlunit.diff.DOMDifferenceEngine#setSubtreeFingerprinter(SubtreeFingerprinter)
+     */
+    public DiffBuilder skipIdenticalSubtrees() {
+        skipIdenticalSubtrees = true;
+        return this;
+    }
 
-        return new Diff(controlSource, testSource, collectResultsListener.getDifferences());
+    /**
+     * Registers a listener that is notified of each pair of subtrees skipped because of
+     * {@link #skipIdenticalSubtrees}.
+     *
+     * @see org.xmlunit.diff.DOMDifferenceEngine#addSkippedSubtreeListener(SkippedSubtreeListener)
+     */
+    public DiffBuilder withSkippedSubtreeListeners(final SkippedSubtreeListener... skippedSubtreeListeners) {
+        this.skippedSubtreeListeners.addAll(Arrays.asList(skippedSubtreeListeners));
+        return this;
     }
 
-    private Source wrap(final Source source) {
-        Source newSource = source;
-        if (ignoreWhitespace) {
-            newSource = new WhitespaceStrippedSource(newSource);
+    /**
+     * Compare large independent subtrees in parallel using the given {@link Executor}.
+     * <p>
+     * Listeners are still notified in document order on the thread invoking {@link #build}, but the
+     * {@link NodeMatcher}, {@link DifferenceEvaluator} and {@link ComparisonController} must be thread-safe.
+     * <p>
+     * Parallel comparison is not supported in combination with {@link #streaming()}.
+     *
+     * @see org.xmlunit.diff.DOMDifferenceEngine#setExecutor(Executor)
+     */
+    public DiffBuilder inParallel(final Executor executor) {
+        return inParallel(executor, DOMDifferenceEngine.DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Compare control subtrees of at least the given number of nodes in parallel using the given {@link Executor}.
+     *
+     * @see #inParallel(Executor)
+     * @see org.xmlunit.diff.DOMDifferenceEngine#setParallelThreshold(int)
+     */
+    public DiffBuilder inParallel(final Executor executor, final int threshold) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
         }
-        if (normalizeWhitespace) {
-            newSource = new WhitespaceNormalizedSource(newSource);
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be positive");
         }
-        if (ignoreComments) {
-            newSource = new CommentLessSource(newSource);
+        this.executor = executor;
+        parallelThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Measure the time and allocations spent parsing, preprocessing, matching, evaluating and notifying listeners
+     * as well as the number of nodes, comparisons and matcher checks, see {@link Diff#getStatistics}.
+     * <p>
+     * Without this setting no measurements are taken at all.
+     *
+     * @see DiffStatistics
+     */
+    public DiffBuilder collectStatistics() {
+        collectStatistics = true;
+        return this;
+    }
+
+    /**
+     * Measure the number of invocations and the time spent in the {@link NodeMatcher}'s {@link
+     * org.xmlunit.diff.ElementSelector}s, the {@link DifferenceEvaluator}s - including the members of {@link
+     * DifferenceEvaluators#chain} and {@link DifferenceEvaluators#first} - and all listeners using the given
+     * profiler.
+     * <p>
+     * The callbacks are wrapped when the configuration is built, so the profiler can be set at any time and
+     * shared by several builders.  Without this setting callbacks are invoked directly.
+     *
+     * @see CallbackProfiler#getReport
+     */
+    public DiffBuilder withCallbackProfiler(final CallbackProfiler profiler) {
+        if (profiler == null) {
+            throw new IllegalArgumentException("profiler must not be null");
         }
-        return newSource;
+        callbackProfiler = profiler;
+        return this;
     }
 
-    private static final class CollectResultsListener implements ComparisonListener {
+    /**
+     * Compare the documents using a {@link StreamingDifferenceEngine}
+     * rather than loading them into memory completely.
+     * <p>
+     * Nodes can only be matched if they are no more than {@link
+     * StreamingDifferenceEngine#DEFAULT_LOOK_AHEAD_WINDOW} siblings
+     * apart.
+     * <p>
+     * {@link #ignoreWhitespace}, {@link #normalizeWhitespace}, {@link
+     * #ignoreComments} and {@link #withDocumentCache} need the
+     * complete documents: if any of them is used the documents are
+     * loaded into memory and serialized again before they are
+     * streamed, so there is no point in streaming at all.
+     */
+    public DiffBuilder streaming() {
+        return streaming(StreamingDifferenceEngine.DEFAULT_LOOK_AHEAD_WINDOW);
+    }
 
-        private final List<Difference> results;
-        private final EnumSet<ComparisonResult> comparisonResultsToCheck;
+    /**
+     * Compare the documents using a {@link StreamingDifferenceEngine}
+     * with the given look-ahead window.
+     *
+     * @see #streaming()
+     * @see StreamingDifferenceEngine#setLookAheadWindow
+     */
+    public DiffBuilder streaming(final int lookAheadWindow) {
+        if (lookAheadWindow < 1) {
+            throw new IllegalArgumentException("lookAheadWindow must be positive");
+        }
+        streaming = true;
+        this.lookAheadWindow = lookAheadWindow;
+        return this;
+    }
 
-        public CollectResultsListener(final ComparisonResult... comparisonResultsToCheck) {
-            results = new ArrayList<Difference>();
-            this.comparisonResultsToCheck = EnumSet.copyOf(Arrays.asList(comparisonResultsToCheck));
+    /**
+     * Parse and preprocess the Control-XML according to {@link #ignoreWhitespace}, {@link #normalizeWhitespace}
+     * and {@link #ignoreComments} once, so it can be compared to many test documents - even from several
+     * threads concurrently - using {@link #compare(PreparedControl)}.
+     * <p>
+     * All other settings of this builder are ignored.
+     */
+    public PreparedControl prepareControl() {
+        if (preparedControl != null) {
+            return preparedControl;
         }
+        return buildConfiguration().prepareControl(getControlSource());
+    }
 
-        @Override
-        public void comparisonPerformed(final Comparison comparison, final ComparisonResult outcome) {
-            if (comparisonResultsToCheck.contains(outcome)) {
-                results.add(new Difference(comparison, outcome));
-            }
+    /**
+     * Compare the Test-XML {@link #withTest(Object)} with the Control-XML {@link #compare(Object)} and return the
+     * collected differences in a {@link Diff} object.
+     */
+    public Diff build() {
+        final DiffConfiguration configuration = buildConfiguration();
+        if (preparedControl != null) {
+            return configuration.diff(preparedControl, testSource);
         }
+        return configuration.diff(getControlSource(), testSource);
+    }
+
+    /**
+     * Compare many pairs of documents concurrently using the given {@link Executor} and the settings of this
+     * builder, the builder's own control and test documents are ignored.
+     *
+     * @see DiffConfiguration#diffAll(Iterable, Executor)
+     */
+    public BatchDiff buildBatch(final Iterable<BatchDiff.Pair> pairs, final Executor executor) {
+        return buildConfiguration().diffAll(pairs, executor);
+    }
+
+    /**
+     * Create an immutable {@link DiffConfiguration} from all settings of this builder except for the control and
+     * test documents.
+     * <p>
+     * The configuration can be used to compare any number of documents, even from several threads concurrently.
+     * Later changes to this builder don't affect the configuration.
+     */
+    public DiffConfiguration buildConfiguration() {
+        final DiffConfiguration configuration =
+            new DiffConfiguration(nodeMatcher, comparisonController, differenceEvaluator,
+                                  comparisonListeners, differenceListeners,
+                                  comparisonResultsToCheck, comparisonResultsToCheck == CHECK_FOR_SIMILAR,
+                                  namespaceContext, ignoreWhitespace, normalizeWhitespace, ignoreComments,
+                                  filteredView, streaming, lookAheadWindow, skipIdenticalSubtrees,
+                                  skippedSubtreeListeners, executor, parallelThreshold, documentCache,
+                                  collectStatistics);
+        return callbackProfiler == null ? configuration : configuration.profiledBy(callbackProfiler);
+    }
 
-        public List<Difference> getDifferences() {
-            return Collections.unmodifiableList(results);
+    private Source getControlSource() {
+        if (controlSource == null) {
+            throw new IllegalStateException("no control document, use DiffBuilder.compare to specify one");
         }
+        return controlSource;
     }
 }
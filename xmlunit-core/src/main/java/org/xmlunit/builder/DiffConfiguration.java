@@ -0,0 +1,388 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.builder;
+
+import org.xmlunit.diff.AbstractDifferenceEngine;
+import org.xmlunit.diff.CallbackProfiler;
+import org.xmlunit.diff.Comparison;
+import org.xmlunit.diff.ComparisonController;
+import org.xmlunit.diff.ComparisonListener;
+import org.xmlunit.diff.ComparisonResult;
+import org.xmlunit.diff.DOMDifferenceEngine;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.diff.DiffStatistics;
+import org.xmlunit.diff.Difference;
+import org.xmlunit.diff.DifferenceEvaluator;
+import org.xmlunit.diff.DifferenceEvaluators;
+import org.xmlunit.diff.NodeMatcher;
+import org.xmlunit.diff.SkippedSubtreeListener;
+import org.xmlunit.diff.StreamingDifferenceEngine;
+import org.xmlunit.diff.SubtreeFingerprinter;
+import org.xmlunit.input.PreprocessedSource;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.DocumentCache;
+import org.xmlunit.util.FilteredView;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Immutable snapshot of the settings of a {@link DiffBuilder} that can be used to compare any number of documents.
+ * <p>
+ * A configuration is created by {@link DiffBuilder#buildConfiguration} and may be shared between threads, each
+ * invocation of {@link #diff} uses a difference engine of its own.  The configured {@link NodeMatcher},
+ * {@link DifferenceEvaluator}, {@link ComparisonController} and listeners are shared by all comparisons, so they
+ * must be thread-safe if the configuration is used concurrently - the implementations provided by XMLUnit are.
+ * <p>
+ * <b>Example Usage:</b>
+ *
+ * <pre>
+ * DiffConfiguration config = DiffBuilder.configure().ignoreWhitespace().checkForSimilar().buildConfiguration();
+ * ...
+ * assertFalse(config.diff(control, test).hasDifferences());
+ * </pre>
+ */
+public final class DiffConfiguration {
+
+    private final NodeMatcher nodeMatcher;
+    private final ComparisonController comparisonController;
+    private final DifferenceEvaluator differenceEvaluator;
+    private final List<ComparisonListener> comparisonListeners;
+    private final List<ComparisonListener> differenceListeners;
+    private final Set<ComparisonResult> comparisonResultsToCheck;
+    private final boolean checkForSimilar;
+    private final Map<String, String> namespaceContext;
+    private final boolean ignoreWhitespace;
+    private final boolean normalizeWhitespace;
+    private final boolean ignoreComments;
+    private final boolean filteredView;
+    private final boolean streaming;
+    private final int lookAheadWindow;
+    private final boolean skipIdenticalSubtrees;
+    private final List<SkippedSubtreeListener> skippedSubtreeListeners;
+    private final Executor executor;
+    private final int parallelThreshold;
+    private final DocumentCache documentCache;
+    private final boolean collectStatistics;
+
+    DiffConfiguration(NodeMatcher nodeMatcher, ComparisonController comparisonController,
+                      DifferenceEvaluator differenceEvaluator,
+                      List<ComparisonListener> comparisonListeners,
+                      List<ComparisonListener> differenceListeners,
+                      ComparisonResult[] comparisonResultsToCheck, boolean checkForSimilar,
+                      Map<String, String> namespaceContext,
+                      boolean ignoreWhitespace, boolean normalizeWhitespace, boolean ignoreComments,
+                      boolean filteredView, boolean streaming, int lookAheadWindow,
+                      boolean skipIdenticalSubtrees, List<SkippedSubtreeListener> skippedSubtreeListeners,
+                      Executor executor, int parallelThreshold, DocumentCache documentCache,
+                      boolean collectStatistics) {
+        this.nodeMatcher = nodeMatcher;
+        this.comparisonController = comparisonController;
+        this.differenceEvaluator = differenceEvaluator;
+        this.comparisonListeners = copy(comparisonListeners);
+        this.differenceListeners = copy(differenceListeners);
+        this.comparisonResultsToCheck =
+            Collections.unmodifiableSet(EnumSet.copyOf(Arrays.asList(comparisonResultsToCheck)));
+        this.checkForSimilar = checkForSimilar;
+        this.namespaceContext = namespaceContext == null ? null
+            : Collections.unmodifiableMap(new LinkedHashMap<String, String>(namespaceContext));
+        this.ignoreWhitespace = ignoreWhitespace;
+        this.normalizeWhitespace = normalizeWhitespace;
+        this.ignoreComments = ignoreComments;
+        this.filteredView = filteredView;
+        this.streaming = streaming;
+        this.lookAheadWindow = lookAheadWindow;
+        this.skipIdenticalSubtrees = skipIdenticalSubtrees;
+        this.skippedSubtreeListeners = copy(skippedSubtreeListeners);
+        this.executor = executor;
+        this.parallelThreshold = parallelThreshold;
+        this.documentCache = documentCache;
+        this.collectStatistics = collectStatistics;
+    }
+
+    /**
+     * A copy of the given configuration using different callbacks.
+     */
+    private DiffConfiguration(DiffConfiguration base, NodeMatcher nodeMatcher,
+                              DifferenceEvaluator differenceEvaluator,
+                              List<ComparisonListener> comparisonListeners,
+                              List<ComparisonListener> differenceListeners,
+                              List<SkippedSubtreeListener> skippedSubtreeListeners) {
+        this.nodeMatcher = nodeMatcher;
+        this.comparisonController = base.comparisonController;
+        this.differenceEvaluator = differenceEvaluator;
+        this.comparisonListeners = copy(comparisonListeners);
+        this.differenceListeners = copy(differenceListeners);
+        this.comparisonResultsToCheck = base.comparisonResultsToCheck;
+        this.checkForSimilar = base.checkForSimilar;
+        this.namespaceContext = base.namespaceContext;
+        this.ignoreWhitespace = base.ignoreWhitespace;
+        this.normalizeWhitespace = base.normalizeWhitespace;
+        this.ignoreComments = base.ignoreComments;
+        this.filteredView = base.filteredView;
+        this.streaming = base.streaming;
+        this.lookAheadWindow = base.lookAheadWindow;
+        this.skipIdenticalSubtrees = base.skipIdenticalSubtrees;
+        this.skippedSubtreeListeners = copy(skippedSubtreeListeners);
+        this.executor = base.executor;
+        this.parallelThreshold = base.parallelThreshold;
+        this.documentCache = base.documentCache;
+        this.collectStatistics = base.collectStatistics;
+    }
+
+    /**
+     * A copy of this configuration whose callbacks are measured by
+     * the given profiler.
+     */
+    DiffConfiguration profiledBy(CallbackProfiler profiler) {
+        final NodeMatcher matcher = nodeMatcher == null ? null : profiler.wrap(nodeMatcher);
+        // the default evaluator is recognized by identity, it is cheap anyway
+        final DifferenceEvaluator evaluator = differenceEvaluator == DifferenceEvaluators.Default
+            ? differenceEvaluator : profiler.wrap(differenceEvaluator);
+        final List<ComparisonListener> comparison = new ArrayList<ComparisonListener>();
+        for (ComparisonListener l : comparisonListeners) {
+            comparison.add(profiler.wrap(l));
+        }
+        final List<ComparisonListener> difference = new ArrayList<ComparisonListener>();
+        for (ComparisonListener l : differenceListeners) {
+            difference.add(profiler.wrap(l));
+        }
+        final List<SkippedSubtreeListener> skipped = new ArrayList<SkippedSubtreeListener>();
+        for (SkippedSubtreeListener l : skippedSubtreeListeners) {
+            skipped.add(profiler.wrap(l));
+        }
+        return new DiffConfiguration(this, matcher, evaluator, comparison, difference, skipped);
+    }
+
+    /**
+     * Compare the test document with the control document - both of all kind of types supported by
+     * {@link Input#from(Object)} - and return the collected differences in a {@link Diff} object.
+     */
+    public Diff diff(final Object control, final Object test) {
+        if (control instanceof PreparedControl) {
+            return diff((PreparedControl) control, test);
+        }
+        final DiffStatistics statistics = collectStatistics ? new DiffStatistics() : null;
+        final Source controlSource = load(control, statistics);
+        return diff(controlSource, usesFilteredView() ? controlSource : wrap(controlSource, statistics), null,
+                    load(test, statistics), statistics);
+    }
+
+    /**
+     * Compare the test document with a control document that has been prepared by
+     * {@link DiffBuilder#prepareControl} or {@link #prepareControl}.
+     * <p>
+     * The control document has already been preprocessed, this configuration's whitespace and comment handling
+     * only affects the test document.
+     */
+    public Diff diff(final PreparedControl control, final Object test) {
+        if (control == null) {
+            throw new IllegalArgumentException("control must not be null");
+        }
+        final DiffStatistics statistics = collectStatistics ? new DiffStatistics() : null;
+        final Source controlSource = control.getSource();
+        return diff(controlSource, controlSource, control, load(test, statistics), statistics);
+    }
+
+    /**
+     * Compare many pairs of documents concurrently using the given {@link Executor}.
+     *
+     * @see BatchDiff
+     */
+    public BatchDiff diffAll(final Iterable<BatchDiff.Pair> pairs, final Executor executor) {
+        return diffAll(pairs, executor, null);
+    }
+
+    /**
+     * Compare many pairs of documents concurrently using the given {@link Executor}, notifying the given listener
+     * of each completed comparison.
+     *
+     * @see BatchDiff
+     */
+    public BatchDiff diffAll(final Iterable<BatchDiff.Pair> pairs, final Executor executor,
+                             final BatchDiff.Listener listener) {
+        if (pairs == null) {
+            throw new IllegalArgumentException("pairs must not be null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        final List<BatchDiff.Pair> l = new ArrayList<BatchDiff.Pair>();
+        for (BatchDiff.Pair p : pairs) {
+            l.add(p);
+        }
+        return new BatchDiff(this, l, executor, listener);
+    }
+
+    /**
+     * Parse and preprocess a control document according to this configuration once, so it can be compared to many
+     * test documents.
+     *
+     * @see DiffBuilder#prepareControl
+     */
+    public PreparedControl prepareControl(final Object control) {
+        final Source controlSource = load(control);
+        return new PreparedControl(wrap(controlSource), controlSource.getSystemId(),
+                                   ignoreWhitespace, normalizeWhitespace, ignoreComments);
+    }
+
+    private Diff diff(final Source originalControl, final Source control, final PreparedControl preparedControl,
+                      final Source test, final DiffStatistics statistics) {
+        final AbstractDifferenceEngine d = createDifferenceEngine(preparedControl);
+        d.setStatistics(statistics);
+        final CollectResultsListener collectResultsListener = new CollectResultsListener(comparisonResultsToCheck);
+        d.addDifferenceListener(collectResultsListener);
+        if (nodeMatcher != null) {
+            d.setNodeMatcher(nodeMatcher);
+        }
+        d.setDifferenceEvaluator(differenceEvaluator);
+        d.setComparisonController(comparisonController);
+        for (ComparisonListener comparisonListener : comparisonListeners) {
+            d.addComparisonListener(comparisonListener);
+        }
+        for (ComparisonListener comparisonListener : differenceListeners) {
+            d.addDifferenceListener(comparisonListener);
+        }
+        if (namespaceContext != null) {
+            d.setNamespaceContext(namespaceContext);
+        }
+        d.compare(control, usesFilteredView() ? test : wrap(test, statistics));
+
+        return new Diff(originalControl, test, collectResultsListener.getDifferences(), statistics);
+    }
+
+    private AbstractDifferenceEngine createDifferenceEngine(final PreparedControl preparedControl) {
+        if (streaming) {
+            final StreamingDifferenceEngine d = new StreamingDifferenceEngine();
+            d.setLookAheadWindow(lookAheadWindow);
+            return d;
+        }
+        final DOMDifferenceEngine d = new DOMDifferenceEngine();
+        if (skipIdenticalSubtrees) {
+            final SubtreeFingerprinter fingerprinter = checkForSimilar
+                && differenceEvaluator == DifferenceEvaluators.Default
+                ? SubtreeFingerprinter.IGNORING_PREFIXES
+                : SubtreeFingerprinter.WITH_PREFIXES;
+            d.setSubtreeFingerprinter(fingerprinter);
+            if (preparedControl != null) {
+                d.setControlFingerprints(preparedControl.getFingerprints(fingerprinter));
+            }
+            for (SkippedSubtreeListener l : skippedSubtreeListeners) {
+                d.addSkippedSubtreeListener(l);
+            }
+        }
+        final FilteredView view = usesFilteredView()
+            ? new FilteredView(ignoreWhitespace, normalizeWhitespace, ignoreComments) : FilteredView.UNFILTERED;
+        d.setFilteredView(view);
+        if (preparedControl != null) {
+            d.setControlSnapshot(preparedControl.getSnapshot(view));
+        }
+        if (executor != null) {
+            d.setExecutor(executor);
+            d.setParallelThreshold(parallelThreshold);
+        }
+        return d;
+    }
+
+    /**
+     * Loads the document, parsing it right away - so the time spent can be told apart from the comparison - if
+     * statistics are collected and the documents are not streamed.
+     */
+    private Source load(final Object document, final DiffStatistics statistics) {
+        if (statistics == null) {
+            return load(document);
+        }
+        final long nanos = System.nanoTime();
+        final long bytes = DiffStatistics.currentAllocatedBytes();
+        Source source = load(document);
+        if (!streaming) {
+            source = new DOMSource(Convert.toNode(source), source.getSystemId());
+        }
+        statistics.recordSince(DiffStatistics.Phase.PARSE, nanos, bytes);
+        return source;
+    }
+
+    private Source load(final Object document) {
+        final Source source = Input.from(document).build();
+        return documentCache == null ? source : documentCache.get(source);
+    }
+
+    private boolean usesFilteredView() {
+        return filteredView && !streaming;
+    }
+
+    private Source wrap(final Source source, final DiffStatistics statistics) {
+        if (statistics == null) {
+            return wrap(source);
+        }
+        final long nanos = System.nanoTime();
+        final long bytes = DiffStatistics.currentAllocatedBytes();
+        try {
+            return wrap(source);
+        } finally {
+            statistics.recordSince(DiffStatistics.Phase.PREPROCESS, nanos, bytes);
+        }
+    }
+
+    private Source wrap(final Source source) {
+        final List<PreprocessedSource.Option> options = new ArrayList<PreprocessedSource.Option>();
+        if (ignoreWhitespace) {
+            options.add(PreprocessedSource.Option.STRIP_WHITESPACE);
+        }
+        if (normalizeWhitespace) {
+            options.add(PreprocessedSource.Option.NORMALIZE_WHITESPACE);
+        }
+        if (ignoreComments) {
+            options.add(PreprocessedSource.Option.STRIP_COMMENTS);
+        }
+        return options.isEmpty() ? source
+            : new PreprocessedSource(source, options.toArray(new PreprocessedSource.Option[options.size()]));
+    }
+
+    private static <T> List<T> copy(List<T> l) {
+        return Collections.unmodifiableList(new ArrayList<T>(l));
+    }
+
+    private static final class CollectResultsListener implements ComparisonListener {
+
+        private final List<Difference> results;
+        private final Set<ComparisonResult> comparisonResultsToCheck;
+
+        public CollectResultsListener(final Set<ComparisonResult> comparisonResultsToCheck) {
+            results = new ArrayList<Difference>();
+            this.comparisonResultsToCheck = comparisonResultsToCheck;
+        }
+
+        @Override
+        public void comparisonPerformed(final Comparison comparison, final ComparisonResult outcome) {
+            if (comparisonResultsToCheck.contains(outcome)) {
+                results.add(new Difference(comparison, outcome));
+            }
+        }
+
+        public List<Difference> getDifferences() {
+            return Collections.unmodifiableList(results);
+        }
+    }
+}
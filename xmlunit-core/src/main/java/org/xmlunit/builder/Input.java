@@ -14,8 +14,8 @@
 package org.xmlunit.builder;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.Reader;
@@ -23,13 +23,17 @@
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
 import org.xmlunit.XMLUnitException;
+import org.xmlunit.tree.CompactTree;
+import org.xmlunit.util.DocumentCache;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
@@ -86,6 +90,9 @@ private StreamBuilder(InputStream s) {
         private StreamBuilder(Reader r) {
             super(new StreamSource(r));
         }
+        private StreamBuilder(String systemId) {
+            super(new StreamSource(systemId));
+        }
         void setSystemId(String id) {
             if (id != null) {
                 source.setSystemId(id);
@@ -95,9 +102,10 @@ void setSystemId(String id) {
 
     /**
      * Return the matching Builder for the supported types: {@link Source}, {@link Builder}, {@link Document}, {@link Node},
-     * byte[] (XML as byte[]), {@link String} (XML as String), {@link File} (contains XML),
+     * byte[] (XML as byte[]), {@link ByteBuffer} (XML as bytes), {@link String} (XML as String),
+     * {@link File} (contains XML),
      * {@link URL} (to an XML-Document), {@link URI} (to an XML-Document), {@link InputStream},
-     * {@link ReadableByteChannel},
+     * {@link ReadableByteChannel}, {@link CompactTree},
      * Jaxb-{@link Object} (marshal-able with {@link javax.xml.bind.JAXB}.marshal(...))
      */
     public static Builder from(Object object) {
@@ -112,6 +120,8 @@ public static Builder from(Object object) {
             xml = Input.fromNode((Node) object);
         } else if (object instanceof byte[]) {
             xml = Input.fromByteArray((byte[]) object);
+        } else if (object instanceof ByteBuffer) {
+            xml = Input.fromByteBuffer((ByteBuffer) object);
         } else if (object instanceof String) {
             xml = Input.fromString((String) object);
         } else if (object instanceof File) {
@@ -124,6 +134,8 @@ public static Builder from(Object object) {
             xml = Input.fromStream((InputStream) object);
         } else if (object instanceof ReadableByteChannel) {
             xml = Input.fromChannel((ReadableByteChannel) object);
+        } else if (object instanceof CompactTree) {
+            xml = Input.fromDocument(((CompactTree) object).getDocument());
         } else {
             // assume it is a JaxB-Object.
             xml = Input.fromJaxb(object);
@@ -131,6 +143,28 @@ public static Builder from(Object object) {
         return xml;
     }
     
+    /**
+     * Build a Source from any of the types supported by {@link #from} using the {@link DocumentCache#getDefault
+     * default} cache of parsed documents.
+     *
+     * @see DocumentCache
+     */
+    public static Builder fromCache(Object object) {
+        return fromCache(object, DocumentCache.getDefault());
+    }
+
+    /**
+     * Build a Source from any of the types supported by {@link #from} using the given cache of parsed documents.
+     *
+     * @see DocumentCache
+     */
+    public static Builder fromCache(Object object, DocumentCache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("cache must not be null");
+        }
+        return new SourceHoldingBuilder(cache.get(from(object).build()));
+    }
+
     /**
      * Build a Source from a Jaxb-Object.
      */
@@ -181,48 +215,81 @@ public static Builder fromByteArray(byte[] b) {
     }
 
     /**
-     * Build a Source from a channel.
+     * Build a Source from the remaining bytes of a buffer.
+     *
+     * <p>The bytes are read directly from the buffer - which may be a
+     * direct or memory-mapped one - without copying them.  Neither
+     * the buffer's content nor its position must be changed until the
+     * Source has been parsed, the position isn't modified by
+     * parsing.</p>
      */
-    public static Builder fromChannel(ReadableByteChannel c) {
-        return fromStream(Channels.newInputStream(c));
+    public static Builder fromByteBuffer(ByteBuffer b) {
+        if (b == null) {
+            throw new IllegalArgumentException("buffer must not be null");
+        }
+        if (b.hasArray()) {
+            return fromStream(new ByteArrayInputStream(b.array(),
+                                                       b.arrayOffset() + b.position(),
+                                                       b.remaining()));
+        }
+        return fromStream(new ByteBufferInputStream(b.duplicate()));
     }
 
     /**
-     * Build a Source from an URL.
+     * Build a Source from a file that is mapped into memory.
+     *
+     * <p>Avoids copying the file's content into the heap, which
+     * mainly pays off for big files.  The file must not be modified
+     * until the Source has been parsed.  Files that are too big to be
+     * mapped at once - 2 GB and more - are streamed like {@link
+     * #fromFile(File)} does.</p>
      */
-    public static Builder fromURL(URL url) {
+    public static Builder fromMappedFile(File f) {
         try {
-            InputStream in = null;
+            FileInputStream in = new FileInputStream(f);
             try {
-                in = url.openStream();
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                int read = -1;
-                byte[] buf = new byte[4096];
-                while ((read = in.read(buf)) >= 0) {
-                    if (read > 0) {
-                        baos.write(buf, 0, read);
-                    }
-                }
-                StreamBuilder b =
-                    (StreamBuilder) fromByteArray(baos.toByteArray());
-                try {
-                    b.setSystemId(url.toURI().toString());
-                } catch (URISyntaxException use) {
-                    // impossible - shouldn't have been an URL in the
-                    // first place
-                    b.setSystemId(url.toString());
+                FileChannel c = in.getChannel();
+                long size = c.size();
+                if (size > Integer.MAX_VALUE) {
+                    return fromFile(f);
                 }
+                StreamBuilder b = (StreamBuilder)
+                    fromByteBuffer(c.map(FileChannel.MapMode.READ_ONLY,
+                                         0, size));
+                b.setSystemId(f.toURI().toASCIIString());
                 return b;
             } finally {
-                if (in != null) {
-                    in.close();
-                }
+                in.close();
             }
         } catch (IOException ex) {
             throw new XMLUnitException(ex);
         }
     }
 
+    /**
+     * Build a Source from a channel.
+     */
+    public static Builder fromChannel(ReadableByteChannel c) {
+        return fromStream(Channels.newInputStream(c));
+    }
+
+    /**
+     * Build a Source from an URL.
+     *
+     * <p>The URL is only opened when the Source is parsed and its
+     * content is streamed to the parser rather than read into memory
+     * first.</p>
+     */
+    public static Builder fromURL(URL url) {
+        try {
+            return new StreamBuilder(url.toURI().toString());
+        } catch (URISyntaxException use) {
+            // impossible - shouldn't have been an URL in the first
+            // place
+            return new StreamBuilder(url.toString());
+        }
+    }
+
     /**
      * Build a Source from an URI.
      * @param uri must represent a valid URL
@@ -249,6 +316,42 @@ public static Builder fromURI(String uri) {
         }
     }
 
+    /**
+     * Reads from a ByteBuffer without copying its content.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
     /**
      * Builds {@link Source}s by transforming other sources.
      */
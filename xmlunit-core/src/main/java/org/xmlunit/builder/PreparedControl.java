@@ -0,0 +1,113 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.builder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.xmlunit.diff.SubtreeFingerprinter;
+import org.xmlunit.diff.SubtreeFingerprinter.Fingerprints;
+import org.xmlunit.tree.CompactTree;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.FilteredView;
+import org.xmlunit.util.NodeCache;
+
+/**
+ * A control document that has been parsed and preprocessed once so
+ * it can be compared to many test documents.
+ * <p>
+ * Instances are created by {@link DiffBuilder#prepareControl} and
+ * passed to {@link DiffBuilder#compare(PreparedControl)}.  They are
+ * immutable and can be shared between threads: the document is held
+ * as a {@link CompactTree} whose read-only DOM view can be read by
+ * any number of threads concurrently.  The subtree fingerprints
+ * needed by {@link DiffBuilder#skipIdenticalSubtrees} and the QNames,
+ * attributes and nested text element selectors match by are computed
+ * once and shared by all comparisons as well.
+ */
+public final class PreparedControl {
+
+    private final CompactTree tree;
+    private final String systemId;
+    private final boolean ignoreWhitespace;
+    private final boolean normalizeWhitespace;
+    private final boolean ignoreComments;
+    private final ConcurrentMap<SubtreeFingerprinter, Fingerprints> fingerprints =
+        new ConcurrentHashMap<SubtreeFingerprinter, Fingerprints>();
+    private final ConcurrentMap<FilteredView, NodeCache.Snapshot> snapshots =
+        new ConcurrentHashMap<FilteredView, NodeCache.Snapshot>();
+
+    PreparedControl(Source preprocessedControl, String systemId,
+                    boolean ignoreWhitespace, boolean normalizeWhitespace,
+                    boolean ignoreComments) {
+        // copying into a tree of our own doesn't share any nodes with
+        // whoever has created the source
+        tree = CompactTree.of(Convert.toDocument(preprocessedControl));
+        this.systemId = systemId;
+        this.ignoreWhitespace = ignoreWhitespace;
+        this.normalizeWhitespace = normalizeWhitespace;
+        this.ignoreComments = ignoreComments;
+    }
+
+    /**
+     * Provides the read-only view of the prepared document.
+     */
+    public Source getSource() {
+        return new DOMSource(tree.getDocument(), systemId);
+    }
+
+    boolean isIgnoreWhitespace() {
+        return ignoreWhitespace;
+    }
+
+    boolean isNormalizeWhitespace() {
+        return normalizeWhitespace;
+    }
+
+    boolean isIgnoreComments() {
+        return ignoreComments;
+    }
+
+    /**
+     * Provides the fingerprints of the prepared document.
+     */
+    Fingerprints getFingerprints(SubtreeFingerprinter fingerprinter) {
+        Fingerprints f = fingerprints.get(fingerprinter);
+        if (f == null) {
+            f = fingerprinter.fingerprint(tree.getDocument());
+            Fingerprints other = fingerprints.putIfAbsent(fingerprinter, f);
+            if (other != null) {
+                f = other;
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Provides the information about the prepared document's nodes
+     * as seen through the given view.
+     */
+    NodeCache.Snapshot getSnapshot(FilteredView view) {
+        NodeCache.Snapshot s = snapshots.get(view);
+        if (s == null) {
+            s = NodeCache.snapshot(tree.getDocument(), view);
+            NodeCache.Snapshot other = snapshots.putIfAbsent(view, s);
+            if (other != null) {
+                s = other;
+            }
+        }
+        return s;
+    }
+}
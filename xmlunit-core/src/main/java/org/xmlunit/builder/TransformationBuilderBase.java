@@ -14,6 +14,7 @@
 package org.xmlunit.builder;
 
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.URIResolver;
 
@@ -40,6 +41,10 @@
      * Sets the stylesheet to use.
      */
     B withStylesheet(Source s);
+    /**
+     * Sets the compiled stylesheet to use.
+     */
+    B withTemplates(Templates t);
     /**
      * Sets the resolver to use for the document() function and
      * xsi:import/include.
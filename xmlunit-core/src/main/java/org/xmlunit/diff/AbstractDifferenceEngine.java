@@ -14,6 +14,7 @@
 package org.xmlunit.diff;
 
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
 
 /**
@@ -27,8 +28,19 @@ public abstract class AbstractDifferenceEngine implements DifferenceEngine {
     private DifferenceEvaluator diffEvaluator = DifferenceEvaluators.Default;
     private ComparisonController comparisonController = ComparisonControllers.Default;
     private Map<String, String> uri2Prefix = Collections.emptyMap();
+    private DiffStatistics statistics;
+    /**
+     * States are immutable, so there is no need to allocate new ones
+     * for each comparison.
+     */
+    private final Map<ComparisonResult, OngoingComparisonState> ongoingStates =
+        new EnumMap<ComparisonResult, OngoingComparisonState>(ComparisonResult.class);
 
-    protected AbstractDifferenceEngine() { }
+    protected AbstractDifferenceEngine() {
+        for (ComparisonResult r : ComparisonResult.values()) {
+            ongoingStates.put(r, new OngoingComparisonState(r));
+        }
+    }
 
     @Override
     public void addComparisonListener(ComparisonListener l) {
@@ -114,6 +126,25 @@ protected Map<String, String> getNamespaceContext() {
         return uri2Prefix;
     }
 
+    /**
+     * Collects statistics of all comparisons performed by this
+     * engine in the given instance.
+     *
+     * @param statistics the instance to populate or null to not
+     * collect any statistics (the default).
+     */
+    public void setStatistics(DiffStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Provides access to the statistics being collected, null if
+     * statistics are not collected.
+     */
+    protected DiffStatistics getStatistics() {
+        return statistics;
+    }
+
     /**
      * Compares the detail values for object equality, lets the
      * difference evaluator and comparison controller evaluate the
@@ -129,13 +160,61 @@ protected final ComparisonState compare(Comparison comp) {
             ? testValue == null : controlValue.equals(testValue);
         ComparisonResult initial =
             equal ? ComparisonResult.EQUAL : ComparisonResult.DIFFERENT;
-        ComparisonResult altered =
-            getDifferenceEvaluator().evaluate(comp, initial);
-        listeners.fireComparisonPerformed(comp, altered);
+        ComparisonResult altered;
+        if (statistics == null) {
+            altered = getDifferenceEvaluator().evaluate(comp, initial);
+            listeners.fireComparisonPerformed(comp, altered);
+        } else {
+            altered = evaluateAndNotify(comp, initial);
+        }
         return altered != ComparisonResult.EQUAL
             && getComparisonController().stopDiffing(new Difference(comp, altered))
             ? new FinishedComparisonState(altered)
-            : new OngoingComparisonState(altered);
+            : ongoingState(altered);
+    }
+
+    /**
+     * Evaluates the comparison and notifies all listeners while
+     * collecting statistics.
+     */
+    private ComparisonResult evaluateAndNotify(Comparison comp,
+                                               ComparisonResult initial) {
+        statistics.comparisonPerformed(comp.getType());
+        long nanos = System.nanoTime();
+        long bytes = DiffStatistics.currentAllocatedBytes();
+        ComparisonResult altered =
+            getDifferenceEvaluator().evaluate(comp, initial);
+        statistics.recordSince(DiffStatistics.Phase.EVALUATE, nanos, bytes);
+        nanos = System.nanoTime();
+        bytes = DiffStatistics.currentAllocatedBytes();
+        listeners.fireComparisonPerformed(comp, altered);
+        statistics.recordSince(DiffStatistics.Phase.LISTENERS, nanos, bytes);
+        return altered;
+    }
+
+    /**
+     * Returns the (shared) state of an ongoing comparison with the
+     * given result.
+     */
+    final OngoingComparisonState ongoingState(ComparisonResult result) {
+        return ongoingStates.get(result);
+    }
+
+    /**
+     * Notifies all listeners of a comparison that has already been
+     * evaluated, e.g. by a different engine working on behalf of
+     * this one.
+     */
+    final void fireComparisonPerformed(Comparison comp,
+                                       ComparisonResult outcome) {
+        if (statistics == null) {
+            listeners.fireComparisonPerformed(comp, outcome);
+        } else {
+            long nanos = System.nanoTime();
+            long bytes = DiffStatistics.currentAllocatedBytes();
+            listeners.fireComparisonPerformed(comp, outcome);
+            statistics.recordSince(DiffStatistics.Phase.LISTENERS, nanos, bytes);
+        }
     }
 
     /**
@@ -145,6 +224,14 @@ protected static String getXPath(XPathContext ctx) {
         return ctx == null ? null : ctx.getXPath();
     }
 
+    /**
+     * Captures the current position of the given XPathContext without
+     * stringifying its XPath.
+     */
+    static XPathContext.Path getPath(XPathContext ctx) {
+        return ctx == null ? null : ctx.getPath();
+    }
+
     /**
      * Encapsulates a comparison that may or may not be performed.
      */
@@ -168,6 +255,13 @@ protected ComparisonState(boolean finished, ComparisonResult result) {
             this.result = result;
         }
 
+        boolean isFinished() {
+            return finished;
+        }
+        ComparisonResult getResult() {
+            return result;
+        }
+
         protected ComparisonState andThen(DeferredComparison newStateProducer) {
             return finished ? this : newStateProducer.apply();
         }
@@ -175,22 +269,12 @@ protected ComparisonState andIfTrueThen(boolean predicate,
                                                 DeferredComparison newStateProducer) {
             return predicate ? andThen(newStateProducer) : this;
         }
-        protected ComparisonState andThen(final Comparison comp) {
-            return andThen(new DeferredComparison() {
-                    @Override
-                    public ComparisonState apply() {
-                        return compare(comp);
-                    }
-                });
+        protected ComparisonState andThen(Comparison comp) {
+            return finished ? this : compare(comp);
         }
         protected ComparisonState andIfTrueThen(boolean predicate,
-                                                final Comparison comp) {
-            return andIfTrueThen(predicate, new DeferredComparison() {
-                    @Override
-                    public ComparisonState apply() {
-                        return compare(comp);
-                    }
-                });
+                                                Comparison comp) {
+            return predicate ? andThen(comp) : this;
         }
         @Override
         public String toString() {
@@ -0,0 +1,461 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Measures the number of invocations and the time spent in each
+ * callback instance - {@link DifferenceEvaluator}s, {@link
+ * ElementSelector}s, {@link NodeMatcher}s and listeners - invoked
+ * during comparisons.
+ *
+ * <p>The {@code wrap} methods return callbacks that delegate to the
+ * given ones and record each invocation.  Evaluators combined by
+ * {@link DifferenceEvaluators#first} or {@link
+ * DifferenceEvaluators#chain} and selectors combined by {@link
+ * ElementSelectors#or} or {@link ElementSelectors#and} are measured
+ * individually rather than as a whole, as are the selectors used by
+ * {@link DefaultNodeMatcher} and {@link KeyedNodeMatcher}.  Wrapping
+ * the same instance more than once accumulates the measurements in
+ * a single {@link Entry}.</p>
+ *
+ * <p>Instances are thread-safe, so they can be used with {@link
+ * DOMDifferenceEngine#setExecutor parallel comparisons} and shared
+ * configurations, see {@link
+ * org.xmlunit.builder.DiffBuilder#withCallbackProfiler}.</p>
+ *
+ * <pre>
+ * CallbackProfiler profiler = new CallbackProfiler();
+ * Diff d = DiffBuilder.compare(control).withTest(test)
+ *     .withDifferenceEvaluator(DifferenceEvaluators.chain(DifferenceEvaluators.Default, myEvaluator))
+ *     .withCallbackProfiler(profiler)
+ *     .build();
+ * System.err.println(profiler.getReport());
+ * </pre>
+ */
+public final class CallbackProfiler {
+
+    /**
+     * The kinds of callbacks.
+     */
+    public enum Kind {
+        DIFFERENCE_EVALUATOR,
+        ELEMENT_SELECTOR,
+        NODE_MATCHER,
+        COMPARISON_LISTENER,
+        SKIPPED_SUBTREE_LISTENER
+    }
+
+    private final Map<Object, Entry> entries = new IdentityHashMap<Object, Entry>();
+
+    /**
+     * Wraps a DifferenceEvaluator, descends into evaluators created by
+     * {@link DifferenceEvaluators#first} and {@link
+     * DifferenceEvaluators#chain}.
+     */
+    public DifferenceEvaluator wrap(DifferenceEvaluator evaluator) {
+        if (evaluator == null) {
+            throw new IllegalArgumentException("evaluator must not be null");
+        }
+        if (evaluator instanceof DifferenceEvaluators.First) {
+            return DifferenceEvaluators
+                .first(wrap(((DifferenceEvaluators.First) evaluator).evaluators));
+        }
+        if (evaluator instanceof DifferenceEvaluators.Chain) {
+            return DifferenceEvaluators
+                .chain(wrap(((DifferenceEvaluators.Chain) evaluator).evaluators));
+        }
+        if (evaluator instanceof ProfiledEvaluator) {
+            return evaluator;
+        }
+        return new ProfiledEvaluator(evaluator,
+                                     entry(Kind.DIFFERENCE_EVALUATOR, evaluator));
+    }
+
+    /**
+     * Wraps an ElementSelector, descends into selectors created by
+     * {@link ElementSelectors#or} and {@link ElementSelectors#and}.
+     *
+     * <p>The result is a {@link KeyedElementSelector} if the given
+     * selector is one.</p>
+     */
+    public ElementSelector wrap(ElementSelector selector) {
+        if (selector == null) {
+            throw new IllegalArgumentException("selector must not be null");
+        }
+        if (selector instanceof ElementSelectors.OrSelector) {
+            return ElementSelectors
+                .or(wrap(((ElementSelectors.OrSelector) selector).selectors));
+        }
+        if (selector instanceof ElementSelectors.AndSelector) {
+            return ElementSelectors
+                .and(wrap(((ElementSelectors.AndSelector) selector).selectors));
+        }
+        if (selector instanceof KeyedElementSelector) {
+            return wrap((KeyedElementSelector) selector);
+        }
+        if (selector instanceof ProfiledSelector) {
+            return selector;
+        }
+        return new ProfiledSelector(selector,
+                                    entry(Kind.ELEMENT_SELECTOR, selector));
+    }
+
+    /**
+     * Wraps a KeyedElementSelector, both {@code getKey} and {@code
+     * canBeCompared} are measured.
+     */
+    public KeyedElementSelector wrap(KeyedElementSelector selector) {
+        if (selector == null) {
+            throw new IllegalArgumentException("selector must not be null");
+        }
+        if (selector instanceof ProfiledKeyedSelector) {
+            return selector;
+        }
+        return new ProfiledKeyedSelector(selector,
+                                         entry(Kind.ELEMENT_SELECTOR, selector));
+    }
+
+    /**
+     * Wraps a NodeMatcher.
+     *
+     * <p>For {@link DefaultNodeMatcher} and {@link KeyedNodeMatcher}
+     * - but not their subclasses - the ElementSelector is wrapped
+     * rather than the matcher itself.</p>
+     */
+    public NodeMatcher wrap(NodeMatcher matcher) {
+        if (matcher == null) {
+            throw new IllegalArgumentException("matcher must not be null");
+        }
+        if (matcher.getClass() == DefaultNodeMatcher.class) {
+            DefaultNodeMatcher m = (DefaultNodeMatcher) matcher;
+            return new DefaultNodeMatcher(wrap(m.getElementSelector()), m.getNodeTypeMatcher());
+        }
+        if (matcher.getClass() == KeyedNodeMatcher.class) {
+            KeyedNodeMatcher m = (KeyedNodeMatcher) matcher;
+            return new KeyedNodeMatcher(wrap(m.getElementSelector()), m.getNodeTypeMatcher());
+        }
+        if (matcher instanceof ProfiledMatcher) {
+            return matcher;
+        }
+        return new ProfiledMatcher(matcher, entry(Kind.NODE_MATCHER, matcher));
+    }
+
+    /**
+     * Wraps a ComparisonListener.
+     */
+    public ComparisonListener wrap(ComparisonListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        if (listener instanceof ProfiledComparisonListener) {
+            return listener;
+        }
+        return new ProfiledComparisonListener(listener,
+                                              entry(Kind.COMPARISON_LISTENER, listener));
+    }
+
+    /**
+     * Wraps a SkippedSubtreeListener.
+     */
+    public SkippedSubtreeListener wrap(SkippedSubtreeListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        if (listener instanceof ProfiledSkippedSubtreeListener) {
+            return listener;
+        }
+        return new ProfiledSkippedSubtreeListener(listener,
+                                                  entry(Kind.SKIPPED_SUBTREE_LISTENER,
+                                                        listener));
+    }
+
+    /**
+     * The measurements of all wrapped callbacks, the callback that
+     * has taken most time first.
+     */
+    public List<Entry> getEntries() {
+        List<Entry> l;
+        synchronized (entries) {
+            l = new ArrayList<Entry>(entries.values());
+        }
+        Collections.sort(l, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry e1, Entry e2) {
+                    long n1 = e1.getNanos();
+                    long n2 = e2.getNanos();
+                    if (n1 != n2) {
+                        return n1 > n2 ? -1 : 1;
+                    }
+                    long i1 = e1.getInvocations();
+                    long i2 = e2.getInvocations();
+                    return i1 == i2 ? 0 : i1 > i2 ? -1 : 1;
+                }
+            });
+        return l;
+    }
+
+    /**
+     * A table of all wrapped callbacks ranked by the time they have
+     * taken.
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ENGLISH, "%4s %12s %12s %10s  %-24s %s%n",
+                                "rank", "invocations", "total ms", "avg us",
+                                "kind", "callback"));
+        int rank = 0;
+        for (Entry e : getEntries()) {
+            sb.append(String.format(Locale.ENGLISH, "%4d %12d %12.3f %10.3f  %-24s %s%n",
+                                    ++rank, e.getInvocations(), e.getNanos() / 1e6,
+                                    e.getAverageNanos() / 1e3, e.getKind(),
+                                    e.getCallback()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Resets the measurements of all callbacks to zero.
+     */
+    public void reset() {
+        synchronized (entries) {
+            for (Entry e : entries.values()) {
+                e.invocations.set(0);
+                e.nanos.set(0);
+            }
+        }
+    }
+
+    private DifferenceEvaluator[] wrap(DifferenceEvaluator[] evaluators) {
+        DifferenceEvaluator[] wrapped = new DifferenceEvaluator[evaluators.length];
+        for (int i = 0; i < evaluators.length; i++) {
+            wrapped[i] = wrap(evaluators[i]);
+        }
+        return wrapped;
+    }
+
+    private ElementSelector[] wrap(Collection<ElementSelector> selectors) {
+        ElementSelector[] wrapped = new ElementSelector[selectors.size()];
+        int i = 0;
+        for (ElementSelector s : selectors) {
+            wrapped[i++] = wrap(s);
+        }
+        return wrapped;
+    }
+
+    private Entry entry(Kind kind, Object callback) {
+        synchronized (entries) {
+            Entry e = entries.get(callback);
+            if (e == null) {
+                e = new Entry(kind, callback);
+                entries.put(callback, e);
+            }
+            return e;
+        }
+    }
+
+    /**
+     * The measurements of a single callback instance.
+     */
+    public static final class Entry {
+        private final Kind kind;
+        private final Object callback;
+        private final AtomicLong invocations = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
+        private Entry(Kind kind, Object callback) {
+            this.kind = kind;
+            this.callback = callback;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * The callback that has been wrapped.
+         */
+        public Object getCallback() {
+            return callback;
+        }
+
+        public long getInvocations() {
+            return invocations.get();
+        }
+
+        /**
+         * The cumulative time spent in the callback.
+         */
+        public long getNanos() {
+            return nanos.get();
+        }
+
+        /**
+         * The average time spent per invocation.
+         */
+        public double getAverageNanos() {
+            long i = getInvocations();
+            return i == 0 ? 0 : (double) getNanos() / i;
+        }
+
+        private void record(long startNanos) {
+            nanos.addAndGet(System.nanoTime() - startNanos);
+            invocations.incrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + callback + ": " + getInvocations()
+                + " invocations, " + getNanos() + " ns";
+        }
+    }
+
+    private static final class ProfiledEvaluator implements DifferenceEvaluator {
+        private final DifferenceEvaluator delegate;
+        private final Entry entry;
+
+        private ProfiledEvaluator(DifferenceEvaluator delegate, Entry entry) {
+            this.delegate = delegate;
+            this.entry = entry;
+        }
+
+        @Override
+        public ComparisonResult evaluate(Comparison comparison,
+                                         ComparisonResult outcome) {
+            long start = System.nanoTime();
+            try {
+                return delegate.evaluate(comparison, outcome);
+            } finally {
+                entry.record(start);
+            }
+        }
+    }
+
+    private static class ProfiledSelector implements ElementSelector {
+        private final ElementSelector delegate;
+        final Entry entry;
+
+        private ProfiledSelector(ElementSelector delegate, Entry entry) {
+            this.delegate = delegate;
+            this.entry = entry;
+        }
+
+        @Override
+        public boolean canBeCompared(Element controlElement,
+                                     Element testElement) {
+            long start = System.nanoTime();
+            try {
+                return delegate.canBeCompared(controlElement, testElement);
+            } finally {
+                entry.record(start);
+            }
+        }
+    }
+
+    private static final class ProfiledKeyedSelector extends ProfiledSelector
+        implements KeyedElementSelector {
+        private final KeyedElementSelector delegate;
+
+        private ProfiledKeyedSelector(KeyedElementSelector delegate, Entry entry) {
+            super(delegate, entry);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object getKey(Element element) {
+            long start = System.nanoTime();
+            try {
+                return delegate.getKey(element);
+            } finally {
+                entry.record(start);
+            }
+        }
+    }
+
+    private static final class ProfiledMatcher implements NodeMatcher {
+        private final NodeMatcher delegate;
+        private final Entry entry;
+
+        private ProfiledMatcher(NodeMatcher delegate, Entry entry) {
+            this.delegate = delegate;
+            this.entry = entry;
+        }
+
+        @Override
+        public Iterable<Map.Entry<Node, Node>> match(Iterable<Node> controlNodes,
+                                                     Iterable<Node> testNodes) {
+            long start = System.nanoTime();
+            try {
+                return delegate.match(controlNodes, testNodes);
+            } finally {
+                entry.record(start);
+            }
+        }
+    }
+
+    private static final class ProfiledComparisonListener implements ComparisonListener {
+        private final ComparisonListener delegate;
+        private final Entry entry;
+
+        private ProfiledComparisonListener(ComparisonListener delegate, Entry entry) {
+            this.delegate = delegate;
+            this.entry = entry;
+        }
+
+        @Override
+        public void comparisonPerformed(Comparison comparison,
+                                        ComparisonResult outcome) {
+            long start = System.nanoTime();
+            try {
+                delegate.comparisonPerformed(comparison, outcome);
+            } finally {
+                entry.record(start);
+            }
+        }
+    }
+
+    private static final class ProfiledSkippedSubtreeListener
+        implements SkippedSubtreeListener {
+        private final SkippedSubtreeListener delegate;
+        private final Entry entry;
+
+        private ProfiledSkippedSubtreeListener(SkippedSubtreeListener delegate,
+                                               Entry entry) {
+            this.delegate = delegate;
+            this.entry = entry;
+        }
+
+        @Override
+        public void subtreeSkipped(Node control, String controlXPath,
+                                   Node test, String testXPath) {
+            long start = System.nanoTime();
+            try {
+                delegate.subtreeSkipped(control, controlXPath, test, testXPath);
+            } finally {
+                entry.record(start);
+            }
+        }
+    }
+}
@@ -26,12 +26,14 @@ public class Comparison {
      */
     public static class Detail {
         private final Node target;
-        private final String xpath;
+        private final XPathContext.Path path;
+        private String xpath;
         private final Object value;
 
-        private Detail(Node n, String x, Object v) {
+        private Detail(Node n, String x, XPathContext.Path p, Object v) {
             target = n;
             xpath = x;
+            path = p;
             value = v;
         }
 
@@ -42,7 +44,12 @@ private Detail(Node n, String x, Object v) {
         /**
          * XPath leading to the target.
          */
-        public String getXPath() { return xpath; }
+        public String getXPath() {
+            if (xpath == null && path != null) {
+                xpath = path.getXPath();
+            }
+            return xpath;
+        }
         /**
          * The value for comparison found at the current target.
          */
@@ -56,8 +63,28 @@ public Comparison(ComparisonType t, Node controlTarget,
                       String controlXPath, Object controlValue,
                       Node testTarget, String testXPath, Object testValue) {
         type = t;
-        control = new Detail(controlTarget, controlXPath, controlValue);
-        test = new Detail(testTarget, testXPath, testValue);
+        control = new Detail(controlTarget, controlXPath, null, controlValue);
+        test = new Detail(testTarget, testXPath, null, testValue);
+    }
+
+    private Comparison(ComparisonType t, Detail control, Detail test) {
+        type = t;
+        this.control = control;
+        this.test = test;
+    }
+
+    /**
+     * Creates a comparison whose XPaths are only stringified when
+     * they are asked for.
+     */
+    static Comparison of(ComparisonType t, Node controlTarget,
+                         XPathContext.Path controlPath, Object controlValue,
+                         Node testTarget, XPathContext.Path testPath,
+                         Object testValue) {
+        return new Comparison(t,
+                              new Detail(controlTarget, null, controlPath,
+                                         controlValue),
+                              new Detail(testTarget, null, testPath, testValue));
     }
 
     /**
@@ -14,21 +14,37 @@
 
 package org.xmlunit.diff;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 import javax.xml.transform.Source;
 import org.xmlunit.XMLUnitException;
+import org.xmlunit.diff.SubtreeFingerprinter.Fingerprints;
 import org.xmlunit.util.Convert;
-import org.xmlunit.util.IterableNodeList;
 import org.xmlunit.util.Linqy;
 import org.xmlunit.util.Mapper;
-import org.xmlunit.util.Nodes;
-import org.xmlunit.util.Predicate;
+import org.xmlunit.util.FilteredView;
+import org.xmlunit.util.Instrumentation;
+import org.xmlunit.util.NodeCache;
+import org.xmlunit.util.Observations;
 import org.w3c.dom.Attr;
 import org.w3c.dom.CharacterData;
 import org.w3c.dom.Document;
@@ -44,6 +60,172 @@
  */
 public final class DOMDifferenceEngine extends AbstractDifferenceEngine {
 
+    /**
+     * Default minimal number of nodes a control subtree must contain
+     * so it gets compared in parallel to its siblings.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1000;
+
+    private SubtreeFingerprinter subtreeFingerprinter;
+    private final List<SkippedSubtreeListener> skippedSubtreeListeners =
+        new CopyOnWriteArrayList<SkippedSubtreeListener>();
+    private Fingerprints controlFingerprints, testFingerprints;
+    private Fingerprints precomputedControlFingerprints;
+    private NodeCache.Snapshot controlSnapshot;
+    private Executor executor;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private ParallelRun parallelRun;
+    private SubtreeTask currentTask;
+    private FilteredView view = FilteredView.UNFILTERED;
+
+    /**
+     * Enables skipping of matched element subtrees whose fingerprints
+     * computed by the given fingerprinter are equal.
+     *
+     * <p>The fingerprints of both documents are computed in a
+     * separate pass before the comparison starts.  No comparisons
+     * are performed for skipped subtrees, they are reported to the
+     * {@link SkippedSubtreeListener}s instead.</p>
+     *
+     * <p>This is only safe if the configured {@link
+     * DifferenceEvaluator} and {@link NodeMatcher} would rate and
+     * match identical nodes as {@link ComparisonResult#EQUAL} and in
+     * document order.  This is true for the defaults and the
+     * implementations provided by XMLUnit.</p>
+     *
+     * @param fingerprinter the fingerprinter to use or null to
+     * disable skipping (the default).
+     */
+    public void setSubtreeFingerprinter(SubtreeFingerprinter fingerprinter) {
+        subtreeFingerprinter = fingerprinter;
+    }
+
+    /**
+     * Provides the fingerprints of the control document so they
+     * don't need to be computed by each invocation of {@link #compare
+     * compare}.
+     *
+     * <p>The fingerprints are only used if they have been computed by
+     * the configured {@link #setSubtreeFingerprinter fingerprinter}
+     * for the tree of the control document.</p>
+     *
+     * @param fingerprints the fingerprints or null to compute them
+     * (the default)
+     */
+    public void setControlFingerprints(Fingerprints fingerprints) {
+        precomputedControlFingerprints = fingerprints;
+    }
+
+    /**
+     * Provides the QNames, attributes, nested text and children of
+     * the control document's nodes so they don't need to be computed
+     * by each invocation of {@link #compare compare}.
+     *
+     * <p>The snapshot is only used if it has been computed for the
+     * configured {@link #setFilteredView view}.</p>
+     *
+     * @param snapshot the snapshot or null to compute the information
+     * (the default)
+     */
+    public void setControlSnapshot(NodeCache.Snapshot snapshot) {
+        controlSnapshot = snapshot;
+    }
+
+    /**
+     * Registers a listener that is notified of each pair of subtrees
+     * that has been skipped.
+     *
+     * @see #setSubtreeFingerprinter
+     */
+    public void addSkippedSubtreeListener(SkippedSubtreeListener l) {
+        if (l == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        skippedSubtreeListeners.add(l);
+    }
+
+    /**
+     * Enables the comparison of large independent subtrees on
+     * multiple threads.
+     *
+     * <p>When a list of child nodes contains at least two matched
+     * pairs whose control subtrees consist of at least {@link
+     * #setParallelThreshold threshold} nodes, each of those pairs is
+     * compared by a task of its own using the given executor, nested
+     * subtrees are split further in the same way.  The comparisons
+     * performed by the tasks are recorded and replayed on the thread
+     * that has invoked {@link #compare compare} so all {@link
+     * ComparisonListener}s and {@link SkippedSubtreeListener}s are
+     * notified in the same order as if the documents had been
+     * compared sequentially.  Once the {@link ComparisonController}
+     * stops the comparison, all tasks for subtrees that follow in
+     * document order are cancelled.</p>
+     *
+     * <p>The configured {@link NodeMatcher}, {@link
+     * DifferenceEvaluator} and {@link ComparisonController} will be
+     * invoked on several threads concurrently and must be thread-safe
+     * - the implementations provided by XMLUnit are, {@link
+     * ElementSelectors#byXPath(String, ElementSelector) byXPath}
+     * serializes its XPath evaluations.  Both
+     * documents are traversed once before the comparison starts so
+     * lazily built DOM trees like the ones created by the JDK's parser
+     * are expanded completely.  The JDK's DOM implementation caches
+     * state in {@link NodeList}s, so any custom code invoked by the
+     * engine should navigate using {@code getFirstChild} and {@code
+     * getNextSibling} rather than {@code getChildNodes}.</p>
+     *
+     * <p>The engine doesn't use a fork/join pool since it must run on Java
+     * 6; an {@link Executor} is used and a task that hasn't been
+     * started by the time its result is needed is executed by the
+     * waiting thread instead, so bounded thread pools can't cause
+     * deadlocks.  The executor is never shut down by the engine.</p>
+     *
+     * @param executor the executor to use or null to compare
+     * sequentially (the default).
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the minimal number of nodes - elements, attributes and
+     * all other kinds of nodes - a control subtree must contain in
+     * order to be compared by a parallel task.
+     *
+     * <p>Only used if an {@link #setExecutor executor} has been
+     * set, defaults to {@link #DEFAULT_PARALLEL_THRESHOLD}.</p>
+     */
+    public void setParallelThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be positive");
+        }
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * Compares the documents as seen through the given view rather
+     * than the DOM trees themselves.
+     *
+     * <p>This produces the same differences as comparing the
+     * documents after they have been preprocessed by {@link
+     * org.xmlunit.input.PreprocessedSource} with the same options
+     * without copying the trees - but the nodes passed to {@link
+     * NodeMatcher}s, {@link DifferenceEvaluator}s and listeners are
+     * the unmodified original nodes.  {@link ElementSelectors} that
+     * look at nested text, attributes or child elements honor the
+     * view, custom {@link ElementSelector}s and the XPath based
+     * selectors see the original trees.</p>
+     *
+     * @param view the view to use, {@link FilteredView#UNFILTERED}
+     * by default.
+     */
+    public void setFilteredView(FilteredView view) {
+        if (view == null) {
+            throw new IllegalArgumentException("view must not be null");
+        }
+        this.view = view;
+    }
+
     @Override
     public void compare(Source control, Source test) {
         if (control == null) {
@@ -52,76 +234,198 @@ public void compare(Source control, Source test) {
         if (test == null) {
             throw new IllegalArgumentException("test must not be null");
         }
+        Instrumentation.Observation observation =
+            Observations.start(Instrumentation.Operation.COMPARE);
+        DiffStatistics statistics = getStatistics();
+        NodeCache cache = beginCache();
         try {
+            long nanos = System.nanoTime();
+            long bytes = statistics == null ? -1 : DiffStatistics.currentAllocatedBytes();
             Node controlNode = Convert.toNode(control);
             Node testNode = Convert.toNode(test);
+            if (statistics != null) {
+                statistics.recordSince(DiffStatistics.Phase.PARSE, nanos, bytes);
+                nanos = System.nanoTime();
+                bytes = DiffStatistics.currentAllocatedBytes();
+            }
+            if (subtreeFingerprinter != null) {
+                controlFingerprints = precomputedControlFingerprints != null
+                    && precomputedControlFingerprints.getFingerprinter() == subtreeFingerprinter
+                    ? precomputedControlFingerprints
+                    : subtreeFingerprinter.fingerprint(controlNode, view);
+                testFingerprints = subtreeFingerprinter.fingerprint(testNode, view);
+                if (statistics != null) {
+                    statistics.recordSince(DiffStatistics.Phase.PREPROCESS, nanos, bytes);
+                    nanos = System.nanoTime();
+                    bytes = DiffStatistics.currentAllocatedBytes();
+                }
+            }
+            if (executor != null) {
+                parallelRun = new ParallelRun(executor, parallelThreshold,
+                                              controlNode, testNode);
+            }
             compareNodes(controlNode, xpathContextFor(controlNode),
                          testNode, xpathContextFor(testNode));
+            if (statistics != null) {
+                statistics.recordSince(DiffStatistics.Phase.COMPARE, nanos, bytes);
+            }
+            if (observation != null && observation.shouldCommit()) {
+                observation.commit(control.getSystemId(), -1,
+                                   Observations.countNodes(controlNode),
+                                   Observations.countNodes(testNode));
+            }
         } catch (Exception ex) {
             throw new XMLUnitException("Caught exception during comparison",
                                        ex);
+        } finally {
+            if (parallelRun != null) {
+                parallelRun.cancelAll();
+            }
+            parallelRun = null;
+            controlFingerprints = testFingerprints = null;
+            cache.end();
         }
     }
 
+    private NodeCache beginCache() {
+        return controlSnapshot != null && controlSnapshot.getView().equals(view)
+            ? NodeCache.begin(controlSnapshot) : NodeCache.begin(view);
+    }
+
     private XPathContext xpathContextFor(Node n) {
         return new XPathContext(getNamespaceContext(), n);
     }
 
     /**
-     * Recursively compares two XML nodes.
+     * Compares two XML nodes and all their descendants.
      *
      * <p>Performs comparisons common to all node types, then performs
-     * the node type specific comparisons and finally recurses into
-     * the node's child lists.</p>
+     * the node type specific comparisons and finally compares the
+     * node's child lists.  Descendants are visited using an explicit
+     * stack of {@link ChildNodes} rather than recursion, so the depth
+     * of the documents isn't limited by the size of the thread's
+     * stack.</p>
      *
      * <p>Stops as soon as any comparison returns
      * ComparisonResult.CRITICAL.</p>
      *
      * <p>package private to support tests.</p>
      */
-    ComparisonState compareNodes(final Node control, final XPathContext controlContext,
-                                 final Node test, final XPathContext testContext) {
-        final Iterable<Node> controlChildren =
-            Linqy.filter(new IterableNodeList(control.getChildNodes()),
-                         INTERESTING_NODES);
-        final Iterable<Node> testChildren =
-            Linqy.filter(new IterableNodeList(test.getChildNodes()),
-                         INTERESTING_NODES);
-
-        return compare(new Comparison(ComparisonType.NODE_TYPE,
-                                      control, getXPath(controlContext),
-                                      control.getNodeType(),
-                                      test, getXPath(testContext),
-                                      test.getNodeType()))
-            .andThen(new Comparison(ComparisonType.NAMESPACE_URI,
-                                    control, getXPath(controlContext),
-                                    control.getNamespaceURI(),
-                                    test, getXPath(testContext),
-                                    test.getNamespaceURI()))
-            .andThen(new Comparison(ComparisonType.NAMESPACE_PREFIX,
-                                    control, getXPath(controlContext),
-                                    control.getPrefix(),
-                                    test, getXPath(testContext),
-                                    test.getPrefix()))
-            .andIfTrueThen(control.getNodeType() != Node.ATTRIBUTE_NODE,
-                           new Comparison(ComparisonType.CHILD_NODELIST_LENGTH,
-                                          control, getXPath(controlContext),
-                                          Linqy.count(controlChildren),
-                                          test, getXPath(testContext),
-                                          Linqy.count(testChildren)))
-            .andThen(new DeferredComparison() {
-                    @Override
-                    public ComparisonState apply() {
-                        return nodeTypeSpecificComparison(control, controlContext,
-                                                          test, testContext);
-                    }
-                })
-            // and finally recurse into children
-            .andIfTrueThen(control.getNodeType() != Node.ATTRIBUTE_NODE,
-                           compareChildren(control, controlContext,
-                                           controlChildren,
-                                           test, testContext,
-                                           testChildren));
+    ComparisonState compareNodes(Node control, XPathContext controlContext,
+                                 Node test, XPathContext testContext) {
+        Deque<ChildNodes> stack = new ArrayDeque<ChildNodes>();
+        try {
+            ComparisonState state = compareNode(control, controlContext,
+                                                test, testContext, stack);
+            while (!state.isFinished() && !stack.isEmpty()) {
+                state = stack.peek().compareNext(stack);
+            }
+            return state;
+        } finally {
+            while (!stack.isEmpty()) {
+                stack.pop().leaveCurrentChild();
+                NodeCache.endScope();
+            }
+        }
+    }
+
+    /**
+     * Compares two XML nodes and pushes their child lists to the
+     * stack unless the comparison has been stopped or the nodes are
+     * attributes.
+     */
+    private ComparisonState compareNode(Node control, XPathContext controlContext,
+                                        Node test, XPathContext testContext,
+                                        Deque<ChildNodes> stack) {
+        if (control.getNodeType() == Node.ATTRIBUTE_NODE) {
+            return compareNodeProperties(control, controlContext,
+                                         test, testContext, null, null);
+        }
+        List<Node> controlChildren = NodeCache.getChildren(control);
+        List<Node> testChildren = NodeCache.getChildren(test);
+        ComparisonState state =
+            compareNodeProperties(control, controlContext, test, testContext,
+                                  controlChildren, testChildren);
+        if (!state.isFinished()) {
+            controlContext
+                .setChildren(Linqy.map(controlChildren, ElementSelectors.TO_NODE_INFO));
+            testContext
+                .setChildren(Linqy.map(testChildren, ElementSelectors.TO_NODE_INFO));
+            // ended once the children have been compared
+            NodeCache.beginScope();
+            boolean pushed = false;
+            try {
+                stack.push(new ChildNodes(controlChildren, controlContext,
+                                          testChildren, testContext));
+                pushed = true;
+            } finally {
+                if (!pushed) {
+                    NodeCache.endScope();
+                }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Compares two XML nodes without looking at their children.
+     *
+     * <p>Performs the comparisons common to all node types except
+     * for the number of children and then performs the node type
+     * specific comparisons.</p>
+     *
+     * <p>package private to support {@link
+     * StreamingDifferenceEngine} which doesn't know about the
+     * children of an element when it starts to compare it.</p>
+     */
+    ComparisonState compareNodeProperties(Node control,
+                                          XPathContext controlContext,
+                                          Node test,
+                                          XPathContext testContext) {
+        return compareNodeProperties(control, controlContext, test, testContext,
+                                     null, null);
+    }
+
+    /**
+     * Compares two XML nodes without looking at their children
+     * except for the number of children, which is compared if the
+     * lists of children are given.
+     */
+    private ComparisonState compareNodeProperties(Node control,
+                                                  XPathContext controlContext,
+                                                  Node test,
+                                                  XPathContext testContext,
+                                                  List<Node> controlChildren,
+                                                  List<Node> testChildren) {
+        if (getStatistics() != null) {
+            getStatistics().nodesVisited(1, 1);
+        }
+        ComparisonState state =
+            compare(Comparison.of(ComparisonType.NODE_TYPE,
+                                  control, getPath(controlContext),
+                                  view.getNodeType(control),
+                                  test, getPath(testContext),
+                                  view.getNodeType(test)))
+            .andThen(Comparison.of(ComparisonType.NAMESPACE_URI,
+                                   control, getPath(controlContext),
+                                   control.getNamespaceURI(),
+                                   test, getPath(testContext),
+                                   test.getNamespaceURI()))
+            .andThen(Comparison.of(ComparisonType.NAMESPACE_PREFIX,
+                                   control, getPath(controlContext),
+                                   control.getPrefix(),
+                                   test, getPath(testContext),
+                                   test.getPrefix()));
+        if (controlChildren != null && !state.isFinished()) {
+            state = compare(Comparison.of(ComparisonType.CHILD_NODELIST_LENGTH,
+                                          control, getPath(controlContext),
+                                          controlChildren.size(),
+                                          test, getPath(testContext),
+                                          testChildren.size()));
+        }
+        return state.isFinished() ? state
+            : nodeTypeSpecificComparison(control, controlContext,
+                                         test, testContext);
     }
 
     /**
@@ -132,7 +436,7 @@ private ComparisonState nodeTypeSpecificComparison(Node control,
                                                        XPathContext controlContext,
                                                        Node test,
                                                        XPathContext testContext) {
-        switch (control.getNodeType()) {
+        switch (view.getNodeType(control)) {
         case Node.CDATA_SECTION_NODE:
         case Node.COMMENT_NODE:
         case Node.TEXT_NODE:
@@ -176,26 +480,7 @@ private ComparisonState nodeTypeSpecificComparison(Node control,
             }
             break;
         }
-        return new OngoingComparisonState();
-    }
-
-    private DeferredComparison compareChildren(final Node control,
-                                               final XPathContext controlContext,
-                                               final Iterable<Node> controlChildren,
-                                               final Node test,
-                                               final XPathContext testContext,
-                                               final Iterable<Node> testChildren) {
-        return new DeferredComparison() {
-            @Override
-            public ComparisonState apply() {
-                controlContext
-                    .setChildren(Linqy.map(controlChildren, ElementSelectors.TO_NODE_INFO));
-                testContext
-                    .setChildren(Linqy.map(testChildren, ElementSelectors.TO_NODE_INFO));
-                return compareNodeLists(controlChildren, controlContext,
-                                        testChildren, testContext);
-            }
-        };
+        return ongoingState(ComparisonResult.EQUAL);
     }
 
     /**
@@ -205,38 +490,34 @@ private ComparisonState compareCharacterData(CharacterData control,
                                                  XPathContext controlContext,
                                                  CharacterData test,
                                                  XPathContext testContext) {
-        return compare(new Comparison(ComparisonType.TEXT_VALUE, control,
-                                      getXPath(controlContext),
-                                      control.getData(),
-                                      test, getXPath(testContext),
-                                      test.getData()));
+        return compare(Comparison.of(ComparisonType.TEXT_VALUE, control,
+                                     getPath(controlContext),
+                                     view.getValue(control),
+                                     test, getPath(testContext),
+                                     view.getValue(test)));
     }
 
     /**
      * Compares document node, doctype and XML declaration properties
      */
-    private ComparisonState compareDocuments(final Document control,
-                                             final XPathContext controlContext,
-                                             final Document test,
-                                             final XPathContext testContext) {
-        final DocumentType controlDt = control.getDoctype();
-        final DocumentType testDt = test.getDoctype();
-
-        return compare(new Comparison(ComparisonType.HAS_DOCTYPE_DECLARATION,
-                                      control, getXPath(controlContext),
-                                      Boolean.valueOf(controlDt != null),
-                                      test, getXPath(testContext),
-                                      Boolean.valueOf(testDt != null)))
-            .andIfTrueThen(controlDt != null && testDt != null,
-                           new DeferredComparison() {
-                               @Override
-                               public ComparisonState apply() {
-                                   return compareNodes(controlDt, controlContext,
-                                                       testDt, testContext);
-                               }
-                           })
-            .andThen(compareDeclarations(control, controlContext,
-                                         test, testContext));
+    private ComparisonState compareDocuments(Document control,
+                                             XPathContext controlContext,
+                                             Document test,
+                                             XPathContext testContext) {
+        DocumentType controlDt = view.getDoctype(control);
+        DocumentType testDt = view.getDoctype(test);
+
+        ComparisonState state =
+            compare(Comparison.of(ComparisonType.HAS_DOCTYPE_DECLARATION,
+                                  control, getPath(controlContext),
+                                  Boolean.valueOf(controlDt != null),
+                                  test, getPath(testContext),
+                                  Boolean.valueOf(testDt != null)));
+        if (!state.isFinished() && controlDt != null && testDt != null) {
+            state = compareNodes(controlDt, controlContext, testDt, testContext);
+        }
+        return state.isFinished() ? state
+            : compareDeclarations(control, controlContext, test, testContext);
     }
 
     /**
@@ -247,234 +528,180 @@ public ComparisonState apply() {
                         XPathContext controlContext,
                         DocumentType test,
                         XPathContext testContext) {
-        return compare(new Comparison(ComparisonType.DOCTYPE_NAME,
-                                      control, getXPath(controlContext),
-                                      control.getName(),
-                                      test, getXPath(testContext),
-                                      test.getName()))
-            .andThen(new Comparison(ComparisonType.DOCTYPE_PUBLIC_ID,
-                                    control, getXPath(controlContext),
-                                    control.getPublicId(),
-                                    test, getXPath(testContext),
-                                    test.getPublicId()))
-            .andThen(new Comparison(ComparisonType.DOCTYPE_SYSTEM_ID,
-                                    control, null, control.getSystemId(),
-                                    test, null, test.getSystemId()));
+        return compare(Comparison.of(ComparisonType.DOCTYPE_NAME,
+                                     control, getPath(controlContext),
+                                     control.getName(),
+                                     test, getPath(testContext),
+                                     test.getName()))
+            .andThen(Comparison.of(ComparisonType.DOCTYPE_PUBLIC_ID,
+                                   control, getPath(controlContext),
+                                   control.getPublicId(),
+                                   test, getPath(testContext),
+                                   test.getPublicId()))
+            .andThen(Comparison.of(ComparisonType.DOCTYPE_SYSTEM_ID,
+                                   control, null, control.getSystemId(),
+                                   test, null, test.getSystemId()));
     }
 
     /**
      * Compares properties of XML declaration.
      */
-    private DeferredComparison compareDeclarations(final Document control,
-                                                   final XPathContext controlContext,
-                                                   final Document test,
-                                                   final XPathContext testContext) {
-        return new DeferredComparison() {
-            @Override
-            public ComparisonState apply() {
-                return
-                    compare(new Comparison(ComparisonType.XML_VERSION,
-                                           control, getXPath(controlContext),
-                                           control.getXmlVersion(),
-                                           test, getXPath(testContext),
-                                           test.getXmlVersion()))
-                    .andThen(new Comparison(ComparisonType.XML_STANDALONE,
-                                            control, getXPath(controlContext),
-                                            control.getXmlStandalone(),
-                                            test, getXPath(testContext),
-                                            test.getXmlStandalone()))
-                    .andThen(new Comparison(ComparisonType.XML_ENCODING,
-                                            control, getXPath(controlContext),
-                                            control.getXmlEncoding(),
-                                            test, getXPath(testContext),
-                                            test.getXmlEncoding()));
-            }
-        };
+    private ComparisonState compareDeclarations(Document control,
+                                                XPathContext controlContext,
+                                                Document test,
+                                                XPathContext testContext) {
+        return compare(Comparison.of(ComparisonType.XML_VERSION,
+                                     control, getPath(controlContext),
+                                     view.getXmlVersion(control),
+                                     test, getPath(testContext),
+                                     view.getXmlVersion(test)))
+            .andThen(Comparison.of(ComparisonType.XML_STANDALONE,
+                                   control, getPath(controlContext),
+                                   view.getXmlStandalone(control),
+                                   test, getPath(testContext),
+                                   view.getXmlStandalone(test)))
+            .andThen(Comparison.of(ComparisonType.XML_ENCODING,
+                                   control, getPath(controlContext),
+                                   view.getXmlEncoding(control),
+                                   test, getPath(testContext),
+                                   view.getXmlEncoding(test)));
     }
 
     /**
      * Compares elements node properties, in particular the element's
      * name and its attributes.
      */
-    private ComparisonState compareElements(final Element control,
-                                            final XPathContext controlContext,
-                                            final Element test,
-                                            final XPathContext testContext) {
-        return
-            compare(new Comparison(ComparisonType.ELEMENT_TAG_NAME,
-                                   control, getXPath(controlContext),
-                                   Nodes.getQName(control).getLocalPart(),
-                                   test, getXPath(testContext),
-                                   Nodes.getQName(test).getLocalPart()))
-            .andThen(new DeferredComparison() {
-                    @Override
-                    public ComparisonState apply() {
-                        return compareElementAttributes(control, controlContext,
-                                                        test, testContext);
-                    }
-                });
+    private ComparisonState compareElements(Element control,
+                                            XPathContext controlContext,
+                                            Element test,
+                                            XPathContext testContext) {
+        ComparisonState state =
+            compare(Comparison.of(ComparisonType.ELEMENT_TAG_NAME,
+                                  control, getPath(controlContext),
+                                  NodeCache.getQName(control).getLocalPart(),
+                                  test, getPath(testContext),
+                                  NodeCache.getQName(test).getLocalPart()));
+        return state.isFinished() ? state
+            : compareElementAttributes(control, controlContext,
+                                       test, testContext);
     }
 
     /**
      * Compares element's attributes.
      */
-    private ComparisonState compareElementAttributes(final Element control,
-                                                     final XPathContext controlContext,
-                                                     final Element test,
-                                                     final XPathContext testContext) {
-        final Attributes controlAttributes = splitAttributes(control.getAttributes());
+    private ComparisonState compareElementAttributes(Element control,
+                                                     XPathContext controlContext,
+                                                     Element test,
+                                                     XPathContext testContext) {
+        Attributes controlAttributes = splitAttributes(control.getAttributes());
         controlContext
             .addAttributes(Linqy.map(controlAttributes.remainingAttributes,
                                      QNAME_MAPPER));
-        final Attributes testAttributes = splitAttributes(test.getAttributes());
+        Attributes testAttributes = splitAttributes(test.getAttributes());
         testContext
             .addAttributes(Linqy.map(testAttributes.remainingAttributes,
                                      QNAME_MAPPER));
 
-        return compare(new Comparison(ComparisonType.ELEMENT_NUM_ATTRIBUTES,
-                                      control, getXPath(controlContext),
-                                      controlAttributes.remainingAttributes.size(),
-                                      test, getXPath(testContext),
-                                      testAttributes.remainingAttributes.size()))
-            .andThen(new DeferredComparison() {
-                    @Override
-                    public ComparisonState apply() {
-                        return compareXsiType(controlAttributes.type, controlContext,
-                                              testAttributes.type, testContext);
-                    }
-                })
-            .andThen(new Comparison(ComparisonType.SCHEMA_LOCATION,
-                                    control, getXPath(controlContext),
-                                    controlAttributes.schemaLocation != null
-                                    ? controlAttributes.schemaLocation.getValue() : null,
-                                    test, getXPath(testContext),
-                                    testAttributes.schemaLocation != null
-                                    ? testAttributes.schemaLocation.getValue() : null))
-            .andThen(new Comparison(ComparisonType.NO_NAMESPACE_SCHEMA_LOCATION,
-                                    control, getXPath(controlContext),
-                                    controlAttributes.noNamespaceSchemaLocation != null ?
-                                    controlAttributes.noNamespaceSchemaLocation.getValue()
-                                    : null,
-                                    test, getXPath(testContext),
-                                    testAttributes.noNamespaceSchemaLocation != null
-                                    ? testAttributes.noNamespaceSchemaLocation.getValue()
-                                    : null))
-            .andThen(new NormalAttributeComparer(control, controlContext,
-                                                 controlAttributes, test,
-                                                 testContext, testAttributes));
-    }
-
-    private class NormalAttributeComparer implements DeferredComparison {
-        private final Set<Attr> foundTestAttributes = new HashSet<Attr>();
-        private final Element control, test;
-        private final XPathContext controlContext, testContext;
-        private final Attributes controlAttributes, testAttributes;
-
-        private NormalAttributeComparer(Element control,
-                                        XPathContext controlContext,
-                                        Attributes controlAttributes,
-                                        Element test,
-                                        XPathContext testContext,
-                                        Attributes testAttributes) {
-            this.control = control;
-            this.controlContext = controlContext;
-            this.controlAttributes = controlAttributes;
-            this.test = test;
-            this.testContext = testContext;
-            this.testAttributes = testAttributes;
-        }
-
-        @Override
-        public ComparisonState apply() {
-            ComparisonState chain = new OngoingComparisonState();
-            for (final Attr controlAttr : controlAttributes.remainingAttributes) {
-                final QName controlAttrName = Nodes.getQName(controlAttr);
-                final Attr testAttr =
-                    findMatchingAttr(testAttributes.remainingAttributes,
-                                     controlAttr);
-                final QName testAttrName = testAttr != null
-                    ? Nodes.getQName(testAttr) : null;
-
-                controlContext.navigateToAttribute(controlAttrName);
-                try {
-                    chain = chain.andThen(
-                        new Comparison(ComparisonType.ATTR_NAME_LOOKUP,
-                                                control, getXPath(controlContext),
-                                                controlAttrName,
-                                                test, getXPath(testContext),
-                                                testAttrName));
-
-                    if (testAttr != null) {
-                        testContext.navigateToAttribute(testAttrName);
-                        try {
-                            chain = chain.andThen(new DeferredComparison() {
-                                    @Override
-                                    public ComparisonState apply() {
-                                        return compareNodes(controlAttr, controlContext,
-                                                            testAttr, testContext);
-                                    }
-                                });
-                            foundTestAttributes.add(testAttr);
-                        } finally {
-                            testContext.navigateToParent();
-                        }
-                    }
-                } finally {
-                    controlContext.navigateToParent();
-                }
-            }
-            return chain.andThen(new ControlAttributePresentComparer(control,
-                                                                     controlContext,
-                                                                     test, testContext,
-                                                                     testAttributes,
-                                                                     foundTestAttributes));
+        ComparisonState state =
+            compare(Comparison.of(ComparisonType.ELEMENT_NUM_ATTRIBUTES,
+                                  control, getPath(controlContext),
+                                  controlAttributes.remainingAttributes.size(),
+                                  test, getPath(testContext),
+                                  testAttributes.remainingAttributes.size()));
+        if (state.isFinished()) {
+            return state;
         }
+        state = compareXsiType(controlAttributes.type, controlContext,
+                               testAttributes.type, testContext)
+            .andThen(Comparison.of(ComparisonType.SCHEMA_LOCATION,
+                                   control, getPath(controlContext),
+                                   controlAttributes.schemaLocation != null
+                                   ? view.getValue(controlAttributes.schemaLocation) : null,
+                                   test, getPath(testContext),
+                                   testAttributes.schemaLocation != null
+                                   ? view.getValue(testAttributes.schemaLocation) : null))
+            .andThen(Comparison.of(ComparisonType.NO_NAMESPACE_SCHEMA_LOCATION,
+                                   control, getPath(controlContext),
+                                   controlAttributes.noNamespaceSchemaLocation != null ?
+                                   view.getValue(controlAttributes.noNamespaceSchemaLocation)
+                                   : null,
+                                   test, getPath(testContext),
+                                   testAttributes.noNamespaceSchemaLocation != null
+                                   ? view.getValue(testAttributes.noNamespaceSchemaLocation)
+                                   : null));
+        return state.isFinished() ? state
+            : compareNormalAttributes(control, controlContext, controlAttributes,
+                                      test, testContext, testAttributes);
     }
 
-    private class ControlAttributePresentComparer implements DeferredComparison {
-
-        private final Set<Attr> foundTestAttributes;
-        private final Element control, test;
-        private final XPathContext controlContext, testContext;
-        private final Attributes testAttributes;
+    /**
+     * Compares the attributes that are not namespace related pairwise
+     * and performs ATTR_NAME_LOOKUP comparisons for the ones that
+     * only exist on one side.
+     */
+    private ComparisonState compareNormalAttributes(Element control,
+                                                    XPathContext controlContext,
+                                                    Attributes controlAttributes,
+                                                    Element test,
+                                                    XPathContext testContext,
+                                                    Attributes testAttributes) {
+        Set<Attr> foundTestAttributes = new HashSet<Attr>();
+        Map<QName, Attr> testAttributesByName =
+            indexByName(testAttributes.remainingAttributes);
+        ComparisonState state = ongoingState(ComparisonResult.EQUAL);
+        for (Attr controlAttr : controlAttributes.remainingAttributes) {
+            QName controlAttrName = NodeCache.getQName(controlAttr);
+            Attr testAttr = testAttributesByName.get(controlAttrName);
+            QName testAttrName = testAttr != null
+                ? NodeCache.getQName(testAttr) : null;
 
-        private ControlAttributePresentComparer(Element control,
-                                                XPathContext controlContext,
-                                                Element test,
-                                                XPathContext testContext,
-                                                Attributes testAttributes,
-                                                Set<Attr> foundTestAttributes) {
-            this.control = control;
-            this.controlContext = controlContext;
-            this.test = test;
-            this.testContext = testContext;
-            this.testAttributes = testAttributes;
-            this.foundTestAttributes = foundTestAttributes;
-        }
+            controlContext.navigateToAttribute(controlAttrName);
+            try {
+                state = compare(Comparison.of(ComparisonType.ATTR_NAME_LOOKUP,
+                                              control, getPath(controlContext),
+                                              controlAttrName,
+                                              test, getPath(testContext),
+                                              testAttrName));
 
-        @Override
-        public ComparisonState apply() {
-            ComparisonState chain = new OngoingComparisonState();
-            for (Attr testAttr : testAttributes.remainingAttributes) {
-                if (!foundTestAttributes.contains(testAttr)) {
-                    QName testAttrName = Nodes.getQName(testAttr);
+                if (!state.isFinished() && testAttr != null) {
                     testContext.navigateToAttribute(testAttrName);
                     try {
-                        chain =
-                            chain.andThen(new Comparison(ComparisonType.ATTR_NAME_LOOKUP,
-                                                         control,
-                                                         getXPath(controlContext),
-                                                         null,
-                                                         test, getXPath(testContext),
-                                                         testAttrName));
+                        state = compareNode(controlAttr, controlContext,
+                                            testAttr, testContext, null);
+                        foundTestAttributes.add(testAttr);
                     } finally {
                         testContext.navigateToParent();
                     }
                 }
+            } finally {
+                controlContext.navigateToParent();
+            }
+            if (state.isFinished()) {
+                return state;
             }
-            return chain;
         }
 
+        state = ongoingState(ComparisonResult.EQUAL);
+        for (Attr testAttr : testAttributes.remainingAttributes) {
+            if (!foundTestAttributes.contains(testAttr)) {
+                QName testAttrName = NodeCache.getQName(testAttr);
+                testContext.navigateToAttribute(testAttrName);
+                try {
+                    state = compare(Comparison.of(ComparisonType.ATTR_NAME_LOOKUP,
+                                                  control,
+                                                  getPath(controlContext),
+                                                  null,
+                                                  test, getPath(testContext),
+                                                  testAttrName));
+                } finally {
+                    testContext.navigateToParent();
+                }
+                if (state.isFinished()) {
+                    return state;
+                }
+            }
+        }
+        return state;
     }
 
     /**
@@ -484,139 +711,273 @@ private ComparisonState compareProcessingInstructions(ProcessingInstruction cont
                                                           XPathContext controlContext,
                                                           ProcessingInstruction test,
                                                           XPathContext testContext) {
-        return compare(new Comparison(ComparisonType.PROCESSING_INSTRUCTION_TARGET,
-                                      control, getXPath(controlContext),
-                                      control.getTarget(),
-                                      test, getXPath(testContext),
-                                      test.getTarget()))
-            .andThen(new Comparison(ComparisonType.PROCESSING_INSTRUCTION_DATA,
-                                    control, getXPath(controlContext),
-                                    control.getData(),
-                                    test, getXPath(testContext),
-                                    test.getData()));
+        return compare(Comparison.of(ComparisonType.PROCESSING_INSTRUCTION_TARGET,
+                                     control, getPath(controlContext),
+                                     control.getTarget(),
+                                     test, getPath(testContext),
+                                     test.getTarget()))
+            .andThen(Comparison.of(ComparisonType.PROCESSING_INSTRUCTION_DATA,
+                                   control, getPath(controlContext),
+                                   view.getValue(control),
+                                   test, getPath(testContext),
+                                   view.getValue(test)));
     }
 
     /**
-     * Matches nodes of two node lists and invokes compareNode on each pair.
+     * The child lists of a pair of nodes that are being compared.
      *
-     * <p>Also performs CHILD_LOOKUP comparisons for each node that
-     * couldn't be matched to one of the "other" list.</p>
-     */
-    private ComparisonState compareNodeLists(Iterable<Node> controlSeq,
-                                             final XPathContext controlContext,
-                                             Iterable<Node> testSeq,
-                                             final XPathContext testContext) {
-        ComparisonState chain = new OngoingComparisonState();
-
-        Iterable<Map.Entry<Node, Node>> matches =
-            getNodeMatcher().match(controlSeq, testSeq);
-        List<Node> controlList = Linqy.asList(controlSeq);
-        List<Node> testList = Linqy.asList(testSeq);
-        Set<Node> seen = new HashSet<Node>();
-        for (Map.Entry<Node, Node> pair : matches) {
-            final Node control = pair.getKey();
-            seen.add(control);
-            final Node test = pair.getValue();
-            seen.add(test);
-            int controlIndex = controlList.indexOf(control);
-            int testIndex = testList.indexOf(test);
+     * <p>Matches nodes of the two lists, compares the matched pairs
+     * one after the other - pushing the child lists of each pair to
+     * the stack - and finally performs CHILD_LOOKUP comparisons for
+     * each node that couldn't be matched to one of the "other"
+     * list.</p>
+     */
+    private final class ChildNodes {
+        private final List<Node> controlList, testList;
+        private final XPathContext controlContext, testContext;
+        private final Iterator<Map.Entry<Node, Node>> pairs;
+        private Map<Node, Integer> controlIndexes, testIndexes;
+        private Map<Node, SubtreeTask> forked = Collections.emptyMap();
+        private final Set<Node> seen = new HashSet<Node>();
+        /**
+         * Whether the contexts have been navigated to the current pair.
+         */
+        private boolean inChild;
 
-            controlContext.navigateToChild(controlIndex);
-            testContext.navigateToChild(testIndex);
+        private ChildNodes(List<Node> controlList, XPathContext controlContext,
+                           List<Node> testList, XPathContext testContext) {
+            this.controlList = controlList;
+            this.controlContext = controlContext;
+            this.testList = testList;
+            this.testContext = testContext;
+            if (controlList.isEmpty() && testList.isEmpty()) {
+                pairs = Collections.<Map.Entry<Node, Node>>emptyList().iterator();
+                return;
+            }
+            Iterable<Map.Entry<Node, Node>> matches = match();
+            controlIndexes = indexNodes(controlList);
+            testIndexes = indexNodes(testList);
+            if (parallelRun != null) {
+                matches = Linqy.asList(matches);
+                forked = fork(matches, controlIndexes, controlContext,
+                              testIndexes, testContext);
+            }
+            pairs = matches.iterator();
+        }
+
+        private Iterable<Map.Entry<Node, Node>> match() {
+            DiffStatistics statistics = getStatistics();
+            if (statistics == null) {
+                return getNodeMatcher().match(controlList, testList);
+            }
+            long nanos = System.nanoTime();
+            long bytes = DiffStatistics.currentAllocatedBytes();
             try {
-                chain =
-                    chain.andThen(new Comparison(ComparisonType.CHILD_NODELIST_SEQUENCE,
-                                                 control, getXPath(controlContext),
-                                                 Integer.valueOf(controlIndex),
-                                                 test, getXPath(testContext),
-                                                 Integer.valueOf(testIndex)))
-                    .andThen(new DeferredComparison() {
-                            @Override
-                            public ComparisonState apply() {
-                                return compareNodes(control, controlContext,
-                                                    test, testContext);
-                            }
-                        });
+                NodeMatcher m = getNodeMatcher();
+                if (m instanceof DefaultNodeMatcher) {
+                    return ((DefaultNodeMatcher) m).match(controlList, testList, statistics);
+                }
+                if (m instanceof KeyedNodeMatcher) {
+                    return ((KeyedNodeMatcher) m).match(controlList, testList, statistics);
+                }
+                return m.match(controlList, testList);
             } finally {
-                testContext.navigateToParent();
-                controlContext.navigateToParent();
+                statistics.recordSince(DiffStatistics.Phase.MATCH, nanos, bytes);
             }
         }
 
-        return chain.andThen(new UnmatchedControlNodes(controlList, controlContext, seen))
-            .andThen(new UnmatchedTestNodes(testList, testContext, seen));
-    }
+        /**
+         * Compares the next pair of matched nodes or - once all pairs
+         * have been compared - the unmatched nodes, in which case the
+         * lists are popped from the stack.
+         */
+        private ComparisonState compareNext(Deque<ChildNodes> stack) {
+            leaveCurrentChild();
+            if (!pairs.hasNext()) {
+                stack.pop();
+                try {
+                    return compareUnmatchedNodes();
+                } finally {
+                    NodeCache.endScope();
+                }
+            }
+            Map.Entry<Node, Node> pair = pairs.next();
+            Node control = pair.getKey();
+            seen.add(control);
+            Node test = pair.getValue();
+            seen.add(test);
+            int controlIndex = controlIndexes.get(control).intValue();
+            int testIndex = testIndexes.get(test).intValue();
 
-    private class UnmatchedControlNodes implements DeferredComparison {
-        private final List<Node> controlList;
-        private final XPathContext controlContext;
-        private final Set<Node> seen;
+            controlContext.navigateToChild(controlIndex);
+            testContext.navigateToChild(testIndex);
+            inChild = true;
+            ComparisonState state =
+                compare(Comparison.of(ComparisonType.CHILD_NODELIST_SEQUENCE,
+                                      control, getPath(controlContext),
+                                      Integer.valueOf(controlIndex),
+                                      test, getPath(testContext),
+                                      Integer.valueOf(testIndex)));
+            if (state.isFinished()) {
+                return state;
+            }
+            if (isCancelled()) {
+                return new FinishedComparisonState(ComparisonResult.EQUAL);
+            }
+            SubtreeTask task = forked.get(control);
+            if (task != null) {
+                Recording r = task.join();
+                if (!r.cancelled) {
+                    return r.replay();
+                }
+            }
+            if (isIdenticalSubtree(control, test)) {
+                return skipSubtree(control, controlContext, test, testContext);
+            }
+            return compareNode(control, controlContext, test, testContext, stack);
+        }
 
-        private UnmatchedControlNodes(List<Node> controlList, XPathContext controlContext,
-                                      Set<Node> seen) {
-            this.controlList = controlList;
-            this.controlContext = controlContext;
-            this.seen = seen;
+        /**
+         * Navigates the contexts back to the parents of the current
+         * pair if they have been navigated to it.
+         */
+        private void leaveCurrentChild() {
+            if (inChild) {
+                inChild = false;
+                testContext.navigateToParent();
+                controlContext.navigateToParent();
+            }
         }
 
-        @Override
-        public ComparisonState apply() {
-            ComparisonState chain = new OngoingComparisonState();
+        private ComparisonState compareUnmatchedNodes() {
+            ComparisonState state = ongoingState(ComparisonResult.EQUAL);
             final int controlSize = controlList.size();
-            for (int i = 0; i < controlSize; i++) {
+            for (int i = 0; i < controlSize && !state.isFinished(); i++) {
                 if (!seen.contains(controlList.get(i))) {
+                    if (getStatistics() != null) {
+                        getStatistics().nodesVisited(1, 0);
+                    }
                     controlContext.navigateToChild(i);
                     try {
-                        chain =
-                            chain.andThen(new Comparison(ComparisonType.CHILD_LOOKUP,
-                                                         controlList.get(i),
-                                                         getXPath(controlContext),
-                                                         Nodes.getQName(controlList.get(i)),
-                                                         null, null, null));
+                        state = compare(Comparison.of(ComparisonType.CHILD_LOOKUP,
+                                                      controlList.get(i),
+                                                      getPath(controlContext),
+                                                      NodeCache.getQName(controlList.get(i)),
+                                                      null, null, null));
                     } finally {
                         controlContext.navigateToParent();
                     }
                 }
             }
-            return chain;
-        }
-    }
-
-    private class UnmatchedTestNodes implements DeferredComparison {
-        private final List<Node> testList;
-        private final XPathContext testContext;
-        private final Set<Node> seen;
-
-        private UnmatchedTestNodes(List<Node> testList, XPathContext testContext,
-                                      Set<Node> seen) {
-            this.testList = testList;
-            this.testContext = testContext;
-            this.seen = seen;
-        }
+            if (state.isFinished()) {
+                return state;
+            }
 
-        @Override
-        public ComparisonState apply() {
-            ComparisonState chain = new OngoingComparisonState();
+            state = ongoingState(ComparisonResult.EQUAL);
             final int testSize = testList.size();
-            for (int i = 0; i < testSize; i++) {
+            for (int i = 0; i < testSize && !state.isFinished(); i++) {
                 if (!seen.contains(testList.get(i))) {
+                    if (getStatistics() != null) {
+                        getStatistics().nodesVisited(0, 1);
+                    }
                     testContext.navigateToChild(i);
                     try {
-                        chain =
-                            chain.andThen(new Comparison(ComparisonType.CHILD_LOOKUP,
-                                                         null, null, null,
-                                                         testList.get(i),
-                                                         getXPath(testContext),
-                                                         Nodes.getQName(testList.get(i))));
+                        state = compare(Comparison.of(ComparisonType.CHILD_LOOKUP,
+                                                      null, null, null,
+                                                      testList.get(i),
+                                                      getPath(testContext),
+                                                      NodeCache.getQName(testList.get(i))));
                     } finally {
                         testContext.navigateToParent();
                     }
                 }
             }
-            return chain;
+            return state;
         }
     }
 
+    private boolean isIdenticalSubtree(Node control, Node test) {
+        return controlFingerprints != null && testFingerprints != null
+            && controlFingerprints.sameAs(control, testFingerprints, test);
+    }
+
+    private ComparisonState skipSubtree(Node control, XPathContext controlContext,
+                                        Node test, XPathContext testContext) {
+        if (getStatistics() != null) {
+            getStatistics().subtreeSkipped();
+        }
+        if (!skippedSubtreeListeners.isEmpty()) {
+            String controlXPath = getXPath(controlContext);
+            String testXPath = getXPath(testContext);
+            for (SkippedSubtreeListener l : skippedSubtreeListeners) {
+                l.subtreeSkipped(control, controlXPath, test, testXPath);
+            }
+        }
+        return ongoingState(ComparisonResult.EQUAL);
+    }
+
+    /**
+     * Submits a task for each pair of nodes whose control subtree is
+     * big enough, provided there are at least two of them.
+     *
+     * @return the tasks keyed by control node
+     */
+    private Map<Node, SubtreeTask> fork(Iterable<Map.Entry<Node, Node>> matches,
+                                        Map<Node, Integer> controlIndexes,
+                                        XPathContext controlContext,
+                                        Map<Node, Integer> testIndexes,
+                                        XPathContext testContext) {
+        List<Map.Entry<Node, Node>> candidates =
+            new ArrayList<Map.Entry<Node, Node>>();
+        for (Map.Entry<Node, Node> pair : matches) {
+            if (parallelRun.isForkable(pair.getKey())
+                && !isIdenticalSubtree(pair.getKey(), pair.getValue())) {
+                candidates.add(pair);
+            }
+        }
+        if (candidates.size() < 2) {
+            return Collections.emptyMap();
+        }
+        Map<Node, SubtreeTask> tasks = new IdentityHashMap<Node, SubtreeTask>();
+        for (Map.Entry<Node, Node> pair : candidates) {
+            Node control = pair.getKey();
+            Node test = pair.getValue();
+            controlContext.navigateToChild(controlIndexes.get(control).intValue());
+            testContext.navigateToChild(testIndexes.get(test).intValue());
+            try {
+                SubtreeTask task =
+                    new SubtreeTask(parallelRun, control, controlContext.clone(),
+                                    test, testContext.clone());
+                tasks.put(control, task);
+                task.submit();
+            } finally {
+                testContext.navigateToParent();
+                controlContext.navigateToParent();
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Whether the task this engine is working for has been
+     * cancelled.
+     */
+    private boolean isCancelled() {
+        return currentTask != null && currentTask.isCancelled();
+    }
+
+    /**
+     * Maps each node to its (first) position inside the list.
+     */
+    private static Map<Node, Integer> indexNodes(List<Node> nodes) {
+        Map<Node, Integer> indexes = new IdentityHashMap<Node, Integer>();
+        final int size = nodes.size();
+        for (int i = size - 1; i >= 0; i--) {
+            indexes.put(nodes.get(i), Integer.valueOf(i));
+        }
+        return indexes;
+    }
+
     /**
      * Compares xsi:type attribute values
      */
@@ -627,7 +988,7 @@ private ComparisonState compareXsiType(Attr controlAttr,
         boolean mustChangeControlContext = controlAttr != null;
         boolean mustChangeTestContext = testAttr != null;
         if (!mustChangeControlContext && !mustChangeTestContext) {
-            return new OngoingComparisonState();
+            return ongoingState(ComparisonResult.EQUAL);
         }
         boolean attributePresentOnBothSides = mustChangeControlContext
             && mustChangeTestContext;
@@ -635,31 +996,32 @@ private ComparisonState compareXsiType(Attr controlAttr,
         try {
             QName controlAttrName = null;
             if (mustChangeControlContext) {
-                controlAttrName = Nodes.getQName(controlAttr);
+                controlAttrName = NodeCache.getQName(controlAttr);
                 controlContext.addAttribute(controlAttrName);
                 controlContext.navigateToAttribute(controlAttrName);
             }
             QName testAttrName = null;
             if (mustChangeTestContext) {
-                testAttrName = Nodes.getQName(testAttr);
+                testAttrName = NodeCache.getQName(testAttr);
                 testContext.addAttribute(testAttrName);
                 testContext.navigateToAttribute(testAttrName);
             }
-            return
-                compare(new Comparison(ComparisonType.ATTR_NAME_LOOKUP,
-                                       controlAttr, getXPath(controlContext),
-                                       controlAttrName,
-                                       testAttr, getXPath(testContext),
-                                       testAttrName))
-                .andIfTrueThen(attributePresentOnBothSides,
-                               compareAttributeExplicitness(controlAttr, controlContext,
-                                                            testAttr, testContext))
-                .andIfTrueThen(attributePresentOnBothSides,
-                               new Comparison(ComparisonType.ATTR_VALUE,
-                                              controlAttr, getXPath(controlContext),
-                                              valueAsQName(controlAttr),
-                                              testAttr, getXPath(testContext),
-                                              valueAsQName(testAttr)));
+            ComparisonState state =
+                compare(Comparison.of(ComparisonType.ATTR_NAME_LOOKUP,
+                                      controlAttr, getPath(controlContext),
+                                      controlAttrName,
+                                      testAttr, getPath(testContext),
+                                      testAttrName));
+            if (!attributePresentOnBothSides || state.isFinished()) {
+                return state;
+            }
+            return compareAttributeExplicitness(controlAttr, controlContext,
+                                                testAttr, testContext)
+                .andThen(Comparison.of(ComparisonType.ATTR_VALUE,
+                                       controlAttr, getPath(controlContext),
+                                       valueAsQName(controlAttr),
+                                       testAttr, getPath(testContext),
+                                       valueAsQName(testAttr)));
         } finally {
             if (mustChangeControlContext) {
                 controlContext.navigateToParent();
@@ -678,31 +1040,26 @@ private ComparisonState compareAttributes(Attr control,
                                               Attr test,
                                               XPathContext testContext) {
         return compareAttributeExplicitness(control, controlContext, test,
-                                            testContext).apply()
-            .andThen(new Comparison(ComparisonType.ATTR_VALUE,
-                                    control, getXPath(controlContext),
-                                    control.getValue(),
-                                    test, getXPath(testContext),
-                                    test.getValue()));
+                                            testContext)
+            .andThen(Comparison.of(ComparisonType.ATTR_VALUE,
+                                   control, getPath(controlContext),
+                                   view.getValue(control),
+                                   test, getPath(testContext),
+                                   view.getValue(test)));
     }
 
     /**
      * Compares whether two attributes are specified explicitly.
      */
-    private DeferredComparison compareAttributeExplicitness(final Attr control,
-                                                            final XPathContext controlContext,
-                                                            final Attr test,
-                                                            final XPathContext testContext) {
-        return new DeferredComparison() {
-            @Override
-            public ComparisonState apply() {
-                return compare(new Comparison(ComparisonType.ATTR_VALUE_EXPLICITLY_SPECIFIED,
-                                              control, getXPath(controlContext),
-                                              control.getSpecified(),
-                                              test, getXPath(testContext),
-                                              test.getSpecified()));
-            }
-        };
+    private ComparisonState compareAttributeExplicitness(Attr control,
+                                                         XPathContext controlContext,
+                                                         Attr test,
+                                                         XPathContext testContext) {
+        return compare(Comparison.of(ComparisonType.ATTR_VALUE_EXPLICITLY_SPECIFIED,
+                                     control, getPath(controlContext),
+                                     view.isSpecified(control),
+                                     test, getPath(testContext),
+                                     view.isSpecified(test)));
     }
 
     /**
@@ -730,9 +1087,10 @@ private static Attributes splitAttributes(final NamedNodeMap map) {
         return new Attributes(sLoc, nNsLoc, type, rest);
     }
 
-    private static QName valueAsQName(Attr attribute) {
+    private QName valueAsQName(Attr attribute) {
         // split QName into prefix and local name
-        String[] pieces = attribute.getValue().split(":");
+        String value = view.getValue(attribute);
+        String[] pieces = value.split(":");
         if (pieces.length < 2) {
             // unprefixed name
             pieces = new String[] { null, pieces[0] };
@@ -740,7 +1098,7 @@ private static QName valueAsQName(Attr attribute) {
             // actually, this is not a valid QName - be lenient
             pieces = new String[] {
                 pieces[0],
-                attribute.getValue().substring(pieces[0].length() + 1)
+                value.substring(pieces[0].length() + 1)
             };
         }
         if ("".equals(pieces[0])) {
@@ -764,48 +1122,332 @@ private Attributes(Attr schemaLocation, Attr noNamespaceSchemaLocation,
     }
 
     /**
-     * Find the attribute with the same namespace and local name as a
-     * given attribute in a list of attributes.
+     * Indexes attributes by namespace and local name - or by name if
+     * they don't have a namespace - the first one wins.
      */
-    private static Attr findMatchingAttr(final List<Attr> attrs,
-                                         final Attr attrToMatch) {
-        final boolean hasNs = attrToMatch.getNamespaceURI() != null;
-        final String nsToMatch = attrToMatch.getNamespaceURI();
-        final String nameToMatch = hasNs ? attrToMatch.getLocalName()
-            : attrToMatch.getName();
+    private static Map<QName, Attr> indexByName(final List<Attr> attrs) {
+        final Map<QName, Attr> index = new HashMap<QName, Attr>();
         for (Attr a : attrs) {
-            if (((!hasNs && a.getNamespaceURI() == null)
-                 ||
-                 (hasNs && nsToMatch.equals(a.getNamespaceURI())))
-                &&
-                ((hasNs && nameToMatch.equals(a.getLocalName()))
-                 ||
-                 (!hasNs && nameToMatch.equals(a.getName())))
-                ) {
-                return a;
+            final QName name = NodeCache.getQName(a);
+            if (!index.containsKey(name)) {
+                index.put(name, a);
             }
         }
-        return null;
+        return index;
     }
 
     /**
-     * Maps Nodes to their QNames.
+     * A node visited by {@link ParallelRun#expand}, its attributes
+     * are visited before its children.
      */
-    private static final Mapper<Node, QName> QNAME_MAPPER =
-        new Mapper<Node, QName>() {
-            @Override
-            public QName apply(Node n) { return Nodes.getQName(n); }
-        };
+    private static final class Expansion {
+        private final Node node;
+        private final boolean isControl;
+        private final int index;
+        private final NamedNodeMap attributes;
+        private int size = 1;
+        private int nextAttribute;
+        private Node child;
+        private boolean childrenStarted;
+
+        private Expansion(Node node, boolean isControl, int index) {
+            this.node = node;
+            this.isControl = isControl;
+            this.index = index;
+            node.getNodeName();
+            node.getNamespaceURI();
+            node.getNodeValue();
+            attributes = node.getAttributes();
+        }
+
+        private Node next() {
+            if (attributes != null && nextAttribute < attributes.getLength()) {
+                return attributes.item(nextAttribute++);
+            }
+            child = childrenStarted ? child.getNextSibling() : node.getFirstChild();
+            childrenStarted = true;
+            return child;
+        }
+    }
 
     /**
-     * Suppresses document-type nodes.
+     * State of a single parallel comparison shared by all tasks.
      */
-    private static final Predicate<Node> INTERESTING_NODES =
-        new Predicate<Node>() {
-            @Override
-            public boolean test(Node n) {
-                return n.getNodeType() != Node.DOCUMENT_TYPE_NODE;
+    private static final class ParallelRun {
+        private final Executor executor;
+        private final int threshold;
+        /**
+         * Control nodes that are big enough to be compared in
+         * parallel mapped to their position in document order.
+         */
+        private final Map<Node, Integer> forkable =
+            new IdentityHashMap<Node, Integer>();
+        /**
+         * Position of the first task that has stopped the comparison.
+         */
+        private final AtomicInteger stopIndex =
+            new AtomicInteger(Integer.MAX_VALUE);
+        private int nextIndex;
+
+        private ParallelRun(Executor executor, int threshold,
+                            Node control, Node test) {
+            this.executor = executor;
+            this.threshold = threshold;
+            expand(control, true);
+            expand(test, false);
+        }
+
+        /**
+         * Visits each node once on the current thread, this makes
+         * lazily built DOM implementations expand the whole tree
+         * before it is read by multiple threads.
+         *
+         * <p>Uses an explicit stack rather than recursion, like the
+         * comparison itself, so deeply nested documents don't
+         * exhaust the call stack.</p>
+         */
+        private void expand(Node root, boolean isControl) {
+            Deque<Expansion> stack = new ArrayDeque<Expansion>();
+            stack.push(new Expansion(root, isControl, nextIndex++));
+            while (true) {
+                Expansion top = stack.peek();
+                Node next = top.next();
+                if (next != null) {
+                    boolean control = top.isControl
+                        && next.getNodeType() != Node.ATTRIBUTE_NODE;
+                    stack.push(new Expansion(next, control, nextIndex++));
+                    continue;
+                }
+                stack.pop();
+                if (top.isControl && top.size >= threshold) {
+                    forkable.put(top.node, Integer.valueOf(top.index));
+                }
+                Expansion parent = stack.peek();
+                if (parent == null) {
+                    return;
+                }
+                parent.size += top.size;
+            }
+        }
+
+        private boolean isForkable(Node control) {
+            return forkable.containsKey(control);
+        }
+
+        private int indexOf(Node control) {
+            return forkable.get(control).intValue();
+        }
+
+        private boolean isCancelled(int index) {
+            return index > stopIndex.get();
+        }
+
+        /**
+         * Cancels all tasks following the given one in document order.
+         */
+        private void stopped(int index) {
+            int current;
+            do {
+                current = stopIndex.get();
+            } while (index < current && !stopIndex.compareAndSet(current, index));
+        }
+
+        private void cancelAll() {
+            stopIndex.set(-1);
+        }
+    }
+
+    /**
+     * Compares a pair of subtrees using a separate engine that
+     * records all notifications.
+     */
+    private final class SubtreeTask implements Callable<Recording> {
+        private final ParallelRun run;
+        private final int index;
+        private final Node control, test;
+        private final XPathContext controlContext, testContext;
+        private final FutureTask<Recording> future =
+            new FutureTask<Recording>(this);
+
+        private SubtreeTask(ParallelRun run, Node control,
+                            XPathContext controlContext, Node test,
+                            XPathContext testContext) {
+            this.run = run;
+            this.index = run.indexOf(control);
+            this.control = control;
+            this.controlContext = controlContext;
+            this.test = test;
+            this.testContext = testContext;
+        }
+
+        private void submit() {
+            try {
+                run.executor.execute(future);
+            } catch (RejectedExecutionException ex) {
+                // will be run by join
+            }
+        }
+
+        private boolean isCancelled() {
+            return run.isCancelled(index);
+        }
+
+        @Override
+        public Recording call() {
+            Recording recording = new Recording();
+            if (isCancelled()) {
+                recording.cancelled = true;
+                return recording;
+            }
+            DOMDifferenceEngine worker = new DOMDifferenceEngine();
+            worker.setNodeMatcher(getNodeMatcher());
+            worker.setDifferenceEvaluator(getDifferenceEvaluator());
+            worker.setComparisonController(getComparisonController());
+            worker.setNamespaceContext(getNamespaceContext());
+            worker.controlFingerprints = controlFingerprints;
+            worker.testFingerprints = testFingerprints;
+            worker.view = view;
+            worker.parallelRun = run;
+            worker.currentTask = this;
+            worker.addComparisonListener(recording);
+            worker.addSkippedSubtreeListener(recording);
+            if (getStatistics() != null) {
+                recording.statistics = new DiffStatistics();
+                worker.setStatistics(recording.statistics);
+            }
+            ComparisonState state;
+            NodeCache cache = beginCache();
+            try {
+                state = worker.compareNodes(control, controlContext,
+                                            test, testContext);
+            } finally {
+                cache.end();
             }
+            recording.finished = state.isFinished();
+            recording.result = state.getResult();
+            recording.cancelled = isCancelled();
+            if (recording.finished && !recording.cancelled) {
+                run.stopped(index);
+            }
+            return recording;
+        }
+
+        /**
+         * Waits for the task to complete, runs it on the current
+         * thread if it hasn't been started, yet.
+         */
+        private Recording join() {
+            future.run();
+            try {
+                return future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new XMLUnitException("Interrupted while waiting for"
+                                           + " subtree comparison", ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                if (ex.getCause() instanceof Error) {
+                    throw (Error) ex.getCause();
+                }
+                throw new XMLUnitException("Caught exception during"
+                                           + " subtree comparison",
+                                           ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Notifications recorded by a task in order to be replayed by the
+     * engine that has forked the task.
+     */
+    private final class Recording
+        implements ComparisonListener, SkippedSubtreeListener {
+        private final List<RecordedEvent> events =
+            new ArrayList<RecordedEvent>();
+        private boolean finished, cancelled;
+        private ComparisonResult result = ComparisonResult.EQUAL;
+        private DiffStatistics statistics;
+
+        @Override
+        public void comparisonPerformed(Comparison comparison,
+                                        ComparisonResult outcome) {
+            events.add(new PerformedComparison(comparison, outcome));
+        }
+
+        @Override
+        public void subtreeSkipped(Node control, String controlXPath,
+                                   Node test, String testXPath) {
+            events.add(new SkippedSubtree(control, controlXPath,
+                                          test, testXPath));
+        }
+
+        private ComparisonState replay() {
+            if (statistics != null) {
+                getStatistics().add(statistics);
+            }
+            for (RecordedEvent e : events) {
+                e.replay();
+            }
+            return finished ? new FinishedComparisonState(result)
+                : ongoingState(result);
+        }
+    }
+
+    /**
+     * A notification held by a {@link Recording}.
+     */
+    private abstract class RecordedEvent {
+        /**
+         * Notifies this engine's listeners.
+         */
+        abstract void replay();
+    }
+
+    private final class PerformedComparison extends RecordedEvent {
+        private final Comparison comparison;
+        private final ComparisonResult outcome;
+
+        private PerformedComparison(Comparison comparison,
+                                    ComparisonResult outcome) {
+            this.comparison = comparison;
+            this.outcome = outcome;
+        }
+
+        @Override
+        void replay() {
+            fireComparisonPerformed(comparison, outcome);
+        }
+    }
+
+    private final class SkippedSubtree extends RecordedEvent {
+        private final Node control, test;
+        private final String controlXPath, testXPath;
+
+        private SkippedSubtree(Node control, String controlXPath,
+                               Node test, String testXPath) {
+            this.control = control;
+            this.controlXPath = controlXPath;
+            this.test = test;
+            this.testXPath = testXPath;
+        }
+
+        @Override
+        void replay() {
+            for (SkippedSubtreeListener l : skippedSubtreeListeners) {
+                l.subtreeSkipped(control, controlXPath, test, testXPath);
+            }
+        }
+    }
+
+    /**
+     * Maps Nodes to their QNames.
+     */
+    private static final Mapper<Node, QName> QNAME_MAPPER =
+        new Mapper<Node, QName>() {
+            @Override
+            public QName apply(Node n) { return NodeCache.getQName(n); }
         };
 
 }
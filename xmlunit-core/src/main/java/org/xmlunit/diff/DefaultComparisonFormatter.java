@@ -15,6 +15,7 @@
 package org.xmlunit.diff;
 
 import org.xmlunit.diff.Comparison.Detail;
+import org.xmlunit.util.JAXPProviders;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.CDATASection;
@@ -282,7 +283,7 @@ private String getFormattedNodeXml(final Node nodeToConvert, boolean formatXml)
      * @param numberOfBlanksToIndent the number of spaces which is used for indent the XML-structure
      */
     private static Transformer createXmlTransformer(int numberOfBlanksToIndent) throws TransformerConfigurationException {
-        final TransformerFactory factory = TransformerFactory.newInstance();
+        final TransformerFactory factory = JAXPProviders.getDefault().newTransformerFactory();
         // as not all TransformerFactories support this feature -> catch the IllegalArgumentException
         if (numberOfBlanksToIndent >= 0) {
             try {
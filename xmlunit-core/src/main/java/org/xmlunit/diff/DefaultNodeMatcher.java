@@ -18,7 +18,9 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.xmlunit.util.Instrumentation;
 import org.xmlunit.util.Linqy;
+import org.xmlunit.util.Observations;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
@@ -30,6 +32,8 @@
 public class DefaultNodeMatcher implements NodeMatcher {
     private final ElementSelector elementSelector;
     private final NodeTypeMatcher nodeTypeMatcher;
+    private final boolean matchOverridden =
+        overridesMatch(this, DefaultNodeMatcher.class);
 
     /**
      * Creates a matcher using {@link ElementSelectors#Default} and
@@ -56,9 +60,40 @@ public DefaultNodeMatcher(ElementSelector es, NodeTypeMatcher ntm) {
         nodeTypeMatcher = ntm;
     }
 
+    /**
+     * The selector deciding which elements can be matched.
+     */
+    public ElementSelector getElementSelector() {
+        return elementSelector;
+    }
+
+    /**
+     * The matcher deciding which nodes that are no elements can be
+     * matched.
+     */
+    public NodeTypeMatcher getNodeTypeMatcher() {
+        return nodeTypeMatcher;
+    }
+
     @Override
     public Iterable<Map.Entry<Node, Node>> match(Iterable<Node> controlNodes,
                                                  Iterable<Node> testNodes) {
+        return match(controlNodes, testNodes, null);
+    }
+
+    /**
+     * Matches the nodes and adds the number of candidates checked to
+     * the given statistics if they are not null.
+     *
+     * <p>Delegates to a subclass' implementation of {@link
+     * #match(Iterable, Iterable)} without counting anything.</p>
+     */
+    Iterable<Map.Entry<Node, Node>> match(Iterable<Node> controlNodes,
+                                          Iterable<Node> testNodes,
+                                          DiffStatistics statistics) {
+        if (statistics != null && matchOverridden) {
+            return match(controlNodes, testNodes);
+        }
         Map<Node, Node> matches = new LinkedHashMap<Node, Node>();
         List<Node> controlList = Linqy.asList(controlNodes);
         List<Node> testList = Linqy.asList(testNodes);
@@ -68,41 +103,54 @@ public Iterable<Map.Entry<Node, Node>> match(Iterable<Node> controlNodes,
             unmatchedTestIndexes.add(Integer.valueOf(i));
         }
         final int controlSize = controlList.size();
+        Instrumentation.Observation o =
+            controlSize + testSize >= Observations.MATCH_THRESHOLD
+            ? Observations.start(Instrumentation.Operation.MATCH) : null;
         Match lastMatch = new Match(null, -1);
+        int[] checks = new int[1];
         for (int i = 0; i < controlSize; i++) {
             Node control = controlList.get(i);
             Match testMatch = findMatchingNode(control, testList,
                                                lastMatch.index,
-                                               unmatchedTestIndexes);
+                                               unmatchedTestIndexes, checks);
             if (testMatch != null) {
                 unmatchedTestIndexes.remove(testMatch.index);
                 matches.put(control, testMatch.node);
             }
         }
+        if (o != null && o.shouldCommit()) {
+            o.commit(null, matches.size(), controlSize, testSize);
+        }
+        if (statistics != null) {
+            statistics.candidatesChecked(checks[0]);
+        }
         return matches.entrySet();
     }
 
     private Match findMatchingNode(final Node searchFor,
                                    final List<Node> searchIn,
                                    final int indexOfLastMatch,
-                                   final Set<Integer> availableIndexes) {
+                                   final Set<Integer> availableIndexes,
+                                   final int[] checks) {
         final int searchSize = searchIn.size();
         Match m = searchIn(searchFor, searchIn,
                            availableIndexes,
-                           indexOfLastMatch + 1, searchSize);
+                           indexOfLastMatch + 1, searchSize, checks);
         return m != null ? m : searchIn(searchFor, searchIn,
                                         availableIndexes,
-                                        0, indexOfLastMatch);
+                                        0, indexOfLastMatch, checks);
     }
 
     private Match searchIn(final Node searchFor,
                            final List<Node> searchIn,
                            final Set<Integer> availableIndexes,
-                           final int fromInclusive, final int toExclusive) {
+                           final int fromInclusive, final int toExclusive,
+                           final int[] checks) {
         for (int i = fromInclusive; i < toExclusive; i++) {
             if (!availableIndexes.contains(Integer.valueOf(i))) {
                 continue;
             }
+            checks[0]++;
             if (nodesMatch(searchFor, searchIn.get(i))) {
                 return new Match(searchIn.get(i), i);
             }
@@ -118,6 +166,24 @@ private boolean nodesMatch(final Node n1, final Node n2) {
                                              n2.getNodeType());
     }
 
+    /**
+     * Whether the class of the matcher overrides the public match
+     * method of the given base class.
+     */
+    static boolean overridesMatch(NodeMatcher matcher, Class<?> base) {
+        if (matcher.getClass() == base) {
+            return false;
+        }
+        try {
+            return matcher.getClass()
+                .getMethod("match", Iterable.class, Iterable.class)
+                .getDeclaringClass() != base;
+        } catch (NoSuchMethodException ex) {
+            // can't happen, NodeMatcher declares it
+            return true;
+        }
+    }
+
     private class Match {
         private final Node node;
         private final int index;
@@ -28,13 +28,21 @@ public class Diff {
 
     private final Source testSource;
 
+    private final DiffStatistics statistics;
+
     private static final ComparisonFormatter DEFAULT_FORMATTER =
         new DefaultComparisonFormatter();
 
     public Diff(Source controlSource, Source testSource, Iterable<Difference> differences) {
+        this(controlSource, testSource, differences, null);
+    }
+
+    public Diff(Source controlSource, Source testSource, Iterable<Difference> differences,
+                DiffStatistics statistics) {
         this.controlSource = controlSource;
         this.testSource = testSource;
         this.differences = differences;
+        this.statistics = statistics;
     }
 
     /**
@@ -61,6 +69,15 @@ public Source getTestSource() {
         return testSource;
     }
 
+    /**
+     * @return the statistics collected while comparing the documents or null if statistics have not been
+     * collected.
+     * @see org.xmlunit.builder.DiffBuilder#collectStatistics
+     */
+    public DiffStatistics getStatistics() {
+        return statistics;
+    }
+
     @Override
     public String toString() {
         return toString(DEFAULT_FORMATTER);
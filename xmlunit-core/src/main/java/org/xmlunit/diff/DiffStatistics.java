@@ -0,0 +1,326 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Time, allocations and work spent by a comparison.
+ *
+ * <p>Statistics are only collected if an instance has been passed
+ * to {@link AbstractDifferenceEngine#setStatistics} - or {@link
+ * org.xmlunit.builder.DiffBuilder#collectStatistics} has been used,
+ * in which case {@link Diff#getStatistics} provides them.  Without
+ * an instance the engines don't take any measurements at all.</p>
+ *
+ * <p>Allocated bytes are measured using the {@code
+ * com.sun.management.ThreadMXBean} extension - which is accessed
+ * reflectively and never enabled by XMLUnit - all allocation figures
+ * are -1 if the JVM doesn't support it or allocation measurement has
+ * been disabled.</p>
+ *
+ * <p>Instances are not thread-safe, they are populated by a single
+ * comparison and should only be read once the comparison has
+ * completed.  The measurements taken by parallel subtree tasks (see
+ * {@link DOMDifferenceEngine#setExecutor}) are added when the tasks
+ * are joined, so the sum of the phases' times may exceed the wall
+ * time of the whole comparison.</p>
+ */
+public final class DiffStatistics {
+
+    /**
+     * The phases of a comparison.
+     */
+    public enum Phase {
+        /**
+         * Parsing the documents.
+         */
+        PARSE,
+        /**
+         * Preparing the parsed documents: stripping whitespace and
+         * comments and computing fingerprints of subtrees.
+         */
+        PREPROCESS,
+        /**
+         * Invoking the {@link NodeMatcher}.
+         */
+        MATCH,
+        /**
+         * Invoking the {@link DifferenceEvaluator}.
+         */
+        EVALUATE,
+        /**
+         * Notifying {@link ComparisonListener}s.
+         */
+        LISTENERS,
+        /**
+         * Traversing the parsed documents, includes {@link #MATCH},
+         * {@link #EVALUATE} and {@link #LISTENERS}.
+         */
+        COMPARE
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final ComparisonType[] TYPES = ComparisonType.values();
+
+    private final long[] nanos = new long[PHASES.length];
+    private final long[] allocatedBytes = new long[PHASES.length];
+    private final long[] comparisons = new long[TYPES.length];
+    private long controlNodes, testNodes, candidateChecks, skippedSubtrees;
+
+    /**
+     * Whether the JVM supports measuring allocated bytes.
+     */
+    public static boolean isAllocationTrackingSupported() {
+        return Allocations.SUPPORTED;
+    }
+
+    /**
+     * The number of bytes allocated by the current thread so far or
+     * -1 if this is not supported.
+     */
+    public static long currentAllocatedBytes() {
+        return Allocations.SUPPORTED ? Allocations.current() : -1;
+    }
+
+    /**
+     * Adds the time and allocations since the given starting point
+     * to a phase.
+     *
+     * @param phase the phase
+     * @param startNanos value of {@link System#nanoTime} when the
+     * phase has started
+     * @param startAllocatedBytes value of {@link
+     * #currentAllocatedBytes} when the phase has started
+     */
+    public void recordSince(Phase phase, long startNanos, long startAllocatedBytes) {
+        if (phase == null) {
+            throw new IllegalArgumentException("phase must not be null");
+        }
+        nanos[phase.ordinal()] += System.nanoTime() - startNanos;
+        if (startAllocatedBytes >= 0) {
+            long current = currentAllocatedBytes();
+            if (current >= startAllocatedBytes) {
+                allocatedBytes[phase.ordinal()] += current - startAllocatedBytes;
+            }
+        }
+    }
+
+    /**
+     * Wall time spent in the given phase.
+     */
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Bytes allocated during the given phase or -1 if this is not
+     * supported.
+     */
+    public long getAllocatedBytes(Phase phase) {
+        return Allocations.SUPPORTED ? allocatedBytes[phase.ordinal()] : -1;
+    }
+
+    /**
+     * The number of comparisons of the given type that have been
+     * performed.
+     */
+    public long getComparisons(ComparisonType type) {
+        return comparisons[type.ordinal()];
+    }
+
+    /**
+     * The number of comparisons that have been performed.
+     */
+    public long getComparisons() {
+        long sum = 0;
+        for (long c : comparisons) {
+            sum += c;
+        }
+        return sum;
+    }
+
+    /**
+     * The number of control nodes that have been visited - either
+     * compared to a test node or reported as unmatched.
+     */
+    public long getControlNodesVisited() {
+        return controlNodes;
+    }
+
+    /**
+     * The number of test nodes that have been visited - either
+     * compared to a control node or reported as unmatched.
+     */
+    public long getTestNodesVisited() {
+        return testNodes;
+    }
+
+    /**
+     * The number of candidates the {@link NodeMatcher} has looked
+     * at.
+     *
+     * <p>For {@link DefaultNodeMatcher} this is the number of pairs
+     * of nodes it has checked, for {@link KeyedNodeMatcher} the
+     * number of lookups in its index.  This includes subclasses of
+     * those two unless they override {@code match}, other matchers
+     * don't report any checks.</p>
+     */
+    public long getMatcherCandidateChecks() {
+        return candidateChecks;
+    }
+
+    /**
+     * The number of identical subtrees that have been skipped, see
+     * {@link DOMDifferenceEngine#setSubtreeFingerprinter}.
+     */
+    public long getSkippedSubtrees() {
+        return skippedSubtrees;
+    }
+
+    /**
+     * Adds the measurements of another instance to this one, e.g.
+     * in order to aggregate the statistics of many comparisons.
+     */
+    public void add(DiffStatistics other) {
+        if (other == null) {
+            throw new IllegalArgumentException("other must not be null");
+        }
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] += other.nanos[i];
+            allocatedBytes[i] += other.allocatedBytes[i];
+        }
+        for (int i = 0; i < comparisons.length; i++) {
+            comparisons[i] += other.comparisons[i];
+        }
+        controlNodes += other.controlNodes;
+        testNodes += other.testNodes;
+        candidateChecks += other.candidateChecks;
+        skippedSubtrees += other.skippedSubtrees;
+    }
+
+    /**
+     * All measurements keyed by flat names like {@code
+     * parse.nanos}, {@code comparisons.TEXT_VALUE} or {@code
+     * matcher.candidateChecks} suitable for metrics systems.
+     *
+     * <p>Allocations are omitted if they can't be measured,
+     * comparison types are only included if comparisons of the type
+     * have been performed.</p>
+     */
+    public Map<String, Long> toMap() {
+        Map<String, Long> m = new LinkedHashMap<String, Long>();
+        for (Phase p : PHASES) {
+            String prefix = p.name().toLowerCase(Locale.ENGLISH);
+            m.put(prefix + ".nanos", Long.valueOf(getNanos(p)));
+            if (Allocations.SUPPORTED) {
+                m.put(prefix + ".allocatedBytes", Long.valueOf(getAllocatedBytes(p)));
+            }
+        }
+        m.put("nodes.control", Long.valueOf(controlNodes));
+        m.put("nodes.test", Long.valueOf(testNodes));
+        m.put("comparisons", Long.valueOf(getComparisons()));
+        for (ComparisonType t : TYPES) {
+            if (comparisons[t.ordinal()] > 0) {
+                m.put("comparisons." + t.name(), Long.valueOf(comparisons[t.ordinal()]));
+            }
+        }
+        m.put("matcher.candidateChecks", Long.valueOf(candidateChecks));
+        m.put("subtrees.skipped", Long.valueOf(skippedSubtrees));
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("DiffStatistics[");
+        for (Phase p : PHASES) {
+            sb.append(p.name().toLowerCase(Locale.ENGLISH)).append('=')
+                .append(getNanos(p) / 1000).append("us");
+            if (Allocations.SUPPORTED) {
+                sb.append('/').append(getAllocatedBytes(p)).append('B');
+            }
+            sb.append(", ");
+        }
+        return sb.append("nodes=").append(controlNodes).append('/').append(testNodes)
+            .append(", comparisons=").append(getComparisons())
+            .append(", candidateChecks=").append(candidateChecks)
+            .append(", skippedSubtrees=").append(skippedSubtrees)
+            .append(']').toString();
+    }
+
+    void comparisonPerformed(ComparisonType type) {
+        comparisons[type.ordinal()]++;
+    }
+
+    void nodesVisited(int control, int test) {
+        controlNodes += control;
+        testNodes += test;
+    }
+
+    void subtreeSkipped() {
+        skippedSubtrees++;
+    }
+
+    /**
+     * Invoked by the matchers of this package.
+     */
+    void candidatesChecked(int checks) {
+        candidateChecks += checks;
+    }
+
+    /**
+     * Isolates the use of the com.sun.management API.
+     *
+     * <p>The API is accessed reflectively so neither the compiled
+     * class nor the OSGi manifest depend on it.  Allocation
+     * measurement is a JVM-wide setting, it is only used if it is
+     * enabled already - which is the default for HotSpot.</p>
+     */
+    private static final class Allocations {
+        private static final Object BEAN = ManagementFactory.getThreadMXBean();
+        private static final Method GET_ALLOCATED_BYTES = allocatedBytesMethod();
+        private static final boolean SUPPORTED = GET_ALLOCATED_BYTES != null;
+
+        private static Method allocatedBytesMethod() {
+            try {
+                Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+                if (c.isInstance(BEAN)
+                    && Boolean.TRUE.equals(c.getMethod("isThreadAllocatedMemorySupported")
+                                           .invoke(BEAN))
+                    && Boolean.TRUE.equals(c.getMethod("isThreadAllocatedMemoryEnabled")
+                                           .invoke(BEAN))) {
+                    return c.getMethod("getThreadAllocatedBytes", long.class);
+                }
+            } catch (Throwable t) {
+                // com.sun.management isn't available or measuring
+                // is not permitted
+            }
+            return null;
+        }
+
+        private static long current() {
+            try {
+                return ((Long) GET_ALLOCATED_BYTES
+                        .invoke(BEAN, Long.valueOf(Thread.currentThread().getId())))
+                    .longValue();
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -81,19 +81,7 @@ public ComparisonResult evaluate(Comparison comparison,
      */
     public static DifferenceEvaluator
         first(final DifferenceEvaluator... evaluators) {
-        return new DifferenceEvaluator() {
-            @Override
-            public ComparisonResult evaluate(Comparison comparison,
-                                             ComparisonResult orig) {
-                for (DifferenceEvaluator ev : evaluators) {
-                    ComparisonResult evaluated = ev.evaluate(comparison, orig);
-                    if (evaluated != orig) {
-                        return evaluated;
-                    }
-                }
-                return orig;
-            }
-        };
+        return new First(evaluators);
     }
 
     /**
@@ -102,16 +90,50 @@ public ComparisonResult evaluate(Comparison comparison,
      */
     public static DifferenceEvaluator
         chain(final DifferenceEvaluator... evaluators) {
-        return new DifferenceEvaluator() {
-            @Override
-            public ComparisonResult evaluate(Comparison comparison, ComparisonResult orig) {
-                ComparisonResult finalResult = orig;
-                for (DifferenceEvaluator ev : evaluators) {
-                    ComparisonResult evaluated = ev.evaluate(comparison, finalResult);
-                    finalResult = evaluated;
+        return new Chain(evaluators);
+    }
+
+    /**
+     * Result of {@link #first}, known to {@link CallbackProfiler}.
+     */
+    static final class First implements DifferenceEvaluator {
+        final DifferenceEvaluator[] evaluators;
+
+        private First(DifferenceEvaluator[] evaluators) {
+            this.evaluators = evaluators;
+        }
+
+        @Override
+        public ComparisonResult evaluate(Comparison comparison,
+                                         ComparisonResult orig) {
+            for (DifferenceEvaluator ev : evaluators) {
+                ComparisonResult evaluated = ev.evaluate(comparison, orig);
+                if (evaluated != orig) {
+                    return evaluated;
                 }
-                return finalResult;
             }
-        };
+            return orig;
+        }
+    }
+
+    /**
+     * Result of {@link #chain}, known to {@link CallbackProfiler}.
+     */
+    static final class Chain implements DifferenceEvaluator {
+        final DifferenceEvaluator[] evaluators;
+
+        private Chain(DifferenceEvaluator[] evaluators) {
+            this.evaluators = evaluators;
+        }
+
+        @Override
+        public ComparisonResult evaluate(Comparison comparison, ComparisonResult orig) {
+            ComparisonResult finalResult = orig;
+            for (DifferenceEvaluator ev : evaluators) {
+                ComparisonResult evaluated = ev.evaluate(comparison, finalResult);
+                finalResult = evaluated;
+            }
+            return finalResult;
+        }
     }
 }
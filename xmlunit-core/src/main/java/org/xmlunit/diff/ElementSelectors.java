@@ -16,12 +16,12 @@
 import static org.xmlunit.util.Linqy.all;
 import static org.xmlunit.util.Linqy.any;
 
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -30,7 +30,7 @@
 import org.xmlunit.util.IsNullPredicate;
 import org.xmlunit.util.Linqy;
 import org.xmlunit.util.Mapper;
-import org.xmlunit.util.Nodes;
+import org.xmlunit.util.NodeCache;
 import org.xmlunit.util.Predicate;
 import org.xmlunit.xpath.JAXPXPathEngine;
 import org.xmlunit.xpath.XPathEngine;
@@ -38,7 +38,6 @@
 import org.w3c.dom.Element;
 import org.w3c.dom.Text;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * Common ElementSelector implementations.
@@ -65,14 +64,18 @@ public boolean canBeCompared(Element controlElement,
      * Elements with the same local name (and namespace URI - if any)
      * can be compared.
      */
-    public static final ElementSelector byName = new ElementSelector() {
+    public static final KeyedElementSelector byName = new KeyedElementSelector() {
             @Override
             public boolean canBeCompared(Element controlElement,
                                          Element testElement) {
                 return controlElement != null
                     && testElement != null
-                    && bothNullOrEqual(Nodes.getQName(controlElement),
-                                       Nodes.getQName(testElement));
+                    && bothNullOrEqual(NodeCache.getQName(controlElement),
+                                       NodeCache.getQName(testElement));
+            }
+            @Override
+            public Object getKey(Element element) {
+                return NodeCache.getQName(element);
             }
         };
 
@@ -80,13 +83,18 @@ && bothNullOrEqual(Nodes.getQName(controlElement),
      * Elements with the same local name (and namespace URI - if any)
      * and nested text (if any) can be compared.
      */
-    public static final ElementSelector byNameAndText = new ElementSelector() {
+    public static final KeyedElementSelector byNameAndText = new KeyedElementSelector() {
             @Override
             public boolean canBeCompared(Element controlElement,
                                          Element testElement) {
                 return byName.canBeCompared(controlElement, testElement)
-                    && bothNullOrEqual(Nodes.getMergedNestedText(controlElement),
-                                       Nodes.getMergedNestedText(testElement));
+                    && bothNullOrEqual(NodeCache.getMergedNestedText(controlElement),
+                                       NodeCache.getMergedNestedText(testElement));
+            }
+            @Override
+            public Object getKey(Element element) {
+                return Arrays.asList(NodeCache.getQName(element),
+                                     NodeCache.getMergedNestedText(element));
             }
         };
 
@@ -97,7 +105,7 @@ && bothNullOrEqual(Nodes.getMergedNestedText(controlElement),
      *
      * <p>Attributes are only searched for in the null namespace.</p>
      */
-    public static ElementSelector byNameAndAttributes(String... attribs) {
+    public static KeyedElementSelector byNameAndAttributes(String... attribs) {
         if (attribs == null) {
             throw new IllegalArgumentException("attributes must not be null");
         }
@@ -138,7 +146,7 @@ public boolean canBeCompared(Element controlElement,
                 if (!byName.canBeCompared(controlElement, testElement)) {
                     return false;
                 }
-                Map<QName, String> cAttrs = Nodes.getAttributes(controlElement);
+                Map<QName, String> cAttrs = NodeCache.getAttributes(controlElement);
                 Map<String, QName> qNameByLocalName =
                     new HashMap<String, QName>();
                 for (QName q : cAttrs.keySet()) {
@@ -154,7 +162,7 @@ public boolean canBeCompared(Element controlElement,
                     }
                 }
                 return mapsEqualForKeys(cAttrs,
-                                        Nodes.getAttributes(testElement),
+                                        NodeCache.getAttributes(testElement),
                                         qNameByLocalName.values());
             }
         };
@@ -165,7 +173,7 @@ public boolean canBeCompared(Element controlElement,
      * and attribute values for the given attribute names can be
      * compared.
      */
-    public static ElementSelector byNameAndAttributes(final QName... attribs) {
+    public static KeyedElementSelector byNameAndAttributes(final QName... attribs) {
         if (attribs == null) {
             throw new IllegalArgumentException("attributes must not be null");
         }
@@ -173,39 +181,33 @@ public static ElementSelector byNameAndAttributes(final QName... attribs) {
         if (any(qs, new IsNullPredicate())) {
             throw new IllegalArgumentException("attributes must not contain null values");
         }
-        return new ElementSelector() {
-            @Override
-            public boolean canBeCompared(Element controlElement,
-                                         Element testElement) {
-                if (!byName.canBeCompared(controlElement, testElement)) {
-                    return false;
-                }
-                return mapsEqualForKeys(Nodes.getAttributes(controlElement),
-                                        Nodes.getAttributes(testElement),
-                                        qs);
-            }
-        };
+        return new ByNameAndAttributesSelector(qs);
     }
 
     /**
      * Elements with the same local name (and namespace URI - if any)
      * and attribute values for all attributes can be compared.
      */
-    public static final ElementSelector byNameAndAllAttributes =
-        new ElementSelector() {
+    public static final KeyedElementSelector byNameAndAllAttributes =
+        new KeyedElementSelector() {
             @Override
             public boolean canBeCompared(Element controlElement,
                                          Element testElement) {
                 if (!byName.canBeCompared(controlElement, testElement)) {
                     return false;
                 }
-                Map<QName, String> cAttrs = Nodes.getAttributes(controlElement);
-                Map<QName, String> tAttrs = Nodes.getAttributes(testElement);
+                Map<QName, String> cAttrs = NodeCache.getAttributes(controlElement);
+                Map<QName, String> tAttrs = NodeCache.getAttributes(testElement);
                 if (cAttrs.size() != tAttrs.size()) {
                     return false;
                 }
                 return mapsEqualForKeys(cAttrs, tAttrs, cAttrs.keySet());
             }
+            @Override
+            public Object getKey(Element element) {
+                return Arrays.asList(NodeCache.getQName(element),
+                                     NodeCache.getAttributes(element));
+            }
         };
 
     /**
@@ -242,13 +244,7 @@ public static ElementSelector or(final ElementSelector... selectors) {
         if (any(s, new IsNullPredicate())) {
             throw new IllegalArgumentException("selectors must not contain null values");
         }
-        return new ElementSelector() {
-            @Override
-            public boolean canBeCompared(Element controlElement,
-                                         Element testElement) {
-                return any(s, new CanBeComparedPredicate(controlElement, testElement));
-            }
-        };
+        return new OrSelector(s);
     }
 
     /**
@@ -262,14 +258,7 @@ public static ElementSelector and(final ElementSelector... selectors) {
         if (any(s, new IsNullPredicate())) {
             throw new IllegalArgumentException("selectors must not contain null values");
         }
-        return new ElementSelector() {
-            @Override
-            public boolean canBeCompared(Element controlElement,
-                                         Element testElement) {
-                return all(s,
-                           new CanBeComparedPredicate(controlElement, testElement));
-            }
-        };
+        return new AndSelector(s);
     }
 
     /**
@@ -363,6 +352,18 @@ public static ElementSelector byXPath(String xpath, ElementSelector childSelecto
      * match if a DefaultNodeMatcher applied to the selected children
      * finds matching pairs for all children.</p>
      *
+     * <p>The element is the context node of the XPath, relative paths
+     * start at the element and absolute paths select from its owner
+     * document.  Earlier versions evaluated the XPath against a
+     * document holding a copy of the element, there absolute paths
+     * started at the element and {@code ./child} selected
+     * nothing.</p>
+     *
+     * <p>The XPath engine isn't thread-safe, so the selector
+     * synchronizes all evaluations on its engine - it can be shared by
+     * concurrent comparisons, but they wait for each other's
+     * evaluations.</p>
+     *
      * @param xpath XPath expression applied in the context of the
      * elements to chose from that selects the children to compare.
      * @param namespaceContext provides prefix mapping for namespace
@@ -381,14 +382,83 @@ public static ElementSelector byXPath(final String xpath,
             @Override
             public boolean canBeCompared(Element controlElement,
                                          Element testElement) {
-                Iterable<Node> controlChildren =
-                    engine.selectNodes(xpath, new DOMSource(controlElement));
-                int expected = Linqy.count(controlChildren);
+                List<Node> controlChildren, testChildren;
+                synchronized (engine) {
+                    controlChildren = Linqy.asList(
+                        engine.selectNodes(xpath, new DOMSource(controlElement)));
+                    testChildren = Linqy.asList(
+                        engine.selectNodes(xpath, new DOMSource(testElement)));
+                }
+                int matched =
+                    Linqy.count(nm.match(controlChildren, testChildren));
+                return controlChildren.size() == matched;
+            }
+        };
+    }
+
+    /**
+     * Like {@link #byXPath(String, ElementSelector)} but evaluates the
+     * XPath only once per element.
+     *
+     * @param xpath XPath expression applied in the context of the
+     * elements to chose from that selects the children to compare.
+     * @param childSelector ElementSelector to apply to the selected children.
+     * @see #byXPathMemoized(String, Map, ElementSelector)
+     */
+    public static ElementSelector byXPathMemoized(String xpath,
+                                                  ElementSelector childSelector) {
+        return byXPathMemoized(xpath, null, childSelector);
+    }
+
+    /**
+     * Like {@link #byXPath(String, Map, ElementSelector)} but evaluates
+     * the XPath only once per element.
+     *
+     * <p>The children selected for an element are memoized for the
+     * duration of a comparison - see {@link NodeCache} - rather than
+     * selected again for each candidate pair, which pays off when
+     * elements have many candidates to choose from.  The selected
+     * children must not be modified during the comparison.</p>
+     *
+     * <p>Like the selector returned by {@link #byXPath(String, Map,
+     * ElementSelector) byXPath} this one synchronizes all evaluations
+     * on the selector's XPath engine.</p>
+     *
+     * @param xpath XPath expression applied in the context of the
+     * elements to chose from that selects the children to compare.
+     * @param namespaceContext provides prefix mapping for namespace
+     * prefixes used inside the xpath expression
+     * @param childSelector ElementSelector to apply to the selected children.
+     */
+    public static ElementSelector byXPathMemoized(final String xpath,
+                                                  Map<String, String> namespaceContext,
+                                                  ElementSelector childSelector) {
+        final XPathEngine engine = new JAXPXPathEngine();
+        if (namespaceContext != null) {
+            engine.setNamespaceContext(namespaceContext);
+        }
+        final NodeMatcher nm = new DefaultNodeMatcher(childSelector);
+        final Mapper<Node, List<Node>> selectChildren =
+            new Mapper<Node, List<Node>>() {
+                @Override
+                public List<Node> apply(Node n) {
+                    synchronized (engine) {
+                        return Linqy.asList(engine.selectNodes(xpath,
+                                                               new DOMSource(n)));
+                    }
+                }
+            };
+        return new ElementSelector() {
+            @Override
+            public boolean canBeCompared(Element controlElement,
+                                         Element testElement) {
+                List<Node> controlChildren =
+                    NodeCache.get(controlElement, this, selectChildren);
+                List<Node> testChildren =
+                    NodeCache.get(testElement, this, selectChildren);
                 int matched =
-                    Linqy.count(nm.match(controlChildren,
-                                         engine.selectNodes(xpath,
-                                                            new DOMSource(testElement))));
-                return expected == matched;
+                    Linqy.count(nm.match(controlChildren, testChildren));
+                return controlChildren.size() == matched;
             }
         };
     }
@@ -537,7 +607,7 @@ private static Predicate<Element> elementNamePredicate(final QName expectedName)
         return new Predicate<Element>() {
             @Override
             public boolean test(Element e) {
-                return e == null ? false : expectedName.equals(Nodes.getQName(e));
+                return e == null ? false : expectedName.equals(NodeCache.getQName(e));
             }
         };
     }
@@ -556,6 +626,103 @@ public boolean test(ElementSelector es) {
         }
     }
 
+    /**
+     * Result of {@link #byNameAndAttributes(QName...)}.
+     */
+    private static final class ByNameAndAttributesSelector implements KeyedElementSelector {
+        private final Collection<QName> qs;
+
+        private ByNameAndAttributesSelector(Collection<QName> qs) {
+            this.qs = qs;
+        }
+
+        @Override
+        public boolean canBeCompared(Element controlElement,
+                                     Element testElement) {
+            if (!byName.canBeCompared(controlElement, testElement)) {
+                return false;
+            }
+            return mapsEqualForKeys(NodeCache.getAttributes(controlElement),
+                                    NodeCache.getAttributes(testElement),
+                                    qs);
+        }
+
+        @Override
+        public Object getKey(Element element) {
+            Map<QName, String> attrs = NodeCache.getAttributes(element);
+            List<Object> key = new ArrayList<Object>(qs.size() + 1);
+            key.add(NodeCache.getQName(element));
+            for (QName q : qs) {
+                key.add(attrs.get(q));
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Whether the selector only looks at the names and attributes of
+     * elements, so it can be applied before their children are
+     * known.
+     *
+     * <p>Only knows about the selectors of this class.</p>
+     */
+    static boolean usesStartTagOnly(ElementSelector es) {
+        if (es == Default || es == byName || es == byNameAndAllAttributes
+            || es instanceof ByNameAndAttributesSelector) {
+            return true;
+        }
+        if (es instanceof OrSelector) {
+            return all(((OrSelector) es).selectors, USES_START_TAG_ONLY);
+        }
+        if (es instanceof AndSelector) {
+            return all(((AndSelector) es).selectors, USES_START_TAG_ONLY);
+        }
+        return false;
+    }
+
+    private static final Predicate<ElementSelector> USES_START_TAG_ONLY =
+        new Predicate<ElementSelector>() {
+            @Override
+            public boolean test(ElementSelector es) {
+                return usesStartTagOnly(es);
+            }
+        };
+
+    /**
+     * Result of {@link #or}, known to {@link CallbackProfiler}.
+     */
+    static final class OrSelector implements ElementSelector {
+        final Collection<ElementSelector> selectors;
+
+        private OrSelector(Collection<ElementSelector> selectors) {
+            this.selectors = selectors;
+        }
+
+        @Override
+        public boolean canBeCompared(Element controlElement,
+                                     Element testElement) {
+            return any(selectors, new CanBeComparedPredicate(controlElement, testElement));
+        }
+    }
+
+    /**
+     * Result of {@link #and}, known to {@link CallbackProfiler}.
+     */
+    static final class AndSelector implements ElementSelector {
+        final Collection<ElementSelector> selectors;
+
+        private AndSelector(Collection<ElementSelector> selectors) {
+            this.selectors = selectors;
+        }
+
+        @Override
+        public boolean canBeCompared(Element controlElement,
+                                     Element testElement) {
+            return all(selectors,
+                       new CanBeComparedPredicate(controlElement, testElement));
+        }
+    }
+
     private static class ByNameAndTextRecSelector implements ElementSelector {
         @Override
         public boolean canBeCompared(Element controlElement,
@@ -564,32 +731,14 @@ public boolean canBeCompared(Element controlElement,
                                              testElement)) {
                 return false;
             }
-            NodeList controlChildren = controlElement.getChildNodes();
-            NodeList testChildren = testElement.getChildNodes();
-            final int controlLen = controlChildren.getLength();
-            final int testLen = testChildren.getLength();
-            int controlIndex, testIndex;
-            for (controlIndex = testIndex = 0;
-                 controlIndex < controlLen && testIndex < testLen;
-                 ) {
-                // find next non-text child nodes
-                Map.Entry<Integer, Node> control = findNonText(controlChildren,
-                                                               controlIndex,
-                                                               controlLen);
-                controlIndex = control.getKey();
-                Node c = control.getValue();
-                if (isText(c)) {
-                    break;
-                }
-                Map.Entry<Integer, Node> test = findNonText(testChildren,
-                                                            testIndex,
-                                                            testLen);
-                testIndex = test.getKey();
-                Node t = test.getValue();
-                if (isText(t)) {
-                    break;
-                }
-
+            // the cached child lists avoid NodeLists, see
+            // DOMDifferenceEngine#setExecutor, and honor the
+            // engine's FilteredView
+            Iterator<Node> cs = NodeCache.getChildren(controlElement).iterator();
+            Iterator<Node> ts = NodeCache.getChildren(testElement).iterator();
+            Node c = nextNonText(cs);
+            Node t = nextNonText(ts);
+            while (c != null && t != null) {
                 // different types of children make elements
                 // non-comparable
                 if (c.getNodeType() != t.getNodeType()) {
@@ -600,40 +749,21 @@ public boolean canBeCompared(Element controlElement,
                                                                             (Element) t)) {
                     return false;
                 }
-                controlIndex++;
-                testIndex++;
-            }
-
-            // child lists exhausted?
-            if (controlIndex < controlLen) {
-                Map.Entry<Integer, Node> p = findNonText(controlChildren,
-                                                         controlIndex,
-                                                         controlLen);
-                controlIndex = p.getKey();
-                // some non-Text children remained
-                if (controlIndex < controlLen) {
-                    return false;
-                }
-            }
-            if (testIndex < testLen) {
-                Map.Entry<Integer, Node> p = findNonText(testChildren,
-                                                         testIndex,
-                                                         testLen);
-                testIndex = p.getKey();
-                // some non-Text children remained
-                if (testIndex < testLen) {
-                    return false;
-                }
+                c = nextNonText(cs);
+                t = nextNonText(ts);
             }
-            return true;
+            // child lists exhausted or some non-Text children remained?
+            return c == null && t == null;
         }
 
-        private Map.Entry<Integer, Node> findNonText(NodeList nl, int current, int len) {
-            Node n = nl.item(current);
-            while (isText(n) && ++current < len) {
-                n = nl.item(current);
+        private static Node nextNonText(Iterator<Node> it) {
+            while (it.hasNext()) {
+                Node n = it.next();
+                if (!isText(n)) {
+                    return n;
+                }
             }
-            return new AbstractMap.SimpleImmutableEntry<Integer, Node>(current, n);
+            return null;
         }
     }
 
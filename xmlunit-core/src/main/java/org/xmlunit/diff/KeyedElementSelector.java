@@ -0,0 +1,35 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import org.w3c.dom.Element;
+
+/**
+ * {@link ElementSelector} whose decision can be expressed as the
+ * equality of a key computed for each element independently.
+ *
+ * <p>Implementations must make sure {@code canBeCompared(c, t)}
+ * returns true if and only if the keys of {@code c} and {@code t}
+ * are equal so {@link KeyedNodeMatcher} can look up matching
+ * elements in a hash table rather than comparing all pairs.</p>
+ */
+public interface KeyedElementSelector extends ElementSelector {
+    /**
+     * Computes the key of an element.
+     *
+     * @return an object with proper {@code equals} and {@code
+     * hashCode} implementations, may be null.
+     */
+    Object getKey(Element element);
+}
@@ -0,0 +1,230 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.xmlunit.util.Linqy;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * {@link NodeMatcher} that matches control and test nodes with the
+ * help of a {@link KeyedElementSelector} and a {@link
+ * DefaultNodeMatcher.NodeTypeMatcher} by grouping the test nodes by
+ * the selector's key up front.
+ *
+ * <p>Rather than comparing each control node to each remaining test
+ * node, the candidates for a control node are looked up by key, so
+ * the time needed grows roughly linearly with the number of
+ * siblings.  For each control node the first unmatched candidate
+ * following the test node matched last is chosen, if there is none
+ * the first unmatched candidate preceeding it.</p>
+ */
+public class KeyedNodeMatcher implements NodeMatcher {
+    private final KeyedElementSelector elementSelector;
+    private final DefaultNodeMatcher.NodeTypeMatcher nodeTypeMatcher;
+    private final boolean matchOverridden =
+        DefaultNodeMatcher.overridesMatch(this, KeyedNodeMatcher.class);
+
+    /**
+     * Creates a matcher using {@link ElementSelectors#byName} and
+     * {@link DefaultNodeMatcher.DefaultNodeTypeMatcher}.
+     */
+    public KeyedNodeMatcher() {
+        this(ElementSelectors.byName);
+    }
+
+    /**
+     * Creates a matcher using the given {@link KeyedElementSelector}
+     * and {@link DefaultNodeMatcher.DefaultNodeTypeMatcher}.
+     */
+    public KeyedNodeMatcher(KeyedElementSelector es) {
+        this(es, new DefaultNodeMatcher.DefaultNodeTypeMatcher());
+    }
+
+    /**
+     * Creates a matcher using the given {@link KeyedElementSelector}
+     * and {@link DefaultNodeMatcher.NodeTypeMatcher}.
+     */
+    public KeyedNodeMatcher(KeyedElementSelector es,
+                            DefaultNodeMatcher.NodeTypeMatcher ntm) {
+        if (es == null) {
+            throw new IllegalArgumentException("es must not be null");
+        }
+        if (ntm == null) {
+            throw new IllegalArgumentException("ntm must not be null");
+        }
+        elementSelector = es;
+        nodeTypeMatcher = ntm;
+    }
+
+    /**
+     * The selector deciding which elements can be matched.
+     */
+    public KeyedElementSelector getElementSelector() {
+        return elementSelector;
+    }
+
+    /**
+     * The matcher deciding which nodes that are no elements can be
+     * matched.
+     */
+    public DefaultNodeMatcher.NodeTypeMatcher getNodeTypeMatcher() {
+        return nodeTypeMatcher;
+    }
+
+    @Override
+    public Iterable<Map.Entry<Node, Node>> match(Iterable<Node> controlNodes,
+                                                 Iterable<Node> testNodes) {
+        return match(controlNodes, testNodes, null);
+    }
+
+    /**
+     * Matches the nodes and adds the number of candidate sets looked
+     * up to the given statistics if they are not null.
+     *
+     * <p>Delegates to a subclass' implementation of {@link
+     * #match(Iterable, Iterable)} without counting anything.</p>
+     */
+    Iterable<Map.Entry<Node, Node>> match(Iterable<Node> controlNodes,
+                                          Iterable<Node> testNodes,
+                                          DiffStatistics statistics) {
+        if (statistics != null && matchOverridden) {
+            return match(controlNodes, testNodes);
+        }
+        Map<Node, Node> matches = new LinkedHashMap<Node, Node>();
+        List<Node> testList = Linqy.asList(testNodes);
+        TestNodeIndex index = new TestNodeIndex(testList);
+        int lastMatch = -1;
+        for (Node control : controlNodes) {
+            int testMatch = index.findMatch(control, lastMatch);
+            if (testMatch >= 0) {
+                index.remove(testMatch);
+                matches.put(control, testList.get(testMatch));
+                lastMatch = testMatch;
+            }
+        }
+        if (statistics != null) {
+            statistics.candidatesChecked(index.checks);
+        }
+        return matches.entrySet();
+    }
+
+    /**
+     * Positions of the test nodes that have not been matched, yet,
+     * grouped by element key and node type.
+     */
+    private class TestNodeIndex {
+        private final Map<Object, TreeSet<Integer>> elementsByKey =
+            new HashMap<Object, TreeSet<Integer>>();
+        private final Map<Short, TreeSet<Integer>> nodesByType =
+            new HashMap<Short, TreeSet<Integer>>();
+        private final Object[] keys;
+        private final short[] types;
+        private int checks;
+
+        private TestNodeIndex(List<Node> testList) {
+            final int size = testList.size();
+            keys = new Object[size];
+            types = new short[size];
+            for (int i = 0; i < size; i++) {
+                Node n = testList.get(i);
+                types[i] = n.getNodeType();
+                add(nodesByType, Short.valueOf(types[i]), i);
+                if (n instanceof Element) {
+                    keys[i] = elementSelector.getKey((Element) n);
+                    add(elementsByKey, keys[i], i);
+                }
+            }
+        }
+
+        /**
+         * Finds the first unmatched test node that can be compared
+         * to the given control node, searching after the last match
+         * first.
+         *
+         * @return the test node's position or -1
+         */
+        private int findMatch(Node control, int lastMatch) {
+            List<TreeSet<Integer>> candidates = candidatesFor(control);
+            Integer match = first(candidates, lastMatch + 1);
+            if (match == null) {
+                match = first(candidates, 0);
+                checks += 2 * candidates.size();
+            } else {
+                checks += candidates.size();
+            }
+            return match == null ? -1 : match.intValue();
+        }
+
+        private void remove(int i) {
+            Integer index = Integer.valueOf(i);
+            nodesByType.get(Short.valueOf(types[i])).remove(index);
+            if (types[i] == Node.ELEMENT_NODE) {
+                elementsByKey.get(keys[i]).remove(index);
+            }
+        }
+
+        private List<TreeSet<Integer>> candidatesFor(Node control) {
+            List<TreeSet<Integer>> candidates = new ArrayList<TreeSet<Integer>>();
+            final short controlType = control.getNodeType();
+            final boolean controlIsElement = control instanceof Element;
+            if (controlIsElement) {
+                TreeSet<Integer> s =
+                    elementsByKey.get(elementSelector.getKey((Element) control));
+                if (s != null) {
+                    candidates.add(s);
+                }
+            }
+            for (Map.Entry<Short, TreeSet<Integer>> e : nodesByType.entrySet()) {
+                short testType = e.getKey().shortValue();
+                if (controlIsElement && testType == Node.ELEMENT_NODE) {
+                    // elements are compared using the ElementSelector
+                    continue;
+                }
+                if (nodeTypeMatcher.canBeCompared(controlType, testType)) {
+                    candidates.add(e.getValue());
+                }
+            }
+            return candidates;
+        }
+
+        private Integer first(List<TreeSet<Integer>> candidates,
+                              int fromInclusive) {
+            Integer min = null;
+            Integer from = Integer.valueOf(fromInclusive);
+            for (TreeSet<Integer> s : candidates) {
+                Integer i = s.ceiling(from);
+                if (i != null && (min == null || i.intValue() < min.intValue())) {
+                    min = i;
+                }
+            }
+            return min;
+        }
+    }
+
+    private static <K> void add(Map<K, TreeSet<Integer>> map, K key, int i) {
+        TreeSet<Integer> s = map.get(key);
+        if (s == null) {
+            s = new TreeSet<Integer>();
+            map.put(key, s);
+        }
+        s.add(Integer.valueOf(i));
+    }
+}
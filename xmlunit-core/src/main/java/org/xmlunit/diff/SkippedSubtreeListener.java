@@ -0,0 +1,31 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import org.w3c.dom.Node;
+
+/**
+ * Is notified of matched subtrees that have not been compared in
+ * detail because their fingerprints show they are identical.
+ *
+ * @see DOMDifferenceEngine#setSubtreeFingerprinter
+ */
+public interface SkippedSubtreeListener {
+    /**
+     * Receives information about a pair of identical subtrees that
+     * has been skipped.
+     */
+    void subtreeSkipped(Node control, String controlXPath,
+                        Node test, String testXPath);
+}
@@ -0,0 +1,1129 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package org.xmlunit.diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamSource;
+import org.xmlunit.ConfigurationException;
+import org.xmlunit.XMLUnitException;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.JAXPProviders;
+import org.xmlunit.util.Nodes;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+/**
+ * Difference engine that pulls the documents to compare from two
+ * StAX {@link XMLStreamReader}s in lockstep rather than building
+ * complete DOM trees.
+ *
+ * <p>Children are read one at a time and kept inside a look-ahead
+ * window of configurable size.  The {@link NodeMatcher} is applied
+ * to the nodes inside the window, matched pairs are compared the
+ * same way {@link DOMDifferenceEngine} would compare them and are
+ * discarded afterwards.  XPaths are computed from the number of
+ * preceding siblings with the same name, so the engine doesn't keep
+ * anything about siblings that have been compared.</p>
+ *
+ * <p>If the next unmatched children on both sides are elements, the
+ * engine descends into them in streaming fashion provided the
+ * NodeMatcher matches them based on their start tags alone.  This is
+ * the case for {@link DefaultNodeMatcher} and {@link
+ * KeyedNodeMatcher} using {@link ElementSelectors#Default}, {@link
+ * ElementSelectors#byName}, {@link
+ * ElementSelectors#byNameAndAllAttributes}, {@link
+ * ElementSelectors#byNameAndAttributes(javax.xml.namespace.QName...)}
+ * or combinations
+ * of them created by {@link ElementSelectors#or} and {@link
+ * ElementSelectors#and}.  Elements that are put into the window -
+ * because they don't match or any other NodeMatcher is used - are
+ * read into memory completely.  So memory consumption is bounded by
+ * the depth of the documents times the size of the window as long
+ * as the documents are similar, otherwise by the size of the window
+ * and the size of the biggest element that needs to be kept in
+ * it.  Below a depth of 256 elements are always read
+ * completely.</p>
+ *
+ * <p>The engine performs the same kinds of {@link Comparison}s as
+ * {@link DOMDifferenceEngine} with a few differences:</p>
+ *
+ * <ul>
+ *   <li>Nodes can only be matched if they are part of the
+ *   look-ahead window at the same time.  Nodes that drop out of the
+ *   window without being matched are reported as {@link
+ *   ComparisonType#CHILD_LOOKUP} differences.  Nodes before and after
+ *   the document element are matched separately.</li>
+ *
+ *   <li>The {@link ComparisonType#CHILD_NODELIST_LENGTH} comparisons
+ *   of the document and of elements read in streaming fashion are
+ *   performed after all their children have been compared.</li>
+ *
+ *   <li>The targets of the comparisons performed for the document
+ *   and elements read in streaming fashion don't contain any
+ *   children.</li>
+ *
+ *   <li>Attributes defaulted by a DTD are reported as explicitly
+ *   specified and a DOCTYPE's internal subset is ignored.</li>
+ * </ul>
+ *
+ * <p>Sources that cannot be streamed directly - DOMSources for
+ * example - are serialized before they are compared.</p>
+ */
+public final class StreamingDifferenceEngine extends AbstractDifferenceEngine {
+
+    /**
+     * Number of siblings the engine reads ahead by default.
+     */
+    public static final int DEFAULT_LOOK_AHEAD_WINDOW = 64;
+
+    private final XMLInputFactory inputFactory;
+    private int lookAheadWindow = DEFAULT_LOOK_AHEAD_WINDOW;
+    private final List<ComparisonListener> comparisonListeners =
+        new CopyOnWriteArrayList<ComparisonListener>();
+    private final List<ComparisonListener> matchListeners =
+        new CopyOnWriteArrayList<ComparisonListener>();
+    private final List<ComparisonListener> differenceListeners =
+        new CopyOnWriteArrayList<ComparisonListener>();
+
+    /**
+     * Creates an engine that uses JAXP's default XMLInputFactory.
+     */
+    public StreamingDifferenceEngine() {
+        this(XMLInputFactory.newInstance());
+    }
+
+    /**
+     * Creates an engine that uses the given XMLInputFactory.
+     *
+     * <p>The factory will be configured to be namespace aware, to
+     * replace entity references and to not coalesce text.</p>
+     */
+    public StreamingDifferenceEngine(XMLInputFactory inputFactory) {
+        if (inputFactory == null) {
+            throw new IllegalArgumentException("inputFactory must not be null");
+        }
+        try {
+            inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE,
+                                     Boolean.TRUE);
+            inputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES,
+                                     Boolean.TRUE);
+            inputFactory.setProperty(XMLInputFactory.IS_COALESCING,
+                                     Boolean.FALSE);
+        } catch (IllegalArgumentException ex) {
+            throw new ConfigurationException(ex);
+        }
+        this.inputFactory = inputFactory;
+    }
+
+    /**
+     * Sets the number of sibling nodes the engine reads ahead on
+     * each side while looking for matching nodes.
+     *
+     * <p>Bigger values make it more likely that nodes can be
+     * matched if siblings have been reordered but also increase
+     * memory consumption.</p>
+     */
+    public void setLookAheadWindow(int lookAheadWindow) {
+        if (lookAheadWindow < 1) {
+            throw new IllegalArgumentException("lookAheadWindow must be"
+                                               + " positive");
+        }
+        this.lookAheadWindow = lookAheadWindow;
+    }
+
+    @Override
+    public void addComparisonListener(ComparisonListener l) {
+        super.addComparisonListener(l);
+        comparisonListeners.add(l);
+    }
+
+    @Override
+    public void addMatchListener(ComparisonListener l) {
+        super.addMatchListener(l);
+        matchListeners.add(l);
+    }
+
+    @Override
+    public void addDifferenceListener(ComparisonListener l) {
+        super.addDifferenceListener(l);
+        differenceListeners.add(l);
+    }
+
+    @Override
+    public void compare(Source control, Source test) {
+        if (control == null) {
+            throw new IllegalArgumentException("control must not be null");
+        }
+        if (test == null) {
+            throw new IllegalArgumentException("test must not be null");
+        }
+        XMLStreamReader controlReader = null;
+        XMLStreamReader testReader = null;
+        try {
+            controlReader = open(control);
+            testReader = open(test);
+            Document controlDoc = newDocument();
+            Document testDoc = newDocument();
+            new StreamingComparison(new Side(controlReader, controlDoc,
+                                             xpathContextFor(controlDoc)),
+                                    new Side(testReader, testDoc,
+                                             xpathContextFor(testDoc)))
+                .compareDocuments();
+        } catch (Exception ex) {
+            throw new XMLUnitException("Caught exception during comparison",
+                                       ex);
+        } finally {
+            close(controlReader);
+            close(testReader);
+        }
+    }
+
+    private XPathContext xpathContextFor(Node n) {
+        return new XPathContext(getNamespaceContext(), n);
+    }
+
+    /**
+     * Creates the engine used to compare the nodes inside of the
+     * look-ahead window.
+     */
+    private DOMDifferenceEngine createNodeEngine() {
+        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        d.setNodeMatcher(getNodeMatcher());
+        d.setDifferenceEvaluator(getDifferenceEvaluator());
+        d.setComparisonController(getComparisonController());
+        d.setNamespaceContext(getNamespaceContext());
+        for (ComparisonListener l : comparisonListeners) {
+            d.addComparisonListener(l);
+        }
+        for (ComparisonListener l : matchListeners) {
+            d.addMatchListener(l);
+        }
+        for (ComparisonListener l : differenceListeners) {
+            d.addDifferenceListener(l);
+        }
+        return d;
+    }
+
+    private XMLStreamReader open(Source s) throws XMLStreamException {
+        if (s instanceof StAXSource
+            && ((StAXSource) s).getXMLStreamReader() != null) {
+            return ((StAXSource) s).getXMLStreamReader();
+        }
+        if (s instanceof StreamSource) {
+            return inputFactory.createXMLStreamReader(s);
+        }
+        InputSource is = Convert.toInputSource(s);
+        if (is.getCharacterStream() != null) {
+            return inputFactory.createXMLStreamReader(is.getSystemId(),
+                                                      is.getCharacterStream());
+        }
+        if (is.getByteStream() != null) {
+            return inputFactory.createXMLStreamReader(is.getSystemId(),
+                                                      is.getByteStream());
+        }
+        return inputFactory.createXMLStreamReader(new StreamSource(is.getSystemId()));
+    }
+
+    private static void close(XMLStreamReader r) {
+        if (r != null) {
+            try {
+                r.close();
+            } catch (XMLStreamException ex) {
+                // ignore, we are done with the reader anyway
+            }
+        }
+    }
+
+    private static Document newDocument() {
+        JAXPProviders providers = JAXPProviders.getDefault();
+        DocumentBuilder b = providers.borrowDocumentBuilder();
+        try {
+            return b.newDocument();
+        } finally {
+            providers.release(b);
+        }
+    }
+
+    private static boolean isFinished(ComparisonState s) {
+        return s instanceof FinishedComparisonState;
+    }
+
+    private static final int NO_EVENT = -1;
+
+    /**
+     * Depth up to which the engine descends into elements without
+     * reading them completely, deeper elements are read into memory
+     * so the engine's recursion doesn't exhaust the stack.
+     */
+    private static final int MAX_STREAMING_DEPTH = 256;
+
+    /**
+     * One of the two documents being compared.
+     */
+    private static final class Side {
+        private final XMLStreamReader reader;
+        private final Document doc;
+        private final XPathContext context;
+        private final String xmlVersion;
+        private final boolean xmlStandalone;
+        private final String xmlEncoding;
+        private String dtd;
+        private int pendingEvent = NO_EVENT;
+
+        private Side(XMLStreamReader reader, Document doc, XPathContext context) {
+            this.reader = reader;
+            this.doc = doc;
+            this.context = context;
+            String v = reader.getVersion();
+            xmlVersion = v == null ? "1.0" : v;
+            xmlStandalone = reader.isStandalone();
+            xmlEncoding = reader.getCharacterEncodingScheme();
+        }
+
+        private int nextEvent() throws XMLStreamException {
+            if (pendingEvent != NO_EVENT) {
+                int e = pendingEvent;
+                pendingEvent = NO_EVENT;
+                return e;
+            }
+            return reader.hasNext() ? reader.next()
+                : XMLStreamConstants.END_DOCUMENT;
+        }
+
+        /**
+         * Makes the event the reader is currently positioned on the
+         * next one to be returned by nextEvent.
+         */
+        private void pushBack(int event) {
+            pendingEvent = event;
+        }
+
+        private DocumentType getDocType() {
+            if (dtd == null) {
+                return null;
+            }
+            Matcher m = DOCTYPE.matcher(dtd);
+            if (!m.find()) {
+                return null;
+            }
+            return doc.getImplementation()
+                .createDocumentType(m.group(1), unquote(m.group(2)),
+                                    unquote(m.group(3) != null ? m.group(3)
+                                            : m.group(4)));
+        }
+
+        private Element createElement() {
+            String ns = emptyToNull(reader.getNamespaceURI());
+            Element e = doc.createElementNS(ns, qualify(reader.getPrefix(),
+                                                        reader.getLocalName()));
+            final int nsCount = reader.getNamespaceCount();
+            for (int i = 0; i < nsCount; i++) {
+                String p = emptyToNull(reader.getNamespacePrefix(i));
+                String uri = reader.getNamespaceURI(i);
+                e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                                 p == null ? XMLConstants.XMLNS_ATTRIBUTE
+                                 : qualify(XMLConstants.XMLNS_ATTRIBUTE, p),
+                                 uri == null ? "" : uri);
+            }
+            final int attrCount = reader.getAttributeCount();
+            for (int i = 0; i < attrCount; i++) {
+                e.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                                 qualify(reader.getAttributePrefix(i),
+                                         reader.getAttributeLocalName(i)),
+                                 reader.getAttributeValue(i));
+            }
+            return e;
+        }
+
+        /**
+         * Reads the complete element the reader is positioned on.
+         */
+        private Element readElement() throws XMLStreamException {
+            Element root = createElement();
+            readContent(root);
+            return root;
+        }
+
+        /**
+         * Reads the content of an element whose start tag has been
+         * read.
+         */
+        private void readContent(Element root) throws XMLStreamException {
+            Node current = root;
+            while (true) {
+                switch (nextEvent()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    current = current.appendChild(createElement());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (current == root) {
+                        return;
+                    }
+                    current = current.getParentNode();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    appendText(current, Node.TEXT_NODE);
+                    break;
+                case XMLStreamConstants.CDATA:
+                    appendText(current, Node.CDATA_SECTION_NODE);
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    current.appendChild(doc.createComment(reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    current.appendChild(createProcessingInstruction());
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    throw new XMLUnitException("unexpected end of document");
+                default:
+                    // entity references and such, ignore
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Reads consecutive text events of the same kind into a
+         * single node.
+         */
+        private Node readText(int event) throws XMLStreamException {
+            boolean cdata = event == XMLStreamConstants.CDATA;
+            StringBuilder sb = new StringBuilder(reader.getText());
+            while (true) {
+                int next = nextEvent();
+                if (cdata ? next == XMLStreamConstants.CDATA
+                    : next == XMLStreamConstants.CHARACTERS
+                    || next == XMLStreamConstants.SPACE) {
+                    sb.append(reader.getText());
+                } else {
+                    pushBack(next);
+                    break;
+                }
+            }
+            return cdata ? doc.createCDATASection(sb.toString())
+                : doc.createTextNode(sb.toString());
+        }
+
+        private void appendText(Node parent, short type) {
+            Node last = parent.getLastChild();
+            if (last != null && last.getNodeType() == type) {
+                ((CharacterData) last).appendData(reader.getText());
+            } else if (type == Node.CDATA_SECTION_NODE) {
+                parent.appendChild(doc.createCDATASection(reader.getText()));
+            } else {
+                parent.appendChild(doc.createTextNode(reader.getText()));
+            }
+        }
+
+        private Node createProcessingInstruction() {
+            String data = reader.getPIData();
+            return doc.createProcessingInstruction(reader.getPITarget(),
+                                                   data == null ? "" : data);
+        }
+    }
+
+    /**
+     * A child that has been read together with its position inside
+     * of its parent.
+     */
+    private static final class Child {
+        private final Node node;
+        private final int index;
+        private final XPathContext.Path path;
+
+        private Child(Node node, int index, XPathContext.Path path) {
+            this.node = node;
+            this.index = index;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Sequence of the children of a node that is read in streaming
+     * fashion.
+     *
+     * <p>Each child is appended to the streamed parent so namespace
+     * lookups work and its XPath is computed from the number of
+     * preceding siblings of the same kind when it is read.  Neither
+     * the parent nor its XPathContext keep track of children once
+     * they have been compared.</p>
+     */
+    private static final class Children {
+        private final Side side;
+        private final Node parent;
+        private final boolean documentLevel;
+        private int count;
+        private boolean exhausted;
+        /**
+         * Element returned by {@link #next} whose content has not
+         * been read, yet.
+         */
+        private Element open;
+
+        private Children(Side side, Node parent) {
+            this.side = side;
+            this.parent = parent;
+            documentLevel = parent.getNodeType() == Node.DOCUMENT_NODE;
+        }
+
+        /**
+         * Reads the next child.
+         *
+         * @param startTagOnly whether only the start tag of an
+         * element shall be read, the element's content is read by
+         * {@link #complete} or by a nested Children instance.
+         *
+         * @return the child or null if there are no more children
+         * (or the document element has been reached when reading
+         * the children of the document).
+         */
+        private Child next(boolean startTagOnly) throws XMLStreamException {
+            if (exhausted) {
+                return null;
+            }
+            complete();
+            Node n = read(startTagOnly);
+            if (n == null) {
+                exhausted = true;
+                return null;
+            }
+            if (startTagOnly && n instanceof Element) {
+                open = (Element) n;
+            }
+            return add(n);
+        }
+
+        /**
+         * Reads the content of the element returned by the last call
+         * to {@link #next} if it has only been read partially.
+         */
+        private void complete() throws XMLStreamException {
+            if (open != null) {
+                Element e = open;
+                open = null;
+                side.readContent(e);
+            }
+        }
+
+        private boolean isOpen(Node n) {
+            return n != null && n == open;
+        }
+
+        /**
+         * Hands the content of the open element over to the caller
+         * who is going to read it using a nested Children instance.
+         */
+        private Element release() {
+            Element e = open;
+            open = null;
+            return e;
+        }
+
+        private Node read() throws XMLStreamException {
+            return read(false);
+        }
+
+        private Node read(boolean startTagOnly) throws XMLStreamException {
+            while (true) {
+                int event = side.nextEvent();
+                switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (documentLevel) {
+                        side.pushBack(event);
+                        return null;
+                    }
+                    return startTagOnly ? side.createElement() : side.readElement();
+                case XMLStreamConstants.END_ELEMENT:
+                case XMLStreamConstants.END_DOCUMENT:
+                    return null;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.CDATA:
+                    if (!documentLevel) {
+                        return side.readText(event);
+                    }
+                    // whitespace outside of the document element
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    return side.doc.createComment(side.reader.getText());
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    return side.createProcessingInstruction();
+                case XMLStreamConstants.DTD:
+                    side.dtd = side.reader.getText();
+                    break;
+                default:
+                    // entity references and such, ignore
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Registers a child that has been read, possibly in a
+         * different way - like the document element.
+         */
+        private Child add(Node n) {
+            parent.appendChild(n);
+            return new Child(n, count++,
+                             side.context.nextChild(new XPathContext.DOMNodeInfo(n)));
+        }
+    }
+
+    /**
+     * The look-ahead window of one side.
+     */
+    private final class Window {
+        private final Children children;
+        private final LinkedList<Child> nodes = new LinkedList<Child>();
+
+        private Window(Children children) {
+            this.children = children;
+        }
+
+        /**
+         * Reads complete children until the window is full.
+         */
+        private void fill() throws XMLStreamException {
+            while (nodes.size() < lookAheadWindow) {
+                Child c = children.next(false);
+                if (c == null) {
+                    break;
+                }
+                nodes.add(c);
+            }
+            children.complete();
+        }
+
+        /**
+         * Reads a single child if the window is empty, elements are
+         * only read up to their start tag.
+         */
+        private Child peek() throws XMLStreamException {
+            if (nodes.isEmpty()) {
+                Child c = children.next(true);
+                if (c != null) {
+                    nodes.add(c);
+                }
+            }
+            return nodes.peekFirst();
+        }
+
+        private boolean isEmpty() {
+            return nodes.isEmpty();
+        }
+
+        private List<Node> getNodes() {
+            List<Node> l = new ArrayList<Node>(nodes.size());
+            for (Child c : nodes) {
+                l.add(c.node);
+            }
+            return l;
+        }
+
+        private Child first() {
+            return nodes.getFirst();
+        }
+
+        /**
+         * Removes the node from the window.
+         */
+        private Child remove(Node n) {
+            for (Iterator<Child> it = nodes.iterator(); it.hasNext(); ) {
+                Child c = it.next();
+                if (c.node == n) {
+                    it.remove();
+                    return c;
+                }
+            }
+            throw new IllegalStateException("node matcher returned a node"
+                                            + " it hasn't been given");
+        }
+    }
+
+    /**
+     * State of a single invocation of compare.
+     */
+    private final class StreamingComparison {
+        private final Side control, test;
+        private final DOMDifferenceEngine nodeEngine = createNodeEngine();
+        private final boolean matchesByStartTag = matchesByStartTag();
+
+        private StreamingComparison(Side control, Side test) {
+            this.control = control;
+            this.test = test;
+        }
+
+        private ComparisonState compareDocuments() throws XMLStreamException {
+            final Children controlChildren = new Children(control, control.doc);
+            final Children testChildren = new Children(test, test.doc);
+            // read everything up to the document element so we know
+            // about the DOCTYPE declaration
+            final List<Node> controlProlog = readAll(controlChildren);
+            final List<Node> testProlog = readAll(testChildren);
+            final DocumentType controlDt = control.getDocType();
+            final DocumentType testDt = test.getDocType();
+
+            return compare(Comparison.of(ComparisonType.NODE_TYPE,
+                                         control.doc, getPath(control.context),
+                                         Node.DOCUMENT_NODE,
+                                         test.doc, getPath(test.context),
+                                         Node.DOCUMENT_NODE))
+                .andThen(Comparison.of(ComparisonType.NAMESPACE_URI,
+                                       control.doc, getPath(control.context),
+                                       null,
+                                       test.doc, getPath(test.context),
+                                       null))
+                .andThen(Comparison.of(ComparisonType.NAMESPACE_PREFIX,
+                                       control.doc, getPath(control.context),
+                                       null,
+                                       test.doc, getPath(test.context),
+                                       null))
+                .andThen(Comparison.of(ComparisonType.HAS_DOCTYPE_DECLARATION,
+                                       control.doc, getPath(control.context),
+                                       Boolean.valueOf(control.dtd != null),
+                                       test.doc, getPath(test.context),
+                                       Boolean.valueOf(test.dtd != null)))
+                .andIfTrueThen(controlDt != null && testDt != null,
+                               new DeferredComparison() {
+                                   @Override
+                                   public ComparisonState apply() {
+                                       return nodeEngine
+                                           .compareNodes(controlDt, control.context,
+                                                         testDt, test.context);
+                                   }
+                               })
+                .andThen(Comparison.of(ComparisonType.XML_VERSION,
+                                       control.doc, getPath(control.context),
+                                       control.xmlVersion,
+                                       test.doc, getPath(test.context),
+                                       test.xmlVersion))
+                .andThen(Comparison.of(ComparisonType.XML_STANDALONE,
+                                       control.doc, getPath(control.context),
+                                       control.xmlStandalone,
+                                       test.doc, getPath(test.context),
+                                       test.xmlStandalone))
+                .andThen(Comparison.of(ComparisonType.XML_ENCODING,
+                                       control.doc, getPath(control.context),
+                                       control.xmlEncoding,
+                                       test.doc, getPath(test.context),
+                                       test.xmlEncoding))
+                .andThen(new StreamingDeferredComparison() {
+                        @Override
+                        ComparisonState stream() throws XMLStreamException {
+                            return compareChildren(new PrereadChildren(controlChildren,
+                                                                       controlProlog),
+                                                   new PrereadChildren(testChildren,
+                                                                       testProlog),
+                                                   0)
+                                .andThen(new StreamingDeferredComparison() {
+                                        @Override
+                                        ComparisonState stream()
+                                            throws XMLStreamException {
+                                            return compareDocumentElements(controlChildren,
+                                                                           testChildren);
+                                        }
+                                    })
+                                .andThen(new StreamingDeferredComparison() {
+                                        @Override
+                                        ComparisonState stream()
+                                            throws XMLStreamException {
+                                            return compareChildren(new StreamedChildren(controlChildren),
+                                                                   new StreamedChildren(testChildren),
+                                                                   0);
+                                        }
+                                    });
+                        }
+                    })
+                .andThen(new DeferredComparison() {
+                        @Override
+                        public ComparisonState apply() {
+                            return compare(Comparison.of(ComparisonType.CHILD_NODELIST_LENGTH,
+                                                         control.doc,
+                                                         getPath(control.context),
+                                                         controlChildren.count,
+                                                         test.doc,
+                                                         getPath(test.context),
+                                                         testChildren.count));
+                        }
+                    });
+        }
+
+        private List<Node> readAll(Children children) throws XMLStreamException {
+            List<Node> l = new LinkedList<Node>();
+            Node n;
+            while ((n = children.read()) != null) {
+                l.add(n);
+            }
+            return l;
+        }
+
+        private ComparisonState compareDocumentElements(Children controlDocChildren,
+                                                        Children testDocChildren)
+            throws XMLStreamException {
+            // position both readers on their document element
+            control.nextEvent();
+            test.nextEvent();
+            return compareStreamed(controlDocChildren.add(control.createElement()),
+                                   testDocChildren.add(test.createElement()),
+                                   1);
+        }
+
+        /**
+         * Compares two elements whose start tags have been read and
+         * streams their children.
+         */
+        private ComparisonState compareStreamed(final Child controlChild,
+                                                final Child testChild,
+                                                final int depth)
+            throws XMLStreamException {
+            final Element controlElement = (Element) controlChild.node;
+            final Element testElement = (Element) testChild.node;
+            control.context.navigateToChild(controlChild.path);
+            test.context.navigateToChild(testChild.path);
+            try {
+                final Children controlChildren = new Children(control, controlElement);
+                final Children testChildren = new Children(test, testElement);
+                return compare(Comparison.of(ComparisonType.CHILD_NODELIST_SEQUENCE,
+                                             controlElement, getPath(control.context),
+                                             Integer.valueOf(controlChild.index),
+                                             testElement, getPath(test.context),
+                                             Integer.valueOf(testChild.index)))
+                    .andThen(new DeferredComparison() {
+                            @Override
+                            public ComparisonState apply() {
+                                return nodeEngine
+                                    .compareNodeProperties(controlElement,
+                                                           control.context,
+                                                           testElement,
+                                                           test.context);
+                            }
+                        })
+                    .andThen(new StreamingDeferredComparison() {
+                            @Override
+                            ComparisonState stream() throws XMLStreamException {
+                                return compareChildren(new StreamedChildren(controlChildren),
+                                                       new StreamedChildren(testChildren),
+                                                       depth);
+                            }
+                        })
+                    .andThen(new DeferredComparison() {
+                            @Override
+                            public ComparisonState apply() {
+                                return compare(Comparison.of(ComparisonType.CHILD_NODELIST_LENGTH,
+                                                             controlElement,
+                                                             getPath(control.context),
+                                                             controlChildren.count,
+                                                             testElement,
+                                                             getPath(test.context),
+                                                             testChildren.count));
+                            }
+                        });
+            } finally {
+                test.context.navigateToParent();
+                control.context.navigateToParent();
+                if (depth > 1) {
+                    // the document element is needed to describe
+                    // differences of the document
+                    detach(controlElement);
+                    detach(testElement);
+                }
+            }
+        }
+
+        /**
+         * Matches and compares the children of two nodes using
+         * look-ahead windows.
+         *
+         * <p>If both windows are empty and the next children on both
+         * sides are elements the node matcher matches based on their
+         * start tags, the engine descends into the elements without
+         * reading them completely.</p>
+         *
+         * @param depth depth of the nodes whose children are compared
+         */
+        private ComparisonState compareChildren(ChildSource controlSource,
+                                                ChildSource testSource,
+                                                int depth)
+            throws XMLStreamException {
+            ComparisonState chain = new OngoingComparisonState();
+            Window controlWindow = new Window(controlSource.children);
+            Window testWindow = new Window(testSource.children);
+            final boolean descend = matchesByStartTag && depth < MAX_STREAMING_DEPTH;
+            while (true) {
+                if (descend && controlSource.streamed && testSource.streamed
+                    && controlWindow.isEmpty() && testWindow.isEmpty()) {
+                    final Child c = controlWindow.peek();
+                    final Child t = testWindow.peek();
+                    if (c != null && t != null
+                        && controlSource.children.isOpen(c.node)
+                        && testSource.children.isOpen(t.node)
+                        && matches(c.node, t.node)) {
+                        controlWindow.remove(c.node);
+                        testWindow.remove(t.node);
+                        controlSource.children.release();
+                        testSource.children.release();
+                        final int childDepth = depth + 1;
+                        chain = chain.andThen(new StreamingDeferredComparison() {
+                                @Override
+                                ComparisonState stream() throws XMLStreamException {
+                                    return compareStreamed(c, t, childDepth);
+                                }
+                            });
+                        if (isFinished(chain)) {
+                            return chain;
+                        }
+                        continue;
+                    }
+                }
+                controlSource.fill(controlWindow);
+                testSource.fill(testWindow);
+                if (controlWindow.isEmpty() && testWindow.isEmpty()) {
+                    return chain;
+                }
+                boolean matched = false;
+                for (Map.Entry<Node, Node> pair
+                         : getNodeMatcher().match(controlWindow.getNodes(),
+                                                  testWindow.getNodes())) {
+                    chain = chain.andThen(compareMatched(controlWindow.remove(pair.getKey()),
+                                                         testWindow.remove(pair.getValue())));
+                    matched = true;
+                    if (isFinished(chain)) {
+                        return chain;
+                    }
+                }
+                if (!matched) {
+                    // the windows are full (or the children exhausted)
+                    // but nothing matches, give up on the oldest nodes
+                    if (!controlWindow.isEmpty()) {
+                        chain = chain.andThen(unmatched(controlWindow.remove(controlWindow.first().node),
+                                                        control, true));
+                    }
+                    if (!testWindow.isEmpty()) {
+                        chain = chain.andThen(unmatched(testWindow.remove(testWindow.first().node),
+                                                        test, false));
+                    }
+                    if (isFinished(chain)) {
+                        return chain;
+                    }
+                }
+            }
+        }
+
+        private boolean matches(Node controlNode, Node testNode) {
+            return getNodeMatcher().match(Collections.singletonList(controlNode),
+                                          Collections.singletonList(testNode))
+                .iterator().hasNext();
+        }
+
+        private DeferredComparison compareMatched(final Child controlChild,
+                                                  final Child testChild) {
+            final Node controlNode = controlChild.node;
+            final Node testNode = testChild.node;
+            return new DeferredComparison() {
+                @Override
+                public ComparisonState apply() {
+                    control.context.navigateToChild(controlChild.path);
+                    test.context.navigateToChild(testChild.path);
+                    try {
+                        return compare(Comparison.of(ComparisonType.CHILD_NODELIST_SEQUENCE,
+                                                     controlNode,
+                                                     getPath(control.context),
+                                                     Integer.valueOf(controlChild.index),
+                                                     testNode,
+                                                     getPath(test.context),
+                                                     Integer.valueOf(testChild.index)))
+                            .andThen(new DeferredComparison() {
+                                    @Override
+                                    public ComparisonState apply() {
+                                        return nodeEngine.compareNodes(controlNode,
+                                                                       control.context,
+                                                                       testNode,
+                                                                       test.context);
+                                    }
+                                });
+                    } finally {
+                        test.context.navigateToParent();
+                        control.context.navigateToParent();
+                        detach(controlNode);
+                        detach(testNode);
+                    }
+                }
+            };
+        }
+
+        private DeferredComparison unmatched(final Child child,
+                                             final Side side,
+                                             final boolean isControl) {
+            final Node n = child.node;
+            return new DeferredComparison() {
+                @Override
+                public ComparisonState apply() {
+                    side.context.navigateToChild(child.path);
+                    try {
+                        return compare(isControl
+                                       ? Comparison.of(ComparisonType.CHILD_LOOKUP,
+                                                       n, getPath(side.context),
+                                                       Nodes.getQName(n),
+                                                       null, null, null)
+                                       : Comparison.of(ComparisonType.CHILD_LOOKUP,
+                                                       null, null, null,
+                                                       n, getPath(side.context),
+                                                       Nodes.getQName(n)));
+                    } finally {
+                        side.context.navigateToParent();
+                        detach(n);
+                    }
+                }
+            };
+        }
+
+        /**
+         * Removes a node that has been compared from its parent so
+         * the parent doesn't accumulate all its children.
+         *
+         * <p>Text is moved to a shallow copy of its parent as the
+         * parent is needed to describe differences of text.</p>
+         */
+        private void detach(Node n) {
+            Node p = n.getParentNode();
+            if (p != null) {
+                p.removeChild(n);
+                if (p instanceof Element && (n.getNodeType() == Node.TEXT_NODE
+                                             || n.getNodeType() == Node.CDATA_SECTION_NODE)) {
+                    p.cloneNode(false).appendChild(n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the configured NodeMatcher only looks at the start tags
+     * of elements - names and attributes - so it can be applied
+     * before the elements have been read completely.
+     */
+    private boolean matchesByStartTag() {
+        NodeMatcher m = getNodeMatcher();
+        if (m.getClass() == DefaultNodeMatcher.class) {
+            return ElementSelectors.usesStartTagOnly(((DefaultNodeMatcher) m).getElementSelector());
+        }
+        if (m.getClass() == KeyedNodeMatcher.class) {
+            return ElementSelectors.usesStartTagOnly(((KeyedNodeMatcher) m).getElementSelector());
+        }
+        return false;
+    }
+
+    /**
+     * Feeds a look-ahead window.
+     */
+    private abstract static class ChildSource {
+        protected final Children children;
+        /**
+         * Whether the children are read directly from the stream.
+         */
+        protected final boolean streamed;
+        protected ChildSource(Children children, boolean streamed) {
+            this.children = children;
+            this.streamed = streamed;
+        }
+        abstract void fill(Window w) throws XMLStreamException;
+    }
+
+    /**
+     * Children read directly from the stream.
+     */
+    private static final class StreamedChildren extends ChildSource {
+        private StreamedChildren(Children children) {
+            super(children, true);
+        }
+        @Override
+        void fill(Window w) throws XMLStreamException {
+            w.fill();
+        }
+    }
+
+    /**
+     * Children that have been read before the window started to
+     * look at them - the nodes preceeding the document element.
+     */
+    private final class PrereadChildren extends ChildSource {
+        private final List<Node> nodes;
+        private PrereadChildren(Children children, List<Node> nodes) {
+            super(children, false);
+            this.nodes = nodes;
+        }
+        @Override
+        void fill(Window w) {
+            while (w.nodes.size() < lookAheadWindow && !nodes.isEmpty()) {
+                w.nodes.add(children.add(nodes.remove(0)));
+            }
+        }
+    }
+
+    /**
+     * DeferredComparison that may read from the streams.
+     */
+    private abstract static class StreamingDeferredComparison
+        implements DeferredComparison {
+        abstract ComparisonState stream() throws XMLStreamException;
+
+        @Override
+        public final ComparisonState apply() {
+            try {
+                return stream();
+            } catch (XMLStreamException ex) {
+                throw new XMLUnitException(ex);
+            }
+        }
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.length() == 0 ? null : s;
+    }
+
+    private static String qualify(String prefix, String localName) {
+        return prefix == null || prefix.length() == 0 ? localName
+            : prefix + ":" + localName;
+    }
+
+    private static String unquote(String s) {
+        return s == null ? null : s.substring(1, s.length() - 1);
+    }
+
+    private static final Pattern DOCTYPE =
+        Pattern.compile("<!DOCTYPE\\s+([^\\s\\[>]+)"
+                        + "(?:\\s+(?:PUBLIC\\s+(\"[^\"]*\"|'[^']*')\\s+(\"[^\"]*\"|'[^']*')"
+                        + "|SYSTEM\\s+(\"[^\"]*\"|'[^']*')))?");
+}
@@ -0,0 +1,296 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xmlunit.util.FilteredView;
+
+/**
+ * Computes structural hashes ("fingerprints") of all element
+ * subtrees of a DOM tree.
+ *
+ * <p>The fingerprint of an element covers everything {@link
+ * DOMDifferenceEngine} compares for the element and its descendants:
+ * node types, names, namespace URIs, attributes (in any order, but
+ * ignoring namespace declarations), textual content and the order of
+ * all children except for document type declarations.  Namespace
+ * prefixes are only taken into account if the fingerprinter has been
+ * created to do so.</p>
+ *
+ * <p>Two subtrees with equal fingerprints are identical with very
+ * high probability, fingerprints are 64 bit hash values.</p>
+ *
+ * <p>Whitespace and comments are hashed as they are present in the
+ * tree, if they shall not be taken into account, the tree must be
+ * preprocessed by using {@link
+ * org.xmlunit.input.WhitespaceStrippedSource} or {@link
+ * org.xmlunit.input.CommentLessSource} for example - or the tree
+ * must be fingerprinted through a {@link FilteredView}.</p>
+ */
+public final class SubtreeFingerprinter {
+
+    /**
+     * Fingerprinter that takes namespace prefixes into account.
+     */
+    public static final SubtreeFingerprinter WITH_PREFIXES =
+        new SubtreeFingerprinter(true);
+
+    /**
+     * Fingerprinter that ignores namespace prefixes.
+     *
+     * <p>Only use this one if differences in namespace prefixes
+     * don't matter to you, e.g. if you are only looking for
+     * differences that have been rated {@link
+     * ComparisonResult#DIFFERENT} by {@link
+     * DifferenceEvaluators#Default}.</p>
+     */
+    public static final SubtreeFingerprinter IGNORING_PREFIXES =
+        new SubtreeFingerprinter(false);
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long NULL_HASH = 0x9e3779b97f4a7c15L;
+
+    private final boolean includePrefixes;
+
+    private SubtreeFingerprinter(boolean includePrefixes) {
+        this.includePrefixes = includePrefixes;
+    }
+
+    /**
+     * Whether this fingerprinter takes namespace prefixes into
+     * account.
+     */
+    public boolean includesPrefixes() {
+        return includePrefixes;
+    }
+
+    /**
+     * Computes the fingerprints of all elements contained in the
+     * given tree, including the given node itself.
+     */
+    public Fingerprints fingerprint(Node root) {
+        return fingerprint(root, FilteredView.UNFILTERED);
+    }
+
+    /**
+     * Computes the fingerprints of all elements contained in the
+     * given tree as seen through the given view, including the given
+     * node itself.
+     *
+     * @see DOMDifferenceEngine#setFilteredView
+     */
+    public Fingerprints fingerprint(Node root, FilteredView view) {
+        if (root == null) {
+            throw new IllegalArgumentException("root must not be null");
+        }
+        if (view == null) {
+            throw new IllegalArgumentException("view must not be null");
+        }
+        Map<Node, Long> hashes = new IdentityHashMap<Node, Long>();
+        hash(root, view, hashes);
+        return new Fingerprints(this, hashes);
+    }
+
+    /**
+     * Walks the tree in post-order using an explicit stack so the
+     * depth of the tree is not limited by the call stack.
+     */
+    private void hash(Node root, FilteredView view, Map<Node, Long> hashes) {
+        Deque<Frame> stack = new ArrayDeque<Frame>();
+        stack.push(new Frame(root, view, hashNode(root, view)));
+        while (true) {
+            Frame top = stack.peek();
+            if (top.next < top.children.size()) {
+                Node child = top.children.get(top.next++);
+                stack.push(new Frame(child, view, hashNode(child, view)));
+                continue;
+            }
+            stack.pop();
+            long h = mix(top.hash, top.children.size());
+            if (top.node instanceof Element) {
+                hashes.put(top.node, Long.valueOf(h));
+            }
+            Frame parent = stack.peek();
+            if (parent == null) {
+                return;
+            }
+            parent.hash = mix(parent.hash, h);
+        }
+    }
+
+    /**
+     * Hashes the node itself without its children.
+     */
+    private long hashNode(Node n, FilteredView view) {
+        long h = mix(FNV_OFFSET, view.getNodeType(n));
+        h = mix(h, hash(n.getNamespaceURI()));
+        h = mix(h, hash(n.getLocalName() != null ? n.getLocalName()
+                        : n.getNodeName()));
+        if (includePrefixes) {
+            h = mix(h, hash(n.getPrefix()));
+        }
+        switch (n.getNodeType()) {
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+        case Node.COMMENT_NODE:
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            h = mix(h, hash(view.getValue(n)));
+            break;
+        case Node.ELEMENT_NODE:
+            h = mix(h, hashAttributes(n.getAttributes(), view));
+            break;
+        default:
+            break;
+        }
+        return h;
+    }
+
+    /**
+     * Attribute order doesn't matter, the per-attribute hashes are
+     * combined using addition.
+     */
+    private long hashAttributes(NamedNodeMap map, FilteredView view) {
+        long sum = 0;
+        long count = 0;
+        final int len = map.getLength();
+        for (int i = 0; i < len; i++) {
+            Attr a = (Attr) map.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(a.getNamespaceURI())) {
+                continue;
+            }
+            long h = mix(FNV_OFFSET, hash(a.getNamespaceURI()));
+            h = mix(h, hash(a.getLocalName() != null ? a.getLocalName()
+                            : a.getNodeName()));
+            if (includePrefixes) {
+                h = mix(h, hash(a.getPrefix()));
+            }
+            h = mix(h, hash(view.getValue(a)));
+            h = mix(h, view.isSpecified(a) ? 1 : 0);
+            if (isXsiType(a)) {
+                // the prefix of the value may be bound outside of the subtree
+                h = mix(h, hash(resolvePrefixOfValue(a, view)));
+            }
+            sum += finish(h);
+            count++;
+        }
+        return mix(sum, count);
+    }
+
+    private static boolean isXsiType(Attr a) {
+        return XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(a.getNamespaceURI())
+            && "type".equals(a.getLocalName());
+    }
+
+    private static String resolvePrefixOfValue(Attr a, FilteredView view) {
+        String value = view.getValue(a);
+        int colon = value.indexOf(':');
+        Element owner = a.getOwnerElement();
+        return owner == null ? null
+            : owner.lookupNamespaceURI(colon < 0 ? null
+                                       : value.substring(0, colon));
+    }
+
+    private static long hash(String s) {
+        if (s == null) {
+            return NULL_HASH;
+        }
+        long h = FNV_OFFSET;
+        final int len = s.length();
+        for (int i = 0; i < len; i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return finish(mix(h, len));
+    }
+
+    private static long mix(long h, long value) {
+        return (h ^ finish(value)) * FNV_PRIME;
+    }
+
+    /**
+     * Final avalanche step of MurmurHash3.
+     */
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Frame {
+        private final Node node;
+        private final List<Node> children;
+        private long hash;
+        private int next;
+
+        private Frame(Node node, FilteredView view, long hash) {
+            this.node = node;
+            this.hash = hash;
+            children = view.getChildren(node);
+        }
+    }
+
+    /**
+     * Fingerprints of the elements of a tree.
+     */
+    public static final class Fingerprints {
+        private final SubtreeFingerprinter fingerprinter;
+        private final Map<Node, Long> hashes;
+
+        private Fingerprints(SubtreeFingerprinter fingerprinter,
+                             Map<Node, Long> hashes) {
+            this.fingerprinter = fingerprinter;
+            this.hashes = hashes;
+        }
+
+        /**
+         * The fingerprinter that has computed the fingerprints.
+         */
+        public SubtreeFingerprinter getFingerprinter() {
+            return fingerprinter;
+        }
+
+        /**
+         * Returns the fingerprint of the given element or null if it
+         * is not part of the tree.
+         */
+        public Long get(Node element) {
+            return hashes.get(element);
+        }
+
+        /**
+         * Whether the subtrees rooted in the given nodes are known
+         * to have the same fingerprint.
+         */
+        public boolean sameAs(Node element, Fingerprints other,
+                              Node otherElement) {
+            if (fingerprinter != other.fingerprinter) {
+                return false;
+            }
+            Long mine = get(element);
+            return mine != null && mine.equals(other.get(otherElement));
+        }
+    }
+}
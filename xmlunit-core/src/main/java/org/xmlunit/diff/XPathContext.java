@@ -13,13 +13,9 @@
 */
 package org.xmlunit.diff;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
@@ -34,9 +30,36 @@
  * comparison.
  */
 public class XPathContext implements Cloneable {
-    private Deque<Level> path = new LinkedList<Level>();
+    /**
+     * The levels from the root to the current node, only the first
+     * depth + 1 entries are used.
+     */
+    private Level[] levels = new Level[INITIAL_DEPTH];
+    /**
+     * Position of each level inside its parent's children, -1 for
+     * the root and attributes.
+     */
+    private int[] childIndexes = new int[INITIAL_DEPTH];
+    /**
+     * Name of each level that is an attribute, null otherwise.
+     */
+    private QName[] attributeNames = new QName[INITIAL_DEPTH];
+    private int depth;
+    /**
+     * Identifies the levels this context may modify in place, levels
+     * shared with a clone are copied on the first modification.
+     */
+    private Object owner = new Object();
+    /**
+     * Maps element and attribute names to their - shared - textual
+     * representation.
+     */
+    private Map<QName, String> names = new HashMap<QName, String>();
     private final Map<String, String> uri2Prefix;
 
+    private static final int INITIAL_DEPTH = 16;
+    private static final Path[] NO_CHILDREN = new Path[0];
+
     private static final String COMMENT = "comment()";
     private static final String PI = "processing-instruction()";
     private static final String TEXT = "text()";
@@ -79,7 +102,8 @@ public XPathContext(Map<String, String> uri2Prefix, Node root) {
         } else {
             this.uri2Prefix = Collections.unmodifiableMap(uri2Prefix);
         }
-        path.addLast(new Level(EMPTY));
+        levels[0] = new Level(new Path(null, EMPTY, 0, false), owner);
+        childIndexes[0] = -1;
         if (root != null) {
             setChildren(Linqy.singleton(new DOMNodeInfo(root)));
             navigateToChild(0);
@@ -90,31 +114,53 @@ public XPathContext(Map<String, String> uri2Prefix, Node root) {
      * Moves from the current node to the given child node.
      */
     public void navigateToChild(int index) {
-        path.addLast(path.getLast().children.get(index));
+        Level current = levels[depth];
+        if (index < 0 || index >= current.childCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+                                                + current.childCount);
+        }
+        Level child = current.childLevels != null
+            && index < current.childLevels.length
+            ? current.childLevels[index] : null;
+        if (child == null) {
+            child = new Level(current.children[index], owner);
+        }
+        push(child, index, null);
+    }
+
+    /**
+     * Moves from the current node to a child whose path has been
+     * obtained from {@link #nextChild}.
+     */
+    void navigateToChild(Path child) {
+        push(new Level(child, owner), -1, null);
     }
 
     /**
      * Moves from the current node to the given attribute.
      */
     public void navigateToAttribute(QName attribute) {
-        path.addLast(path.getLast().attributes.get(attribute));
+        Level current = levels[depth];
+        push(current.attributes != null ? current.attributes.get(attribute) : null,
+             -1, attribute);
     }
 
     /**
      * Moves back to the parent.
      */
     public void navigateToParent() {
-        path.removeLast();
+        levels[depth] = null;
+        attributeNames[depth] = null;
+        depth--;
     }
 
     /**
      * Adds knowledge about the current node's attributes.
      */
     public void addAttributes(Iterable<? extends QName> attributes) {
-        Level current = path.getLast();
+        Level current = writableCurrent();
         for (QName attribute : attributes) {
-            current.attributes.put(attribute,
-                                   new Level(ATTR + getName(attribute)));
+            current.addAttribute(attribute, getName(attribute), owner);
         }
     }
 
@@ -122,9 +168,7 @@ public void addAttributes(Iterable<? extends QName> attributes) {
      * Adds knowledge about a single attribute of the current node.
      */
     public void addAttribute(QName attribute) {
-        Level current = path.getLast();
-        current.attributes.put(attribute,
-                               new Level(ATTR + getName(attribute)));
+        writableCurrent().addAttribute(attribute, getName(attribute), owner);
     }
 
     /**
@@ -132,8 +176,7 @@ public void addAttribute(QName attribute) {
      * existing knowledge.
      */
     public void setChildren(Iterable<? extends NodeInfo> children) {
-        Level current = path.getLast();
-        current.children.clear();
+        writableCurrent().clearChildren();
         appendChildren(children);
     }
 
@@ -142,50 +185,43 @@ public void setChildren(Iterable<? extends NodeInfo> children) {
      * the knowledge already present.
      */
     public void appendChildren(Iterable<? extends NodeInfo> children) {
-        Level current = path.getLast();
-        int comments, pis, texts;
-        comments = pis = texts = 0;
-        Map<String, Integer> elements = new HashMap<String, Integer>();
-
-        for (Level l : current.children) {
-            String childName = l.expression;
-            if (childName.startsWith(COMMENT)) {
-                comments++;
-            } else if (childName.startsWith(PI)) {
-                pis++;
-            } else if (childName.startsWith(TEXT)) {
-                texts++;
-            } else {
-                childName = childName.substring(0, childName.indexOf(OPEN));
-                add1OrIncrement(childName, elements);
-            }
+        Level current = writableCurrent();
+        for (NodeInfo child : children) {
+            current.addChild(newChildPath(current, child));
         }
+    }
 
-        for (NodeInfo child : children) {
-            Level l = null;
-            switch (child.getType()) {
-            case Node.COMMENT_NODE:
-                l = new Level(COMMENT + OPEN + (++comments) + CLOSE);
-                break;
-            case Node.PROCESSING_INSTRUCTION_NODE:
-                l = new Level(PI + OPEN + (++pis) + CLOSE);
-                break;
-            case Node.CDATA_SECTION_NODE:
-            case Node.TEXT_NODE:
-                l = new Level(TEXT + OPEN + (++texts) + CLOSE);
-                break;
-            case Node.ELEMENT_NODE:
-                String name = getName(child.getName());
-                l = new Level(name + OPEN + add1OrIncrement(name, elements)
-                              + CLOSE);
-                break;
-            default:
-                // more or less ignore
-                // FIXME: is this a good thing?
-                l = new Level(EMPTY);
-                break;
-            }
-            current.children.add(l);
+    /**
+     * Adds knowledge about the next child of the current node
+     * without remembering the child itself.
+     *
+     * <p>Only the number of children per name is kept, so a node
+     * with millions of children can be traversed in streaming
+     * fashion using {@link #navigateToChild(Path)}.  Must not be
+     * mixed with {@link #appendChildren} for the same node.</p>
+     *
+     * @return the path of the child
+     */
+    Path nextChild(NodeInfo child) {
+        return newChildPath(writableCurrent(), child);
+    }
+
+    private Path newChildPath(Level current, NodeInfo child) {
+        switch (child.getType()) {
+        case Node.COMMENT_NODE:
+            return new Path(current.path, COMMENT, ++current.comments, false);
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            return new Path(current.path, PI, ++current.pis, false);
+        case Node.CDATA_SECTION_NODE:
+        case Node.TEXT_NODE:
+            return new Path(current.path, TEXT, ++current.texts, false);
+        case Node.ELEMENT_NODE:
+            String name = getName(child.getName());
+            return new Path(current.path, name, current.nextElementIndex(name), false);
+        default:
+            // more or less ignore
+            // FIXME: is this a good thing?
+            return new Path(current.path, EMPTY, 0, false);
         }
     }
 
@@ -193,20 +229,34 @@ public void appendChildren(Iterable<? extends NodeInfo> children) {
      * Stringifies the XPath of the current node.
      */
     public String getXPath() {
-        return getXPath(path.descendingIterator());
+        return getPath().getXPath();
+    }
+
+    /**
+     * Captures the current node so its XPath can be stringified
+     * later, even after the context has moved on.
+     */
+    Path getPath() {
+        return levels[depth].path;
     }
 
     /**
      * Creates a deep copy of this XPathContext.
+     *
+     * <p>The copy and the original share all state until one of them
+     * modifies it, so they may be used by different threads.</p>
      */
     @Override
     public XPathContext clone() {
         try {
             XPathContext c = (XPathContext) super.clone();
-            c.path = new LinkedList<Level>();
-            for (Level l: path) {
-                c.path.addLast(l.clone());
-            }
+            c.levels = levels.clone();
+            c.childIndexes = childIndexes.clone();
+            c.attributeNames = attributeNames.clone();
+            c.names = new HashMap<QName, String>(names);
+            c.owner = new Object();
+            // levels created so far are now shared
+            owner = new Object();
             return c;
         } catch (CloneNotSupportedException e) {
             // impossible
@@ -214,69 +264,215 @@ public XPathContext clone() {
         }
     }
 
-    private String getXPath(Iterator<Level> dIterator) {
-        if (!dIterator.hasNext()) {
-            return EMPTY;
+    private void push(Level level, int childIndex, QName attributeName) {
+        if (++depth == levels.length) {
+            int newLength = levels.length * 2;
+            levels = Arrays.copyOf(levels, newLength);
+            childIndexes = Arrays.copyOf(childIndexes, newLength);
+            attributeNames = Arrays.copyOf(attributeNames, newLength);
+        }
+        levels[depth] = level;
+        childIndexes[depth] = childIndex;
+        attributeNames[depth] = attributeName;
+    }
+
+    /**
+     * Makes sure the current level may be modified in place and is
+     * reachable from its parent so the modification is kept when
+     * navigating back to it later.
+     *
+     * <p>Levels shared with a clone are copied together with all
+     * ancestors that are shared.</p>
+     */
+    private Level writableCurrent() {
+        int top = depth;
+        while (top > 0 && (levels[top].owner != owner || !isReachable(top))) {
+            top--;
         }
-        Level l = dIterator.next();
-        if (null == l.xpath) {
-            String previous = getXPath(dIterator);
-            if (!SEP.equals(previous)) {
-                previous += SEP;
+        for (int i = top; i <= depth; i++) {
+            if (levels[i].owner != owner) {
+                levels[i] = levels[i].copy(owner);
             }
-            l.xpath = previous + l.expression;
+            if (i > top && !isDetached(i)) {
+                if (attributeNames[i] != null) {
+                    levels[i - 1].attributes.put(attributeNames[i], levels[i]);
+                } else {
+                    levels[i - 1].setChildLevel(childIndexes[i], levels[i]);
+                }
+            }
+        }
+        return levels[depth];
+    }
+
+    private boolean isReachable(int level) {
+        if (isDetached(level)) {
+            // not known to the parent, see navigateToChild(Path)
+            return true;
         }
-        return l.xpath;
+        Level parent = levels[level - 1];
+        if (attributeNames[level] != null) {
+            return parent.attributes != null
+                && parent.attributes.get(attributeNames[level]) == levels[level];
+        }
+        return parent.childLevels != null
+            && childIndexes[level] < parent.childLevels.length
+            && parent.childLevels[childIndexes[level]] == levels[level];
     }
 
+    private boolean isDetached(int level) {
+        return childIndexes[level] < 0 && attributeNames[level] == null;
+    }
 
     private String getName(QName name) {
-        String ns = name.getNamespaceURI();
-        String p = null;
-        if (ns != null) {
-            p = uri2Prefix.get(ns);
+        String n = names.get(name);
+        if (n == null) {
+            String ns = name.getNamespaceURI();
+            String p = null;
+            if (ns != null) {
+                p = uri2Prefix.get(ns);
+            }
+            n = (p == null ? EMPTY : p + ":") + name.getLocalPart();
+            names.put(name, n);
         }
-        return (p == null ? EMPTY : p + ":") + name.getLocalPart();
+        return n;
     }
 
     /**
-     * Increments the value name maps to or adds 1 as value if name
-     * isn't present inside the map.
+     * Knowledge about a node the context has navigated to.
      *
-     * @return the new mapping for name
+     * <p>Children are represented by their {@link Path}s, levels for
+     * children are only kept once something has been learned about
+     * them.</p>
      */
-    private static int add1OrIncrement(String name, Map<String, Integer> map) {
-        Integer old = map.get(name);
-        int index = old == null ? 1 : (old.intValue() + 1);
-        map.put(name, Integer.valueOf(index));
-        return index;
+    private static final class Level {
+        private final Path path;
+        private final Object owner;
+        private Path[] children = NO_CHILDREN;
+        private int childCount;
+        private Level[] childLevels;
+        private int comments, pis, texts;
+        private Map<String, Integer> elementCounts;
+        private Map<QName, Level> attributes;
+
+        private Level(Path path, Object owner) {
+            this.path = path;
+            this.owner = owner;
+        }
+
+        private Level copy(Object newOwner) {
+            Level l = new Level(path, newOwner);
+            if (childCount > 0) {
+                l.children = Arrays.copyOf(children, childCount);
+                l.childCount = childCount;
+                if (childLevels != null) {
+                    l.childLevels = Arrays.copyOf(childLevels, childCount);
+                }
+            }
+            l.comments = comments;
+            l.pis = pis;
+            l.texts = texts;
+            if (elementCounts != null) {
+                l.elementCounts = new HashMap<String, Integer>(elementCounts);
+            }
+            if (attributes != null) {
+                l.attributes = new HashMap<QName, Level>(attributes);
+            }
+            return l;
+        }
+
+        private void clearChildren() {
+            children = NO_CHILDREN;
+            childCount = 0;
+            childLevels = null;
+            comments = pis = texts = 0;
+            elementCounts = null;
+        }
+
+        private void addChild(Path child) {
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, Math.max(4, childCount * 2));
+            }
+            children[childCount++] = child;
+        }
+
+        /**
+         * Increments the counter for the given element name.
+         *
+         * @return the new value of the counter
+         */
+        private int nextElementIndex(String name) {
+            if (elementCounts == null) {
+                elementCounts = new HashMap<String, Integer>();
+            }
+            Integer old = elementCounts.get(name);
+            int index = old == null ? 1 : (old.intValue() + 1);
+            elementCounts.put(name, Integer.valueOf(index));
+            return index;
+        }
+
+        private void setChildLevel(int index, Level child) {
+            if (childLevels == null) {
+                childLevels = new Level[children.length];
+            } else if (childLevels.length < children.length) {
+                childLevels = Arrays.copyOf(childLevels, children.length);
+            }
+            childLevels[index] = child;
+        }
+
+        private void addAttribute(QName attribute, String name, Object owner) {
+            if (attributes == null) {
+                attributes = new HashMap<QName, Level>();
+            }
+            attributes.put(attribute,
+                           new Level(new Path(path, name, 0, true), owner));
+        }
     }
 
-    private static class Level implements Cloneable {
-        private final String expression;
-        private List<Level> children = new ArrayList<Level>();
-        private Map<QName, Level> attributes = new HashMap<QName, Level>();
-        private String xpath;
-        private Level(String expression) {
-            this.expression = expression;
+    /**
+     * The immutable position of a node, linked to the position of its
+     * parent.
+     *
+     * <p>Nodes with a common ancestor share the ancestor's Path and
+     * the names are shared between all nodes of the same name, the
+     * XPath is only stringified when it is asked for.</p>
+     */
+    static final class Path {
+        private final Path parent;
+        private final String name;
+        private final int index;
+        private final boolean attribute;
+
+        private Path(Path parent, String name, int index, boolean attribute) {
+            this.parent = parent;
+            this.name = name;
+            this.index = index;
+            this.attribute = attribute;
         }
-        @Override
-        public Level clone() {
-            try {
-                Level l = (Level) super.clone();
-                l.children = new ArrayList<Level>(children.size());
-                for (Level c : children) {
-                    l.children.add(c.clone());
+
+        String getXPath() {
+            // iterate rather than recurse, documents may be deep
+            int length = 0;
+            for (Path p = this; p != null; p = p.parent) {
+                length++;
+            }
+            Path[] steps = new Path[length];
+            for (Path p = this; p != null; p = p.parent) {
+                steps[--length] = p;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Path p : steps) {
+                if (!SEP.contentEquals(sb)) {
+                    sb.append(SEP);
+                }
+                if (p.attribute) {
+                    sb.append(ATTR);
                 }
-                l.attributes = new HashMap<QName, Level>(attributes.size());
-                for (Map.Entry<QName, Level> e : attributes.entrySet()) {
-                    l.attributes.put(e.getKey(), e.getValue().clone());
+                sb.append(p.name);
+                if (p.index > 0) {
+                    sb.append(OPEN).append(p.index).append(CLOSE);
                 }
-                return l;
-            } catch (CloneNotSupportedException e) {
-                // impossible
-                throw new RuntimeException("Level cannot be cloned?", e);
             }
+            return sb.toString();
         }
     }
 
@@ -18,6 +18,8 @@
 import javax.xml.transform.stream.StreamSource;
 
 import org.xmlunit.transform.Transformation;
+import org.xmlunit.util.Instrumentation;
+import org.xmlunit.util.Observations;
 
 /**
  * A source that is obtained from a different source by stripping all
@@ -30,9 +32,15 @@ public CommentLessSource(Source originalSource) {
         if (originalSource == null) {
             throw new IllegalArgumentException("source must not be null");
         }
+        Instrumentation.Observation o =
+            Observations.start(Instrumentation.Operation.TRANSFORM_SOURCE);
         Transformation t = new Transformation(originalSource);
         t.setStylesheet(getStylesheet());
         setNode(t.transformToDocument());
+        if (o != null && o.shouldCommit()) {
+            o.commit(getClass().getName(), -1, Observations.countNodes(originalSource),
+                     Observations.countNodes(getNode()));
+        }
     }
 
     private static final String STYLE =
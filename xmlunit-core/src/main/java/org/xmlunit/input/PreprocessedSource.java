@@ -0,0 +1,219 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.input;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Set;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.Instrumentation;
+import org.xmlunit.util.Nodes;
+import org.xmlunit.util.Observations;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * A source that is obtained from a different source by applying
+ * several kinds of preprocessing in a single pass over a single copy
+ * of the original document.
+ *
+ * <p>The result is the same as the one of chaining {@link
+ * WhitespaceStrippedSource}, {@link WhitespaceNormalizedSource} and
+ * {@link CommentLessSource} - in that order - for the enabled
+ * options, but the chain creates one copy of the document per
+ * step.</p>
+ */
+public class PreprocessedSource extends DOMSource {
+
+    /**
+     * The kinds of preprocessing.
+     */
+    public enum Option {
+        /**
+         * Removes all empty text nodes and trims the non-empty ones,
+         * see {@link WhitespaceStrippedSource}.
+         */
+        STRIP_WHITESPACE,
+        /**
+         * Removes all empty text nodes and normalizes the non-empty
+         * ones, see {@link WhitespaceNormalizedSource}.
+         */
+        NORMALIZE_WHITESPACE,
+        /**
+         * Strips all comments, see {@link CommentLessSource}.
+         */
+        STRIP_COMMENTS
+    }
+
+    /**
+     * @param originalSource the source to preprocess - must not be null
+     * @param options the preprocessing to apply
+     */
+    public PreprocessedSource(Source originalSource, Option... options) {
+        super();
+        if (originalSource == null) {
+            throw new IllegalArgumentException("source must not be null");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("options must not be null");
+        }
+        Set<Option> opts = EnumSet.noneOf(Option.class);
+        opts.addAll(Arrays.asList(options));
+        Instrumentation.Observation o =
+            Observations.start(Instrumentation.Operation.TRANSFORM_SOURCE);
+        Document original = Convert.toDocument(originalSource);
+        Document copy = (Document) original.cloneNode(true);
+        preprocess(copy, opts.contains(Option.STRIP_WHITESPACE)
+                   || opts.contains(Option.NORMALIZE_WHITESPACE),
+                   opts.contains(Option.NORMALIZE_WHITESPACE),
+                   opts.contains(Option.STRIP_COMMENTS));
+        setNode(copy);
+        setSystemId(originalSource.getSystemId());
+        if (o != null && o.shouldCommit()) {
+            o.commit(getClass().getName(), -1, Observations.countNodes(original),
+                     Observations.countNodes(copy));
+        }
+    }
+
+    /**
+     * Preprocesses a document in place, walking the tree
+     * iteratively.
+     */
+    private static void preprocess(Document doc, boolean whitespace,
+                                   boolean normalize, boolean comments) {
+        Deque<Node> todo = new ArrayDeque<Node>();
+        todo.push(doc);
+        while (!todo.isEmpty()) {
+            Node n = todo.pop();
+            if (whitespace) {
+                handleAttributes(n, normalize);
+                mergeAdjacentText(n);
+                handleWhitespace(n, normalize, comments);
+            }
+            if (comments) {
+                stripComments(n);
+                mergeAdjacentText(n);
+            }
+            for (Node child = n.getFirstChild(); child != null;
+                 child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    todo.push(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Trims or normalizes the values of all attributes.
+     */
+    private static void handleAttributes(Node n, boolean normalize) {
+        NamedNodeMap attrs = n.getAttributes();
+        if (attrs != null) {
+            final int len = attrs.getLength();
+            for (int i = 0; i < len; i++) {
+                Attr a = (Attr) attrs.item(i);
+                a.setValue(handleWhitespace(a.getValue(), normalize));
+            }
+        }
+    }
+
+    /**
+     * Trims or normalizes the textual content of all children,
+     * removes empty text and CDATA children.
+     */
+    private static void handleWhitespace(Node n, boolean normalize,
+                                         boolean comments) {
+        Node child = n.getFirstChild();
+        while (child != null) {
+            Node next = child.getNextSibling();
+            switch (child.getNodeType()) {
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                String s = handleWhitespace(child.getNodeValue(), normalize);
+                if (s.length() == 0) {
+                    n.removeChild(child);
+                } else {
+                    child.setNodeValue(s);
+                }
+                break;
+            case Node.COMMENT_NODE:
+                if (!comments) {
+                    child.setNodeValue(handleWhitespace(child.getNodeValue(),
+                                                        normalize));
+                }
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                child.setNodeValue(handleWhitespace(child.getNodeValue(),
+                                                    normalize));
+                break;
+            default:
+                break;
+            }
+            child = next;
+        }
+    }
+
+    private static String handleWhitespace(String s, boolean normalize) {
+        s = s.trim();
+        return normalize ? Nodes.normalize(s) : s;
+    }
+
+    /**
+     * Removes comment and document type children and turns CDATA
+     * sections into text, the way an XSLT identity transformation
+     * does.
+     */
+    private static void stripComments(Node n) {
+        Node child = n.getFirstChild();
+        while (child != null) {
+            Node next = child.getNextSibling();
+            switch (child.getNodeType()) {
+            case Node.COMMENT_NODE:
+            case Node.DOCUMENT_TYPE_NODE:
+                n.removeChild(child);
+                break;
+            case Node.CDATA_SECTION_NODE:
+                n.replaceChild(n.getOwnerDocument()
+                               .createTextNode(child.getNodeValue()), child);
+                break;
+            default:
+                break;
+            }
+            child = next;
+        }
+    }
+
+    /**
+     * Merges adjacent text children - but not CDATA sections.
+     */
+    private static void mergeAdjacentText(Node n) {
+        Node child = n.getFirstChild();
+        while (child != null) {
+            Node next = child.getNextSibling();
+            if (child.getNodeType() == Node.TEXT_NODE
+                && next != null && next.getNodeType() == Node.TEXT_NODE) {
+                child.setNodeValue(child.getNodeValue() + next.getNodeValue());
+                n.removeChild(next);
+            } else {
+                child = next;
+            }
+        }
+    }
+}
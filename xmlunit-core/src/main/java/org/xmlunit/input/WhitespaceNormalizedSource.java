@@ -16,7 +16,10 @@
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
 import org.xmlunit.util.Convert;
+import org.xmlunit.util.Instrumentation;
 import org.xmlunit.util.Nodes;
+import org.xmlunit.util.Observations;
+import org.w3c.dom.Document;
 
 /**
  * A source that is obtained from a different source by removing all
@@ -29,7 +32,15 @@
 public class WhitespaceNormalizedSource extends DOMSource {
 
     public WhitespaceNormalizedSource(Source originalSource) {
-        super(Nodes.normalizeWhitespace(Convert.toDocument(originalSource)));
+        super();
+        Instrumentation.Observation o =
+            Observations.start(Instrumentation.Operation.TRANSFORM_SOURCE);
+        Document original = Convert.toDocument(originalSource);
+        setNode(Nodes.normalizeWhitespace(original));
         setSystemId(originalSource.getSystemId());
+        if (o != null && o.shouldCommit()) {
+            o.commit(getClass().getName(), -1, Observations.countNodes(original),
+                     Observations.countNodes(getNode()));
+        }
     }
 }
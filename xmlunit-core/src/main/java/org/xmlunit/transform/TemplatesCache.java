@@ -0,0 +1,271 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.transform;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import org.xmlunit.ConfigurationException;
+import org.xmlunit.XMLUnitException;
+import org.xmlunit.util.Streams;
+
+/**
+ * Bounded cache of compiled stylesheets.
+ *
+ * <p>Stylesheets given as {@link StreamSource}s are cached - keyed
+ * by the factory compiling them and either their system ID and
+ * content if the source holds a stream or reader, or their system
+ * ID, size and modification time if it only holds the system ID of
+ * a local file.  All other kinds of sources - including system IDs
+ * of anything but local files - are compiled each time.  The least
+ * recently used stylesheets are evicted once the cache is full.</p>
+ *
+ * <p>Stylesheets imported or included by a cached stylesheet are
+ * assumed not to change while it is cached, {@link #clear} the cache
+ * if they do.  The cache is thread-safe and so are the {@link
+ * Templates} it returns.</p>
+ */
+public final class TemplatesCache {
+
+    /**
+     * Size of the {@link #getDefault default} cache.
+     */
+    public static final int DEFAULT_SIZE = 32;
+
+    private static final TemplatesCache DEFAULT =
+        new TemplatesCache(DEFAULT_SIZE);
+
+    private final Map<Object, Templates> templates;
+
+    /**
+     * Creates a cache holding up to the given number of compiled
+     * stylesheets.
+     */
+    public TemplatesCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        templates = new LruMap(maxSize);
+    }
+
+    /**
+     * The cache used by {@link Transformation}.
+     */
+    public static TemplatesCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Compiles a stylesheet using the given factory unless it has
+     * been cached.
+     *
+     * <p>A stream or reader held by the stylesheet source will be
+     * consumed.</p>
+     *
+     * @param styleSheet the stylesheet - must not be null
+     * @param factory the factory to use - must not be null
+     * @exception ConfigurationException if the stylesheet cannot be
+     * compiled
+     * @exception XMLUnitException if the stylesheet cannot be read
+     */
+    public Templates getTemplates(Source styleSheet,
+                                  TransformerFactory factory) {
+        if (styleSheet == null) {
+            throw new IllegalArgumentException("styleSheet must not be null");
+        }
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null");
+        }
+        if (!(styleSheet instanceof StreamSource)) {
+            return compile(styleSheet, factory);
+        }
+        StreamSource s = (StreamSource) styleSheet;
+        File f = Streams.localFile(s.getSystemId());
+        Object key;
+        if (s.getInputStream() != null) {
+            byte[] content = Streams.readFully(s.getInputStream());
+            key = new ContentKey(factory, s.getSystemId(), content);
+            s = new StreamSource(new ByteArrayInputStream(content),
+                                 s.getSystemId());
+        } else if (s.getReader() != null) {
+            String content = Streams.readFully(s.getReader());
+            key = new ContentKey(factory, s.getSystemId(), content);
+            s = new StreamSource(new StringReader(content), s.getSystemId());
+        } else if (f != null) {
+            key = new FileKey(factory, s.getSystemId(), f);
+        } else {
+            return compile(s, factory);
+        }
+        synchronized (templates) {
+            Templates t = templates.get(key);
+            if (t != null) {
+                return t;
+            }
+        }
+        Templates t = compile(s, factory);
+        synchronized (templates) {
+            Templates other = templates.get(key);
+            if (other != null) {
+                return other;
+            }
+            templates.put(key, t);
+        }
+        return t;
+    }
+
+    /**
+     * The number of cached stylesheets.
+     */
+    public int size() {
+        synchronized (templates) {
+            return templates.size();
+        }
+    }
+
+    /**
+     * Removes all cached stylesheets.
+     */
+    public void clear() {
+        synchronized (templates) {
+            templates.clear();
+        }
+    }
+
+    private static Templates compile(Source styleSheet,
+                                     TransformerFactory factory) {
+        try {
+            synchronized (factory) {
+                return factory.newTemplates(styleSheet);
+            }
+        } catch (TransformerConfigurationException ex) {
+            throw new ConfigurationException(ex);
+        }
+    }
+
+    /**
+     * Map evicting its least recently used entry once it exceeds its
+     * maximum size.
+     */
+    private static final class LruMap extends LinkedHashMap<Object, Templates> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        private LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Templates> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    /**
+     * Identifies a stylesheet by its factory, system ID and the size
+     * and modification time of the local file behind the system ID.
+     */
+    private static final class FileKey {
+        private final TransformerFactory factory;
+        private final String systemId;
+        private final long length;
+        private final long lastModified;
+
+        private FileKey(TransformerFactory factory, String systemId, File f) {
+            this.factory = factory;
+            this.systemId = systemId;
+            length = f.length();
+            lastModified = f.lastModified();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(factory)
+                         + systemId.hashCode())
+                + (int) (lastModified ^ (lastModified >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileKey)) {
+                return false;
+            }
+            FileKey other = (FileKey) o;
+            return factory == other.factory && systemId.equals(other.systemId)
+                && length == other.length && lastModified == other.lastModified;
+        }
+    }
+
+    /**
+     * Identifies a stylesheet by its factory, system ID and content.
+     */
+    private static final class ContentKey {
+        private final TransformerFactory factory;
+        private final String systemId;
+        private final Object content;
+        private final int hash;
+
+        private ContentKey(TransformerFactory factory, String systemId,
+                           byte[] content) {
+            this(factory, systemId, (Object) content, Arrays.hashCode(content));
+        }
+
+        private ContentKey(TransformerFactory factory, String systemId,
+                           String content) {
+            this(factory, systemId, (Object) content, content.hashCode());
+        }
+
+        private ContentKey(TransformerFactory factory, String systemId,
+                           Object content, int contentHash) {
+            this.factory = factory;
+            this.systemId = systemId;
+            this.content = content;
+            this.hash = 31 * (31 * System.identityHashCode(factory)
+                              + (systemId == null ? 0 : systemId.hashCode()))
+                + contentHash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ContentKey)) {
+                return false;
+            }
+            ContentKey other = (ContentKey) o;
+            if (hash != other.hash || factory != other.factory
+                || (systemId == null ? other.systemId != null
+                    : !systemId.equals(other.systemId))) {
+                return false;
+            }
+            if (content instanceof byte[]) {
+                return other.content instanceof byte[]
+                    && Arrays.equals((byte[]) content, (byte[]) other.content);
+            }
+            return content.equals(other.content);
+        }
+    }
+}
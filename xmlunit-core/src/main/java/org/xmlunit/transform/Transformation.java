@@ -20,6 +20,7 @@
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.URIResolver;
@@ -27,6 +28,9 @@
 import javax.xml.transform.stream.StreamResult;
 import org.xmlunit.ConfigurationException;
 import org.xmlunit.XMLUnitException;
+import org.xmlunit.util.Instrumentation;
+import org.xmlunit.util.JAXPProviders;
+import org.xmlunit.util.Observations;
 import org.w3c.dom.Document;
 
 /**
@@ -36,12 +40,15 @@
  * values only the transform methods will ever throw exceptions and
  * these will be XMLUnit's runtime exceptions.</p>
  *
- * <p>Each invocation of a transform method will use a fresh
- * Transformer instance, the transform methods are thread-safe.</p>
+ * <p>Each invocation of a transform method will use a fresh or
+ * freshly reset Transformer instance, the transform methods are
+ * thread-safe.</p>
  */
 public final class Transformation {
     private Source source;
     private Source styleSheet;
+    private Templates templates;
+    private Templates compiledStyleSheet;
     private TransformerFactory factory;
     private URIResolver uriResolver;
     private ErrorListener errorListener;
@@ -68,11 +75,31 @@ public void setSource(Source s) {
     }
     /**
      * Set the stylesheet to use.
+     *
+     * <p>The stylesheet is compiled once and cached by the {@link
+     * TemplatesCache#getDefault default TemplatesCache}.  Replaces any
+     * {@link #setTemplates templates} set before.</p>
+     *
      * @param s the stylesheet to use - may be null in which case an
      * identity transformation will be performed.
      */
-    public void setStylesheet(Source s) {
+    public synchronized void setStylesheet(Source s) {
         styleSheet = s;
+        templates = compiledStyleSheet = null;
+    }
+    /**
+     * Set the compiled stylesheet to use.
+     *
+     * <p>Replaces any {@link #setStylesheet stylesheet} set
+     * before.</p>
+     *
+     * @param t the compiled stylesheet to use - may be null in which
+     * case an identity transformation will be performed.
+     */
+    public synchronized void setTemplates(Templates t) {
+        templates = t;
+        styleSheet = null;
+        compiledStyleSheet = null;
     }
     /**
      * Add a named output property.
@@ -117,10 +144,12 @@ public void clearParameters() {
      * Set the TraX factory to use.
      *
      * @param f the factory to use - may be null in which case the
-     * default factory will be used.
+     * factory of the {@link JAXPProviders#getDefault default
+     * providers} will be used.
      */
-    public void setFactory(TransformerFactory f) {
+    public synchronized void setFactory(TransformerFactory f) {
         factory = f;
+        compiledStyleSheet = null;
     }
     /**
      * Set the resolver to use for document() and xsl:include/import
@@ -162,16 +191,23 @@ public void transformTo(Result r) {
         if (r == null) {
             throw new IllegalArgumentException("result must not be null");
         }
+        Instrumentation.Observation o =
+            Observations.start(Instrumentation.Operation.TRANSFORM);
+        JAXPProviders providers = null;
+        Transformer t = null;
         try {
-            TransformerFactory fac = factory;
-            if (fac == null) {
-                fac = TransformerFactory.newInstance();
-            }
-            Transformer t = null;
-            if (styleSheet != null) {
-                t = fac.newTransformer(styleSheet);
+            Templates tmpl = getTemplates();
+            if (tmpl != null) {
+                t = tmpl.newTransformer();
+            } else if (factory == null) {
+                JAXPProviders defaultProviders = JAXPProviders.getDefault();
+                t = defaultProviders.borrowIdentityTransformer();
+                // only release what has been borrowed
+                providers = defaultProviders;
             } else {
-                t = fac.newTransformer();
+                synchronized (factory) {
+                    t = factory.newTransformer();
+                }
             }
             if (uriResolver != null) {
                 t.setURIResolver(uriResolver);
@@ -184,11 +220,37 @@ public void transformTo(Result r) {
                 t.setParameter(ent.getKey(), ent.getValue());
             }
             t.transform(source, r);
+            if (o != null && o.shouldCommit()) {
+                o.commit(styleSheet != null ? styleSheet.getSystemId() : null, -1,
+                         Observations.countNodes(source),
+                         r instanceof DOMResult
+                         ? Observations.countNodes(((DOMResult) r).getNode()) : -1);
+            }
         } catch (javax.xml.transform.TransformerConfigurationException e) {
             throw new ConfigurationException(e);
         } catch (javax.xml.transform.TransformerException e) {
             throw new XMLUnitException(e);
+        } finally {
+            if (providers != null) {
+                providers.release(t);
+            }
+        }
+    }
+    /**
+     * The compiled stylesheet to use or null for an identity
+     * transformation.
+     */
+    private synchronized Templates getTemplates() {
+        if (templates != null) {
+            return templates;
+        }
+        if (styleSheet != null && compiledStyleSheet == null) {
+            TransformerFactory fac = factory != null ? factory
+                : JAXPProviders.getDefault().getTransformerFactory();
+            compiledStyleSheet =
+                TemplatesCache.getDefault().getTemplates(styleSheet, fac);
         }
+        return compiledStyleSheet;
     }
     /**
      * Convenience method that returns the result of the
@@ -0,0 +1,1062 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.XMLConstants;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+
+/**
+ * Read-only DOM view of a node of a {@link CompactTree}.
+ *
+ * <p>All methods that would modify the tree throw a {@link
+ * DOMException} with code NO_MODIFICATION_ALLOWED_ERR, a few methods
+ * that are not needed to compare or serialize documents throw one
+ * with code NOT_SUPPORTED_ERR.</p>
+ */
+abstract class CompactNode implements Node {
+
+    final CompactTree tree;
+    final int index;
+
+    CompactNode(CompactTree tree, int index) {
+        this.tree = tree;
+        this.index = index;
+    }
+
+    static CompactNode create(CompactTree tree, int index) {
+        switch (tree.getNodeType(index)) {
+        case DOCUMENT_NODE:
+            return new CompactDocument(tree);
+        case ELEMENT_NODE:
+            return new CompactElement(tree, index);
+        case ATTRIBUTE_NODE:
+            return new CompactAttr(tree, index);
+        case TEXT_NODE:
+            return new CompactText(tree, index);
+        case CDATA_SECTION_NODE:
+            return new CompactCDATASection(tree, index);
+        case COMMENT_NODE:
+            return new CompactComment(tree, index);
+        case PROCESSING_INSTRUCTION_NODE:
+            return new CompactProcessingInstruction(tree, index);
+        case DOCUMENT_TYPE_NODE:
+            return new CompactDocumentType(tree, index);
+        default:
+            throw new IllegalStateException("unexpected node type "
+                                            + tree.getNodeType(index));
+        }
+    }
+
+    static DOMException readOnly() {
+        return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR,
+                                "compact trees are read-only");
+    }
+
+    static DOMException notSupported() {
+        return new DOMException(DOMException.NOT_SUPPORTED_ERR,
+                                "not supported by compact trees");
+    }
+
+    private Node node(int i) {
+        return i == CompactTree.NONE ? null : tree.getNode(i);
+    }
+
+    @Override
+    public String getNodeName() {
+        return tree.getNodeName(index);
+    }
+
+    @Override
+    public String getNodeValue() {
+        return tree.getValue(index);
+    }
+
+    @Override
+    public void setNodeValue(String nodeValue) {
+        throw readOnly();
+    }
+
+    @Override
+    public short getNodeType() {
+        return tree.getNodeType(index);
+    }
+
+    @Override
+    public Node getParentNode() {
+        return node(tree.getParent(index));
+    }
+
+    @Override
+    public NodeList getChildNodes() {
+        List<Node> children = new ArrayList<Node>();
+        for (int c = tree.getFirstChild(index); c != CompactTree.NONE;
+             c = tree.getNextSibling(c)) {
+            children.add(tree.getNode(c));
+        }
+        return new ListNodeList(children);
+    }
+
+    @Override
+    public Node getFirstChild() {
+        return node(tree.getFirstChild(index));
+    }
+
+    @Override
+    public Node getLastChild() {
+        int c = tree.getFirstChild(index);
+        if (c == CompactTree.NONE) {
+            return null;
+        }
+        while (tree.getNextSibling(c) != CompactTree.NONE) {
+            c = tree.getNextSibling(c);
+        }
+        return tree.getNode(c);
+    }
+
+    @Override
+    public Node getPreviousSibling() {
+        return node(tree.getPreviousSibling(index));
+    }
+
+    @Override
+    public Node getNextSibling() {
+        return node(tree.getNextSibling(index));
+    }
+
+    @Override
+    public NamedNodeMap getAttributes() {
+        return null;
+    }
+
+    @Override
+    public Document getOwnerDocument() {
+        return tree.getDocument();
+    }
+
+    @Override
+    public Node insertBefore(Node newChild, Node refChild) {
+        throw readOnly();
+    }
+
+    @Override
+    public Node replaceChild(Node newChild, Node oldChild) {
+        throw readOnly();
+    }
+
+    @Override
+    public Node removeChild(Node oldChild) {
+        throw readOnly();
+    }
+
+    @Override
+    public Node appendChild(Node newChild) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean hasChildNodes() {
+        return tree.getFirstChild(index) != CompactTree.NONE;
+    }
+
+    /**
+     * Creates a mutable copy using the JDK's DOM implementation.
+     */
+    @Override
+    public Node cloneNode(boolean deep) {
+        Node copy = tree.toDOM()[index];
+        return deep ? copy : copy.cloneNode(false);
+    }
+
+    @Override
+    public void normalize() {
+        // adjacent text nodes are merged when the tree is built
+    }
+
+    @Override
+    public boolean isSupported(String feature, String version) {
+        return false;
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return tree.getNamespaceURI(index);
+    }
+
+    @Override
+    public String getPrefix() {
+        return tree.getPrefix(index);
+    }
+
+    @Override
+    public void setPrefix(String prefix) {
+        throw readOnly();
+    }
+
+    @Override
+    public String getLocalName() {
+        return tree.getLocalName(index);
+    }
+
+    @Override
+    public boolean hasAttributes() {
+        return false;
+    }
+
+    @Override
+    public String getBaseURI() {
+        return tree.getSystemId();
+    }
+
+    @Override
+    public short compareDocumentPosition(Node other) {
+        throw notSupported();
+    }
+
+    @Override
+    public String getTextContent() {
+        StringBuilder sb = new StringBuilder();
+        for (int c = tree.getFirstChild(index); c != CompactTree.NONE;
+             c = tree.getNextSibling(c)) {
+            short type = tree.getNodeType(c);
+            if (type != COMMENT_NODE && type != PROCESSING_INSTRUCTION_NODE) {
+                sb.append(tree.getNode(c).getTextContent());
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void setTextContent(String textContent) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean isSameNode(Node other) {
+        return this == other;
+    }
+
+    @Override
+    public String lookupPrefix(String namespaceURI) {
+        Element e = getNamespaceContextElement();
+        return e == null ? null : e.lookupPrefix(namespaceURI);
+    }
+
+    @Override
+    public boolean isDefaultNamespace(String namespaceURI) {
+        String uri = lookupNamespaceURI(null);
+        return uri == null ? namespaceURI == null : uri.equals(namespaceURI);
+    }
+
+    @Override
+    public String lookupNamespaceURI(String prefix) {
+        Element e = getNamespaceContextElement();
+        return e == null ? null : e.lookupNamespaceURI(prefix);
+    }
+
+    /**
+     * The element whose namespace declarations are in scope for this
+     * node.
+     */
+    Element getNamespaceContextElement() {
+        Node n = getParentNode();
+        while (n != null && n.getNodeType() != ELEMENT_NODE) {
+            n = n.getParentNode();
+        }
+        return (Element) n;
+    }
+
+    @Override
+    public boolean isEqualNode(Node arg) {
+        throw notSupported();
+    }
+
+    @Override
+    public Object getFeature(String feature, String version) {
+        return null;
+    }
+
+    @Override
+    public Object setUserData(String key, Object data, UserDataHandler handler) {
+        throw notSupported();
+    }
+
+    @Override
+    public Object getUserData(String key) {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getNodeName() + ": " + getNodeValue() + "]";
+    }
+
+    static final class ListNodeList implements NodeList {
+        private final List<Node> nodes;
+
+        ListNodeList(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public Node item(int i) {
+            return i >= 0 && i < nodes.size() ? nodes.get(i) : null;
+        }
+
+        @Override
+        public int getLength() {
+            return nodes.size();
+        }
+    }
+
+    static final class CompactDocument extends CompactNode implements Document {
+
+        CompactDocument(CompactTree tree) {
+            super(tree, 0);
+        }
+
+        @Override
+        public Document getOwnerDocument() {
+            return null;
+        }
+
+        @Override
+        public String getTextContent() {
+            return null;
+        }
+
+        @Override
+        public String lookupNamespaceURI(String prefix) {
+            Element e = getDocumentElement();
+            return e == null ? null : e.lookupNamespaceURI(prefix);
+        }
+
+        @Override
+        public String lookupPrefix(String namespaceURI) {
+            Element e = getDocumentElement();
+            return e == null ? null : e.lookupPrefix(namespaceURI);
+        }
+
+        @Override
+        public DocumentType getDoctype() {
+            return (DocumentType) firstChildOfType(DOCUMENT_TYPE_NODE);
+        }
+
+        @Override
+        public DOMImplementation getImplementation() {
+            return null;
+        }
+
+        @Override
+        public Element getDocumentElement() {
+            return (Element) firstChildOfType(ELEMENT_NODE);
+        }
+
+        private Node firstChildOfType(short type) {
+            for (int c = tree.getFirstChild(0); c != CompactTree.NONE;
+                 c = tree.getNextSibling(c)) {
+                if (tree.getNodeType(c) == type) {
+                    return tree.getNode(c);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Element createElement(String tagName) {
+            throw readOnly();
+        }
+
+        @Override
+        public DocumentFragment createDocumentFragment() {
+            throw readOnly();
+        }
+
+        @Override
+        public Text createTextNode(String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public Comment createComment(String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public CDATASection createCDATASection(String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public ProcessingInstruction createProcessingInstruction(String target,
+                                                                 String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr createAttribute(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public EntityReference createEntityReference(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagName(String tagname) {
+            return elementsByName(tree, 0, null, tagname, false);
+        }
+
+        @Override
+        public Node importNode(Node importedNode, boolean deep) {
+            throw readOnly();
+        }
+
+        @Override
+        public Element createElementNS(String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr createAttributeNS(String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagNameNS(String namespaceURI,
+                                               String localName) {
+            return elementsByName(tree, 0, namespaceURI, localName, true);
+        }
+
+        @Override
+        public Element getElementById(String elementId) {
+            return null;
+        }
+
+        @Override
+        public String getInputEncoding() {
+            return null;
+        }
+
+        @Override
+        public String getXmlEncoding() {
+            return tree.getXmlEncoding();
+        }
+
+        @Override
+        public boolean getXmlStandalone() {
+            return tree.getXmlStandalone();
+        }
+
+        @Override
+        public void setXmlStandalone(boolean xmlStandalone) {
+            throw readOnly();
+        }
+
+        @Override
+        public String getXmlVersion() {
+            return tree.getXmlVersion();
+        }
+
+        @Override
+        public void setXmlVersion(String xmlVersion) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean getStrictErrorChecking() {
+            return true;
+        }
+
+        @Override
+        public void setStrictErrorChecking(boolean strictErrorChecking) {
+        }
+
+        @Override
+        public String getDocumentURI() {
+            return tree.getSystemId();
+        }
+
+        @Override
+        public void setDocumentURI(String documentURI) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node adoptNode(Node source) {
+            throw readOnly();
+        }
+
+        @Override
+        public DOMConfiguration getDomConfig() {
+            throw notSupported();
+        }
+
+        @Override
+        public void normalizeDocument() {
+        }
+
+        @Override
+        public Node renameNode(Node n, String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+    }
+
+    static final class CompactDocumentType extends CompactNode
+        implements DocumentType {
+
+        CompactDocumentType(CompactTree tree, int index) {
+            super(tree, index);
+        }
+
+        @Override
+        public String getTextContent() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return getNodeName();
+        }
+
+        @Override
+        public NamedNodeMap getEntities() {
+            return new AttributeMap(tree, index, 0);
+        }
+
+        @Override
+        public NamedNodeMap getNotations() {
+            return new AttributeMap(tree, index, 0);
+        }
+
+        @Override
+        public String getPublicId() {
+            return tree.getDoctypePublicId();
+        }
+
+        @Override
+        public String getSystemId() {
+            return tree.getDoctypeSystemId();
+        }
+
+        @Override
+        public String getInternalSubset() {
+            return null;
+        }
+    }
+
+    static final class CompactElement extends CompactNode implements Element {
+
+        CompactElement(CompactTree tree, int index) {
+            super(tree, index);
+        }
+
+        @Override
+        public NamedNodeMap getAttributes() {
+            return new AttributeMap(tree, index, tree.getAttributeCount(index));
+        }
+
+        @Override
+        public boolean hasAttributes() {
+            return tree.getAttributeCount(index) > 0;
+        }
+
+        @Override
+        Element getNamespaceContextElement() {
+            return this;
+        }
+
+        @Override
+        public String lookupNamespaceURI(String prefix) {
+            if (prefix != null && prefix.length() == 0) {
+                prefix = null;
+            }
+            for (int e = index; e != CompactTree.NONE
+                     && tree.getNodeType(e) == ELEMENT_NODE;
+                 e = tree.getParent(e)) {
+                String elementPrefix = tree.getPrefix(e);
+                if (tree.getNamespaceURI(e) != null
+                    && (prefix == null ? elementPrefix == null
+                        : prefix.equals(elementPrefix))) {
+                    return tree.getNamespaceURI(e);
+                }
+                final int count = tree.getAttributeCount(e);
+                for (int a = e + 1; a <= e + count; a++) {
+                    if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI
+                        .equals(tree.getNamespaceURI(a))) {
+                        continue;
+                    }
+                    boolean isDefault = tree.getPrefix(a) == null;
+                    if (prefix == null ? isDefault
+                        : !isDefault && prefix.equals(tree.getLocalName(a))) {
+                        String uri = tree.getValue(a);
+                        return uri.length() == 0 ? null : uri;
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String lookupPrefix(String namespaceURI) {
+            if (namespaceURI == null) {
+                return null;
+            }
+            for (int e = index; e != CompactTree.NONE
+                     && tree.getNodeType(e) == ELEMENT_NODE;
+                 e = tree.getParent(e)) {
+                final int count = tree.getAttributeCount(e);
+                for (int a = e + 1; a <= e + count; a++) {
+                    if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI
+                        .equals(tree.getNamespaceURI(a))
+                        && tree.getPrefix(a) != null
+                        && namespaceURI.equals(tree.getValue(a))
+                        && namespaceURI.equals(lookupNamespaceURI(tree.getLocalName(a)))) {
+                        return tree.getLocalName(a);
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String getTagName() {
+            return getNodeName();
+        }
+
+        @Override
+        public String getAttribute(String name) {
+            Attr a = getAttributeNode(name);
+            return a == null ? "" : a.getValue();
+        }
+
+        @Override
+        public void setAttribute(String name, String value) {
+            throw readOnly();
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr getAttributeNode(String name) {
+            return (Attr) getAttributes().getNamedItem(name);
+        }
+
+        @Override
+        public Attr setAttributeNode(Attr newAttr) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr removeAttributeNode(Attr oldAttr) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagName(String name) {
+            return elementsByName(tree, index, null, name, false);
+        }
+
+        @Override
+        public String getAttributeNS(String namespaceURI, String localName) {
+            Attr a = getAttributeNodeNS(namespaceURI, localName);
+            return a == null ? "" : a.getValue();
+        }
+
+        @Override
+        public void setAttributeNS(String namespaceURI, String qualifiedName,
+                                   String value) {
+            throw readOnly();
+        }
+
+        @Override
+        public void removeAttributeNS(String namespaceURI, String localName) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr getAttributeNodeNS(String namespaceURI, String localName) {
+            return (Attr) getAttributes().getNamedItemNS(namespaceURI, localName);
+        }
+
+        @Override
+        public Attr setAttributeNodeNS(Attr newAttr) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagNameNS(String namespaceURI,
+                                               String localName) {
+            return elementsByName(tree, index, namespaceURI, localName, true);
+        }
+
+        @Override
+        public boolean hasAttribute(String name) {
+            return getAttributeNode(name) != null;
+        }
+
+        @Override
+        public boolean hasAttributeNS(String namespaceURI, String localName) {
+            return getAttributeNodeNS(namespaceURI, localName) != null;
+        }
+
+        @Override
+        public TypeInfo getSchemaTypeInfo() {
+            return null;
+        }
+
+        @Override
+        public void setIdAttribute(String name, boolean isId) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setIdAttributeNS(String namespaceURI, String localName,
+                                     boolean isId) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setIdAttributeNode(Attr idAttr, boolean isId) {
+            throw readOnly();
+        }
+    }
+
+    static final class CompactAttr extends CompactNode implements Attr {
+
+        CompactAttr(CompactTree tree, int index) {
+            super(tree, index);
+        }
+
+        @Override
+        public Node getParentNode() {
+            return null;
+        }
+
+        @Override
+        public Node getPreviousSibling() {
+            return null;
+        }
+
+        @Override
+        public Node getNextSibling() {
+            return null;
+        }
+
+        @Override
+        public String getTextContent() {
+            return getValue();
+        }
+
+        @Override
+        Element getNamespaceContextElement() {
+            return getOwnerElement();
+        }
+
+        @Override
+        public String getName() {
+            return getNodeName();
+        }
+
+        @Override
+        public boolean getSpecified() {
+            return tree.isSpecified(index);
+        }
+
+        @Override
+        public String getValue() {
+            return getNodeValue();
+        }
+
+        @Override
+        public void setValue(String value) {
+            throw readOnly();
+        }
+
+        @Override
+        public Element getOwnerElement() {
+            return (Element) tree.getNode(tree.getParent(index));
+        }
+
+        @Override
+        public TypeInfo getSchemaTypeInfo() {
+            return null;
+        }
+
+        @Override
+        public boolean isId() {
+            return false;
+        }
+    }
+
+    abstract static class CompactCharacterData extends CompactNode
+        implements CharacterData {
+
+        CompactCharacterData(CompactTree tree, int index) {
+            super(tree, index);
+        }
+
+        @Override
+        public String getTextContent() {
+            return getNodeValue();
+        }
+
+        @Override
+        public String getData() {
+            return getNodeValue();
+        }
+
+        @Override
+        public void setData(String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public int getLength() {
+            return getData().length();
+        }
+
+        @Override
+        public String substringData(int offset, int count) {
+            String data = getData();
+            if (offset < 0 || offset > data.length() || count < 0) {
+                throw new DOMException(DOMException.INDEX_SIZE_ERR,
+                                       "offset or count out of range");
+            }
+            return data.substring(offset, Math.min(data.length(),
+                                                   offset + count));
+        }
+
+        @Override
+        public void appendData(String arg) {
+            throw readOnly();
+        }
+
+        @Override
+        public void insertData(int offset, String arg) {
+            throw readOnly();
+        }
+
+        @Override
+        public void deleteData(int offset, int count) {
+            throw readOnly();
+        }
+
+        @Override
+        public void replaceData(int offset, int count, String arg) {
+            throw readOnly();
+        }
+    }
+
+    static class CompactText extends CompactCharacterData implements Text {
+
+        CompactText(CompactTree tree, int index) {
+            super(tree, index);
+        }
+
+        @Override
+        public Text splitText(int offset) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean isElementContentWhitespace() {
+            return false;
+        }
+
+        @Override
+        public String getWholeText() {
+            return getData();
+        }
+
+        @Override
+        public Text replaceWholeText(String content) {
+            throw readOnly();
+        }
+    }
+
+    static final class CompactCDATASection extends CompactText
+        implements CDATASection {
+
+        CompactCDATASection(CompactTree tree, int index) {
+            super(tree, index);
+        }
+    }
+
+    static final class CompactComment extends CompactCharacterData
+        implements Comment {
+
+        CompactComment(CompactTree tree, int index) {
+            super(tree, index);
+        }
+    }
+
+    static final class CompactProcessingInstruction extends CompactNode
+        implements ProcessingInstruction {
+
+        CompactProcessingInstruction(CompactTree tree, int index) {
+            super(tree, index);
+        }
+
+        @Override
+        public String getTextContent() {
+            return getNodeValue();
+        }
+
+        @Override
+        public String getTarget() {
+            return getNodeName();
+        }
+
+        @Override
+        public String getData() {
+            return getNodeValue();
+        }
+
+        @Override
+        public void setData(String data) {
+            throw readOnly();
+        }
+    }
+
+    /**
+     * The attributes of an element, they immediately follow the
+     * element in the tree.
+     */
+    static final class AttributeMap implements NamedNodeMap {
+        private final CompactTree tree;
+        private final int element;
+        private final int count;
+
+        AttributeMap(CompactTree tree, int element, int count) {
+            this.tree = tree;
+            this.element = element;
+            this.count = count;
+        }
+
+        @Override
+        public Node getNamedItem(String name) {
+            for (int a = element + 1; a <= element + count; a++) {
+                if (tree.getNodeName(a).equals(name)) {
+                    return tree.getNode(a);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Node setNamedItem(Node arg) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node removeNamedItem(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node item(int i) {
+            return i >= 0 && i < count ? tree.getNode(element + 1 + i) : null;
+        }
+
+        @Override
+        public int getLength() {
+            return count;
+        }
+
+        @Override
+        public Node getNamedItemNS(String namespaceURI, String localName) {
+            if (namespaceURI != null && namespaceURI.length() == 0) {
+                namespaceURI = null;
+            }
+            for (int a = element + 1; a <= element + count; a++) {
+                String uri = tree.getNamespaceURI(a);
+                if ((namespaceURI == null ? uri == null : namespaceURI.equals(uri))
+                    && localName.equals(tree.getLocalName(a))) {
+                    return tree.getNode(a);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Node setNamedItemNS(Node arg) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node removeNamedItemNS(String namespaceURI, String localName) {
+            throw readOnly();
+        }
+    }
+
+    /**
+     * All descendant elements of the given node with the given name
+     * in document order, "*" matches all names.
+     */
+    static NodeList elementsByName(CompactTree tree, int root,
+                                   String namespaceURI, String name,
+                                   boolean useLocalName) {
+        List<Node> result = new ArrayList<Node>();
+        // descendants are the nodes following root up to the next
+        // node that isn't one of its descendants
+        for (int i = root + 1; i < tree.size() && isDescendant(tree, i, root); i++) {
+            if (tree.getNodeType(i) != ELEMENT_NODE) {
+                continue;
+            }
+            String n = useLocalName ? tree.getLocalName(i) : tree.getNodeName(i);
+            boolean nameMatches = "*".equals(name) || name.equals(n);
+            boolean uriMatches = !useLocalName || "*".equals(namespaceURI)
+                || (namespaceURI == null || namespaceURI.length() == 0
+                    ? tree.getNamespaceURI(i) == null
+                    : namespaceURI.equals(tree.getNamespaceURI(i)));
+            if (nameMatches && uriMatches) {
+                result.add(tree.getNode(i));
+            }
+        }
+        return new ListNodeList(result);
+    }
+
+    private static boolean isDescendant(CompactTree tree, int n, int root) {
+        for (int p = tree.getParent(n); p != CompactTree.NONE; p = tree.getParent(p)) {
+            if (p == root) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
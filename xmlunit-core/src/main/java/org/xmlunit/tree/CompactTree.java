@@ -0,0 +1,539 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.tree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.SAXParser;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xmlunit.XMLUnitException;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.JAXPProviders;
+
+/**
+ * Immutable, array-backed representation of an XML document.
+ *
+ * <p>All nodes of the document - including attributes - are
+ * identified by their index in document order, the document node
+ * itself has index 0.  Node kinds, the links between the nodes and
+ * the ranges of their textual content are stored in primitive arrays,
+ * names are interned in a table of their own.  This takes a fraction
+ * of the memory of a DOM tree and - as the tree cannot be modified -
+ * can be read by any number of threads concurrently.</p>
+ *
+ * <p>{@link #getDocument} provides a read-only DOM view of the tree,
+ * so it can be compared by {@link
+ * org.xmlunit.diff.DOMDifferenceEngine} or passed to {@link
+ * org.xmlunit.builder.DiffBuilder} like any other DOM document.  The
+ * DOM nodes are created on demand and only weakly referenced by the
+ * tree, so they can be garbage collected once they are no longer
+ * used.  As long as a DOM node is reachable it is the only one
+ * representing its index, so node identity works as it does for
+ * other DOM implementations.  Cloning a node of the view creates a
+ * mutable copy using the JDK's DOM implementation.</p>
+ *
+ * <p>Trees are created by {@link #parse}, {@link #of} or a {@link
+ * CompactTreeBuilder}.</p>
+ */
+public final class CompactTree {
+
+    /**
+     * Index used for links to nodes that don't exist.
+     */
+    public static final int NONE = -1;
+
+    private static final int DECLARATION_LOOKAHEAD = 256;
+    private static final Pattern XML_DECLARATION =
+        Pattern.compile("(?:\uFEFF|\u00EF\u00BB\u00BF)?<\\?xml\\s([^>]*)\\?>");
+    private static final Pattern ENCODING =
+        Pattern.compile("encoding\\s*=\\s*(['\"])([A-Za-z][\\w.-]*)\\1");
+
+    private final int size;
+    private final byte[] types;
+    private final int[] parents;
+    private final int[] firstChildren;
+    private final int[] nextSiblings;
+    private final int[] previousSiblings;
+    private final int[] names;
+    private final int[] textStarts;
+    private final int[] textLengths;
+    private final BitSet defaultedAttributes;
+    private final char[] text;
+    private final String[] namespaceURIs;
+    private final String[] localNames;
+    private final String[] prefixes;
+    private final String[] nodeNames;
+    private final String xmlVersion;
+    private final String xmlEncoding;
+    private final boolean xmlStandalone;
+    private final String doctypePublicId;
+    private final String doctypeSystemId;
+    private final String systemId;
+    private final Document document;
+    private final AtomicReferenceArray<NodeReference> nodes;
+    private final ReferenceQueue<CompactNode> collected =
+        new ReferenceQueue<CompactNode>();
+
+    CompactTree(int size, byte[] types, int[] parents, int[] firstChildren,
+                int[] nextSiblings, int[] previousSiblings, int[] names,
+                int[] textStarts, int[] textLengths,
+                BitSet defaultedAttributes, char[] text,
+                String[] namespaceURIs, String[] localNames,
+                String[] prefixes, String[] nodeNames,
+                String xmlVersion, String xmlEncoding, boolean xmlStandalone,
+                String doctypePublicId, String doctypeSystemId,
+                String systemId) {
+        this.size = size;
+        this.types = types;
+        this.parents = parents;
+        this.firstChildren = firstChildren;
+        this.nextSiblings = nextSiblings;
+        this.previousSiblings = previousSiblings;
+        this.names = names;
+        this.textStarts = textStarts;
+        this.textLengths = textLengths;
+        this.defaultedAttributes = defaultedAttributes;
+        this.text = text;
+        this.namespaceURIs = namespaceURIs;
+        this.localNames = localNames;
+        this.prefixes = prefixes;
+        this.nodeNames = nodeNames;
+        this.xmlVersion = xmlVersion;
+        this.xmlEncoding = xmlEncoding;
+        this.xmlStandalone = xmlStandalone;
+        this.doctypePublicId = doctypePublicId;
+        this.doctypeSystemId = doctypeSystemId;
+        this.systemId = systemId;
+        document = (Document) CompactNode.create(this, 0);
+        nodes = new AtomicReferenceArray<NodeReference>(size);
+    }
+
+    /**
+     * Parses a document into a compact tree.
+     *
+     * <p>DOM sources are converted using {@link #of}, all other
+     * sources are parsed using a namespace aware, non-validating SAX
+     * parser borrowed from the {@link JAXPProviders#getDefault
+     * default JAXPProviders}.</p>
+     *
+     * @exception XMLUnitException if the document cannot be read or
+     * parsed
+     */
+    public static CompactTree parse(Source s) {
+        if (s == null) {
+            throw new IllegalArgumentException("source must not be null");
+        }
+        if (s instanceof DOMSource && ((DOMSource) s).getNode() != null) {
+            return of(((DOMSource) s).getNode(), s.getSystemId());
+        }
+        JAXPProviders providers = JAXPProviders.getDefault();
+        SAXParser parser = providers.borrowParser();
+        try {
+            XMLReader reader = parser.getXMLReader();
+            CompactTreeBuilder b = new CompactTreeBuilder();
+            b.setSystemId(s.getSystemId());
+            b.attachTo(reader);
+            InputSource is = Convert.toInputSource(s);
+            InputStream opened = openSystemId(is);
+            try {
+                readXmlEncoding(is, b);
+                reader.parse(is);
+            } finally {
+                if (opened != null) {
+                    opened.close();
+                }
+            }
+            return b.build();
+        } catch (IOException ex) {
+            throw new XMLUnitException(ex);
+        } catch (SAXException ex) {
+            throw new XMLUnitException(ex);
+        } finally {
+            providers.release(parser);
+        }
+    }
+
+    /**
+     * Creates a compact tree from a DOM document or from the subtree
+     * of a DOM element.
+     */
+    public static CompactTree of(Node n) {
+        if (n == null) {
+            throw new IllegalArgumentException("node must not be null");
+        }
+        return of(n, n.getBaseURI());
+    }
+
+    private static CompactTree of(Node n, String systemId) {
+        CompactTreeBuilder b = new CompactTreeBuilder();
+        b.setSystemId(systemId);
+        b.add(n);
+        return b.build();
+    }
+
+    /**
+     * Opens the system ID of a source that doesn't provide a stream,
+     * so its encoding declaration can be read.
+     *
+     * @return the stream opened or null if the parser is left to
+     * resolve the system ID
+     */
+    private static InputStream openSystemId(InputSource is)
+        throws IOException {
+        if (is.getCharacterStream() != null || is.getByteStream() != null
+            || is.getSystemId() == null) {
+            return null;
+        }
+        URL url;
+        try {
+            url = new URL(is.getSystemId());
+        } catch (MalformedURLException ex) {
+            // relative system ID
+            return null;
+        }
+        InputStream in = url.openStream();
+        is.setByteStream(in);
+        return in;
+    }
+
+    /**
+     * Reads the encoding declaration from the start of a stream
+     * without consuming it.
+     *
+     * <p>The encoding is only set if the start of the stream could be
+     * decoded, the one the parser detected is never used as DOM
+     * parsers don't report it either.</p>
+     */
+    private static void readXmlEncoding(InputSource is, CompactTreeBuilder b)
+        throws IOException {
+        String start;
+        if (is.getCharacterStream() != null) {
+            Reader r = new BufferedReader(is.getCharacterStream());
+            is.setCharacterStream(r);
+            r.mark(DECLARATION_LOOKAHEAD);
+            char[] buf = new char[DECLARATION_LOOKAHEAD];
+            int len = 0, n;
+            while (len < buf.length
+                   && (n = r.read(buf, len, buf.length - len)) != -1) {
+                len += n;
+            }
+            r.reset();
+            start = new String(buf, 0, len);
+        } else if (is.getByteStream() != null) {
+            InputStream in = new BufferedInputStream(is.getByteStream());
+            is.setByteStream(in);
+            in.mark(DECLARATION_LOOKAHEAD);
+            byte[] buf = new byte[DECLARATION_LOOKAHEAD];
+            int len = 0, n;
+            while (len < buf.length
+                   && (n = in.read(buf, len, buf.length - len)) != -1) {
+                len += n;
+            }
+            in.reset();
+            start = new String(buf, 0, len, sniffCharset(buf, len));
+        } else {
+            return;
+        }
+        Matcher m = XML_DECLARATION.matcher(start);
+        if (m.lookingAt()) {
+            Matcher e = ENCODING.matcher(m.group(1));
+            b.setXmlEncoding(e.find() ? e.group(2) : null);
+        }
+    }
+
+    /**
+     * Charset good enough to decode the XML declaration, only
+     * distinguishes UTF-16 from ASCII compatible encodings.
+     */
+    private static String sniffCharset(byte[] buf, int len) {
+        if (len >= 2) {
+            int b0 = buf[0] & 0xFF, b1 = buf[1] & 0xFF;
+            if (b0 == 0xFE && b1 == 0xFF || b0 == 0 && b1 == '<') {
+                return "UTF-16BE";
+            }
+            if (b0 == 0xFF && b1 == 0xFE || b0 == '<' && b1 == 0) {
+                return "UTF-16LE";
+            }
+        }
+        return "ISO-8859-1";
+    }
+
+    /**
+     * The number of nodes, including the document node and all
+     * attributes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The DOM node type of the node at the given index.
+     */
+    public short getNodeType(int index) {
+        return types[index];
+    }
+
+    /**
+     * The parent of the node at the given index, the owner element
+     * for attributes and {@link #NONE} for the document node.
+     */
+    public int getParent(int index) {
+        return parents[index];
+    }
+
+    /**
+     * The first child of the node at the given index or {@link #NONE}.
+     */
+    public int getFirstChild(int index) {
+        return firstChildren[index];
+    }
+
+    /**
+     * The next sibling of the node at the given index or {@link #NONE}.
+     */
+    public int getNextSibling(int index) {
+        return nextSiblings[index];
+    }
+
+    /**
+     * The previous sibling of the node at the given index or {@link
+     * #NONE}.
+     */
+    public int getPreviousSibling(int index) {
+        return previousSiblings[index];
+    }
+
+    /**
+     * The number of attributes of the element at the given index -
+     * they immediately follow the element.
+     */
+    public int getAttributeCount(int index) {
+        int count = 0;
+        while (index + count + 1 < size
+               && types[index + count + 1] == Node.ATTRIBUTE_NODE
+               && parents[index + count + 1] == index) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * The namespace URI of the element or attribute at the given
+     * index.
+     */
+    public String getNamespaceURI(int index) {
+        return names[index] == NONE ? null : namespaceURIs[names[index]];
+    }
+
+    /**
+     * The local name of the element or attribute at the given index.
+     */
+    public String getLocalName(int index) {
+        return names[index] == NONE ? null : localNames[names[index]];
+    }
+
+    /**
+     * The namespace prefix of the element or attribute at the given
+     * index.
+     */
+    public String getPrefix(int index) {
+        return names[index] == NONE ? null : prefixes[names[index]];
+    }
+
+    /**
+     * The DOM node name of the node at the given index.
+     */
+    public String getNodeName(int index) {
+        switch (types[index]) {
+        case Node.TEXT_NODE:
+            return "#text";
+        case Node.CDATA_SECTION_NODE:
+            return "#cdata-section";
+        case Node.COMMENT_NODE:
+            return "#comment";
+        case Node.DOCUMENT_NODE:
+            return "#document";
+        default:
+            return nodeNames[names[index]];
+        }
+    }
+
+    /**
+     * The textual content of text, CDATA, comment, processing
+     * instruction and attribute nodes, null for all other nodes.
+     */
+    public String getValue(int index) {
+        return textStarts[index] == NONE ? null
+            : new String(text, textStarts[index], textLengths[index]);
+    }
+
+    /**
+     * Whether the attribute at the given index has been specified
+     * explicitly rather than defaulted by a DTD.
+     */
+    public boolean isSpecified(int index) {
+        return !defaultedAttributes.get(index);
+    }
+
+    /**
+     * A read-only DOM view of the document.
+     */
+    public Document getDocument() {
+        expungeCollected();
+        return document;
+    }
+
+    /**
+     * The read-only DOM view of the node at the given index.
+     */
+    public Node getNode(int index) {
+        expungeCollected();
+        if (index == 0) {
+            return document;
+        }
+        while (true) {
+            NodeReference r = nodes.get(index);
+            CompactNode n = r == null ? null : r.get();
+            if (n != null) {
+                return n;
+            }
+            n = CompactNode.create(this, index);
+            if (nodes.compareAndSet(index, r, new NodeReference(n, index, collected))) {
+                return n;
+            }
+        }
+    }
+
+    private void expungeCollected() {
+        for (Reference<? extends CompactNode> r = collected.poll(); r != null;
+             r = collected.poll()) {
+            NodeReference n = (NodeReference) r;
+            nodes.compareAndSet(n.index, n, null);
+        }
+    }
+
+    String getXmlVersion() {
+        return xmlVersion;
+    }
+
+    String getXmlEncoding() {
+        return xmlEncoding;
+    }
+
+    boolean getXmlStandalone() {
+        return xmlStandalone;
+    }
+
+    String getDoctypePublicId() {
+        return doctypePublicId;
+    }
+
+    String getDoctypeSystemId() {
+        return doctypeSystemId;
+    }
+
+    String getSystemId() {
+        return systemId;
+    }
+
+    /**
+     * Creates a mutable DOM copy of the whole document.
+     *
+     * @return the copied nodes indexed like the nodes of this tree
+     */
+    Node[] toDOM() {
+        DocumentBuilder db = JAXPProviders.getDefault().borrowDocumentBuilder();
+        Document d;
+        try {
+            d = db.newDocument();
+        } finally {
+            JAXPProviders.getDefault().release(db);
+        }
+        d.setXmlStandalone(xmlStandalone);
+        if (xmlVersion != null) {
+            d.setXmlVersion(xmlVersion);
+        }
+        d.setDocumentURI(systemId);
+        Node[] copies = new Node[size];
+        copies[0] = d;
+        for (int i = 1; i < size; i++) {
+            Node parent = copies[parents[i]];
+            switch (types[i]) {
+            case Node.ELEMENT_NODE:
+                copies[i] = d.createElementNS(getNamespaceURI(i), getNodeName(i));
+                break;
+            case Node.ATTRIBUTE_NODE:
+                Attr a = d.createAttributeNS(getNamespaceURI(i), getNodeName(i));
+                a.setValue(getValue(i));
+                ((Element) parent).setAttributeNodeNS(a);
+                copies[i] = a;
+                continue;
+            case Node.TEXT_NODE:
+                copies[i] = d.createTextNode(getValue(i));
+                break;
+            case Node.CDATA_SECTION_NODE:
+                copies[i] = d.createCDATASection(getValue(i));
+                break;
+            case Node.COMMENT_NODE:
+                copies[i] = d.createComment(getValue(i));
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                copies[i] = d.createProcessingInstruction(getNodeName(i),
+                                                          getValue(i));
+                break;
+            case Node.DOCUMENT_TYPE_NODE:
+                copies[i] = d.getImplementation()
+                    .createDocumentType(getNodeName(i), doctypePublicId,
+                                        doctypeSystemId);
+                break;
+            default:
+                throw new IllegalStateException("unexpected node type "
+                                                + types[i]);
+            }
+            parent.appendChild(copies[i]);
+        }
+        return copies;
+    }
+
+    private static final class NodeReference extends WeakReference<CompactNode> {
+        private final int index;
+
+        private NodeReference(CompactNode node, int index,
+                              ReferenceQueue<CompactNode> queue) {
+            super(node, queue);
+            this.index = index;
+        }
+    }
+}
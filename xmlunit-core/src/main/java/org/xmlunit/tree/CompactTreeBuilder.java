@@ -0,0 +1,656 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.Attributes2;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.ext.Locator2;
+
+/**
+ * Builds a {@link CompactTree} from SAX events, StAX events or a DOM
+ * tree.
+ *
+ * <p>The builder creates the same nodes a namespace aware DOM
+ * parser would create: adjacent character events are merged into a
+ * single text node, namespace declarations are represented by
+ * attributes, comments and processing instructions inside of the
+ * document type declaration are dropped.  In order to see comments,
+ * CDATA sections and the document type declaration the builder must
+ * be registered as {@link LexicalHandler} as well - {@link
+ * #attachTo} does that.</p>
+ *
+ * <p>A builder can only be used to build a single tree and is not
+ * thread-safe.</p>
+ */
+public final class CompactTreeBuilder implements ContentHandler, LexicalHandler {
+
+    private static final String LEXICAL_HANDLER =
+        "http://xml.org/sax/properties/lexical-handler";
+    private static final String IS_STANDALONE =
+        "http://xml.org/sax/features/is-standalone";
+
+    private int size;
+    private byte[] types = new byte[64];
+    private int[] parents = new int[64];
+    private int[] firstChildren = new int[64];
+    private int[] nextSiblings = new int[64];
+    private int[] previousSiblings = new int[64];
+    private int[] names = new int[64];
+    private int[] textStarts = new int[64];
+    private int[] textLengths = new int[64];
+    private final BitSet defaultedAttributes = new BitSet();
+    private char[] text = new char[1024];
+    private int textSize;
+
+    private final Map<List<String>, Integer> nameIndex =
+        new HashMap<List<String>, Integer>();
+    private final List<String[]> nameTable = new ArrayList<String[]>();
+
+    /**
+     * Last child of each open node, indexed by the node's depth.
+     */
+    private int[] lastChildren = new int[16];
+    private int[] openNodes = new int[16];
+    private int depth;
+    /**
+     * Text or CDATA node that subsequent characters get appended to.
+     */
+    private int openText = CompactTree.NONE;
+    private boolean inCDATA, inDTD, built;
+    private final List<String[]> pendingNamespaces = new ArrayList<String[]>();
+
+    private String xmlVersion = "1.0";
+    private String xmlEncoding;
+    private boolean xmlStandalone;
+    private String doctypePublicId, doctypeSystemId;
+    private String systemId;
+    private Locator locator;
+    private XMLReader reader;
+
+    /**
+     * Creates a builder, the document node is created immediately.
+     */
+    public CompactTreeBuilder() {
+        int doc = newNode(Node.DOCUMENT_NODE, CompactTree.NONE);
+        openNodes[0] = doc;
+        lastChildren[0] = CompactTree.NONE;
+    }
+
+    /**
+     * Sets the system ID of the document.
+     */
+    public void setSystemId(String systemId) {
+        this.systemId = systemId;
+    }
+
+    /**
+     * Sets the properties of the XML declaration, the defaults are
+     * version 1.0, no encoding and not standalone.
+     */
+    public void setXmlDeclaration(String version, String encoding,
+                                  boolean standalone) {
+        xmlVersion = version;
+        xmlStandalone = standalone;
+        setXmlEncoding(encoding);
+    }
+
+    /**
+     * Sets the declared encoding, which SAX parsers don't report.
+     */
+    void setXmlEncoding(String encoding) {
+        xmlEncoding = encoding;
+    }
+
+    /**
+     * Registers the builder as content and lexical handler of the
+     * given reader, which must be namespace aware.
+     *
+     * <p>The builder will also ask the reader for the XML version
+     * and whether the document has been declared standalone.  SAX
+     * doesn't report the declared encoding, use {@link
+     * #setXmlDeclaration} if it is needed.</p>
+     */
+    public void attachTo(XMLReader reader) throws SAXException {
+        this.reader = reader;
+        reader.setContentHandler(this);
+        reader.setProperty(LEXICAL_HANDLER, this);
+    }
+
+    /**
+     * Creates the tree, the builder cannot be used afterwards.
+     *
+     * @exception IllegalStateException if there are elements that
+     * haven't been ended
+     */
+    public CompactTree build() {
+        if (built) {
+            throw new IllegalStateException("tree has already been built");
+        }
+        if (depth != 0) {
+            throw new IllegalStateException("document is incomplete");
+        }
+        built = true;
+        String[] uris = new String[nameTable.size()];
+        String[] locals = new String[uris.length];
+        String[] prefixes = new String[uris.length];
+        String[] nodeNames = new String[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            String[] n = nameTable.get(i);
+            uris[i] = n[0];
+            locals[i] = n[1];
+            prefixes[i] = n[2];
+            nodeNames[i] = n[3];
+        }
+        return new CompactTree(size, Arrays.copyOf(types, size),
+                               Arrays.copyOf(parents, size),
+                               Arrays.copyOf(firstChildren, size),
+                               Arrays.copyOf(nextSiblings, size),
+                               Arrays.copyOf(previousSiblings, size),
+                               Arrays.copyOf(names, size),
+                               Arrays.copyOf(textStarts, size),
+                               Arrays.copyOf(textLengths, size),
+                               defaultedAttributes,
+                               Arrays.copyOf(text, textSize),
+                               uris, locals, prefixes, nodeNames,
+                               xmlVersion, xmlEncoding, xmlStandalone,
+                               doctypePublicId, doctypeSystemId, systemId);
+    }
+
+    // SAX ContentHandler
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+    }
+
+    @Override
+    public void startDocument() {
+    }
+
+    @Override
+    public void endDocument() {
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+        pendingNamespaces.add(new String[] { prefix, uri });
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) {
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName,
+                             Attributes atts) {
+        if (depth == 0) {
+            readXmlDeclaration();
+        }
+        int e = startElement(uri, localName, qName);
+        for (String[] ns : pendingNamespaces) {
+            addNamespaceDeclaration(e, ns[0], ns[1]);
+        }
+        pendingNamespaces.clear();
+        final int len = atts.getLength();
+        for (int i = 0; i < len; i++) {
+            String attQName = atts.getQName(i);
+            if (isNamespaceDeclaration(attQName)) {
+                // already added as prefix mapping
+                continue;
+            }
+            addAttribute(e, atts.getURI(i), atts.getLocalName(i), attQName,
+                         atts.getValue(i),
+                         !(atts instanceof Attributes2)
+                         || ((Attributes2) atts).isSpecified(i));
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        endElement();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        addText(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        addText(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) {
+        if (!inDTD) {
+            addLeaf(Node.PROCESSING_INSTRUCTION_NODE,
+                    name(null, null, null, target), data);
+        }
+    }
+
+    @Override
+    public void skippedEntity(String name) {
+    }
+
+    // SAX LexicalHandler
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) {
+        doctypePublicId = publicId;
+        doctypeSystemId = systemId;
+        addLeaf(Node.DOCUMENT_TYPE_NODE, name(null, null, null, name), null);
+        inDTD = true;
+    }
+
+    @Override
+    public void endDTD() {
+        inDTD = false;
+    }
+
+    @Override
+    public void startEntity(String name) {
+    }
+
+    @Override
+    public void endEntity(String name) {
+    }
+
+    @Override
+    public void startCDATA() {
+        closeText();
+        inCDATA = true;
+        openText = addLeaf(Node.CDATA_SECTION_NODE, CompactTree.NONE, "");
+    }
+
+    @Override
+    public void endCDATA() {
+        closeText();
+        inCDATA = false;
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) {
+        if (!inDTD) {
+            addLeaf(Node.COMMENT_NODE, CompactTree.NONE,
+                    new String(ch, start, length));
+        }
+    }
+
+    // StAX
+
+    /**
+     * Adds all events of the given reader up to the end of the
+     * document.
+     *
+     * <p>The reader's document type declaration event is ignored as
+     * StAX doesn't provide its name and identifiers.</p>
+     */
+    public void add(XMLStreamReader r) throws XMLStreamException {
+        int event = r.getEventType();
+        while (true) {
+            switch (event) {
+            case XMLStreamConstants.START_DOCUMENT:
+                setXmlDeclaration(r.getVersion() != null ? r.getVersion() : "1.0",
+                                  r.getCharacterEncodingScheme(),
+                                  r.standaloneSet() && r.isStandalone());
+                break;
+            case XMLStreamConstants.START_ELEMENT:
+                int e = startElement(r.getNamespaceURI(), r.getLocalName(),
+                                     qName(r.getPrefix(), r.getLocalName()));
+                for (int i = 0; i < r.getNamespaceCount(); i++) {
+                    addNamespaceDeclaration(e, r.getNamespacePrefix(i),
+                                            r.getNamespaceURI(i));
+                }
+                for (int i = 0; i < r.getAttributeCount(); i++) {
+                    addAttribute(e, r.getAttributeNamespace(i),
+                                 r.getAttributeLocalName(i),
+                                 qName(r.getAttributePrefix(i),
+                                       r.getAttributeLocalName(i)),
+                                 r.getAttributeValue(i),
+                                 r.isAttributeSpecified(i));
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                endElement();
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                addText(r.getTextCharacters(), r.getTextStart(),
+                        r.getTextLength());
+                break;
+            case XMLStreamConstants.CDATA:
+                startCDATA();
+                addText(r.getTextCharacters(), r.getTextStart(),
+                        r.getTextLength());
+                endCDATA();
+                break;
+            case XMLStreamConstants.COMMENT:
+                comment(r.getTextCharacters(), r.getTextStart(),
+                        r.getTextLength());
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                processingInstruction(r.getPITarget(), r.getPIData());
+                break;
+            case XMLStreamConstants.END_DOCUMENT:
+                return;
+            default:
+                break;
+            }
+            if (!r.hasNext()) {
+                return;
+            }
+            event = r.next();
+        }
+    }
+
+    // DOM
+
+    /**
+     * Adds a DOM document or the subtree of a DOM element.
+     */
+    public void add(Node n) {
+        if (n instanceof Document) {
+            Document d = (Document) n;
+            setXmlDeclaration(d.getXmlVersion(), d.getXmlEncoding(),
+                              d.getXmlStandalone());
+        } else if (n.getNodeType() != Node.ELEMENT_NODE) {
+            throw new IllegalArgumentException("n must be a document or"
+                                               + " an element");
+        }
+        Node current = n instanceof Document ? n.getFirstChild() : n;
+        while (current != null) {
+            if (start(current) && current.getFirstChild() != null) {
+                current = current.getFirstChild();
+                continue;
+            }
+            // current is complete, move on to the next node
+            while (true) {
+                if (current.getNodeType() == Node.ELEMENT_NODE) {
+                    endElement();
+                }
+                if (current == n) {
+                    current = null;
+                    break;
+                }
+                if (current.getNextSibling() != null) {
+                    current = current.getNextSibling();
+                    break;
+                }
+                current = current.getParentNode();
+                if (current == null || current == n && n instanceof Document) {
+                    current = null;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a DOM node without its children.
+     *
+     * @return whether the node's children must be added as well
+     */
+    private boolean start(Node n) {
+        switch (n.getNodeType()) {
+        case Node.ELEMENT_NODE:
+            int e = startElement(n.getNamespaceURI(), n.getLocalName(),
+                                 n.getNodeName());
+            NamedNodeMap attrs = n.getAttributes();
+            final int len = attrs.getLength();
+            for (int i = 0; i < len; i++) {
+                Attr a = (Attr) attrs.item(i);
+                addAttribute(e, a.getNamespaceURI(), a.getLocalName(),
+                             a.getName(), a.getValue(), a.getSpecified());
+            }
+            return true;
+        case Node.TEXT_NODE:
+            String s = n.getNodeValue();
+            closeText();
+            addText(s.toCharArray(), 0, s.length());
+            closeText();
+            return false;
+        case Node.CDATA_SECTION_NODE:
+            s = n.getNodeValue();
+            startCDATA();
+            addText(s.toCharArray(), 0, s.length());
+            endCDATA();
+            return false;
+        case Node.COMMENT_NODE:
+            addLeaf(Node.COMMENT_NODE, CompactTree.NONE, n.getNodeValue());
+            return false;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            processingInstruction(n.getNodeName(), n.getNodeValue());
+            return false;
+        case Node.DOCUMENT_TYPE_NODE:
+            DocumentType dt = (DocumentType) n;
+            startDTD(dt.getName(), dt.getPublicId(), dt.getSystemId());
+            endDTD();
+            return false;
+        case Node.ENTITY_REFERENCE_NODE:
+            // add the replacement text
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    // building blocks
+
+    private int startElement(String uri, String localName, String qName) {
+        closeText();
+        int e = newNode(Node.ELEMENT_NODE, name(uri, localName,
+                                                prefix(qName), qName));
+        link(e);
+        depth++;
+        if (depth == openNodes.length) {
+            openNodes = Arrays.copyOf(openNodes, 2 * depth);
+            lastChildren = Arrays.copyOf(lastChildren, 2 * depth);
+        }
+        openNodes[depth] = e;
+        lastChildren[depth] = CompactTree.NONE;
+        return e;
+    }
+
+    private void endElement() {
+        closeText();
+        if (depth == 0) {
+            throw new IllegalStateException("no open element");
+        }
+        depth--;
+    }
+
+    private void addNamespaceDeclaration(int element, String prefix,
+                                         String uri) {
+        boolean isDefault = prefix == null || prefix.length() == 0;
+        addAttribute(element, XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                     isDefault ? XMLConstants.XMLNS_ATTRIBUTE : prefix,
+                     isDefault ? XMLConstants.XMLNS_ATTRIBUTE
+                     : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+                     uri == null ? "" : uri, true);
+    }
+
+    private void addAttribute(int element, String uri, String localName,
+                              String qName, String value, boolean specified) {
+        if (size - 1 != element && types[size - 1] != Node.ATTRIBUTE_NODE) {
+            throw new IllegalStateException("attributes must immediately"
+                                            + " follow their element");
+        }
+        if (uri != null && uri.length() == 0) {
+            uri = null;
+        }
+        if (localName == null || localName.length() == 0) {
+            localName = qName;
+        }
+        int a = newNode(Node.ATTRIBUTE_NODE,
+                        name(uri, localName, prefix(qName), qName));
+        parents[a] = element;
+        setText(a, value);
+        if (!specified) {
+            defaultedAttributes.set(a);
+        }
+    }
+
+    private void addText(char[] ch, int start, int length) {
+        if (depth == 0) {
+            // DOM doesn't keep whitespace outside of the root element
+            return;
+        }
+        if (openText == CompactTree.NONE) {
+            openText = addLeaf(Node.TEXT_NODE, CompactTree.NONE, "");
+        }
+        ensureTextCapacity(length);
+        System.arraycopy(ch, start, text, textSize, length);
+        textSize += length;
+        textLengths[openText] += length;
+    }
+
+    private void closeText() {
+        if (!inCDATA) {
+            openText = CompactTree.NONE;
+        }
+    }
+
+    private int addLeaf(short type, int name, String value) {
+        closeText();
+        int n = newNode(type, name);
+        link(n);
+        setText(n, value);
+        return n;
+    }
+
+    private int newNode(short type, int name) {
+        if (built) {
+            throw new IllegalStateException("tree has already been built");
+        }
+        if (size == types.length) {
+            int newSize = 2 * size;
+            types = Arrays.copyOf(types, newSize);
+            parents = Arrays.copyOf(parents, newSize);
+            firstChildren = Arrays.copyOf(firstChildren, newSize);
+            nextSiblings = Arrays.copyOf(nextSiblings, newSize);
+            previousSiblings = Arrays.copyOf(previousSiblings, newSize);
+            names = Arrays.copyOf(names, newSize);
+            textStarts = Arrays.copyOf(textStarts, newSize);
+            textLengths = Arrays.copyOf(textLengths, newSize);
+        }
+        int n = size++;
+        types[n] = (byte) type;
+        parents[n] = firstChildren[n] = nextSiblings[n] = previousSiblings[n] =
+            textStarts[n] = CompactTree.NONE;
+        names[n] = name;
+        textLengths[n] = 0;
+        return n;
+    }
+
+    /**
+     * Makes the node the last child of the currently open node.
+     */
+    private void link(int n) {
+        int parent = openNodes[depth];
+        int last = lastChildren[depth];
+        parents[n] = parent;
+        if (last == CompactTree.NONE) {
+            firstChildren[parent] = n;
+        } else {
+            nextSiblings[last] = n;
+            previousSiblings[n] = last;
+        }
+        lastChildren[depth] = n;
+    }
+
+    private void setText(int n, String value) {
+        if (value == null) {
+            return;
+        }
+        ensureTextCapacity(value.length());
+        value.getChars(0, value.length(), text, textSize);
+        textStarts[n] = textSize;
+        textLengths[n] = value.length();
+        textSize += value.length();
+    }
+
+    private void ensureTextCapacity(int length) {
+        if (textSize + length > text.length) {
+            text = Arrays.copyOf(text, Math.max(2 * text.length,
+                                                textSize + length));
+        }
+    }
+
+    /**
+     * Index of the interned name.
+     */
+    private int name(String uri, String localName, String prefix,
+                     String nodeName) {
+        List<String> key = Arrays.asList(uri, localName, prefix, nodeName);
+        Integer index = nameIndex.get(key);
+        if (index == null) {
+            index = Integer.valueOf(nameTable.size());
+            nameTable.add(new String[] { uri == null || uri.length() == 0 ? null : uri,
+                                         localName, prefix, nodeName });
+            nameIndex.put(key, index);
+        }
+        return index.intValue();
+    }
+
+    private void readXmlDeclaration() {
+        if (locator instanceof Locator2) {
+            Locator2 l = (Locator2) locator;
+            if (l.getXMLVersion() != null) {
+                xmlVersion = l.getXMLVersion();
+            }
+        }
+        if (reader != null) {
+            try {
+                xmlStandalone = reader.getFeature(IS_STANDALONE);
+            } catch (SAXException ex) {
+                // not supported by the parser
+            }
+        }
+    }
+
+    private static boolean isNamespaceDeclaration(String qName) {
+        return XMLConstants.XMLNS_ATTRIBUTE.equals(qName)
+            || qName.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":");
+    }
+
+    private static String prefix(String qName) {
+        int colon = qName.indexOf(':');
+        return colon < 0 ? null : qName.substring(0, colon);
+    }
+
+    private static String qName(String prefix, String localName) {
+        return prefix == null || prefix.length() == 0 ? localName
+            : prefix + ":" + localName;
+    }
+}
@@ -63,8 +63,9 @@ public static InputSource toInputSource(Source s) {
      * convert it directly.</p>
      *
      * @param s the source to convert
-     * @param fac the TransformerFactory to use, will use the defaul
-     * factory if the value is null.
+     * @param fac the TransformerFactory to use, will use a pooled
+     * identity transformer of the {@link JAXPProviders#getDefault
+     * default providers} if the value is null.
      */
     public static InputSource toInputSource(Source s, TransformerFactory fac) {
         try {
@@ -73,10 +74,16 @@ public static InputSource toInputSource(Source s, TransformerFactory fac) {
                 ByteArrayOutputStream bos = new ByteArrayOutputStream();
                 StreamResult r = new StreamResult(bos);
                 if (fac == null) {
-                    fac = TransformerFactory.newInstance();
+                    JAXPProviders providers = JAXPProviders.getDefault();
+                    Transformer t = providers.borrowIdentityTransformer();
+                    try {
+                        t.transform(s, r);
+                    } finally {
+                        providers.release(t);
+                    }
+                } else {
+                    fac.newTransformer().transform(s, r);
                 }
-                Transformer t = fac.newTransformer();
-                t.transform(s, r);
                 s = new StreamSource(new ByteArrayInputStream(bos
                                                               .toByteArray()));
                 is = SAXSource.sourceToInputSource(s);
@@ -94,15 +101,28 @@ public static InputSource toInputSource(Source s, TransformerFactory fac) {
      *
      * <p>If the source is a {@link DOMSource} holding a Document
      * Node, this one will be returned.  Otherwise {@link
-     * #toInputSource} and a namespace aware DocumentBuilder (created
-     * by the default DocumentBuilderFactory) will be used to read the
-     * source.  This may involve an XSLT identity transform in
-     * toInputSource.</p>
+     * #toInputSource} and a namespace aware DocumentBuilder (borrowed
+     * from the {@link JAXPProviders#getDefault default providers})
+     * will be used to read the source.  This may involve an XSLT
+     * identity transform in toInputSource.</p>
      */
     public static Document toDocument(Source s) {
         Document d = tryExtractDocFromDOMSource(s);
-        return d != null ? d 
-            : toDocument(s, DocumentBuilderFactory.newInstance());
+        if (d == null) {
+            Instrumentation.Observation o =
+                Observations.start(Instrumentation.Operation.PARSE);
+            InputSource is = toInputSource(s);
+            Observations.Counter c = o == null ? null : Observations.count(is);
+            JAXPProviders providers = JAXPProviders.getDefault();
+            DocumentBuilder b = providers.borrowDocumentBuilder();
+            try {
+                d = parse(b, is);
+            } finally {
+                providers.release(b);
+            }
+            commitParse(o, s, c, d);
+        }
+        return d;
     }
 
     /**
@@ -119,34 +139,64 @@ public static Document toDocument(Source s,
                                       DocumentBuilderFactory factory) {
         Document d = tryExtractDocFromDOMSource(s);
         if (d == null) {
+            Instrumentation.Observation o =
+                Observations.start(Instrumentation.Operation.PARSE);
             InputSource is = toInputSource(s);
+            Observations.Counter c = o == null ? null : Observations.count(is);
             DocumentBuilder b = null;
 
-            // yes, there is a race condition but it is so unlikely to
-            // happen that I currently don't care enough
+            try {
+                b = newNamespaceAwareBuilder(factory);
+            } catch (javax.xml.parsers.ParserConfigurationException e) {
+                throw new ConfigurationException(e);
+            }
+
+            d = parse(b, is);
+            commitParse(o, s, c, d);
+        }
+        return d;
+    }
+
+    private static void commitParse(Instrumentation.Observation o, Source s,
+                                    Observations.Counter c, Document d) {
+        if (o != null && o.shouldCommit()) {
+            o.commit(s.getSystemId(), c == null ? -1 : c.getCount(),
+                     Observations.countNodes(d), -1);
+        }
+    }
+
+    private static Document parse(DocumentBuilder b, InputSource is) {
+        try {
+            return b.parse(is);
+        } catch (org.xml.sax.SAXException e) {
+            throw new XMLUnitException(e);
+        } catch (java.io.IOException e) {
+            throw new XMLUnitException(e);
+        }
+    }
+
+    /**
+     * Creates a namespace aware DocumentBuilder.
+     *
+     * <p>If the factory isn't namespace aware, it is made so
+     * temporarily while holding its lock - so concurrent invocations
+     * using the same factory don't interfere with each other.</p>
+     */
+    private static DocumentBuilder newNamespaceAwareBuilder(DocumentBuilderFactory factory)
+        throws javax.xml.parsers.ParserConfigurationException {
+        synchronized (factory) {
             boolean oldNsAware = factory.isNamespaceAware();
             try {
                 if (!oldNsAware) {
                     factory.setNamespaceAware(true);
                 }
-                b = factory.newDocumentBuilder();
-            } catch (javax.xml.parsers.ParserConfigurationException e) {
-                throw new ConfigurationException(e);
+                return factory.newDocumentBuilder();
             } finally {
                 if (!oldNsAware) {
                     factory.setNamespaceAware(false);
                 }
             }
-
-            try {
-                d = b.parse(is);
-            } catch (org.xml.sax.SAXException e) {
-                throw new XMLUnitException(e);
-            } catch (java.io.IOException e) {
-                throw new XMLUnitException(e);
-            }
         }
-        return d;
     }
 
     private static Document tryExtractDocFromDOMSource(Source s) {
@@ -166,8 +216,7 @@ private static Document tryExtractDocFromDOMSource(Source s) {
      */
     public static Node toNode(Source s) {
         Node n = tryExtractNodeFromDOMSource(s);
-        return n != null ? n 
-            : toDocument(s, DocumentBuilderFactory.newInstance());
+        return n != null ? n : toDocument(s);
     }
 
     /**
@@ -0,0 +1,359 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import org.xmlunit.XMLUnitException;
+import org.xmlunit.tree.CompactTree;
+
+/**
+ * Cache of parsed documents shared by all threads.
+ *
+ * <p>Documents given as {@link StreamSource}s are cached - keyed by
+ * their system ID and content if the source holds a stream or reader,
+ * or by path, size and modification time if it only holds the system
+ * ID of a local file.  A stream or reader still has to be read
+ * completely to find its document, only parsing is saved.  All other
+ * kinds of sources are returned unchanged.</p>
+ *
+ * <p>Documents are held as {@link CompactTree}s and all calls to
+ * {@link #get} return the same read-only DOM view of a cached
+ * document, which can be used by any number of threads concurrently.
+ * Callers that need to modify the document must copy it, see {@link
+ * Nodes#copyDocument}.  The cache is
+ * bounded by the total size of the documents' serialized content,
+ * the least recently used documents are evicted first but are only
+ * softly referenced afterwards, so they may still be found until the
+ * garbage collector needs the memory.  A document that is requested
+ * by several threads at the same time is parsed only once.</p>
+ *
+ * <p>The cache is opt-in, use {@link
+ * org.xmlunit.builder.Input#fromCache} or {@link
+ * org.xmlunit.builder.DiffBuilder#withDocumentCache} for
+ * example.</p>
+ */
+public final class DocumentCache {
+
+    /**
+     * Size in bytes - or characters - of the serialized documents
+     * held by the {@link #getDefault default} cache.
+     */
+    public static final long DEFAULT_BUDGET = 32L * 1024 * 1024;
+
+    private static final DocumentCache DEFAULT =
+        new DocumentCache(DEFAULT_BUDGET);
+
+    private final long budget;
+    private final LinkedHashMap<Object, Entry> entries =
+        new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+    private final Map<Object, EvictedEntry> evicted =
+        new HashMap<Object, EvictedEntry>();
+    private final ReferenceQueue<Entry> queue = new ReferenceQueue<Entry>();
+    private final Map<Object, FutureTask<Entry>> pending =
+        new HashMap<Object, FutureTask<Entry>>();
+    private long weight;
+
+    /**
+     * Creates a cache holding documents up to the given total size
+     * of their serialized content.
+     */
+    public DocumentCache(long budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("budget must be positive");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * A cache with a budget of {@link #DEFAULT_BUDGET}.
+     */
+    public static DocumentCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Provides the parsed document unless the source cannot be
+     * cached.
+     *
+     * <p>A stream or reader held by the source will be consumed.</p>
+     *
+     * @return a {@link DOMSource} holding the read-only view of the
+     * cached document or the given source itself if it cannot be
+     * cached.
+     * @exception XMLUnitException if the document cannot be read or
+     * parsed
+     */
+    public Source get(Source s) {
+        if (s == null) {
+            throw new IllegalArgumentException("source must not be null");
+        }
+        if (!(s instanceof StreamSource)) {
+            return s;
+        }
+        final StreamSource ss = (StreamSource) s;
+        final Object key;
+        final long size;
+        final Source toParse;
+        if (ss.getInputStream() != null) {
+            byte[] content = Streams.readFully(ss.getInputStream());
+            key = new ContentKey(ss.getSystemId(), content);
+            size = content.length;
+            toParse = new StreamSource(new ByteArrayInputStream(content),
+                                       ss.getSystemId());
+        } else if (ss.getReader() != null) {
+            String content = Streams.readFully(ss.getReader());
+            key = new ContentKey(ss.getSystemId(), content);
+            size = content.length();
+            toParse = new StreamSource(new StringReader(content),
+                                       ss.getSystemId());
+        } else {
+            File f = Streams.localFile(ss.getSystemId());
+            if (f == null) {
+                return s;
+            }
+            // read size and time first, a concurrent modification
+            // then makes the entry stale rather than wrong
+            size = f.length();
+            key = new FileKey(f.getAbsolutePath(), size, f.lastModified());
+            toParse = ss;
+        }
+        Entry e = lookup(key, toParse, size);
+        return new DOMSource(e.tree.getDocument(), ss.getSystemId());
+    }
+
+    /**
+     * The number of documents held by the cache, not including the
+     * evicted ones that have not been garbage collected, yet.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all cached documents.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        evicted.clear();
+        weight = 0;
+    }
+
+    private Entry lookup(final Object key, final Source toParse,
+                         final long size) {
+        FutureTask<Entry> task;
+        boolean mustRun = false;
+        synchronized (this) {
+            expungeStaleEntries();
+            Entry e = entries.get(key);
+            if (e != null) {
+                return e;
+            }
+            EvictedEntry ref = evicted.remove(key);
+            e = ref != null ? ref.get() : null;
+            if (e != null) {
+                add(key, e);
+                return e;
+            }
+            task = pending.get(key);
+            if (task == null) {
+                task = new FutureTask<Entry>(new Callable<Entry>() {
+                        @Override
+                        public Entry call() {
+                            return new Entry(CompactTree.parse(toParse), size);
+                        }
+                    });
+                pending.put(key, task);
+                mustRun = true;
+            }
+        }
+        if (mustRun) {
+            task.run();
+        }
+        try {
+            Entry e = await(task);
+            if (mustRun) {
+                synchronized (this) {
+                    add(key, e);
+                }
+            }
+            return e;
+        } finally {
+            if (mustRun) {
+                synchronized (this) {
+                    pending.remove(key);
+                }
+            }
+        }
+    }
+
+    private void add(Object key, Entry e) {
+        if (e.size > budget) {
+            evicted.put(key, new EvictedEntry(key, e, queue));
+            return;
+        }
+        entries.put(key, e);
+        weight += e.size;
+        Iterator<Map.Entry<Object, Entry>> it = entries.entrySet().iterator();
+        while (weight > budget && it.hasNext()) {
+            Map.Entry<Object, Entry> eldest = it.next();
+            it.remove();
+            weight -= eldest.getValue().size;
+            evicted.put(eldest.getKey(),
+                        new EvictedEntry(eldest.getKey(), eldest.getValue(), queue));
+        }
+    }
+
+    private void expungeStaleEntries() {
+        EvictedEntry ref;
+        while ((ref = (EvictedEntry) queue.poll()) != null) {
+            if (evicted.get(ref.key) == ref) {
+                evicted.remove(ref.key);
+            }
+        }
+    }
+
+    private static Entry await(FutureTask<Entry> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new XMLUnitException("Interrupted while waiting for"
+                                       + " document to be parsed", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new XMLUnitException(ex.getCause());
+        }
+    }
+
+    /**
+     * A parsed document and the size of its serialized content.
+     */
+    private static final class Entry {
+        private final CompactTree tree;
+        private final long size;
+
+        private Entry(CompactTree tree, long size) {
+            this.tree = tree;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Identifies a document by its system ID and content.
+     */
+    private static final class ContentKey {
+        private final String systemId;
+        private final Object content;
+        private final int hash;
+
+        private ContentKey(String systemId, byte[] content) {
+            this(systemId, (Object) content, Arrays.hashCode(content));
+        }
+
+        private ContentKey(String systemId, String content) {
+            this(systemId, (Object) content, content.hashCode());
+        }
+
+        private ContentKey(String systemId, Object content, int contentHash) {
+            this.systemId = systemId;
+            this.content = content;
+            this.hash = 31 * (systemId == null ? 0 : systemId.hashCode())
+                + contentHash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ContentKey)) {
+                return false;
+            }
+            ContentKey other = (ContentKey) o;
+            if (hash != other.hash
+                || (systemId == null ? other.systemId != null
+                    : !systemId.equals(other.systemId))) {
+                return false;
+            }
+            if (content instanceof byte[]) {
+                return other.content instanceof byte[]
+                    && Arrays.equals((byte[]) content, (byte[]) other.content);
+            }
+            return content.equals(other.content);
+        }
+    }
+
+    /**
+     * Identifies a document by the path, size and modification time
+     * of its file.
+     */
+    private static final class FileKey {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+
+        private FileKey(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path.hashCode()
+                + (int) (lastModified ^ (lastModified >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileKey)) {
+                return false;
+            }
+            FileKey other = (FileKey) o;
+            return path.equals(other.path) && size == other.size
+                && lastModified == other.lastModified;
+        }
+    }
+
+    private static final class EvictedEntry extends SoftReference<Entry> {
+        private final Object key;
+
+        private EvictedEntry(Object key, Entry e, ReferenceQueue<Entry> queue) {
+            super(e, queue);
+            this.key = key;
+        }
+    }
+}
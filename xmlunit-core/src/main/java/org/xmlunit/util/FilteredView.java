@@ -0,0 +1,314 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Node;
+
+/**
+ * Read-only view of a DOM tree that hides comments and empty text
+ * and provides trimmed or normalized textual content on demand.
+ *
+ * <p>The view presents a tree the way {@link
+ * org.xmlunit.input.PreprocessedSource} would create it with the same
+ * options, without copying or modifying the original tree: children
+ * are obtained via {@link #getChildren} and properties via the
+ * methods of this class rather than the DOM API.  When adjacent text
+ * nodes are merged, the first one represents all of them and {@link
+ * #getValue} provides the merged content.</p>
+ *
+ * <p>Instances are immutable and thread-safe.</p>
+ */
+public final class FilteredView {
+
+    /**
+     * The view that presents the tree unchanged.
+     */
+    public static final FilteredView UNFILTERED =
+        new FilteredView(false, false, false);
+
+    private static final String DEFAULT_XML_VERSION = "1.0";
+
+    private final boolean whitespace;
+    private final boolean normalize;
+    private final boolean comments;
+
+    /**
+     * @param stripWhitespace hide empty text and trim all textual
+     * content
+     * @param normalizeWhitespace hide empty text, trim and normalize
+     * all textual content
+     * @param ignoreComments hide comments and the document type
+     * declaration, present CDATA sections as text
+     */
+    public FilteredView(boolean stripWhitespace, boolean normalizeWhitespace,
+                        boolean ignoreComments) {
+        whitespace = stripWhitespace || normalizeWhitespace;
+        normalize = normalizeWhitespace;
+        comments = ignoreComments;
+    }
+
+    /**
+     * Whether the view presents the tree unchanged.
+     */
+    public boolean isUnfiltered() {
+        return !whitespace && !comments;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FilteredView)) {
+            return false;
+        }
+        FilteredView other = (FilteredView) o;
+        return whitespace == other.whitespace && normalize == other.normalize
+            && comments == other.comments;
+    }
+
+    @Override
+    public int hashCode() {
+        return (whitespace ? 1 : 0) + (normalize ? 2 : 0) + (comments ? 4 : 0);
+    }
+
+    /**
+     * The visible children of a node, excluding document type
+     * declarations.
+     */
+    public List<Node> getChildren(Node n) {
+        List<Node> children = new ArrayList<Node>();
+        Node child = n.getFirstChild();
+        while (child != null) {
+            if (isUnfiltered()) {
+                if (child.getNodeType() != Node.DOCUMENT_TYPE_NODE) {
+                    children.add(child);
+                }
+                child = child.getNextSibling();
+            } else {
+                Node head = skipHidden(child);
+                if (head == null) {
+                    break;
+                }
+                children.add(head);
+                child = endOf(head).getNextSibling();
+            }
+        }
+        return children;
+    }
+
+    /**
+     * The node type as seen by the view.
+     */
+    public short getNodeType(Node n) {
+        short type = n.getNodeType();
+        return comments && type == Node.CDATA_SECTION_NODE
+            ? Node.TEXT_NODE : type;
+    }
+
+    /**
+     * The textual content of text, CDATA, comment, processing
+     * instruction and attribute nodes as seen by the view, the node's
+     * value for all other nodes.
+     *
+     * <p>For text and CDATA nodes returned by {@link #getChildren}
+     * this includes the content of all nodes merged into them.</p>
+     */
+    public String getValue(Node n) {
+        switch (n.getNodeType()) {
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+            if (isUnfiltered()) {
+                return n.getNodeValue();
+            }
+            StringBuilder sb = new StringBuilder();
+            Node end = endOf(n);
+            for (Node c = n; ; c = c.getNextSibling()) {
+                if (!whitespace || c.getNodeType() != Node.TEXT_NODE) {
+                    if (isText(c)) {
+                        sb.append(handleWhitespace(c.getNodeValue()));
+                    }
+                } else {
+                    // adjacent text nodes are merged before trimming
+                    StringBuilder run = new StringBuilder();
+                    while (true) {
+                        run.append(c.getNodeValue());
+                        if (c == end || c.getNextSibling().getNodeType() != Node.TEXT_NODE) {
+                            break;
+                        }
+                        c = c.getNextSibling();
+                    }
+                    sb.append(handleWhitespace(run.toString()));
+                }
+                if (c == end) {
+                    break;
+                }
+            }
+            return sb.toString();
+        case Node.COMMENT_NODE:
+        case Node.PROCESSING_INSTRUCTION_NODE:
+        case Node.ATTRIBUTE_NODE:
+            return handleWhitespace(n.getNodeValue());
+        default:
+            return n.getNodeValue();
+        }
+    }
+
+    /**
+     * Whether the attribute has been specified explicitly as seen by
+     * the view.
+     *
+     * <p>Like a copy of the tree, a filtering view treats all
+     * attributes as specified.</p>
+     */
+    public boolean isSpecified(Attr a) {
+        return !isUnfiltered() || a.getSpecified();
+    }
+
+    /**
+     * The document type declaration as seen by the view.
+     */
+    public DocumentType getDoctype(Document d) {
+        return comments ? null : d.getDoctype();
+    }
+
+    /**
+     * The XML version as seen by the view, the default version for a
+     * filtering view.
+     */
+    public String getXmlVersion(Document d) {
+        return isUnfiltered() ? d.getXmlVersion() : DEFAULT_XML_VERSION;
+    }
+
+    /**
+     * The standalone declaration as seen by the view, false for a
+     * filtering view.
+     */
+    public boolean getXmlStandalone(Document d) {
+        return isUnfiltered() && d.getXmlStandalone();
+    }
+
+    /**
+     * The XML encoding as seen by the view, null for a filtering
+     * view.
+     */
+    public String getXmlEncoding(Document d) {
+        return isUnfiltered() ? d.getXmlEncoding() : null;
+    }
+
+    private String handleWhitespace(String s) {
+        if (!whitespace) {
+            return s;
+        }
+        s = s.trim();
+        return normalize ? Nodes.normalize(s) : s;
+    }
+
+    private static boolean isText(Node n) {
+        short type = n.getNodeType();
+        return type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE;
+    }
+
+    /**
+     * Whether a node doesn't contribute to the view on its own.
+     */
+    private boolean isHidden(Node n) {
+        switch (n.getNodeType()) {
+        case Node.DOCUMENT_TYPE_NODE:
+            return true;
+        case Node.COMMENT_NODE:
+            return comments;
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+            return whitespace && isBlank(n);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Whether a text or CDATA node is empty after trimming - taking
+     * adjacent text nodes into account.
+     */
+    private boolean isBlank(Node n) {
+        if (n.getNodeType() == Node.CDATA_SECTION_NODE) {
+            return n.getNodeValue().trim().length() == 0;
+        }
+        for (Node c = n; c != null && c.getNodeType() == Node.TEXT_NODE;
+             c = c.getPreviousSibling()) {
+            if (c.getNodeValue().trim().length() != 0) {
+                return false;
+            }
+        }
+        for (Node c = n.getNextSibling();
+             c != null && c.getNodeType() == Node.TEXT_NODE;
+             c = c.getNextSibling()) {
+            if (c.getNodeValue().trim().length() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The first node starting at the given one that isn't hidden.
+     */
+    private Node skipHidden(Node n) {
+        while (n != null && isHidden(n)) {
+            n = n.getNextSibling();
+        }
+        return n;
+    }
+
+    /**
+     * The last node merged into the given visible node.
+     */
+    private Node endOf(Node head) {
+        if (!isText(head)) {
+            return head;
+        }
+        Node end = head;
+        if (whitespace && head.getNodeType() == Node.TEXT_NODE) {
+            end = endOfTextRun(head);
+        }
+        if (!comments) {
+            return end;
+        }
+        // comments are gone, CDATA sections are text: merge
+        // everything up to the next node that is neither
+        for (Node c = end.getNextSibling(); c != null; c = c.getNextSibling()) {
+            if (isText(c)) {
+                if (!isHidden(c)) {
+                    end = whitespace && c.getNodeType() == Node.TEXT_NODE
+                        ? endOfTextRun(c) : c;
+                    c = end;
+                }
+            } else if (c.getNodeType() != Node.COMMENT_NODE
+                       && c.getNodeType() != Node.DOCUMENT_TYPE_NODE) {
+                break;
+            }
+        }
+        return end;
+    }
+
+    private static Node endOfTextRun(Node n) {
+        while (n.getNextSibling() != null
+               && n.getNextSibling().getNodeType() == Node.TEXT_NODE) {
+            n = n.getNextSibling();
+        }
+        return n;
+    }
+}
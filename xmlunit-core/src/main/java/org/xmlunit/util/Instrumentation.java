@@ -0,0 +1,118 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+/**
+ * Service provider interface for observing XMLUnit's expensive
+ * operations, e.g. in order to emit Java Flight Recorder events.
+ *
+ * <p>Implementations are located using {@link
+ * java.util.ServiceLoader} when {@link Observations} is first used,
+ * the first one found is used.  Without an implementation XMLUnit
+ * doesn't observe anything.</p>
+ *
+ * @see Observations
+ */
+public interface Instrumentation {
+
+    /**
+     * The operations that can be observed.
+     *
+     * <p>The meaning of the values passed to {@link
+     * Observation#commit} depends on the operation, -1 is passed for
+     * values that are unknown.</p>
+     */
+    enum Operation {
+        /**
+         * Parsing a document in {@link Convert#toDocument}.
+         *
+         * <p>subject: system id, size: number of bytes or characters
+         * read, nodes: number of nodes of the document.</p>
+         */
+        PARSE,
+        /**
+         * Creating one of the sources of the {@code org.xmlunit.input}
+         * package.
+         *
+         * <p>subject: class name of the source, nodes: number of nodes
+         * of the original document, otherNodes: number of nodes of
+         * the transformed document.</p>
+         */
+        TRANSFORM_SOURCE,
+        /**
+         * Comparing two documents in {@link
+         * org.xmlunit.diff.DOMDifferenceEngine#compare}.
+         *
+         * <p>subject: system id of the control document, nodes:
+         * number of control nodes, otherNodes: number of test
+         * nodes.</p>
+         */
+        COMPARE,
+        /**
+         * Matching long lists of nodes in {@link
+         * org.xmlunit.diff.DefaultNodeMatcher#match}, see {@link
+         * Observations#MATCH_THRESHOLD}.
+         *
+         * <p>size: number of matched pairs, nodes: number of control
+         * nodes, otherNodes: number of test nodes.</p>
+         */
+        MATCH,
+        /**
+         * Validating an instance document in {@link
+         * org.xmlunit.validation.JAXPValidator#validateInstance}.
+         *
+         * <p>subject: system id of the instance document, size: number
+         * of validation problems, nodes: number of nodes of the
+         * instance document if it has been given as DOM.</p>
+         */
+        VALIDATE,
+        /**
+         * Applying a stylesheet or identity transformation in {@link
+         * org.xmlunit.transform.Transformation#transformTo}.
+         *
+         * <p>subject: system id of the stylesheet, nodes: number of
+         * nodes of the source if it has been given as DOM,
+         * otherNodes: number of nodes of the result if it is a DOM
+         * result.</p>
+         */
+        TRANSFORM
+    }
+
+    /**
+     * Invoked when an operation starts.
+     *
+     * @return the observation of the operation or null if the
+     * operation is not of interest.
+     */
+    Observation start(Operation operation);
+
+    /**
+     * A running observation of an operation.
+     */
+    interface Observation {
+        /**
+         * Invoked once the operation has completed, the details
+         * passed to {@link #commit} are only computed if this returns
+         * true - i.e. an observation that doesn't want to be recorded
+         * because the operation has been too fast can avoid the
+         * cost of counting nodes.
+         */
+        boolean shouldCommit();
+
+        /**
+         * Records the completed operation.
+         */
+        void commit(String subject, long size, long nodes, long otherNodes);
+    }
+}
@@ -0,0 +1,451 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import org.xmlunit.ConfigurationException;
+
+/**
+ * Central registry of the JAXP factories used by XMLUnit and pools
+ * of the parsers and transformers they create.
+ *
+ * <p>Looking up a JAXP factory via {@code newInstance} involves a
+ * service-loader search that can be expensive, so each instance of
+ * this class creates its factories once.  Parsers and identity
+ * transformers are pooled, borrowed instances must be handed back
+ * using the matching {@code release} method which {@code reset}s
+ * them - or dropped if they can't be reset.  All methods are
+ * thread-safe.</p>
+ *
+ * <p>{@link Convert}, {@link org.xmlunit.transform.Transformation},
+ * {@link org.xmlunit.validation.ParsingValidator}, {@link
+ * org.xmlunit.tree.CompactTree} and the difference engines use the
+ * {@link #getDefault default} instance unless they have been given
+ * explicit factories.</p>
+ *
+ * <pre>
+ * JAXPProviders.setDefault(new JAXPProviders(JAXPProviders.Tuning.SECURE_PROCESSING));
+ * </pre>
+ */
+public final class JAXPProviders {
+
+    /**
+     * Optional settings applied to the factories when they are
+     * created.
+     *
+     * <p>Settings not supported by the JAXP implementation in use are
+     * silently ignored.</p>
+     */
+    public enum Tuning {
+        /**
+         * Makes Xerces build the complete DOM tree while parsing.
+         *
+         * <p>Speeds up comparisons that visit every node of large
+         * documents.</p>
+         */
+        EAGER_NODE_EXPANSION {
+            @Override
+            void apply(DocumentBuilderFactory f) {
+                setFeature(f, DEFER_NODE_EXPANSION, false);
+            }
+        },
+        /**
+         * Makes Xerces create DOM nodes only when they are accessed.
+         *
+         * <p>Speeds up XPath lookups that only visit small parts of
+         * large documents.</p>
+         */
+        DEFERRED_NODE_EXPANSION {
+            @Override
+            void apply(DocumentBuilderFactory f) {
+                setFeature(f, DEFER_NODE_EXPANSION, true);
+            }
+        },
+        /**
+         * Enables {@link XMLConstants#FEATURE_SECURE_PROCESSING} which
+         * limits entity expansion and disables XSLT extension
+         * functions.
+         */
+        SECURE_PROCESSING {
+            @Override
+            void apply(DocumentBuilderFactory f) {
+                setFeature(f, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            }
+            @Override
+            void apply(SAXParserFactory f) {
+                try {
+                    f.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+                } catch (Exception ex) {
+                    // not supported
+                }
+            }
+            @Override
+            void apply(TransformerFactory f) {
+                try {
+                    f.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+                } catch (TransformerConfigurationException ex) {
+                    // not supported
+                }
+            }
+        };
+
+        void apply(DocumentBuilderFactory f) { }
+        void apply(SAXParserFactory f) { }
+        void apply(TransformerFactory f) { }
+
+        private static void setFeature(DocumentBuilderFactory f,
+                                       String feature, boolean value) {
+            try {
+                f.setFeature(feature, value);
+            } catch (ParserConfigurationException ex) {
+                // not supported
+            }
+        }
+    }
+
+    private static final String DEFER_NODE_EXPANSION =
+        "http://apache.org/xml/features/dom/defer-node-expansion";
+
+    private static final int MAX_IDLE =
+        2 * Runtime.getRuntime().availableProcessors();
+
+    private static volatile JAXPProviders defaultProviders =
+        new JAXPProviders();
+
+    private final Set<Tuning> tunings;
+    private DocumentBuilderFactory documentBuilderFactory;
+    private SAXParserFactory parserFactory;
+    private SAXParserFactory validatingParserFactory;
+    private TransformerFactory transformerFactory;
+
+    private final Pool<DocumentBuilder> documentBuilders =
+        new Pool<DocumentBuilder>() {
+            @Override
+            DocumentBuilder create() throws Exception {
+                DocumentBuilderFactory f = getDocumentBuilderFactory();
+                synchronized (f) {
+                    return f.newDocumentBuilder();
+                }
+            }
+            @Override
+            void reset(DocumentBuilder b) {
+                b.reset();
+            }
+        };
+    private final Pool<SAXParser> parsers =
+        new Pool<SAXParser>() {
+            @Override
+            SAXParser create() throws Exception {
+                SAXParserFactory f = getParserFactory();
+                synchronized (f) {
+                    return f.newSAXParser();
+                }
+            }
+            @Override
+            void reset(SAXParser p) {
+                p.reset();
+            }
+        };
+    private final Pool<SAXParser> validatingParsers =
+        new Pool<SAXParser>() {
+            @Override
+            SAXParser create() throws Exception {
+                SAXParserFactory f = getValidatingParserFactory();
+                synchronized (f) {
+                    return f.newSAXParser();
+                }
+            }
+            @Override
+            void reset(SAXParser p) {
+                p.reset();
+            }
+        };
+    private final Pool<Transformer> identityTransformers =
+        new Pool<Transformer>() {
+            @Override
+            Transformer create() throws Exception {
+                TransformerFactory f = getTransformerFactory();
+                synchronized (f) {
+                    return f.newTransformer();
+                }
+            }
+            @Override
+            void reset(Transformer t) {
+                t.reset();
+            }
+        };
+
+    /**
+     * Creates providers that use JAXP's default factories configured
+     * with the given tunings.
+     */
+    public JAXPProviders(Tuning... tunings) {
+        this(null, null, null, tunings);
+    }
+
+    /**
+     * Creates providers that use the given factories, a null value
+     * means JAXP's default factory will be used.
+     *
+     * <p>The factories are configured by this class - they must be
+     * namespace aware and the SAXParserFactory must be validating -
+     * and must not be modified afterwards.</p>
+     */
+    public JAXPProviders(DocumentBuilderFactory documentBuilderFactory,
+                         SAXParserFactory validatingParserFactory,
+                         TransformerFactory transformerFactory,
+                         Tuning... tunings) {
+        if (tunings == null) {
+            throw new IllegalArgumentException("tunings must not be null");
+        }
+        this.tunings = tunings.length == 0
+            ? Collections.<Tuning>emptySet()
+            : Collections.unmodifiableSet(EnumSet.copyOf(Arrays.asList(tunings)));
+        if (documentBuilderFactory != null) {
+            this.documentBuilderFactory = configure(documentBuilderFactory);
+        }
+        if (validatingParserFactory != null) {
+            this.validatingParserFactory =
+                configure(validatingParserFactory, true);
+        }
+        if (transformerFactory != null) {
+            this.transformerFactory = configure(transformerFactory);
+        }
+    }
+
+    /**
+     * The instance used by XMLUnit's own classes.
+     */
+    public static JAXPProviders getDefault() {
+        return defaultProviders;
+    }
+
+    /**
+     * Replaces the instance used by XMLUnit's own classes.
+     */
+    public static void setDefault(JAXPProviders providers) {
+        if (providers == null) {
+            throw new IllegalArgumentException("providers must not be null");
+        }
+        defaultProviders = providers;
+    }
+
+    /**
+     * The tunings applied to the factories.
+     */
+    public Set<Tuning> getTunings() {
+        return tunings;
+    }
+
+    /**
+     * The namespace aware DocumentBuilderFactory.
+     */
+    public synchronized DocumentBuilderFactory getDocumentBuilderFactory() {
+        if (documentBuilderFactory == null) {
+            documentBuilderFactory = configure(DocumentBuilderFactory.newInstance());
+        }
+        return documentBuilderFactory;
+    }
+
+    /**
+     * The namespace aware and non-validating SAXParserFactory.
+     */
+    public synchronized SAXParserFactory getParserFactory() {
+        if (parserFactory == null) {
+            parserFactory = configure(SAXParserFactory.newInstance(), false);
+        }
+        return parserFactory;
+    }
+
+    /**
+     * The namespace aware and validating SAXParserFactory.
+     */
+    public synchronized SAXParserFactory getValidatingParserFactory() {
+        if (validatingParserFactory == null) {
+            validatingParserFactory =
+                configure(SAXParserFactory.newInstance(), true);
+        }
+        return validatingParserFactory;
+    }
+
+    /**
+     * The TransformerFactory.
+     *
+     * <p>TransformerFactory isn't thread-safe, callers must hold the
+     * factory's lock while using it.</p>
+     */
+    public synchronized TransformerFactory getTransformerFactory() {
+        if (transformerFactory == null) {
+            transformerFactory = configure(TransformerFactory.newInstance());
+        }
+        return transformerFactory;
+    }
+
+    /**
+     * Creates a new TransformerFactory of the same kind as {@link
+     * #getTransformerFactory} without searching for an implementation
+     * again.
+     *
+     * <p>Useful for callers that need to change the factory's
+     * settings.</p>
+     */
+    public TransformerFactory newTransformerFactory() {
+        Class<? extends TransformerFactory> c =
+            getTransformerFactory().getClass();
+        try {
+            return configure(c.newInstance());
+        } catch (Exception ex) {
+            throw new ConfigurationException(ex);
+        }
+    }
+
+    /**
+     * Borrows a namespace aware DocumentBuilder from the pool.
+     */
+    public DocumentBuilder borrowDocumentBuilder() {
+        return documentBuilders.borrow();
+    }
+
+    /**
+     * Returns a DocumentBuilder to the pool.
+     */
+    public void release(DocumentBuilder b) {
+        documentBuilders.release(b);
+    }
+
+    /**
+     * Borrows a namespace aware and non-validating SAXParser from the
+     * pool.
+     */
+    public SAXParser borrowParser() {
+        return parsers.borrow();
+    }
+
+    /**
+     * Borrows a namespace aware and validating SAXParser from the
+     * pool.
+     */
+    public SAXParser borrowValidatingParser() {
+        return validatingParsers.borrow();
+    }
+
+    /**
+     * Returns a SAXParser to the pool it has been borrowed from.
+     */
+    public void release(SAXParser p) {
+        if (p == null) {
+            throw new IllegalArgumentException("parser must not be null");
+        }
+        (p.isValidating() ? validatingParsers : parsers).release(p);
+    }
+
+    /**
+     * Borrows a Transformer performing the identity transformation
+     * from the pool.
+     */
+    public Transformer borrowIdentityTransformer() {
+        return identityTransformers.borrow();
+    }
+
+    /**
+     * Returns a Transformer to the pool.
+     */
+    public void release(Transformer t) {
+        identityTransformers.release(t);
+    }
+
+    private DocumentBuilderFactory configure(DocumentBuilderFactory f) {
+        f.setNamespaceAware(true);
+        for (Tuning t : tunings) {
+            t.apply(f);
+        }
+        return f;
+    }
+
+    private SAXParserFactory configure(SAXParserFactory f,
+                                       boolean validating) {
+        f.setNamespaceAware(true);
+        f.setValidating(validating);
+        for (Tuning t : tunings) {
+            t.apply(f);
+        }
+        return f;
+    }
+
+    private TransformerFactory configure(TransformerFactory f) {
+        for (Tuning t : tunings) {
+            t.apply(f);
+        }
+        return f;
+    }
+
+    /**
+     * Bounded pool of idle instances.
+     */
+    private abstract static class Pool<T> {
+        private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+
+        abstract T create() throws Exception;
+
+        abstract void reset(T instance);
+
+        private T borrow() {
+            T instance = idle.poll();
+            if (instance != null) {
+                idleCount.decrementAndGet();
+                return instance;
+            }
+            try {
+                return create();
+            } catch (ConfigurationException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new ConfigurationException(ex);
+            }
+        }
+
+        private void release(T instance) {
+            if (instance == null) {
+                throw new IllegalArgumentException("instance must not be null");
+            }
+            try {
+                reset(instance);
+            } catch (RuntimeException ex) {
+                // can't be reused
+                return;
+            }
+            if (idleCount.incrementAndGet() <= MAX_IDLE) {
+                idle.offer(instance);
+            } else {
+                idleCount.decrementAndGet();
+            }
+        }
+    }
+}
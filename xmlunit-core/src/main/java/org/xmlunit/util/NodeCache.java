@@ -0,0 +1,464 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Caches information about DOM elements that is needed over and over
+ * again while comparing documents - the elements' QNames, their
+ * attributes, their nested text and arbitrary {@link #get memoized
+ * values} - keyed by node identity.
+ *
+ * <p>A cache is active for the thread that has {@link #begin begun}
+ * it until it is {@link #end ended}, the static accessors of this
+ * class use the current thread's active cache or fall back to the
+ * methods of {@link Nodes} if there is none.  The difference engines
+ * activate a cache for each comparison, so the information is only
+ * computed once per node even if {@link
+ * org.xmlunit.diff.ElementSelector}s ask for it repeatedly while
+ * matching nodes.  Child lists and the information about other kinds
+ * of nodes are computed each time they are asked for.</p>
+ *
+ * <p>Information only needed while a part of a tree is processed can
+ * be confined to a {@link #beginScope scope}, it is dropped once the
+ * scope ends.  {@link org.xmlunit.diff.DOMDifferenceEngine} uses a
+ * scope for the children of each pair of nodes it compares, so the
+ * cache only grows with the depth of the documents and the number of
+ * siblings along the way.</p>
+ *
+ * <p>A cache may be begun with a {@link FilteredView}, in which case
+ * children, nested text and attribute values are the ones seen
+ * through the view.</p>
+ *
+ * <p>The information about a tree that is compared many times can be
+ * computed ahead of time as a {@link #snapshot Snapshot} - including
+ * the child lists - caches begun with the snapshot read it rather
+ * than computing it again.</p>
+ *
+ * <p>The DOM trees must not be modified while a cache is active.</p>
+ *
+ * <pre>
+ * NodeCache cache = NodeCache.begin();
+ * try {
+ *     ...
+ * } finally {
+ *     cache.end();
+ * }
+ * </pre>
+ */
+public final class NodeCache {
+
+    private static final ThreadLocal<NodeCache> ACTIVE =
+        new ThreadLocal<NodeCache>();
+
+    private final NodeCache previous;
+    private final FilteredView view;
+    private final Map<Node, Entry> shared;
+    private final Map<Node, Entry> entries = new IdentityHashMap<Node, Entry>();
+    private final Map<QName, QName> qNames = new HashMap<QName, QName>();
+    private final Deque<List<Node>> scopes = new ArrayDeque<List<Node>>();
+    /**
+     * Whether information about all nodes is kept because a snapshot
+     * is being taken.
+     */
+    private final boolean complete;
+
+    private NodeCache(NodeCache previous, FilteredView view, Snapshot snapshot,
+                      boolean complete) {
+        this.previous = previous;
+        this.view = view;
+        shared = snapshot == null ? null : snapshot.entries;
+        this.complete = complete;
+    }
+
+    /**
+     * Activates a new, empty cache for the current thread.
+     *
+     * <p>Caches may be nested, {@link #end} reactivates the cache
+     * that has been active before.</p>
+     */
+    public static NodeCache begin() {
+        return begin(FilteredView.UNFILTERED);
+    }
+
+    /**
+     * Activates a new, empty cache for the current thread that
+     * presents nodes as seen through the given view.
+     *
+     * @see #begin()
+     */
+    public static NodeCache begin(FilteredView view) {
+        if (view == null) {
+            throw new IllegalArgumentException("view must not be null");
+        }
+        return begin(view, null, false);
+    }
+
+    /**
+     * Activates a new cache for the current thread that starts out
+     * with the information contained in the given snapshot.
+     *
+     * @see #begin(FilteredView)
+     */
+    public static NodeCache begin(Snapshot snapshot) {
+        if (snapshot == null) {
+            throw new IllegalArgumentException("snapshot must not be null");
+        }
+        return begin(snapshot.view, snapshot, false);
+    }
+
+    private static NodeCache begin(FilteredView view, Snapshot snapshot,
+                                   boolean complete) {
+        NodeCache c = new NodeCache(ACTIVE.get(), view, snapshot, complete);
+        ACTIVE.set(c);
+        return c;
+    }
+
+    /**
+     * Computes the QNames, attributes, nested text and children of
+     * all nodes of the given tree as seen through the given view.
+     *
+     * <p>The tree must not be modified as long as the snapshot is
+     * used.</p>
+     */
+    public static Snapshot snapshot(Node root, FilteredView view) {
+        if (root == null) {
+            throw new IllegalArgumentException("root must not be null");
+        }
+        if (view == null) {
+            throw new IllegalArgumentException("view must not be null");
+        }
+        NodeCache c = begin(view, null, true);
+        try {
+            Deque<Node> pending = new ArrayDeque<Node>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Node n = pending.pop();
+                if (n instanceof Element) {
+                    getQName(n);
+                    getAttributes(n);
+                    getMergedNestedText(n);
+                }
+                if (n.hasChildNodes()) {
+                    for (Node child : getChildren(n)) {
+                        pending.push(child);
+                    }
+                }
+            }
+        } finally {
+            c.end();
+        }
+        return new Snapshot(view, c.entries);
+    }
+
+    /**
+     * The view of the current thread's active cache or the unfiltered
+     * view if there is none.
+     */
+    public static FilteredView getView() {
+        NodeCache c = ACTIVE.get();
+        return c == null ? FilteredView.UNFILTERED : c.view;
+    }
+
+    /**
+     * Starts a new scope of the current thread's active cache - if
+     * any.
+     *
+     * <p>Information that is cached after this call is dropped by the
+     * matching call to {@link #endScope}.  Scopes can be nested.</p>
+     */
+    public static void beginScope() {
+        NodeCache c = ACTIVE.get();
+        if (c != null) {
+            c.scopes.push(new ArrayList<Node>());
+        }
+    }
+
+    /**
+     * Ends the innermost scope of the current thread's active cache -
+     * if any - and drops the information that has been cached while
+     * it has been the innermost one.
+     */
+    public static void endScope() {
+        NodeCache c = ACTIVE.get();
+        if (c != null) {
+            if (c.scopes.isEmpty()) {
+                throw new IllegalStateException("no scope has been begun");
+            }
+            for (Node n : c.scopes.pop()) {
+                c.entries.remove(n);
+            }
+        }
+    }
+
+    /**
+     * The children of the given Node except for document type
+     * declarations - as seen by the active cache's view.
+     *
+     * @see FilteredView#getChildren
+     */
+    public static List<Node> getChildren(Node n) {
+        NodeCache c = ACTIVE.get();
+        if (c == null) {
+            return Collections.unmodifiableList(FilteredView.UNFILTERED.getChildren(n));
+        }
+        Entry s = c.shared(n);
+        if (s != null && s.children != null) {
+            return s.children;
+        }
+        if (!c.complete) {
+            return Collections.unmodifiableList(c.view.getChildren(n));
+        }
+        Entry e = c.entry(n);
+        if (e.children == null) {
+            e.children = Collections.unmodifiableList(c.view.getChildren(n));
+        }
+        return e.children;
+    }
+
+    /**
+     * Deactivates this cache and reactivates the cache that has been
+     * active when this one has been begun - if any.
+     */
+    public void end() {
+        if (ACTIVE.get() != this) {
+            throw new IllegalStateException("cache is not active");
+        }
+        if (previous == null) {
+            ACTIVE.remove();
+        } else {
+            ACTIVE.set(previous);
+        }
+    }
+
+    /**
+     * Extracts a Node's name, namespace URI (if any) and prefix as a
+     * QName.
+     *
+     * <p>Equal QNames are represented by the same instance while a
+     * cache is active.</p>
+     *
+     * @see Nodes#getQName
+     */
+    public static QName getQName(Node n) {
+        NodeCache c = ACTIVE.get();
+        if (c == null) {
+            return Nodes.getQName(n);
+        }
+        Entry s = c.shared(n);
+        if (s != null && s.qName != null) {
+            return s.qName;
+        }
+        if (!c.caches(n)) {
+            return c.intern(Nodes.getQName(n));
+        }
+        Entry e = c.entry(n);
+        if (e.qName == null) {
+            e.qName = c.intern(Nodes.getQName(n));
+        }
+        return e.qName;
+    }
+
+    /**
+     * Merges all direct Text and CDATA children of the given Node and
+     * concatenates their value.
+     *
+     * @see Nodes#getMergedNestedText
+     */
+    public static String getMergedNestedText(Node n) {
+        NodeCache c = ACTIVE.get();
+        if (c == null) {
+            return Nodes.getMergedNestedText(n);
+        }
+        Entry s = c.shared(n);
+        if (s != null && s.text != null) {
+            return s.text;
+        }
+        if (!c.caches(n)) {
+            return c.mergedNestedText(n);
+        }
+        Entry e = c.entry(n);
+        if (e.text == null) {
+            e.text = c.mergedNestedText(n);
+        }
+        return e.text;
+    }
+
+    /**
+     * Obtains an element's attributes as unmodifiable Map.
+     *
+     * @see Nodes#getAttributes
+     */
+    public static Map<QName, String> getAttributes(Node n) {
+        NodeCache c = ACTIVE.get();
+        if (c == null) {
+            return Collections.unmodifiableMap(Nodes.getAttributes(n));
+        }
+        Entry s = c.shared(n);
+        if (s != null && s.attributes != null) {
+            return s.attributes;
+        }
+        if (!c.caches(n)) {
+            return c.attributes(n);
+        }
+        Entry e = c.entry(n);
+        if (e.attributes == null) {
+            e.attributes = c.attributes(n);
+        }
+        return e.attributes;
+    }
+
+    /**
+     * Obtains a value computed from a node, using the given mapper
+     * only if no value has been cached for the same node and key.
+     *
+     * <p>Allows {@link org.xmlunit.diff.ElementSelector}s to memoize
+     * expensive information about nodes for the duration of a
+     * comparison, the key should be unique to the selector.</p>
+     *
+     * @param n the node
+     * @param key identifies the kind of information
+     * @param mapper computes the information
+     */
+    public static <T> T get(Node n, Object key,
+                            Mapper<? super Node, ? extends T> mapper) {
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null");
+        }
+        if (mapper == null) {
+            throw new IllegalArgumentException("mapper must not be null");
+        }
+        NodeCache c = ACTIVE.get();
+        if (c == null) {
+            return mapper.apply(n);
+        }
+        Entry e = c.entry(n);
+        if (e.values == null) {
+            e.values = new HashMap<Object, Object>();
+        }
+        if (e.values.containsKey(key)) {
+            @SuppressWarnings("unchecked")
+            T value = (T) e.values.get(key);
+            return value;
+        }
+        T value = mapper.apply(n);
+        e.values.put(key, value);
+        return value;
+    }
+
+    private boolean caches(Node n) {
+        return complete || n.getNodeType() == Node.ELEMENT_NODE;
+    }
+
+    private QName intern(QName q) {
+        QName interned = qNames.get(q);
+        if (interned == null) {
+            qNames.put(q, q);
+            interned = q;
+        }
+        return interned;
+    }
+
+    private String mergedNestedText(Node n) {
+        if (view.isUnfiltered()) {
+            return Nodes.getMergedNestedText(n);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Node child : getChildren(n)) {
+            short type = child.getNodeType();
+            if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+                sb.append(view.getValue(child));
+            }
+        }
+        return sb.toString();
+    }
+
+    private Map<QName, String> attributes(Node n) {
+        if (view.isUnfiltered()) {
+            return Collections.unmodifiableMap(Nodes.getAttributes(n));
+        }
+        Map<QName, String> map = new LinkedHashMap<QName, String>();
+        NamedNodeMap m = n.getAttributes();
+        if (m != null) {
+            final int len = m.getLength();
+            for (int i = 0; i < len; i++) {
+                Attr a = (Attr) m.item(i);
+                map.put(getQName(a), view.getValue(a));
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private Entry shared(Node n) {
+        return shared == null ? null : shared.get(n);
+    }
+
+    private Entry entry(Node n) {
+        Entry e = entries.get(n);
+        if (e == null) {
+            e = new Entry();
+            entries.put(n, e);
+            if (!scopes.isEmpty()) {
+                scopes.peek().add(n);
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Information about the nodes of a tree computed ahead of time
+     * by {@link NodeCache#snapshot}.
+     *
+     * <p>Snapshots are immutable and can be used by any number of
+     * caches concurrently.</p>
+     */
+    public static final class Snapshot {
+        private final FilteredView view;
+        private final Map<Node, Entry> entries;
+
+        private Snapshot(FilteredView view, Map<Node, Entry> entries) {
+            this.view = view;
+            this.entries = entries;
+        }
+
+        /**
+         * The view the information has been computed for.
+         */
+        public FilteredView getView() {
+            return view;
+        }
+    }
+
+    private static final class Entry {
+        private QName qName;
+        private List<Node> children;
+        private String text;
+        private Map<QName, String> attributes;
+        private Map<Object, Object> values;
+    }
+}
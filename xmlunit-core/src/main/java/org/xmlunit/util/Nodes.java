@@ -13,6 +13,9 @@
 */
 package org.xmlunit.util;
 
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -22,6 +25,7 @@
 import org.w3c.dom.Attr;
 import org.w3c.dom.CDATASection;
 import org.w3c.dom.CharacterData;
+import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.ProcessingInstruction;
@@ -55,7 +59,8 @@ public static QName getQName(Node n) {
      */
     public static String getMergedNestedText(Node n) {
         StringBuilder sb = new StringBuilder();
-        for (Node child : new IterableNodeList(n.getChildNodes())) {
+        for (Node child = n.getFirstChild(); child != null;
+             child = child.getNextSibling()) {
             if (child instanceof Text || child instanceof CDATASection) {
                 String s = child.getNodeValue();
                 if (s != null) {
@@ -82,6 +87,82 @@ public static Map<QName, String> getAttributes(Node n) {
         return map;
     }
 
+    /**
+     * Creates a deep copy of a document that can be compared to the
+     * original without any differences.
+     *
+     * <p>Unlike {@code cloneNode} this retains the XML declaration
+     * and attributes that have been defaulted by a DTD are not marked
+     * as specified explicitly - as far as the DOM implementation
+     * provides the (non-standard) setters needed for this.</p>
+     */
+    public static Document copyDocument(Document original) {
+        Document copy = (Document) original.cloneNode(true);
+        // not copied by cloneNode
+        copy.setXmlStandalone(original.getXmlStandalone());
+        copy.setXmlVersion(original.getXmlVersion());
+        if (original.getXmlEncoding() != null) {
+            invokeSetter(copy, "setXmlEncoding", String.class,
+                         original.getXmlEncoding());
+        }
+        if (original.getDoctype() != null) {
+            copyAttributeSpecifiedness(original, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Walks both trees in parallel and unmarks defaulted attributes
+     * of the copy.
+     */
+    private static void copyAttributeSpecifiedness(Node original, Node copy) {
+        Deque<Node[]> stack = new ArrayDeque<Node[]>();
+        stack.push(new Node[] { original, copy });
+        while (!stack.isEmpty()) {
+            Node[] pair = stack.pop();
+            NamedNodeMap attrs = pair[0].getAttributes();
+            if (attrs != null) {
+                final int len = attrs.getLength();
+                for (int i = 0; i < len; i++) {
+                    Attr a = (Attr) attrs.item(i);
+                    if (!a.getSpecified()) {
+                        Node c = a.getLocalName() != null
+                            ? pair[1].getAttributes()
+                            .getNamedItemNS(a.getNamespaceURI(), a.getLocalName())
+                            : pair[1].getAttributes().getNamedItem(a.getName());
+                        if (c != null && !invokeSetter(c, "setSpecified",
+                                                       boolean.class, Boolean.FALSE)) {
+                            return;
+                        }
+                    }
+                }
+            }
+            for (Node o = pair[0].getFirstChild(), c = pair[1].getFirstChild();
+                 o != null && c != null;
+                 o = o.getNextSibling(), c = c.getNextSibling()) {
+                if (o.getNodeType() == Node.ELEMENT_NODE) {
+                    stack.push(new Node[] { o, c });
+                }
+            }
+        }
+    }
+
+    /**
+     * Invokes a non-standard setter most DOM implementations provide.
+     *
+     * @return false if the implementation doesn't provide it
+     */
+    private static boolean invokeSetter(Node n, String name, Class<?> type,
+                                        Object value) {
+        try {
+            Method setter = n.getClass().getMethod(name, type);
+            setter.invoke(n, value);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     /**
      * Creates a new Node (of the same type as the original node) that
      * is similar to the orginal but doesn't contain any empty text or
@@ -155,7 +236,7 @@ private static void handleWsRec(Node n, boolean normalize) {
      * are replaced by space characters and consecutive whitespace
      * characaters are collapsed.</p>
      */
-    static String normalize(String s) {
+    public static String normalize(String s) {
         StringBuilder sb = new StringBuilder();
         boolean changed = false;
         boolean lastCharWasWS = false;
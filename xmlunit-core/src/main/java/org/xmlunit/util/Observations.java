@@ -0,0 +1,200 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.ServiceLoader;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+/**
+ * Entry point to the {@link Instrumentation} found on the classpath.
+ *
+ * <p>If there is no implementation, {@link #start} returns null and
+ * callers skip all further work, so the only cost is a static field
+ * access per operation.</p>
+ *
+ * <pre>
+ * Instrumentation.Observation o = Observations.start(Instrumentation.Operation.PARSE);
+ * ...
+ * if (o != null &amp;&amp; o.shouldCommit()) {
+ *     o.commit(systemId, size, Observations.countNodes(doc), -1);
+ * }
+ * </pre>
+ */
+public final class Observations {
+    private Observations() { }
+
+    /**
+     * Minimal number of control and test nodes combined for which
+     * node matching is observed.
+     */
+    public static final int MATCH_THRESHOLD = 100;
+
+    private static final Instrumentation INSTRUMENTATION = load();
+
+    private static Instrumentation load() {
+        try {
+            Iterator<Instrumentation> it =
+                ServiceLoader.load(Instrumentation.class,
+                                   Instrumentation.class.getClassLoader())
+                .iterator();
+            return it.hasNext() ? it.next() : null;
+        } catch (Throwable t) {
+            // a broken provider must not break XMLUnit
+            return null;
+        }
+    }
+
+    /**
+     * Whether an {@link Instrumentation} has been found.
+     */
+    public static boolean isEnabled() {
+        return INSTRUMENTATION != null;
+    }
+
+    /**
+     * Starts observing an operation.
+     *
+     * @return null if there is no {@link Instrumentation} or it
+     * isn't interested in the operation.
+     */
+    public static Instrumentation.Observation start(Instrumentation.Operation operation) {
+        return INSTRUMENTATION == null ? null : INSTRUMENTATION.start(operation);
+    }
+
+    /**
+     * Counts the given node, its attributes and all its descendants.
+     *
+     * @return -1 if the node is null
+     */
+    public static long countNodes(Node n) {
+        if (n == null) {
+            return -1;
+        }
+        long count = 0;
+        Deque<Node> todo = new ArrayDeque<Node>();
+        todo.push(n);
+        while (!todo.isEmpty()) {
+            Node current = todo.pop();
+            count++;
+            NamedNodeMap attrs = current.getAttributes();
+            if (attrs != null) {
+                count += attrs.getLength();
+            }
+            for (Node child = current.getFirstChild(); child != null;
+                 child = child.getNextSibling()) {
+                todo.push(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the nodes of the given source if it is a {@link
+     * DOMSource}.
+     *
+     * @return -1 if the source is no DOMSource
+     */
+    public static long countNodes(Source s) {
+        return s instanceof DOMSource ? countNodes(((DOMSource) s).getNode()) : -1;
+    }
+
+    /**
+     * Wraps the byte or character stream of an InputSource so the
+     * number of bytes or characters read can be determined.
+     *
+     * @return the counter or null if the InputSource doesn't provide
+     * a stream - in which case the InputSource is left untouched
+     */
+    public static Counter count(InputSource is) {
+        Counter c = new Counter();
+        if (is.getCharacterStream() != null) {
+            is.setCharacterStream(c.wrap(is.getCharacterStream()));
+        } else if (is.getByteStream() != null) {
+            is.setByteStream(c.wrap(is.getByteStream()));
+        } else {
+            return null;
+        }
+        return c;
+    }
+
+    /**
+     * Counts bytes or characters read from a wrapped stream.
+     */
+    public static final class Counter {
+        private long count;
+
+        private Counter() { }
+
+        /**
+         * The number of bytes or characters read so far.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        private Reader wrap(Reader r) {
+            return new FilterReader(r) {
+                @Override
+                public int read() throws IOException {
+                    int c = super.read();
+                    if (c >= 0) {
+                        count++;
+                    }
+                    return c;
+                }
+                @Override
+                public int read(char[] buf, int off, int len) throws IOException {
+                    int read = super.read(buf, off, len);
+                    if (read > 0) {
+                        count += read;
+                    }
+                    return read;
+                }
+            };
+        }
+
+        private InputStream wrap(InputStream s) {
+            return new FilterInputStream(s) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        count++;
+                    }
+                    return b;
+                }
+                @Override
+                public int read(byte[] buf, int off, int len) throws IOException {
+                    int read = super.read(buf, off, len);
+                    if (read > 0) {
+                        count += read;
+                    }
+                    return read;
+                }
+            };
+        }
+    }
+}
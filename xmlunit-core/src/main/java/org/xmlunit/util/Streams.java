@@ -0,0 +1,95 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URI;
+import org.xmlunit.XMLUnitException;
+
+/**
+ * Reads the complete content of streams and readers and locates the
+ * files behind system IDs.
+ */
+public final class Streams {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private Streams() { /* no instances */ }
+
+    /**
+     * Reads the stream up to its end without closing it.
+     *
+     * @exception XMLUnitException if the stream cannot be read
+     */
+    public static byte[] readFully(InputStream in) {
+        if (in == null) {
+            throw new IllegalArgumentException("stream must not be null");
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buf)) >= 0) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException ex) {
+            throw new XMLUnitException(ex);
+        }
+    }
+
+    /**
+     * Reads the reader up to its end without closing it.
+     *
+     * @exception XMLUnitException if the reader cannot be read
+     */
+    public static String readFully(Reader r) {
+        if (r == null) {
+            throw new IllegalArgumentException("reader must not be null");
+        }
+        try {
+            CharArrayWriter out = new CharArrayWriter();
+            char[] buf = new char[BUFFER_SIZE];
+            int read;
+            while ((read = r.read(buf)) >= 0) {
+                out.write(buf, 0, read);
+            }
+            return out.toString();
+        } catch (IOException ex) {
+            throw new XMLUnitException(ex);
+        }
+    }
+
+    /**
+     * The existing local file identified by a {@code file:} system
+     * ID or null if there is none.
+     */
+    public static File localFile(String systemId) {
+        if (systemId == null || !systemId.startsWith("file:")) {
+            return null;
+        }
+        try {
+            File f = new File(new URI(systemId));
+            return f.isFile() ? f : null;
+        } catch (Exception ex) {
+            // not a hierarchical file URI
+            return null;
+        }
+    }
+}
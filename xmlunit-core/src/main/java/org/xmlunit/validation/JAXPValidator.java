@@ -17,6 +17,9 @@
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import org.xmlunit.XMLUnitException;
+import org.xmlunit.util.Instrumentation;
+import org.xmlunit.util.Linqy;
+import org.xmlunit.util.Observations;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -66,6 +69,8 @@ private SchemaFactory getFactory() {
     }
 
     @Override public ValidationResult validateInstance(Source s) {
+        Instrumentation.Observation o =
+            Observations.start(Instrumentation.Operation.VALIDATE);
         Schema schema;
         try {
             schema = createSchema();
@@ -86,7 +91,12 @@ private SchemaFactory getFactory() {
         } catch (java.io.IOException e) {
             throw new XMLUnitException(e);
         }
-        return v.getResult();
+        ValidationResult result = v.getResult();
+        if (o != null && o.shouldCommit()) {
+            o.commit(s.getSystemId(), Linqy.count(result.getProblems()),
+                     Observations.countNodes(s), -1);
+        }
+        return result;
     }
 
     private Schema createSchema() throws SAXException {
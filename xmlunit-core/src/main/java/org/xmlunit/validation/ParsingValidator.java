@@ -20,6 +20,7 @@
 import org.xmlunit.ConfigurationException;
 import org.xmlunit.XMLUnitException;
 import org.xmlunit.util.Convert;
+import org.xmlunit.util.JAXPProviders;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
@@ -60,14 +61,29 @@ public ParsingValidator(String language) {
 
     @Override
     public ValidationResult validateInstance(Source s) {
-        return validateInstance(s, SAXParserFactory.newInstance());
+        JAXPProviders providers = JAXPProviders.getDefault();
+        SAXParser parser = providers.borrowValidatingParser();
+        try {
+            return validateInstance(s, parser);
+        } finally {
+            providers.release(parser);
+        }
     }
 
     ValidationResult validateInstance(Source s, SAXParserFactory factory) {
         try {
             factory.setNamespaceAware(true);
             factory.setValidating(true);
-            SAXParser parser = factory.newSAXParser();
+            return validateInstance(s, factory.newSAXParser());
+        } catch (ParserConfigurationException ex) {
+            throw new ConfigurationException(ex);
+        } catch (SAXException ex) {
+            throw new XMLUnitException(ex);
+        }
+    }
+
+    private ValidationResult validateInstance(Source s, SAXParser parser) {
+        try {
             if (Languages.W3C_XML_SCHEMA_NS_URI.equals(language)) {
                 parser.setProperty(Properties.SCHEMA_LANGUAGE,
                                    Languages.W3C_XML_SCHEMA_NS_URI);
@@ -97,8 +113,6 @@ ValidationResult validateInstance(Source s, SAXParserFactory factory) {
                 }
             }
             return handler.getResult();
-        } catch (ParserConfigurationException ex) {
-            throw new ConfigurationException(ex);
         } catch (SAXNotRecognizedException ex) {
             throw new ConfigurationException(ex);
         } catch (SAXNotSupportedException ex) {
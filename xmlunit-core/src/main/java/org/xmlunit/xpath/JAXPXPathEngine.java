@@ -13,10 +13,17 @@
 */
 package org.xmlunit.xpath;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import javax.xml.namespace.QName;
 import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import org.xmlunit.ConfigurationException;
@@ -28,9 +35,29 @@
 
 /**
  * Simplified access to JAXP's XPath API.
+ *
+ * <p>Compiled expressions are kept in a bounded cache keyed by the
+ * expression and the namespace context in effect when compiling
+ * them.  XPaths are evaluated directly against the node of a {@link
+ * DOMSource}, all other kinds of sources are parsed first.</p>
+ *
+ * <p>As the node of a {@link DOMSource} isn't copied, the nodes
+ * {@link #selectNodes selected} for it belong to the caller's
+ * document and modifying them modifies that document.  The node is
+ * the context node of the XPath, relative paths start there while
+ * absolute paths resolve against its owner document - even if the
+ * node is an element somewhere inside of it.</p>
  */
 public class JAXPXPathEngine implements XPathEngine {
+    /**
+     * Maximum number of compiled expressions kept by each engine.
+     */
+    public static final int EXPRESSION_CACHE_SIZE = 64;
+
     private final XPath xpath;
+    private final Map<List<Object>, XPathExpression> expressions =
+        new ExpressionCache();
+    private Map<String, String> prefix2Uri = Collections.emptyMap();
 
     public JAXPXPathEngine(XPathFactory fac) {
         try {
@@ -54,8 +81,7 @@ public JAXPXPathEngine() {
     public Iterable<Node> selectNodes(String xPath, Source s) {
         try {
             return new IterableNodeList(
-                (NodeList) xpath.evaluate(xPath, Convert.toInputSource(s),
-                                          XPathConstants.NODESET)
+                (NodeList) evaluate(compile(xPath), s, XPathConstants.NODESET)
                                         );
         } catch (XPathExpressionException ex) {
             throw new XMLUnitException(ex);
@@ -67,7 +93,7 @@ public Iterable<Node> selectNodes(String xPath, Source s) {
      */
     public String evaluate(String xPath, Source s) {
         try {
-            return xpath.evaluate(xPath, Convert.toInputSource(s));
+            return (String) evaluate(compile(xPath), s, XPathConstants.STRING);
         } catch (XPathExpressionException ex) {
             throw new XMLUnitException(ex);
         }
@@ -77,7 +103,52 @@ public String evaluate(String xPath, Source s) {
      * {@inheritDoc}
      */
     public void setNamespaceContext(Map<String, String> prefix2Uri) {
-        xpath.setNamespaceContext(Convert.toNamespaceContext(prefix2Uri));
+        synchronized (expressions) {
+            this.prefix2Uri = prefix2Uri == null
+                ? Collections.<String, String>emptyMap()
+                : Collections.unmodifiableMap(new LinkedHashMap<String, String>(prefix2Uri));
+            xpath.setNamespaceContext(Convert.toNamespaceContext(prefix2Uri));
+        }
     }
 
+    private XPathExpression compile(String xPath)
+        throws XPathExpressionException {
+        synchronized (expressions) {
+            List<Object> key = Arrays.<Object>asList(xPath, prefix2Uri);
+            XPathExpression expr = expressions.get(key);
+            if (expr == null) {
+                expr = xpath.compile(xPath);
+                expressions.put(key, expr);
+            }
+            return expr;
+        }
+    }
+
+    private static Object evaluate(XPathExpression expr, Source s,
+                                   QName returnType)
+        throws XPathExpressionException {
+        if (s instanceof DOMSource && ((DOMSource) s).getNode() != null) {
+            return expr.evaluate(((DOMSource) s).getNode(), returnType);
+        }
+        return expr.evaluate(Convert.toInputSource(s), returnType);
+    }
+
+    /**
+     * Evicts the least recently used expression once it holds more
+     * than {@link #EXPRESSION_CACHE_SIZE} expressions.
+     */
+    private static final class ExpressionCache
+        extends LinkedHashMap<List<Object>, XPathExpression> {
+        private static final long serialVersionUID = 1L;
+
+        private ExpressionCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>,
+                                            XPathExpression> eldest) {
+            return size() > EXPRESSION_CACHE_SIZE;
+        }
+    }
 }
@@ -0,0 +1,127 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.builder;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmlunit.XMLUnitException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+
+public class BatchDiffTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void createExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testBatch_shouldCompareAllPairs() throws Exception {
+        // prepare testData
+        List<BatchDiff.Pair> pairs = new ArrayList<BatchDiff.Pair>();
+        for (int i = 0; i < 100; i++) {
+            pairs.add(BatchDiff.pair("<a><b>" + i + "</b></a>", "<a><b>" + (i % 4 == 0 ? -1 : i) + "</b></a>"));
+        }
+
+        // run test
+        BatchDiff batch = DiffBuilder.configure().buildBatch(pairs, executor);
+
+        // validate result
+        Set<Integer> seen = new HashSet<Integer>();
+        for (BatchDiff.Result r : batch) {
+            Assert.assertTrue(seen.add(r.getIndex()));
+            Assert.assertFalse(r.hasFailed());
+            Assert.assertEquals(r.getIndex() % 4 == 0, r.getDiff().hasDifferences());
+        }
+        Assert.assertEquals(100, seen.size());
+        Assert.assertTrue(batch.isDone());
+        BatchDiff.Statistics stats = batch.getStatistics();
+        Assert.assertEquals(100, stats.getCompleted());
+        Assert.assertEquals(25, stats.getWithDifferences());
+        Assert.assertEquals(75, stats.getWithoutDifferences());
+        Assert.assertEquals(0, stats.getFailed());
+    }
+
+    @Test
+    public void testBatch_shouldIsolateFailures() throws Exception {
+        // prepare testData
+        List<BatchDiff.Pair> pairs = new ArrayList<BatchDiff.Pair>();
+        pairs.add(BatchDiff.pair("<a/>", "<a/>"));
+        pairs.add(BatchDiff.pair("<a/>", "<a>"));
+        pairs.add(BatchDiff.pair("<a/>", "<b/>"));
+        final List<BatchDiff.Result> notified =
+            Collections.synchronizedList(new ArrayList<BatchDiff.Result>());
+
+        // run test
+        BatchDiff batch = DiffBuilder.configure().buildConfiguration()
+            .diffAll(pairs, executor, new BatchDiff.Listener() {
+                    @Override
+                    public void diffCompleted(BatchDiff.Result result) {
+                        notified.add(result);
+                    }
+                });
+        batch.await();
+
+        // validate result
+        Assert.assertEquals(3, notified.size());
+        BatchDiff.Statistics stats = batch.getStatistics();
+        Assert.assertEquals(1, stats.getFailed());
+        Assert.assertEquals(1, stats.getWithDifferences());
+        Assert.assertEquals(1, stats.getWithoutDifferences());
+        for (BatchDiff.Result r : batch) {
+            Assert.assertEquals(r.getIndex() == 1, r.hasFailed());
+            if (r.hasFailed()) {
+                Assert.assertNull(r.getDiff());
+                Assert.assertTrue(r.getFailure() instanceof XMLUnitException);
+            }
+        }
+    }
+
+    @Test
+    public void testBatch_shouldRecordRejectedExecutions() {
+        // run test
+        BatchDiff batch = DiffBuilder.configure().buildConfiguration()
+            .diffAll(Collections.singletonList(BatchDiff.pair("<a/>", "<a/>")), new Executor() {
+                    @Override
+                    public void execute(Runnable r) {
+                        throw new java.util.concurrent.RejectedExecutionException();
+                    }
+                });
+
+        // validate result
+        Assert.assertTrue(batch.isDone());
+        Assert.assertTrue(batch.iterator().next().hasFailed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPair_withoutTest_shouldFail() {
+        BatchDiff.pair("<a/>", null);
+    }
+}
@@ -29,6 +29,7 @@
 import org.xmlunit.diff.Difference;
 import org.xmlunit.diff.DifferenceEvaluator;
 import org.xmlunit.diff.DifferenceEvaluators;
+import org.xmlunit.diff.SkippedSubtreeListener;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -37,7 +38,10 @@
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public class DiffBuilderTest {
@@ -75,6 +79,104 @@ public void testDiff_withIgnoreWhitespaces_shouldSucceed() {
 
     }
 
+    @Test
+    public void testDiff_streaming_shouldFindDifferences() {
+        // prepare testData
+        String controlXml = "<a><b>Test Value</b></a>";
+        String testXml = "<a><b>Other Value</b></a>";
+
+        // run test
+        Diff myDiff = DiffBuilder.compare(Input.fromString(controlXml).build())
+                      .withTest(Input.fromString(testXml).build())
+                      .streaming()
+                      .build();
+
+        // validate result
+        Assert.assertTrue(myDiff.toString(), myDiff.hasDifferences());
+    }
+
+    @Test
+    public void testDiff_streamingWithIgnoreWhitespaces_shouldSucceed() {
+        // prepare testData
+        String controlXml = "<a><b>Test Value</b></a>";
+        String testXml = "<a>\n <b>\n  Test Value\n </b>\n</a>";
+
+        // run test
+        Diff myDiff = DiffBuilder.compare(Input.fromString(controlXml).build())
+                      .withTest(Input.fromString(testXml).build())
+                      .ignoreWhitespace()
+                      .streaming(2)
+                      .build();
+
+        // validate result
+        Assert.assertFalse(myDiff.toString(), myDiff.hasDifferences());
+    }
+
+    @Test
+    public void testDiff_skipIdenticalSubtrees_shouldStillFindDifferences() {
+        // prepare testData
+        String controlXml = "<a><b>Test Value</b><c>Test Value</c></a>";
+        String testXml = "<a><b>Test Value</b><c>Other Value</c></a>";
+        final List<String> skipped = new ArrayList<String>();
+
+        // run test
+        Diff myDiff = DiffBuilder.compare(Input.fromString(controlXml).build())
+                      .withTest(Input.fromString(testXml).build())
+                      .skipIdenticalSubtrees()
+                      .withSkippedSubtreeListeners(new SkippedSubtreeListener() {
+                              @Override
+                              public void subtreeSkipped(Node control, String controlXPath,
+                                                         Node test, String testXPath) {
+                                  skipped.add(controlXPath);
+                              }
+                          })
+                      .build();
+
+        // validate result
+        Assert.assertTrue(myDiff.toString(), myDiff.hasDifferences());
+        Assert.assertEquals(Collections.singletonList("/a[1]/b[1]"), skipped);
+    }
+
+    @Test
+    public void testDiff_inParallel_shouldFindSameDifferences() {
+        // prepare testData
+        StringBuilder control = new StringBuilder("<a>");
+        StringBuilder test = new StringBuilder("<a>");
+        for (int i = 0; i < 20; i++) {
+            control.append("<b><c>").append(i).append("</c><d/></b>");
+            test.append("<b><c>").append(i % 5 == 0 ? -i : i).append("</c><d/></b>");
+        }
+        control.append("</a>");
+        test.append("</a>");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // run test
+        Diff sequential = DiffBuilder.compare(Input.fromString(control.toString()).build())
+                      .withTest(Input.fromString(test.toString()).build())
+                      .build();
+        Diff parallel;
+        try {
+            parallel = DiffBuilder.compare(Input.fromString(control.toString()).build())
+                      .withTest(Input.fromString(test.toString()).build())
+                      .inParallel(executor, 3)
+                      .build();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // validate result
+        Assert.assertEquals(3, count(parallel.getDifferences()));
+        Assert.assertEquals(describe(sequential), describe(parallel));
+    }
+
+    private static List<String> describe(Diff diff) {
+        List<String> l = new ArrayList<String>();
+        for (Difference d : diff.getDifferences()) {
+            l.add(d.toString());
+        }
+        return l;
+    }
+
     @Test
     public void testDiff_withoutNormalizeWhitespaces_shouldFail() {
         // prepare testData
@@ -0,0 +1,95 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.builder;
+
+import static org.xmlunit.util.Linqy.count;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlunit.diff.ComparisonControllers;
+import org.xmlunit.diff.Diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class DiffConfigurationTest {
+
+    @Test
+    public void testConfiguration_canBeReused() {
+        // prepare testData
+        DiffConfiguration config = DiffBuilder.configure()
+            .ignoreWhitespace()
+            .checkForSimilar()
+            .buildConfiguration();
+
+        // run test and validate result
+        Assert.assertFalse(config.diff("<a><b>Test</b></a>", "<a>\n <b> Test </b>\n</a>").hasDifferences());
+        Assert.assertTrue(config.diff("<a><b>Test</b></a>", "<a>\n <b> Other </b>\n</a>").hasDifferences());
+        Assert.assertFalse(config.diff("<a><![CDATA[x]]></a>", "<a>x</a>").hasDifferences());
+    }
+
+    @Test
+    public void testConfiguration_isNotAffectedByLaterChangesToBuilder() {
+        // prepare testData
+        DiffBuilder builder = DiffBuilder.configure();
+        DiffConfiguration config = builder.buildConfiguration();
+        builder.ignoreWhitespace().withComparisonController(ComparisonControllers.StopWhenDifferent);
+
+        // run test
+        Diff myDiff = config.diff("<a><b>1</b><c>2</c></a>", "<a> <b>2</b><c>1</c></a>");
+
+        // validate result
+        Assert.assertTrue(count(myDiff.getDifferences()) > 2);
+    }
+
+    @Test
+    public void testConfiguration_canBeUsedConcurrently() throws Exception {
+        // prepare testData
+        final DiffConfiguration config = DiffBuilder.configure()
+            .ignoreWhitespace()
+            .buildConfiguration();
+        final PreparedControl control = config.prepareControl("<a>\n <b>Test</b>\n</a>");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            // run test
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 200; i++) {
+                final String test = i % 2 == 0 ? "<a><b>Test</b></a>" : "<a><b>Test" + i + "</b></a>";
+                results.add(executor.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            return count(config.diff(control, test).getDifferences());
+                        }
+                    }));
+            }
+
+            // validate result
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(i % 2 == 0 ? 0 : 1, results.get(i).get().intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuild_withoutControl_shouldFail() {
+        DiffBuilder.configure().withTest("<a/>").build();
+    }
+}
@@ -16,9 +16,11 @@
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -116,6 +118,45 @@ private static Document parse(Source s) throws Exception {
         allIsWellFor(Input.fromByteArray(readTestFile()).build());
     }
 
+    @Test public void shouldParseRemainingBytesOfBuffer() throws Exception {
+        ByteBuffer b = ByteBuffer.wrap("xx<animal/>".getBytes("UTF-8"));
+        b.position(2);
+        allIsWellFor(Input.fromByteBuffer(b.slice()).build());
+        allIsWellFor(Input.fromByteBuffer(b).build());
+        assertEquals(2, b.position());
+    }
+
+    @Test public void shouldParseDirectByteBuffer() throws Exception {
+        byte[] content = "<animal/>".getBytes("UTF-8");
+        ByteBuffer b = ByteBuffer.allocateDirect(content.length);
+        b.put(content);
+        b.flip();
+        allIsWellFor(Input.fromByteBuffer(b).build());
+        assertEquals(0, b.position());
+    }
+
+    @Test public void shouldParseMappedFile() throws Exception {
+        File f = File.createTempFile("xmlunit", ".xml");
+        try {
+            FileOutputStream out = new FileOutputStream(f);
+            try {
+                out.write("<animal/>".getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            Source s = Input.fromMappedFile(f).build();
+            allIsWellFor(s);
+            assertEquals(f.toURI().toASCIIString(), s.getSystemId());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test(expected = XMLUnitException.class)
+    public void shouldFailForMissingMappedFile() {
+        Input.fromMappedFile(new File("/does/not/exist.xml"));
+    }
+
     @Test public void shouldParseFileFromURIString() throws Exception {
         allIsWellFor(Input.fromURI("file:" + TestResources.ANIMAL_FILE).build());
     }
@@ -209,8 +250,25 @@ public void shouldRejectNonURLsURIVersion() throws Exception {
 
     @Test(expected = XMLUnitException.class)
     public void shouldTranslateIOException() throws Exception {
-        // openStream throws an IOException
-        Input.fromURL(new URL("mailto:info@example.org"));
+        // openStream throws an IOException when parsing
+        Convert.toDocument(Input.fromURL(new URL("mailto:info@example.org")).build());
+    }
+
+    @Test public void shouldOpenURLOnlyWhenParsing() throws Exception {
+        File f = File.createTempFile("xmlunit", ".xml");
+        f.delete();
+        Source s = Input.fromURL(f.toURI().toURL()).build();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write("<animal/>".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        try {
+            allIsWellFor(s);
+        } finally {
+            f.delete();
+        }
     }
 
     @Test
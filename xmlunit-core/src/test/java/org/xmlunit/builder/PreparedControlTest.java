@@ -0,0 +1,144 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.builder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.transform.dom.DOMSource;
+import org.junit.Test;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.diff.SkippedSubtreeListener;
+
+import static org.junit.Assert.*;
+
+public class PreparedControlTest {
+
+    private static final String CONTROL =
+        "<?xml version='1.0' encoding='UTF-8' standalone='yes'?>"
+        + "<a>\n  <b>Test Value</b>\n  <!-- comment -->\n  <c>Other</c>\n</a>";
+
+    @Test
+    public void preprocessesControlOnce() {
+        PreparedControl control = DiffBuilder.compare(Input.fromString(CONTROL).build())
+            .ignoreWhitespace().ignoreComments().prepareControl();
+
+        Diff same = DiffBuilder.compare(control)
+            .withTest(Input.fromString("<?xml version='1.0' encoding='UTF-8' standalone='yes'?>"
+                                       + "<a><b> Test Value </b><c>Other</c></a>").build())
+            .build();
+        assertFalse(same.toString(), same.hasDifferences());
+
+        Diff different = DiffBuilder.compare(control)
+            .withTest(Input.fromString("<?xml version='1.0' encoding='UTF-8' standalone='yes'?>"
+                                       + "<a><b>Test Value</b><c>Another</c></a>").build())
+            .build();
+        assertTrue(different.hasDifferences());
+    }
+
+    @Test
+    public void preservesXmlDeclarationOfControl() {
+        PreparedControl control = DiffBuilder.compare(Input.fromString(CONTROL).build())
+            .prepareControl();
+        Diff myDiff = DiffBuilder.compare(control)
+            .withTest(Input.fromString(CONTROL).build())
+            .build();
+        assertFalse(myDiff.toString(), myDiff.hasDifferences());
+    }
+
+    @Test
+    public void allThreadsShareOneReadOnlyDocument() throws Exception {
+        final PreparedControl control = DiffBuilder.compare(Input.fromString(CONTROL).build())
+            .prepareControl();
+        Node mine = ((DOMSource) control.getSource()).getNode();
+        assertSame(mine, ((DOMSource) control.getSource()).getNode());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Node other = executor.submit(new Callable<Node>() {
+                    @Override
+                    public Node call() {
+                        return ((DOMSource) control.getSource()).getNode();
+                    }
+                }).get();
+            assertSame(mine, other);
+        } finally {
+            executor.shutdownNow();
+        }
+        try {
+            mine.getFirstChild().appendChild(((Document) mine).createElement("x"));
+            fail("expected an exception");
+        } catch (DOMException ex) {
+            assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+        }
+    }
+
+    @Test
+    public void canBeSharedBetweenThreads() throws Exception {
+        final PreparedControl control = DiffBuilder.compare(Input.fromString(CONTROL).build())
+            .ignoreWhitespace().ignoreComments().prepareControl();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 200; i++) {
+                final boolean different = i % 3 == 0;
+                results.add(executor.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return DiffBuilder.compare(control)
+                                .withTest("<a><b>Test Value</b><c>"
+                                          + (different ? "x" : "Other") + "</c></a>")
+                                .checkForSimilar()
+                                .skipIdenticalSubtrees()
+                                .build()
+                                .hasDifferences() == different;
+                        }
+                    }));
+            }
+            for (Future<Boolean> f : results) {
+                assertTrue(f.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void usesCachedFingerprintsWhenSkipping() {
+        PreparedControl control = DiffBuilder.compare(Input.fromString(CONTROL).build())
+            .ignoreWhitespace().ignoreComments().prepareControl();
+        final List<String> skipped = new ArrayList<String>();
+        for (int i = 0; i < 2; i++) {
+            DiffBuilder.compare(control)
+                .withTest(Input.fromString("<a><b>Test Value</b><c>x</c></a>").build())
+                .skipIdenticalSubtrees()
+                .withSkippedSubtreeListeners(new SkippedSubtreeListener() {
+                        @Override
+                        public void subtreeSkipped(Node control, String controlXPath,
+                                                   Node test, String testXPath) {
+                            skipped.add(controlXPath);
+                        }
+                    })
+                .build();
+        }
+        assertEquals(2, skipped.size());
+        assertEquals("/a[1]/b[1]", skipped.get(0));
+    }
+}
@@ -0,0 +1,226 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.List;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xmlunit.builder.DiffBuilder;
+
+import static org.junit.Assert.*;
+
+public class CallbackProfilerTest {
+
+    private static final String CONTROL = "<a><b>1</b><c/></a>";
+    private static final String TEST = "<a><c/><b>2</b></a>";
+
+    @Test public void measuresMembersOfChainAndFirst() {
+        CountingEvaluator e1 = new CountingEvaluator();
+        CountingEvaluator e2 = new CountingEvaluator();
+        CountingEvaluator e3 = new CountingEvaluator();
+        CallbackProfiler p = new CallbackProfiler();
+        Diff d = DiffBuilder.compare(CONTROL).withTest(TEST)
+            .withDifferenceEvaluator(DifferenceEvaluators
+                                     .chain(DifferenceEvaluators.Default,
+                                            DifferenceEvaluators.first(e1, e2), e3))
+            .withCallbackProfiler(p)
+            .build();
+        assertTrue(d.hasDifferences());
+        List<CallbackProfiler.Entry> entries = p.getEntries();
+        assertEquals(4, entries.size());
+        // e1 always returns the outcome unchanged, so e2 is consulted as well
+        assertEquals(e1.count, entry(p, e1).getInvocations());
+        assertEquals(e1.count, entry(p, e2).getInvocations());
+        assertEquals(e1.count, e2.count);
+        assertEquals(e3.count, entry(p, e3).getInvocations());
+        assertEquals(e3.count, entry(p, DifferenceEvaluators.Default).getInvocations());
+        assertTrue(e1.count > 0);
+        for (CallbackProfiler.Entry e : entries) {
+            assertEquals(CallbackProfiler.Kind.DIFFERENCE_EVALUATOR, e.getKind());
+        }
+    }
+
+    @Test public void measuresMembersOfOrAndAnd() {
+        ElementSelector byName = ElementSelectors.byName;
+        ElementSelector byText = ElementSelectors.byNameAndText;
+        ElementSelector never = new ElementSelector() {
+                @Override
+                public boolean canBeCompared(Element control, Element test) {
+                    return false;
+                }
+            };
+        CallbackProfiler p = new CallbackProfiler();
+        DiffBuilder.compare(CONTROL).withTest(TEST)
+            .withNodeMatcher(new DefaultNodeMatcher(ElementSelectors
+                                                    .or(ElementSelectors.and(never, byText),
+                                                        byName)))
+            .withCallbackProfiler(p)
+            .build();
+        assertTrue(entry(p, never).getInvocations() > 0);
+        // and stops at the first selector that fails
+        assertEquals(0, entry(p, byText).getInvocations());
+        assertTrue(entry(p, byName).getInvocations() > 0);
+        assertEquals(CallbackProfiler.Kind.ELEMENT_SELECTOR, entry(p, byName).getKind());
+    }
+
+    @Test public void keepsKeyedSelectorsKeyed() {
+        CallbackProfiler p = new CallbackProfiler();
+        NodeMatcher m = p.wrap(new KeyedNodeMatcher());
+        assertTrue(m instanceof KeyedNodeMatcher);
+        assertTrue(((KeyedNodeMatcher) m).getElementSelector() instanceof KeyedElementSelector);
+        Diff d = DiffBuilder.compare(CONTROL).withTest(TEST)
+            .withNodeMatcher(new KeyedNodeMatcher())
+            .withCallbackProfiler(p)
+            .build();
+        assertTrue(d.hasDifferences());
+        assertTrue(entry(p, ElementSelectors.byName).getInvocations() > 0);
+    }
+
+    @Test public void wrapsOtherMatchersAsAWhole() {
+        NodeMatcher m = new DefaultNodeMatcher() { };
+        CallbackProfiler p = new CallbackProfiler();
+        DiffBuilder.compare(CONTROL).withTest(TEST)
+            .withNodeMatcher(m)
+            .withCallbackProfiler(p)
+            .build();
+        assertEquals(CallbackProfiler.Kind.NODE_MATCHER, entry(p, m).getKind());
+        assertTrue(entry(p, m).getInvocations() > 0);
+    }
+
+    @Test public void measuresListeners() {
+        final int[] comparisons = new int[1];
+        ComparisonListener c = new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison,
+                                                ComparisonResult outcome) {
+                    comparisons[0]++;
+                }
+            };
+        ComparisonListener diff = new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison,
+                                                ComparisonResult outcome) {
+                }
+            };
+        SkippedSubtreeListener s = new SkippedSubtreeListener() {
+                @Override
+                public void subtreeSkipped(Node control, String controlXPath,
+                                           Node test, String testXPath) {
+                }
+            };
+        CallbackProfiler p = new CallbackProfiler();
+        Diff d = DiffBuilder.compare("<a><b><x/></b><d>1</d></a>")
+            .withTest("<a><b><x/></b><d>2</d></a>")
+            .skipIdenticalSubtrees()
+            .withComparisonListeners(c)
+            .withDifferenceListeners(diff)
+            .withSkippedSubtreeListeners(s)
+            .withCallbackProfiler(p)
+            .build();
+        assertEquals(comparisons[0], entry(p, c).getInvocations());
+        assertEquals(1, entry(p, diff).getInvocations());
+        assertEquals(CallbackProfiler.Kind.COMPARISON_LISTENER, entry(p, diff).getKind());
+        assertEquals(1, entry(p, s).getInvocations());
+        assertEquals(CallbackProfiler.Kind.SKIPPED_SUBTREE_LISTENER, entry(p, s).getKind());
+        assertTrue(d.hasDifferences());
+    }
+
+    @Test public void ranksByTimeTaken() {
+        DifferenceEvaluator slow = new DifferenceEvaluator() {
+                @Override
+                public ComparisonResult evaluate(Comparison comparison,
+                                                 ComparisonResult outcome) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return outcome;
+                }
+                @Override
+                public String toString() {
+                    return "slow";
+                }
+            };
+        CallbackProfiler p = new CallbackProfiler();
+        DiffBuilder.compare(CONTROL).withTest(TEST)
+            .withDifferenceEvaluator(DifferenceEvaluators
+                                     .chain(DifferenceEvaluators.Default, slow))
+            .withCallbackProfiler(p)
+            .build();
+        List<CallbackProfiler.Entry> entries = p.getEntries();
+        assertSame(slow, entries.get(0).getCallback());
+        assertTrue(entries.get(0).getAverageNanos() >= 1000000);
+        String report = p.getReport();
+        assertTrue(report, report.split("\n")[1].trim().startsWith("1 "));
+        assertTrue(report, report.split("\n")[1].endsWith("slow"));
+
+        p.reset();
+        assertEquals(0, entries.get(0).getInvocations());
+        assertEquals(0, entries.get(0).getNanos());
+    }
+
+    @Test public void accumulatesAcrossComparisons() {
+        CountingEvaluator e = new CountingEvaluator();
+        CallbackProfiler p = new CallbackProfiler();
+        for (int i = 0; i < 2; i++) {
+            DiffBuilder.compare(CONTROL).withTest(TEST)
+                .withDifferenceEvaluator(e)
+                .withCallbackProfiler(p)
+                .build();
+        }
+        assertEquals(1, p.getEntries().size());
+        assertEquals(e.count, entry(p, e).getInvocations());
+    }
+
+    @Test public void callbacksAreInvokedDirectlyWithoutProfiler() {
+        CountingEvaluator e = new CountingEvaluator();
+        CallbackProfiler p = new CallbackProfiler();
+        DiffBuilder.compare(CONTROL).withTest(TEST)
+            .withDifferenceEvaluator(e)
+            .build();
+        assertTrue(e.count > 0);
+        assertTrue(p.getEntries().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantUseNullProfiler() {
+        DiffBuilder.compare(CONTROL).withCallbackProfiler(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantWrapNull() {
+        new CallbackProfiler().wrap((DifferenceEvaluator) null);
+    }
+
+    private static CallbackProfiler.Entry entry(CallbackProfiler p, Object callback) {
+        for (CallbackProfiler.Entry e : p.getEntries()) {
+            if (e.getCallback() == callback) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private static class CountingEvaluator implements DifferenceEvaluator {
+        private int count;
+        @Override
+        public ComparisonResult evaluate(Comparison comparison,
+                                         ComparisonResult outcome) {
+            count++;
+            return outcome;
+        }
+    }
+}
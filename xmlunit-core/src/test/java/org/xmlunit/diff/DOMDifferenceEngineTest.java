@@ -13,6 +13,11 @@
 */
 package org.xmlunit.diff;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.dom.DOMSource;
 import org.xmlunit.NullNode;
@@ -916,6 +921,238 @@ public void shouldDetectCommentInPrelude() {
                                     d2, new XPathContext()));
     }
 
+    @Test public void skipsIdenticalSubtrees() {
+        final List<String> skipped = new ArrayList<String>();
+        final List<String> compared = new ArrayList<String>();
+        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        d.setSubtreeFingerprinter(SubtreeFingerprinter.WITH_PREFIXES);
+        d.addSkippedSubtreeListener(new SkippedSubtreeListener() {
+                @Override
+                public void subtreeSkipped(Node control, String controlXPath,
+                                           Node test, String testXPath) {
+                    skipped.add(controlXPath);
+                }
+            });
+        d.addComparisonListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison,
+                                                ComparisonResult outcome) {
+                    compared.add(comparison.getControlDetails().getXPath());
+                }
+            });
+        DiffExpecter ex = new DiffExpecter(ComparisonType.TEXT_VALUE,
+                                           "/a[1]/c[1]/text()[1]",
+                                           "/a[1]/c[1]/text()[1]");
+        d.addDifferenceListener(ex);
+        d.compare(Input.fromString("<a><b x='1'><d/>foo</b><c>bar</c></a>").build(),
+                  Input.fromString("<a><b x='1'><d/>foo</b><c>baz</c></a>").build());
+        assertEquals(1, ex.invoked);
+        assertEquals(Arrays.asList("/a[1]/b[1]"), skipped);
+        assertFalse(compared.contains("/a[1]/b[1]/d[1]"));
+    }
+
+    @Test public void doesntSkipSubtreesWithDifferentPrefixesUnlessTold() {
+        String control = "<a><x:b xmlns:x='urn:x'/></a>";
+        String test = "<a><y:b xmlns:y='urn:x'/></a>";
+        assertEquals(1, countPrefixDifferences(SubtreeFingerprinter.WITH_PREFIXES,
+                                               control, test));
+        assertEquals(0, countPrefixDifferences(SubtreeFingerprinter.IGNORING_PREFIXES,
+                                               control, test));
+    }
+
+    private static int countPrefixDifferences(SubtreeFingerprinter f,
+                                              String control, String test) {
+        final List<Comparison> prefixDifferences = new ArrayList<Comparison>();
+        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        d.setSubtreeFingerprinter(f);
+        d.addDifferenceListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison,
+                                                ComparisonResult outcome) {
+                    if (comparison.getType() == ComparisonType.NAMESPACE_PREFIX) {
+                        prefixDifferences.add(comparison);
+                    }
+                }
+            });
+        d.compare(Input.fromString(control).build(),
+                  Input.fromString(test).build());
+        return prefixDifferences.size();
+    }
+
+    @Test public void parallelComparisonNotifiesListenersInDocumentOrder() {
+        String control = largeDocument(null);
+        String test = largeDocument("x");
+        assertEquals(record(control, test, ComparisonControllers.Default, false),
+                     record(control, test, ComparisonControllers.Default, true));
+    }
+
+    @Test public void parallelComparisonStopsAtSameDifference() {
+        String control = largeDocument(null);
+        String test = largeDocument("x");
+        List<String> sequential =
+            record(control, test, ComparisonControllers.StopWhenDifferent, false);
+        assertEquals(sequential,
+                     record(control, test, ComparisonControllers.StopWhenDifferent,
+                            true));
+        assertTrue(sequential.get(sequential.size() - 1).endsWith("DIFFERENT"));
+    }
+
+    @Test public void parallelComparisonReplaysSkippedSubtrees() {
+        String control = largeDocument(null);
+        String test = largeDocument("x");
+        List<String> sequential =
+            record(control, test, ComparisonControllers.Default, false,
+                   SubtreeFingerprinter.WITH_PREFIXES);
+        assertTrue(sequential.toString().contains("skipped"));
+        assertEquals(sequential,
+                     record(control, test, ComparisonControllers.Default, true,
+                            SubtreeFingerprinter.WITH_PREFIXES));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantSetNonPositiveParallelThreshold() {
+        new DOMDifferenceEngine().setParallelThreshold(0);
+    }
+
+    @Test public void deeplyNestedDocumentsDontOverflowTheStack() throws Exception {
+        final int depth = 2000;
+        final Document d1 = deepDocument(depth, "foo");
+        final Document d2 = deepDocument(depth, "bar");
+        final DiffExpecter ex = new DiffExpecter(ComparisonType.TEXT_VALUE);
+        final List<Object> result = new ArrayList<Object>();
+        final Throwable[] failure = new Throwable[1];
+        // a stack this small would overflow with one level of
+        // recursion per level of the documents
+        Thread t = new Thread(null, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        DOMDifferenceEngine d = new DOMDifferenceEngine();
+                        d.addDifferenceListener(ex);
+                        d.setComparisonController(ComparisonControllers.StopWhenDifferent);
+                        result.add(d.compareNodes(d1, new XPathContext(),
+                                                  d2, new XPathContext()));
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            }, "deep", 128 * 1024);
+        t.start();
+        t.join();
+        assertNull(failure[0]);
+        assertEquals(1, ex.invoked);
+        assertEquals(wrapAndStop(ComparisonResult.DIFFERENT), result.get(0));
+    }
+
+    @Test public void deeplyNestedDocumentsDontOverflowTheStackInParallel() throws Exception {
+        final int depth = 2000;
+        final Document d1 = deepDocument(depth, "foo");
+        final Document d2 = deepDocument(depth, "bar");
+        final DiffExpecter ex = new DiffExpecter(ComparisonType.TEXT_VALUE);
+        final Throwable[] failure = new Throwable[1];
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        Thread t = new Thread(null, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        DOMDifferenceEngine d = new DOMDifferenceEngine();
+                        d.addDifferenceListener(ex);
+                        d.setExecutor(executor);
+                        d.setParallelThreshold(10);
+                        d.compare(new DOMSource(d1), new DOMSource(d2));
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            }, "deep", 128 * 1024);
+        try {
+            t.start();
+            t.join();
+        } finally {
+            executor.shutdownNow();
+        }
+        assertNull(failure[0]);
+        assertEquals(1, ex.invoked);
+    }
+
+    private static Document deepDocument(int depth, String text) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .newDocument();
+        Node parent = doc;
+        for (int i = 0; i < depth; i++) {
+            parent = parent.appendChild(doc.createElement("e"));
+        }
+        parent.appendChild(doc.createTextNode(text));
+        return doc;
+    }
+
+    /**
+     * Creates a document with several subtrees of different sizes,
+     * some of them differ in an attribute value if a marker is
+     * given.
+     */
+    private static String largeDocument(String marker) {
+        StringBuilder sb = new StringBuilder("<root>");
+        for (int i = 0; i < 12; i++) {
+            sb.append("<section id='").append(i).append("'>");
+            for (int j = 0; j < 3 * i; j++) {
+                sb.append("<item n='").append(j);
+                if (marker != null && (i + j) % 7 == 0) {
+                    sb.append(marker);
+                }
+                sb.append("'><name>item").append(j).append("</name>")
+                    .append("<list><v>1</v><v>2</v></list></item>");
+            }
+            sb.append("text").append(i).append("</section>");
+        }
+        return sb.append("</root>").toString();
+    }
+
+    private static List<String> record(String control, String test,
+                                       ComparisonController controller,
+                                       boolean parallel) {
+        return record(control, test, controller, parallel, null);
+    }
+
+    private static List<String> record(String control, String test,
+                                       ComparisonController controller,
+                                       boolean parallel,
+                                       SubtreeFingerprinter fingerprinter) {
+        final List<String> events = new ArrayList<String>();
+        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        d.setComparisonController(controller);
+        d.setSubtreeFingerprinter(fingerprinter);
+        d.addComparisonListener(new ComparisonListener() {
+                @Override
+                public void comparisonPerformed(Comparison comparison,
+                                                ComparisonResult outcome) {
+                    events.add(comparison.getType() + " "
+                               + comparison.getControlDetails().getXPath() + " "
+                               + comparison.getTestDetails().getXPath() + " "
+                               + outcome);
+                }
+            });
+        d.addSkippedSubtreeListener(new SkippedSubtreeListener() {
+                @Override
+                public void subtreeSkipped(Node c, String controlXPath,
+                                           Node t, String testXPath) {
+                    events.add("skipped " + controlXPath + " " + testXPath);
+                }
+            });
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            if (parallel) {
+                d.setExecutor(executor);
+                d.setParallelThreshold(10);
+            }
+            d.compare(Input.fromString(control).build(),
+                      Input.fromString(test).build());
+        } finally {
+            executor.shutdownNow();
+        }
+        return events;
+    }
+
     private Document documentForString(String s) {
         return Convert.toDocument(Input.fromString(s).build());
     }
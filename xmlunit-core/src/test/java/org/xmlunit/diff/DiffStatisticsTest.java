@@ -0,0 +1,176 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import org.w3c.dom.Node;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+
+import static org.junit.Assert.*;
+
+public class DiffStatisticsTest {
+
+    private static final String CONTROL =
+        "<a><b>1</b><c x='1'/><!-- c --></a>";
+    private static final String TEST =
+        "<a><b>2</b><c x='1'/><d/></a>";
+
+    @Test public void isNotCollectedByDefault() {
+        Diff d = DiffBuilder.compare(CONTROL).withTest(TEST).build();
+        assertNull(d.getStatistics());
+    }
+
+    @Test public void countsComparisonsAndNodes() {
+        Diff d = DiffBuilder.compare(CONTROL).withTest(TEST)
+            .collectStatistics().build();
+        DiffStatistics s = d.getStatistics();
+        assertNotNull(s);
+        assertEquals(1, s.getComparisons(ComparisonType.TEXT_VALUE));
+        assertEquals(1, s.getComparisons(ComparisonType.ATTR_VALUE));
+        assertEquals(2, s.getComparisons(ComparisonType.CHILD_LOOKUP));
+        // document, a, b, text, c and the attribute plus one unmatched node
+        assertEquals(7, s.getControlNodesVisited());
+        assertEquals(7, s.getTestNodesVisited());
+        assertEquals(s.getControlNodesVisited() - 1,
+                     s.getComparisons(ComparisonType.NODE_TYPE));
+        assertTrue(s.getMatcherCandidateChecks() > 0);
+        assertEquals(0, s.getSkippedSubtrees());
+    }
+
+    @Test public void measuresPhases() {
+        Diff d = DiffBuilder.compare(CONTROL).withTest(TEST).ignoreComments()
+            .collectStatistics().build();
+        DiffStatistics s = d.getStatistics();
+        assertTrue(s.getNanos(DiffStatistics.Phase.PARSE) > 0);
+        assertTrue(s.getNanos(DiffStatistics.Phase.PREPROCESS) > 0);
+        assertTrue(s.getNanos(DiffStatistics.Phase.COMPARE) > 0);
+        assertTrue(s.getNanos(DiffStatistics.Phase.COMPARE)
+                   >= s.getNanos(DiffStatistics.Phase.MATCH)
+                   + s.getNanos(DiffStatistics.Phase.EVALUATE)
+                   + s.getNanos(DiffStatistics.Phase.LISTENERS));
+        if (DiffStatistics.isAllocationTrackingSupported()) {
+            assertTrue(s.getAllocatedBytes(DiffStatistics.Phase.PARSE) > 0);
+        } else {
+            assertEquals(-1, s.getAllocatedBytes(DiffStatistics.Phase.PARSE));
+        }
+    }
+
+    @Test public void countsSkippedSubtrees() {
+        Diff d = DiffBuilder.compare("<a><b><c/></b><d>1</d></a>")
+            .withTest("<a><b><c/></b><d>2</d></a>")
+            .skipIdenticalSubtrees().collectStatistics().build();
+        assertEquals(1, d.getStatistics().getSkippedSubtrees());
+    }
+
+    @Test public void keyedMatcherReportsLookups() {
+        Diff d = DiffBuilder.compare(CONTROL).withTest(TEST)
+            .withNodeMatcher(new KeyedNodeMatcher())
+            .collectStatistics().build();
+        assertTrue(d.getStatistics().getMatcherCandidateChecks() > 0);
+    }
+
+    @Test public void subclassesOfMatchersReportChecks() {
+        Diff d = DiffBuilder.compare(CONTROL).withTest(TEST)
+            .withNodeMatcher(new DefaultNodeMatcher() { })
+            .collectStatistics().build();
+        assertTrue(d.getStatistics().getMatcherCandidateChecks() > 0);
+        d = DiffBuilder.compare(CONTROL).withTest(TEST)
+            .withNodeMatcher(new KeyedNodeMatcher() { })
+            .collectStatistics().build();
+        assertTrue(d.getStatistics().getMatcherCandidateChecks() > 0);
+    }
+
+    @Test public void overriddenMatchIsUsed() {
+        final int[] calls = new int[1];
+        Diff d = DiffBuilder.compare(CONTROL).withTest(TEST)
+            .withNodeMatcher(new DefaultNodeMatcher() {
+                    @Override
+                    public Iterable<Map.Entry<Node, Node>> match(Iterable<Node> controlNodes,
+                                                                 Iterable<Node> testNodes) {
+                        calls[0]++;
+                        return super.match(controlNodes, testNodes);
+                    }
+                })
+            .collectStatistics().build();
+        assertTrue(calls[0] > 0);
+        assertEquals(0, d.getStatistics().getMatcherCandidateChecks());
+    }
+
+    @Test public void parallelComparisonCollectsSameCounts() throws Exception {
+        StringBuilder sb = new StringBuilder("<root>");
+        for (int i = 0; i < 4; i++) {
+            sb.append("<part>");
+            for (int j = 0; j < 20; j++) {
+                sb.append("<e id='").append(j).append("'>").append(i * j)
+                    .append("</e>");
+            }
+            sb.append("</part>");
+        }
+        String control = sb.append("</root>").toString();
+        String test = control.replace(">6<", ">7<");
+
+        DiffStatistics sequential = compare(control, test, null);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        DiffStatistics parallel;
+        try {
+            parallel = compare(control, test, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(sequential.getComparisons(), parallel.getComparisons());
+        assertEquals(sequential.getControlNodesVisited(),
+                     parallel.getControlNodesVisited());
+        assertEquals(sequential.getMatcherCandidateChecks(),
+                     parallel.getMatcherCandidateChecks());
+    }
+
+    @Test public void canBeAddedAndExported() {
+        DiffStatistics total = new DiffStatistics();
+        for (int i = 0; i < 2; i++) {
+            total.add(DiffBuilder.compare(CONTROL).withTest(TEST)
+                      .collectStatistics().build().getStatistics());
+        }
+        assertEquals(2, total.getComparisons(ComparisonType.TEXT_VALUE));
+        Map<String, Long> m = total.toMap();
+        assertEquals(Long.valueOf(14), m.get("nodes.control"));
+        assertEquals(Long.valueOf(2), m.get("comparisons.TEXT_VALUE"));
+        assertFalse(m.containsKey("comparisons.DOCTYPE_NAME"));
+        assertTrue(m.containsKey("parse.nanos"));
+        assertEquals(DiffStatistics.isAllocationTrackingSupported(),
+                     m.containsKey("parse.allocatedBytes"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantAddNull() {
+        new DiffStatistics().add(null);
+    }
+
+    private static DiffStatistics compare(String control, String test,
+                                          ExecutorService executor) {
+        DOMDifferenceEngine d = new DOMDifferenceEngine();
+        DiffStatistics s = new DiffStatistics();
+        d.setStatistics(s);
+        if (executor != null) {
+            d.setExecutor(executor);
+            d.setParallelThreshold(10);
+        }
+        d.compare(Input.fromString(control).build(),
+                  Input.fromString(test).build());
+        return s;
+    }
+}
@@ -17,6 +17,7 @@
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
 import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.CDATASection;
@@ -24,8 +25,13 @@
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
+import org.xmlunit.builder.Input;
+import org.xmlunit.util.Convert;
 import org.xmlunit.util.IsNullPredicate;
+import org.xmlunit.util.Linqy;
+import org.xmlunit.util.NodeCache;
 import org.xmlunit.util.Predicate;
+import org.xmlunit.xpath.JAXPXPathEngine;
 
 import static org.junit.Assert.*;
 
@@ -443,6 +449,62 @@ public void xpath() {
                     .canBeCompared(control, test2));
     }
 
+    @Test
+    public void xpathIsEvaluatedInContextOfElement() {
+        Document control = Convert.toDocument(Input.fromString(
+            "<r><e><v>1</v></e><e><v>2</v></e></r>").build());
+        Document test = Convert.toDocument(Input.fromString(
+            "<r><e><v>2</v></e><e><v>1</v></e></r>").build());
+        Element c1 = (Element) control.getElementsByTagName("e").item(0);
+        Element t1 = (Element) test.getElementsByTagName("e").item(0);
+        Element t2 = (Element) test.getElementsByTagName("e").item(1);
+
+        // relative paths start at the element itself
+        ElementSelector relative =
+            ElementSelectors.byXPath("./v", ElementSelectors.byNameAndText);
+        assertFalse(relative.canBeCompared(c1, t1));
+        assertTrue(relative.canBeCompared(c1, t2));
+
+        // absolute paths select from the whole document
+        ElementSelector absolute =
+            ElementSelectors.byXPath("/r/e/v", ElementSelectors.byNameAndText);
+        assertTrue(absolute.canBeCompared(c1, t1));
+        ElementSelector fromElement =
+            ElementSelectors.byXPath("/e/v", ElementSelectors.byNameAndText);
+        assertTrue(fromElement.canBeCompared(c1, t1));
+        assertEquals(0, Linqy.count(new JAXPXPathEngine()
+                                    .selectNodes("/e/v", new DOMSource(c1))));
+    }
+
+    @Test
+    public void memoizedXPath() {
+        Element control = doc.createElement(FOO);
+        Element bar = doc.createElement(BAR);
+        control.appendChild(bar);
+        bar.appendChild(doc.createElement(BAR));
+        Element test = doc.createElement(FOO);
+        bar = doc.createElement(BAR);
+        test.appendChild(bar);
+        Element child = doc.createElement(BAR);
+        bar.appendChild(child);
+
+        String xpath = ".//" + BAR + "/" + BAR;
+        ElementSelector es =
+            ElementSelectors.byXPathMemoized(xpath, ElementSelectors.byName);
+        NodeCache cache = NodeCache.begin();
+        try {
+            assertTrue(es.canBeCompared(control, test));
+            bar.removeChild(child);
+            // the children selected before are used
+            assertTrue(es.canBeCompared(control, test));
+            assertFalse(ElementSelectors.byXPath(xpath, ElementSelectors.byName)
+                        .canBeCompared(control, test));
+        } finally {
+            cache.end();
+        }
+        assertFalse(es.canBeCompared(control, test));
+    }
+
     @Test
     public void conditionalBuilder() {
         Element control = doc.createElement(FOO);
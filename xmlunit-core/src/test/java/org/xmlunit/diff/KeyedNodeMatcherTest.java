@@ -0,0 +1,164 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import static org.junit.Assert.*;
+
+public class KeyedNodeMatcherTest {
+
+    private Document doc;
+
+    @Before public void createDoc() throws Exception {
+        doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .newDocument();
+    }
+
+    @Test public void searchesAfterLastMatchFirst() {
+        Element a1 = element("a", "1");
+        Element b1 = element("b", "1");
+        Element a2 = element("a", "2");
+        Element b2 = element("b", "2");
+        // b matches the b after the first a rather than the first b
+        List<Node> control = Arrays.<Node>asList(element("a", "x"),
+                                                 element("b", "x"));
+        List<Node> test = Arrays.<Node>asList(b1, a1, b2, a2);
+        Iterator<Map.Entry<Node, Node>> matches =
+            new KeyedNodeMatcher(ElementSelectors.byName).match(control, test)
+            .iterator();
+        assertSame(a1, matches.next().getValue());
+        assertSame(b2, matches.next().getValue());
+        assertFalse(matches.hasNext());
+    }
+
+    @Test public void matchesNonElementsByNodeType() {
+        Node text = doc.createTextNode("foo");
+        Node cdata = doc.createCDATASection("bar");
+        Node comment = doc.createComment("baz");
+        Iterator<Map.Entry<Node, Node>> matches =
+            new KeyedNodeMatcher().match(Arrays.asList(comment, cdata),
+                                         Arrays.asList(text, comment))
+            .iterator();
+        Map.Entry<Node, Node> m = matches.next();
+        assertSame(comment, m.getKey());
+        assertSame(comment, m.getValue());
+        m = matches.next();
+        assertSame(cdata, m.getKey());
+        assertSame(text, m.getValue());
+        assertFalse(matches.hasNext());
+    }
+
+    @Test public void findsSameMatchesAsPairwiseSearch() {
+        Random r = new Random(42);
+        List<KeyedElementSelector> selectors =
+            Arrays.asList(ElementSelectors.byName,
+                          ElementSelectors.byNameAndText,
+                          ElementSelectors.byNameAndAttributes("id"),
+                          ElementSelectors.byNameAndAllAttributes);
+        for (int run = 0; run < 50; run++) {
+            List<Node> control = randomNodes(r);
+            List<Node> test = randomNodes(r);
+            for (KeyedElementSelector s : selectors) {
+                assertEquals(naiveMatch(s, control, test),
+                             asList(new KeyedNodeMatcher(s).match(control,
+                                                                  test)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantCreateMatcherWithNullSelector() {
+        new KeyedNodeMatcher(null);
+    }
+
+    private Element element(String name, String text) {
+        Element e = doc.createElement(name);
+        e.appendChild(doc.createTextNode(text));
+        return e;
+    }
+
+    private List<Node> randomNodes(Random r) {
+        List<Node> l = new ArrayList<Node>();
+        final int count = r.nextInt(30);
+        for (int i = 0; i < count; i++) {
+            switch (r.nextInt(5)) {
+            case 0:
+                l.add(doc.createTextNode("t" + r.nextInt(3)));
+                break;
+            case 1:
+                l.add(doc.createComment("c"));
+                break;
+            default:
+                Element e = element("e" + r.nextInt(3), "" + r.nextInt(2));
+                if (r.nextBoolean()) {
+                    e.setAttribute("id", "" + r.nextInt(3));
+                }
+                l.add(e);
+                break;
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Compares each control node to all remaining test nodes,
+     * starting after the last match.
+     */
+    private static List<Map.Entry<Node, Node>> naiveMatch(ElementSelector s,
+                                                          List<Node> control,
+                                                          List<Node> test) {
+        DefaultNodeMatcher.NodeTypeMatcher ntm =
+            new DefaultNodeMatcher.DefaultNodeTypeMatcher();
+        Map<Node, Node> matches = new LinkedHashMap<Node, Node>();
+        boolean[] matched = new boolean[test.size()];
+        int last = -1;
+        for (Node c : control) {
+            for (int j = 0; j < test.size(); j++) {
+                int i = (last + 1 + j) % test.size();
+                Node t = test.get(i);
+                boolean canBeCompared = c instanceof Element && t instanceof Element
+                    ? s.canBeCompared((Element) c, (Element) t)
+                    : ntm.canBeCompared(c.getNodeType(), t.getNodeType());
+                if (!matched[i] && canBeCompared) {
+                    matched[i] = true;
+                    matches.put(c, t);
+                    last = i;
+                    break;
+                }
+            }
+        }
+        return asList(matches.entrySet());
+    }
+
+    private static List<Map.Entry<Node, Node>> asList(Iterable<Map.Entry<Node, Node>> i) {
+        List<Map.Entry<Node, Node>> l = new ArrayList<Map.Entry<Node, Node>>();
+        for (Map.Entry<Node, Node> e : i) {
+            l.add(e);
+        }
+        return l;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.transform.Source;
+import org.xmlunit.builder.Input;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StreamingDifferenceEngineTest extends AbstractDifferenceEngineTest {
+
+    @Override protected AbstractDifferenceEngine getDifferenceEngine() {
+        return new StreamingDifferenceEngine();
+    }
+
+    private static class Collector implements ComparisonListener {
+        private final List<String> differences = new ArrayList<String>();
+        @Override
+        public void comparisonPerformed(Comparison comparison,
+                                        ComparisonResult outcome) {
+            differences.add(comparison.getType() + " "
+                            + comparison.getControlDetails().getXPath() + " "
+                            + comparison.getTestDetails().getXPath() + " "
+                            + outcome);
+        }
+    }
+
+    private static List<String> differences(DifferenceEngine d, String control,
+                                            String test) {
+        Collector c = new Collector();
+        d.addDifferenceListener(c);
+        d.compare(source(control), source(test));
+        return c.differences;
+    }
+
+    private static Source source(String s) {
+        return Input.fromString(s).build();
+    }
+
+    @Test
+    public void identicalDocumentsHaveNoDifferences() {
+        String xml = "<?xml version='1.0'?><!-- c --><a xmlns='urn:x' b='c'>"
+            + "<d>text<![CDATA[cdata]]></d><?pi data?><e/></a><!-- d -->";
+        assertEquals(Collections.<String>emptyList(),
+                     differences(new StreamingDifferenceEngine(), xml, xml));
+    }
+
+    @Test
+    public void reportsTextDifferenceWithXPath() {
+        List<String> diffs = differences(new StreamingDifferenceEngine(),
+                                         "<a><b/><b>foo</b></a>",
+                                         "<a><b/><b>bar</b></a>");
+        assertEquals(Collections.singletonList("TEXT_VALUE /a[1]/b[2]/text()[1]"
+                                               + " /a[1]/b[2]/text()[1]"
+                                               + " DIFFERENT"),
+                     diffs);
+    }
+
+    @Test
+    public void reportsSameDifferencesAsDOMEngine() {
+        String control = "<?xml version='1.0' encoding='UTF-8'?>"
+            + "<!DOCTYPE a [<!ELEMENT a ANY>]><!-- c -->"
+            + "<a xmlns:x='urn:x' x:b='c' d='e'>"
+            + "<f>text</f><x:g><h/>more<![CDATA[cdata]]></x:g>"
+            + "<?pi data?><i j='k'/></a>";
+        String test = "<?xml version='1.0' encoding='ISO-8859-1'?>"
+            + "<!DOCTYPE a [<!ELEMENT b ANY>]><!-- d -->"
+            + "<a xmlns:y='urn:x' y:b='c' d='f'>"
+            + "<f>txet</f><y:g><h/>more<![CDATA[cdata]]><l/></y:g>"
+            + "<?pi atad?><i j='m' n='o'/></a>";
+        List<String> dom = differences(new DOMDifferenceEngine(), control,
+                                       test);
+        List<String> streaming = differences(new StreamingDifferenceEngine(),
+                                             control, test);
+        Collections.sort(dom);
+        Collections.sort(streaming);
+        assertEquals(dom, streaming);
+    }
+
+    @Test
+    public void extraChildIsReported() {
+        List<String> diffs = differences(new StreamingDifferenceEngine(),
+                                         "<a><b/></a>",
+                                         "<a><b/><c/></a>");
+        assertEquals(2, diffs.size());
+        assertEquals("CHILD_LOOKUP null /a[1]/c[1] DIFFERENT", diffs.get(0));
+        assertEquals("CHILD_NODELIST_LENGTH /a[1] /a[1] DIFFERENT",
+                     diffs.get(1));
+    }
+
+    @Test
+    public void matchesReorderedChildrenInsideWindow() {
+        StreamingDifferenceEngine d = new StreamingDifferenceEngine();
+        d.setNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byName));
+        d.setDifferenceEvaluator(DifferenceEvaluators.Default);
+        List<String> diffs = new ArrayList<String>();
+        for (String s : differences(d, "<a><b/><c/><d/></a>",
+                                    "<a><d/><b/><c/></a>")) {
+            if (s.endsWith("DIFFERENT")) {
+                diffs.add(s);
+            }
+        }
+        assertEquals(Collections.<String>emptyList(), diffs);
+    }
+
+    @Test
+    public void doesntMatchChildrenOutsideOfWindow() {
+        StreamingDifferenceEngine d = new StreamingDifferenceEngine();
+        d.setNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byName));
+        d.setLookAheadWindow(1);
+        List<String> diffs = differences(d, "<a><b/><c/></a>",
+                                         "<a><c/><b/></a>");
+        assertTrue(diffs.contains("CHILD_LOOKUP /a[1]/b[1] null DIFFERENT"));
+        assertTrue(diffs.contains("CHILD_LOOKUP null /a[1]/c[1] DIFFERENT"));
+    }
+
+    @Test
+    public void stopsReadingWhenControllerSaysSo() {
+        StreamingDifferenceEngine d = new StreamingDifferenceEngine();
+        d.setComparisonController(ComparisonControllers.StopWhenDifferent);
+        d.setLookAheadWindow(1);
+        // test document is not well-formed after the first difference
+        List<String> diffs = differences(d, "<a><b>foo</b><c/></a>",
+                                         "<a><b>bar</b><c></a>");
+        assertEquals(1, diffs.size());
+        assertTrue(diffs.get(0).startsWith("TEXT_VALUE"));
+    }
+
+    @Test
+    public void descendsIntoMatchingElementsWithoutReadingThemCompletely() {
+        StreamingDifferenceEngine d = new StreamingDifferenceEngine();
+        d.setComparisonController(ComparisonControllers.StopWhenDifferent);
+        // test document is not well-formed after the first difference
+        List<String> diffs = differences(d, "<a><b><c>foo</c><d/></b></a>",
+                                         "<a><b><c>bar</c><d></b></a>");
+        assertEquals(Collections.singletonList("TEXT_VALUE /a[1]/b[1]/c[1]/text()[1]"
+                                               + " /a[1]/b[1]/c[1]/text()[1]"
+                                               + " DIFFERENT"),
+                     diffs);
+    }
+
+    @Test
+    public void readsElementsCompletelyForSelectorsLookingAtContent() {
+        StreamingDifferenceEngine d = new StreamingDifferenceEngine();
+        d.setNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byNameAndText));
+        List<String> diffs = new ArrayList<String>();
+        for (String s : differences(d, "<a><b>1</b><b>2</b></a>",
+                                    "<a><b>2</b><b>1</b></a>")) {
+            if (s.endsWith("DIFFERENT")) {
+                diffs.add(s);
+            }
+        }
+        assertEquals(Collections.<String>emptyList(), diffs);
+    }
+
+    @Test
+    public void computesXPathsOfManySiblingsAndDeepElements() {
+        StringBuilder control = new StringBuilder("<a>");
+        StringBuilder test = new StringBuilder("<a>");
+        for (int i = 0; i < 10000; i++) {
+            control.append("<b/><!-- c -->");
+            test.append("<b/><!-- c -->");
+        }
+        control.append("<b><c><c><d>x</d></c></c></b></a>");
+        test.append("<b><c><c><d>y</d></c></c></b></a>");
+        assertEquals(Collections.singletonList("TEXT_VALUE /a[1]/b[10001]/c[1]/c[1]/d[1]/text()[1]"
+                                               + " /a[1]/b[10001]/c[1]/c[1]/d[1]/text()[1]"
+                                               + " DIFFERENT"),
+                     differences(new StreamingDifferenceEngine(),
+                                 control.toString(), test.toString()));
+    }
+
+    @Test
+    public void reportsSameDifferencesAsDOMEngineForNestedDocuments() {
+        String control = "<a><b x='1'><c>1</c><d/><c>2</c></b><e><f/></e>text</a>";
+        String test = "<a><b x='2'><c>1</c><c>3</c></b><e><g/></e>text2</a>";
+        List<String> dom = differences(new DOMDifferenceEngine(), control,
+                                       test);
+        List<String> streaming = differences(new StreamingDifferenceEngine(),
+                                             control, test);
+        Collections.sort(dom);
+        Collections.sort(streaming);
+        assertEquals(dom, streaming);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lookAheadWindowMustBePositive() {
+        new StreamingDifferenceEngine().setLookAheadWindow(0);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.diff;
+
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.SubtreeFingerprinter.Fingerprints;
+import org.xmlunit.util.Convert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import static org.junit.Assert.*;
+
+public class SubtreeFingerprinterTest {
+
+    @Test public void identicalTreesHaveSameFingerprint() {
+        assertTrue(same("<a b='c' d='e'><f>g<!-- h --><?i j?></f></a>",
+                        "<a b='c' d='e'><f>g<!-- h --><?i j?></f></a>"));
+    }
+
+    @Test public void attributeOrderDoesntMatter() {
+        assertTrue(same("<a b='c' d='e'/>", "<a d='e' b='c'/>"));
+    }
+
+    @Test public void namespaceDeclarationsDontMatter() {
+        assertTrue(same("<a xmlns:x='urn:x'/>", "<a/>"));
+    }
+
+    @Test public void differencesInContentMatter() {
+        assertFalse(same("<a><b>c</b></a>", "<a><b>d</b></a>"));
+        assertFalse(same("<a><b/><c/></a>", "<a><c/><b/></a>"));
+        assertFalse(same("<a b='c'/>", "<a b='d'/>"));
+        assertFalse(same("<a><!-- b --></a>", "<a><!-- c --></a>"));
+        assertFalse(same("<a>b</a>", "<a><![CDATA[b]]></a>"));
+        assertFalse(same("<a xmlns='urn:x'/>", "<a/>"));
+    }
+
+    @Test public void prefixesOnlyMatterIfRequested() {
+        String control = "<x:a xmlns:x='urn:x' x:b='c'/>";
+        String test = "<y:a xmlns:y='urn:x' y:b='c'/>";
+        assertFalse(same(control, test, SubtreeFingerprinter.WITH_PREFIXES));
+        assertTrue(same(control, test, SubtreeFingerprinter.IGNORING_PREFIXES));
+    }
+
+    @Test public void xsiTypeIsResolvedUsingAncestors() {
+        String xsi = " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'";
+        Document control = doc("<r xmlns:p='urn:1'" + xsi + "><a xsi:type='p:t'/></r>");
+        Document test = doc("<r xmlns:p='urn:2'" + xsi + "><a xsi:type='p:t'/></r>");
+        SubtreeFingerprinter f = SubtreeFingerprinter.WITH_PREFIXES;
+        Element c = (Element) control.getDocumentElement().getFirstChild();
+        Element t = (Element) test.getDocumentElement().getFirstChild();
+        assertFalse(f.fingerprint(control).sameAs(c, f.fingerprint(test), t));
+    }
+
+    @Test public void fingerprintsOfDifferentFingerprintersDontMatch() {
+        Document d = doc("<a/>");
+        Fingerprints f1 = SubtreeFingerprinter.WITH_PREFIXES.fingerprint(d);
+        Fingerprints f2 = SubtreeFingerprinter.IGNORING_PREFIXES.fingerprint(d);
+        assertFalse(f1.sameAs(d.getDocumentElement(), f2, d.getDocumentElement()));
+    }
+
+    @Test public void handlesDeeplyNestedTrees() {
+        assertTrue(same(nested(20000, "x"), nested(20000, "x")));
+        assertFalse(same(nested(20000, "x"), nested(20000, "y")));
+    }
+
+    private static boolean same(String control, String test) {
+        return same(control, test, SubtreeFingerprinter.WITH_PREFIXES);
+    }
+
+    private static boolean same(String control, String test,
+                                SubtreeFingerprinter f) {
+        Document c = doc(control);
+        Document t = doc(test);
+        return f.fingerprint(c).sameAs(c.getDocumentElement(), f.fingerprint(t),
+                                       t.getDocumentElement());
+    }
+
+    private static String nested(int depth, String text) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("<a>");
+        }
+        sb.append(text);
+        for (int i = 0; i < depth; i++) {
+            sb.append("</a>");
+        }
+        return sb.toString();
+    }
+
+    private static Document doc(String s) {
+        return Convert.toDocument(Input.fromString(s).build());
+    }
+}
@@ -248,6 +248,108 @@ public class XPathContextTest {
         ctx.navigateToParent();
     }
 
+    @Test public void cloneAndOriginalDontAffectEachOther() {
+        XPathContext ctx = new XPathContext();
+        ctx.setChildren(Linqy.singleton(new Element("foo")));
+        ctx.navigateToChild(0);
+        XPathContext clone = ctx.clone();
+        ctx.setChildren(Linqy.singleton(new Element("bar")));
+        clone.setChildren(Linqy.singleton(new Element("baz")));
+        ctx.navigateToChild(0);
+        clone.navigateToChild(0);
+        assertEquals("/foo[1]/bar[1]", ctx.getXPath());
+        assertEquals("/foo[1]/baz[1]", clone.getXPath());
+        clone.navigateToParent();
+        clone.navigateToParent();
+        clone.setChildren(Linqy.singleton(new Element("x")));
+        clone.navigateToChild(0);
+        assertEquals("/x[1]", clone.getXPath());
+        ctx.navigateToParent();
+        ctx.navigateToParent();
+        ctx.navigateToChild(0);
+        ctx.navigateToChild(0);
+        assertEquals("/foo[1]/bar[1]", ctx.getXPath());
+    }
+
+    @Test public void knowledgeAboutChildrenIsKeptWhenNavigatingBack() {
+        ArrayList<Element> l = new ArrayList<Element>();
+        l.add(new Element("foo"));
+        l.add(new Element("foo"));
+        XPathContext ctx = new XPathContext();
+        ctx.setChildren(l);
+        ctx.navigateToChild(1);
+        ctx.setChildren(Linqy.singleton(new Element("bar")));
+        ctx.addAttribute(new QName("baz"));
+        ctx.navigateToParent();
+        ctx.navigateToChild(0);
+        ctx.navigateToParent();
+        ctx.navigateToChild(1);
+        ctx.navigateToChild(0);
+        assertEquals("/foo[2]/bar[1]", ctx.getXPath());
+        ctx.navigateToParent();
+        ctx.navigateToAttribute(new QName("baz"));
+        assertEquals("/foo[2]/@baz", ctx.getXPath());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void cantNavigateToUnknownChild() {
+        new XPathContext().navigateToChild(0);
+    }
+
+    @Test public void pathKeepsXPathAfterContextHasMovedOn() {
+        ArrayList<Element> l = new ArrayList<Element>();
+        l.add(new Element("foo"));
+        l.add(new Element("bar"));
+        XPathContext ctx = new XPathContext();
+        ctx.setChildren(l);
+        ctx.navigateToChild(1);
+        XPathContext.Path path = ctx.getPath();
+        ctx.navigateToParent();
+        ctx.setChildren(Linqy.singleton(new Element("baz")));
+        ctx.navigateToChild(0);
+        assertEquals("/bar[1]", path.getXPath());
+        assertEquals("/baz[1]", ctx.getXPath());
+    }
+
+    @Test public void lazyComparisonStringifiesPaths() {
+        XPathContext ctx = new XPathContext();
+        ctx.setChildren(Linqy.singleton(new Element("foo")));
+        ctx.navigateToChild(0);
+        Comparison c = Comparison.of(ComparisonType.NODE_TYPE,
+                                     null, ctx.getPath(), null,
+                                     null, null, null);
+        ctx.navigateToParent();
+        assertEquals("/foo[1]", c.getControlDetails().getXPath());
+        assertNull(c.getTestDetails().getXPath());
+    }
+
+    @Test public void deepPathsCanBeStringified() {
+        XPathContext ctx = new XPathContext();
+        for (int i = 0; i < 20000; i++) {
+            ctx.setChildren(Linqy.singleton(new Element("a")));
+            ctx.navigateToChild(0);
+        }
+        assertEquals(20000 * "/a[1]".length(), ctx.getXPath().length());
+    }
+
+    @Test public void childrenRegisteredOneByOne() {
+        XPathContext ctx = new XPathContext();
+        ctx.navigateToChild(ctx.nextChild(new Element("foo")));
+        XPathContext.Path bar = ctx.nextChild(new Element("bar"));
+        ctx.navigateToChild(ctx.nextChild(new Text()));
+        assertEquals("/foo[1]/text()[1]", ctx.getXPath());
+        ctx.navigateToParent();
+        ctx.navigateToChild(bar);
+        ctx.addAttribute(new QName("baz"));
+        ctx.navigateToAttribute(new QName("baz"));
+        assertEquals("/foo[1]/bar[1]/@baz", ctx.getXPath());
+        ctx.navigateToParent();
+        ctx.navigateToParent();
+        ctx.navigateToParent();
+        ctx.navigateToChild(ctx.nextChild(new Element("foo")));
+        assertEquals("/foo[2]", ctx.getXPath());
+    }
+
     private static class Element implements XPathContext.NodeInfo {
         private final QName name;
         private Element(String name) {
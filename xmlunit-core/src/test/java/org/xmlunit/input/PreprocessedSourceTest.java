@@ -0,0 +1,91 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.input;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.util.Convert;
+
+import static org.junit.Assert.*;
+
+public class PreprocessedSourceTest {
+
+    private static final String[] DOCUMENTS = new String[] {
+        "<?xml version='1.0' standalone='yes'?>"
+        + "<!DOCTYPE a [<!ATTLIST a d CDATA 'def'>]>"
+        + "<!-- prelude --><?pi   some data  ?>"
+        + "<a x='  1   2 '>\n  <b>  Test\n  Value  </b>  <!-- c -->\n"
+        + "  <c>foo <!-- split --> bar</c>"
+        + "<d>t<![CDATA[  c  ]]><!-- x --><![CDATA[c]]>  </d>"
+        + "<e xmlns:n='urn:n' n:y=' z '><n:f>  </n:f></e></a>",
+        "<a>  <![CDATA[   ]]>  <b/>\t<!--  only comment  --></a>",
+    };
+
+    @Test public void resultIsSameAsChainingSources() {
+        PreprocessedSource.Option[][] combinations = new PreprocessedSource.Option[8][];
+        for (int i = 0; i < combinations.length; i++) {
+            List<PreprocessedSource.Option> l = new ArrayList<PreprocessedSource.Option>();
+            for (PreprocessedSource.Option o : PreprocessedSource.Option.values()) {
+                if ((i & (1 << o.ordinal())) != 0) {
+                    l.add(o);
+                }
+            }
+            combinations[i] = l.toArray(new PreprocessedSource.Option[l.size()]);
+        }
+        for (String doc : DOCUMENTS) {
+            for (PreprocessedSource.Option[] options : combinations) {
+                Source chained = Input.fromString(doc).build();
+                List<PreprocessedSource.Option> l = Arrays.asList(options);
+                if (l.contains(PreprocessedSource.Option.STRIP_WHITESPACE)) {
+                    chained = new WhitespaceStrippedSource(chained);
+                }
+                if (l.contains(PreprocessedSource.Option.NORMALIZE_WHITESPACE)) {
+                    chained = new WhitespaceNormalizedSource(chained);
+                }
+                if (l.contains(PreprocessedSource.Option.STRIP_COMMENTS)) {
+                    chained = new CommentLessSource(chained);
+                }
+                if (options.length == 0) {
+                    chained = new DOMSource(Convert.toDocument(chained).cloneNode(true));
+                }
+                Source fused = new PreprocessedSource(Input.fromString(doc).build(), options);
+                Diff d = DiffBuilder.compare(chained).withTest(fused).build();
+                assertFalse(l + ": " + d, d.hasDifferences());
+            }
+        }
+    }
+
+    @Test public void doesntModifyOriginal() {
+        Document d = Convert.toDocument(Input.fromString("<a> <!-- c --> </a>").build());
+        Document p = Convert.toDocument(new PreprocessedSource(new DOMSource(d),
+                                                               PreprocessedSource.Option.STRIP_WHITESPACE,
+                                                               PreprocessedSource.Option.STRIP_COMMENTS));
+        assertNotSame(d, p);
+        assertEquals(3, d.getDocumentElement().getChildNodes().getLength());
+        assertEquals(0, p.getDocumentElement().getChildNodes().getLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantWrapNullSource() {
+        new PreprocessedSource(null);
+    }
+}
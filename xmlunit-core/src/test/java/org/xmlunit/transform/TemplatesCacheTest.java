@@ -0,0 +1,154 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.transform;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TemplatesCacheTest {
+
+    @Mock
+    private TransformerFactory fac;
+
+    private File a, b, c;
+
+    @Before
+    public void setupMocks() throws Exception {
+        a = File.createTempFile("xmlunit", ".xsl");
+        b = File.createTempFile("xmlunit", ".xsl");
+        c = File.createTempFile("xmlunit", ".xsl");
+        MockitoAnnotations.initMocks(this);
+        when(fac.newTemplates(any(Source.class))).thenAnswer(new Answer<Templates>() {
+                @Override
+                public Templates answer(InvocationOnMock invocation) {
+                    return mock(Templates.class);
+                }
+            });
+    }
+
+    @After
+    public void deleteFiles() {
+        a.delete();
+        b.delete();
+        c.delete();
+    }
+
+    @Test
+    public void cachesFilesBySystemId() throws Exception {
+        TemplatesCache cache = new TemplatesCache(2);
+        Templates t = cache.getTemplates(new StreamSource(a), fac);
+        assertSame(t, cache.getTemplates(new StreamSource(a), fac));
+        assertNotSame(t, cache.getTemplates(new StreamSource(b), fac));
+        assertEquals(2, cache.size());
+        verify(fac, times(2)).newTemplates(any(Source.class));
+    }
+
+    @Test
+    public void recompilesModifiedFiles() throws Exception {
+        TemplatesCache cache = new TemplatesCache(2);
+        Templates t = cache.getTemplates(new StreamSource(a), fac);
+        write(a, "<xsl:stylesheet/>");
+        assertNotSame(t, cache.getTemplates(new StreamSource(a), fac));
+        verify(fac, times(2)).newTemplates(any(Source.class));
+    }
+
+    @Test
+    public void doesntCacheOtherSystemIds() throws Exception {
+        TemplatesCache cache = new TemplatesCache(2);
+        StreamSource s = new StreamSource("http://example.org/foo.xsl");
+        assertNotSame(cache.getTemplates(s, fac), cache.getTemplates(s, fac));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void cachesByContent() throws Exception {
+        TemplatesCache cache = new TemplatesCache(2);
+        Templates t = cache.getTemplates(new StreamSource(new StringReader("<x/>")), fac);
+        assertSame(t, cache.getTemplates(new StreamSource(new StringReader("<x/>")), fac));
+        assertNotSame(t, cache.getTemplates(new StreamSource(new StringReader("<y/>")), fac));
+        Templates bytes = cache.getTemplates(new StreamSource(new ByteArrayInputStream(new byte[] { 1 })), fac);
+        assertSame(bytes, cache.getTemplates(new StreamSource(new ByteArrayInputStream(new byte[] { 1 })), fac));
+    }
+
+    @Test
+    public void distinguishesFactories() throws Exception {
+        TemplatesCache cache = new TemplatesCache(2);
+        TransformerFactory other = mock(TransformerFactory.class);
+        Templates otherTemplates = mock(Templates.class);
+        when(other.newTemplates(any(Source.class))).thenReturn(otherTemplates);
+        cache.getTemplates(new StreamSource(a), fac);
+        assertSame(otherTemplates, cache.getTemplates(new StreamSource(a), other));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        TemplatesCache cache = new TemplatesCache(2);
+        Templates t = cache.getTemplates(new StreamSource(a), fac);
+        cache.getTemplates(new StreamSource(b), fac);
+        cache.getTemplates(new StreamSource(a), fac);
+        cache.getTemplates(new StreamSource(c), fac);
+        assertEquals(2, cache.size());
+        assertSame(t, cache.getTemplates(new StreamSource(a), fac));
+        verify(fac, times(3)).newTemplates(any(Source.class));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void doesntCacheOtherSources() throws Exception {
+        TemplatesCache cache = new TemplatesCache(2);
+        DOMSource s = new DOMSource();
+        assertNotSame(cache.getTemplates(s, fac), cache.getTemplates(s, fac));
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveSize() {
+        new TemplatesCache(0);
+    }
+
+    private static void write(File f, String content) throws Exception {
+        long lastModified = f.lastModified();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        // file systems may not tell writes apart within a second
+        f.setLastModified(lastModified + 2000);
+    }
+}
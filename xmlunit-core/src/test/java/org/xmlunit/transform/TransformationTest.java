@@ -18,6 +18,7 @@
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -33,6 +34,7 @@
 import org.xmlunit.TestResources;
 import org.xmlunit.XMLUnitException;
 import org.xmlunit.builder.Input;
+import org.xmlunit.util.JAXPProviders;
 
 import static org.hamcrest.core.IsNot.*;
 import static org.junit.Assert.*;
@@ -40,6 +42,7 @@
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -52,10 +55,14 @@ public class TransformationTest {
     @Mock
     private Transformer transformer;
 
+    @Mock
+    private Templates templates;
+
     @Before
     public void setupMocks() throws Exception {
         MockitoAnnotations.initMocks(this);
-        when(fac.newTransformer(any(Source.class))).thenReturn(transformer);
+        when(fac.newTemplates(any(Source.class))).thenReturn(templates);
+        when(templates.newTransformer()).thenReturn(transformer);
         when(fac.newTransformer()).thenReturn(transformer);
     }
 
@@ -108,12 +115,29 @@ public void shouldRejectNullParameterName() {
 
     @Test(expected=ConfigurationException.class)
     public void shouldTransformTransformerConfigurationException() throws Exception {
-        when(fac.newTransformer(any(Source.class)))
+        when(fac.newTemplates(any(Source.class)))
             .thenThrow(new TransformerConfigurationException());
         t.setFactory(fac);
         t.transformToString();
     }
 
+    @Test
+    public void shouldReportBrokenDefaultIdentityTransformer() throws Exception {
+        when(fac.newTransformer())
+            .thenThrow(new TransformerConfigurationException());
+        JAXPProviders defaultProviders = JAXPProviders.getDefault();
+        JAXPProviders.setDefault(new JAXPProviders(null, null, fac));
+        try {
+            new Transformation(Input.fromString("<a/>").build())
+                .transformToString();
+            fail("should have thrown ConfigurationException");
+        } catch (ConfigurationException ex) {
+            assertTrue(ex.getCause() instanceof TransformerConfigurationException);
+        } finally {
+            JAXPProviders.setDefault(defaultProviders);
+        }
+    }
+
     @Test
     public void shouldTransformTransformerException() throws Exception {
         doThrow(new TransformerException("foo"))
@@ -212,4 +236,46 @@ public void shouldRejectNullSourceInTransform() {
     public void shouldRejectNullResult() {
         t.transformTo(null);
     }
+
+    @Test
+    public void compilesStylesheetOnce() throws Exception {
+        t.setFactory(fac);
+        t.transformToString();
+        t.transformToString();
+
+        verify(fac, times(1)).newTemplates(any(Source.class));
+        verify(templates, times(2)).newTransformer();
+    }
+
+    @Test
+    public void sharesCompiledStylesheetBetweenInstances() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            Transformation other = new Transformation(Input.fromString("<a/>").build());
+            other.setStylesheet(Input.fromString("<xsl:stylesheet/>").build());
+            other.setFactory(fac);
+            other.transformToString();
+        }
+
+        verify(fac, times(1)).newTemplates(any(Source.class));
+    }
+
+    @Test
+    public void usesGivenTemplates() throws Exception {
+        t.setFactory(fac);
+        t.setTemplates(templates);
+        t.transformToString();
+
+        verify(fac, never()).newTemplates(any(Source.class));
+        verify(templates).newTransformer();
+    }
+
+    @Test
+    public void stylesheetReplacesTemplates() throws Exception {
+        t.setFactory(fac);
+        t.setTemplates(mock(Templates.class));
+        t.setStylesheet(Input.fromString("<xsl:stylesheet/>").build());
+        t.transformToString();
+
+        verify(templates).newTransformer();
+    }
 }
@@ -0,0 +1,163 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.tree;
+
+import java.io.StringReader;
+import java.util.Collections;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import org.junit.Test;
+import org.w3c.dom.Attr;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.util.Convert;
+import org.xmlunit.xpath.JAXPXPathEngine;
+
+import static org.junit.Assert.*;
+
+public class CompactTreeTest {
+
+    private static final String XML =
+        "<?xml version='1.0' encoding='UTF-8' standalone='yes'?>"
+        + "<?pi data?>"
+        + "<a xmlns='urn:a' xmlns:b='urn:b' attr='1' b:attr='2'>"
+        + "text<b:c>more<![CDATA[ cdata ]]></b:c><!-- comment --><d/>"
+        + "</a>";
+
+    @Test
+    public void parsedTreeIsEquivalentToDOM() {
+        CompactTree tree = CompactTree.parse(Input.fromString(XML).build());
+        Diff d = DiffBuilder.compare(Input.fromString(XML)).withTest(tree).build();
+        assertFalse(d.toString(), d.hasDifferences());
+    }
+
+    @Test
+    public void treeFromDOMIsEquivalentToDOM() {
+        Document doc = Convert.toDocument(Input.fromString(XML).build());
+        CompactTree tree = CompactTree.of(doc);
+        Diff d = DiffBuilder.compare(doc).withTest(tree).build();
+        assertFalse(d.toString(), d.hasDifferences());
+    }
+
+    @Test
+    public void treeFromStAXIsEquivalentToDOM() throws Exception {
+        // StAX parsers may report CDATA sections as characters
+        String xml = XML.replace("<![CDATA[ cdata ]]>", "");
+        XMLStreamReader r = XMLInputFactory.newInstance()
+            .createXMLStreamReader(new StringReader(xml));
+        CompactTreeBuilder b = new CompactTreeBuilder();
+        b.add(r);
+        Diff d = DiffBuilder.compare(Input.fromString(xml)).withTest(b.build()).build();
+        assertFalse(d.toString(), d.hasDifferences());
+    }
+
+    @Test
+    public void detectsDifferences() {
+        CompactTree tree = CompactTree.parse(Input.fromString(XML.replace("more", "less"))
+                                             .build());
+        Diff d = DiffBuilder.compare(Input.fromString(XML)).withTest(tree).build();
+        assertTrue(d.hasDifferences());
+        assertEquals("/a[1]/c[1]/text()[1]",
+                     d.getDifferences().iterator().next().getComparison()
+                     .getControlDetails().getXPath());
+    }
+
+    @Test
+    public void navigatesTree() {
+        CompactTree tree = CompactTree.parse(new StreamSource(new StringReader(XML)));
+        Element a = tree.getDocument().getDocumentElement();
+        assertEquals("urn:a", a.getNamespaceURI());
+        assertEquals("a", a.getLocalName());
+        assertEquals("1", a.getAttribute("attr"));
+        assertEquals("2", a.getAttributeNS("urn:b", "attr"));
+        assertEquals("", a.getAttribute("missing"));
+        assertEquals(4, a.getAttributes().getLength());
+        assertEquals("urn:b", a.lookupNamespaceURI("b"));
+        assertEquals(4, a.getChildNodes().getLength());
+        Node c = a.getFirstChild().getNextSibling();
+        assertEquals("b:c", c.getNodeName());
+        assertSame(a, c.getParentNode());
+        assertEquals("more cdata ", c.getTextContent());
+        assertEquals(Node.CDATA_SECTION_NODE, c.getLastChild().getNodeType());
+        assertSame(c, a.getElementsByTagNameNS("urn:b", "c").item(0));
+        Attr attr = a.getAttributeNode("attr");
+        assertNull(attr.getParentNode());
+        assertSame(a, attr.getOwnerElement());
+        assertSame(tree.getDocument(), attr.getOwnerDocument());
+        assertEquals("pi", tree.getDocument().getFirstChild().getNodeName());
+    }
+
+    @Test
+    public void isReadOnly() {
+        Element a = CompactTree.parse(Input.fromString(XML).build()).getDocument()
+            .getDocumentElement();
+        try {
+            a.setAttribute("x", "y");
+            fail("expected an exception");
+        } catch (DOMException ex) {
+            assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+        }
+        try {
+            a.removeChild(a.getFirstChild());
+            fail("expected an exception");
+        } catch (DOMException ex) {
+            assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+        }
+    }
+
+    @Test
+    public void cloneCreatesMutableCopy() {
+        CompactTree tree = CompactTree.parse(Input.fromString(XML).build());
+        Element a = tree.getDocument().getDocumentElement();
+        Element copy = (Element) a.cloneNode(true);
+        Diff d = DiffBuilder.compare(a).withTest(copy).build();
+        assertFalse(d.toString(), d.hasDifferences());
+        copy.setAttribute("x", "y");
+        assertEquals("y", copy.getAttribute("x"));
+        assertFalse(a.hasAttribute("x"));
+    }
+
+    @Test
+    public void returnsSameFacadeForSameNode() {
+        CompactTree tree = CompactTree.parse(Input.fromString(XML).build());
+        assertSame(tree.getDocument().getDocumentElement(),
+                   tree.getDocument().getDocumentElement());
+    }
+
+    @Test
+    public void evaluatesXPathsRelativeToNodesOfTheView() {
+        CompactTree tree = CompactTree.parse(Input.fromString(XML).build());
+        Element a = tree.getDocument().getDocumentElement();
+        JAXPXPathEngine engine = new JAXPXPathEngine();
+        engine.setNamespaceContext(Collections.singletonMap("b", "urn:b"));
+        assertEquals("more cdata ", engine.evaluate("b:c", new DOMSource(a)));
+        assertEquals("2", engine.evaluate("count(../@*)", new DOMSource(a.getFirstChild())));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotBuildIncompleteTree() throws Exception {
+        CompactTreeBuilder b = new CompactTreeBuilder();
+        b.startDocument();
+        b.startElement("", "a", "a", new AttributesImpl());
+        b.build();
+    }
+}
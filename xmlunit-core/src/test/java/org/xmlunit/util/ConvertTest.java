@@ -16,10 +16,13 @@
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
@@ -52,6 +55,7 @@
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
@@ -134,6 +138,35 @@ private static void convertToDocumentAndAssert(Source s) {
                       Convert.toDocument(new DOMSource(d.getDocumentElement())));
     }
 
+    @Test public void sharedFactoryCanBeUsedConcurrently() throws Exception {
+        final DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+        final String xml = "<x:a xmlns:x='urn:x'/>";
+        final List<Throwable> failures =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 200; j++) {
+                                Document d = Convert.toDocument(new StreamSource(new StringReader(xml)), f);
+                                assertEquals("urn:x", d.getDocumentElement().getNamespaceURI());
+                            }
+                        } catch (Throwable t) {
+                            failures.add(t);
+                        }
+                    }
+                };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(failures.toString(), 0, failures.size());
+        assertFalse(f.isNamespaceAware());
+    }
+
     private static void convertToNodeAndAssert(Source s) {
         Node n = Convert.toNode(s);
         Document d = n instanceof Document ? (Document) n : n.getOwnerDocument();
@@ -0,0 +1,179 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import org.junit.Test;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.Diff;
+
+import static org.junit.Assert.*;
+
+public class DocumentCacheTest {
+
+    @Test
+    public void handsOutReadOnlyViewOfCachedDocument() {
+        DocumentCache cache = new DocumentCache(1000);
+        Document d1 = toDocument(cache.get(fromString("<a><b/></a>")));
+        Document d2 = toDocument(cache.get(fromString("<a><b/></a>")));
+        assertSame(d1, d2);
+        assertEquals(1, cache.size());
+        assertEquals("b", d2.getDocumentElement().getFirstChild().getNodeName());
+        try {
+            d2.getDocumentElement().setAttribute("c", "d");
+            fail("expected the document to be read-only");
+        } catch (DOMException ex) {
+            assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+        }
+    }
+
+    @Test
+    public void cachedDocumentsAreEqualToParsedDocument() {
+        String xml = "<?xml version='1.0' encoding='UTF-8' standalone='yes'?>"
+            + "<!DOCTYPE a [<!ATTLIST a d CDATA 'def'>]><a x='1'/>";
+        DocumentCache cache = new DocumentCache(1000);
+        cache.get(fromString(xml));
+        Diff d = DiffBuilder.compare(cache.get(fromString(xml)))
+            .withTest(xml).build();
+        assertFalse(d.toString(), d.hasDifferences());
+    }
+
+    @Test
+    public void distinguishesContent() {
+        DocumentCache cache = new DocumentCache(1000);
+        cache.get(fromString("<a/>"));
+        Document d = toDocument(cache.get(fromString("<b/>")));
+        assertEquals("b", d.getDocumentElement().getNodeName());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void cachesFilesByPathAndModificationTime() throws Exception {
+        File f = File.createTempFile("xmlunit", ".xml");
+        try {
+            write(f, "<a/>");
+            DocumentCache cache = new DocumentCache(1000);
+            Source s = cache.get(new StreamSource(f));
+            assertEquals("a", toDocument(s).getDocumentElement().getNodeName());
+            assertEquals(f.toURI().toASCIIString(), s.getSystemId());
+            cache.get(new StreamSource(f));
+            assertEquals(1, cache.size());
+
+            write(f, "<bb/>");
+            Document d = toDocument(cache.get(new StreamSource(f)));
+            assertEquals("bb", d.getDocumentElement().getNodeName());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void cachedFilesDescribeDifferencesLikeParsedFiles() throws Exception {
+        File f = File.createTempFile("xmlunit", ".xml");
+        try {
+            write(f, "<?xml version=\"1.0\"?><r><a/></r>");
+            DocumentCache cache = new DocumentCache(1000);
+            Diff uncached = DiffBuilder.compare(Input.fromFile(f))
+                .withTest("<r><b/></r>").build();
+            Diff cached = DiffBuilder.compare(Input.fromFile(f))
+                .withTest("<r><b/></r>").withDocumentCache(cache).build();
+            assertEquals(2, cache.size());
+            assertEquals(uncached.toString(), cached.toString());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void readsDeclaredEncodingOfFiles() throws Exception {
+        File f = File.createTempFile("xmlunit", ".xml");
+        try {
+            write(f, "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a/>");
+            Document d = toDocument(new DocumentCache(1000)
+                                    .get(new StreamSource(f)));
+            assertEquals("ISO-8859-1", d.getXmlEncoding());
+
+            write(f, "<a/>");
+            d = toDocument(new DocumentCache(1000).get(new StreamSource(f)));
+            assertNull(d.getXmlEncoding());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedDocuments() {
+        DocumentCache cache = new DocumentCache(10);
+        cache.get(fromString("<a/>"));
+        cache.get(fromString("<b/>"));
+        assertEquals(2, cache.size());
+        cache.get(fromString("<c/>"));
+        assertEquals(2, cache.size());
+        // too big to be held strongly, doesn't evict others
+        cache.get(fromString("<elements/>"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void returnsOtherSourcesUnchanged() {
+        DocumentCache cache = new DocumentCache(1000);
+        Source s = new DOMSource(Convert.toDocument(fromString("<a/>")));
+        assertSame(s, cache.get(s));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void canBeUsedByDiffBuilder() {
+        DocumentCache cache = new DocumentCache(1000);
+        for (int i = 0; i < 2; i++) {
+            Diff d = DiffBuilder.compare("<a><b/></a>").withTest("<a><c/></a>")
+                .withDocumentCache(cache).build();
+            assertTrue(d.hasDifferences());
+        }
+        assertEquals(2, cache.size());
+        assertEquals("a", toDocument(Input.fromCache("<a/>", cache).build())
+                     .getDocumentElement().getNodeName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantGetNull() {
+        new DocumentCache(1000).get(null);
+    }
+
+    private static Source fromString(String s) {
+        return new StreamSource(new StringReader(s));
+    }
+
+    private static Document toDocument(Source s) {
+        assertTrue(s instanceof DOMSource);
+        return (Document) ((DOMSource) s).getNode();
+    }
+
+    private static void write(File f, String content) throws Exception {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
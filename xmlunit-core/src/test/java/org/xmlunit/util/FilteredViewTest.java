@@ -0,0 +1,145 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.Comparison;
+import org.xmlunit.diff.Difference;
+
+import static org.junit.Assert.*;
+
+public class FilteredViewTest {
+
+    private static final String[] DOCUMENTS = new String[] {
+        "<?xml version='1.0' standalone='yes'?>"
+        + "<!DOCTYPE a [<!ATTLIST a d CDATA 'def'>]>"
+        + "<!-- prelude --><?pi   some data  ?>"
+        + "<a x='  1   2 '>\n  <b>  Test\n  Value  </b>  <!-- c -->\n"
+        + "  <c>foo <!-- split --> bar</c>"
+        + "<d>t<![CDATA[  c  ]]><!-- x --><![CDATA[c]]>  </d>"
+        + "<e xmlns:n='urn:n' n:y=' z '><n:f>  </n:f></e></a>",
+        "<?pi some data?><a x='1 2' d='def'><b>Test Value</b>"
+        + "<c>foo bar</c><d>tcc</d>"
+        + "<e xmlns:n='urn:n' n:y='z'><n:f/></e></a>",
+        "<a x='1 2'><b>Test Value</b><!-- c --><c>foo<!-- split -->bar</c>"
+        + "<d><![CDATA[t c]]>c</d><e xmlns:n='urn:n' n:y='z'><n:f> x </n:f></e></a>",
+        "<a>  <![CDATA[   ]]>  <b/>\t<!--  only comment  --></a>",
+        "<a><b/></a>",
+    };
+
+    @Test
+    public void hidesCommentsAndEmptyText() {
+        Element a = parse("<a> <!-- c --> <b/> x <!-- d --> y </a>")
+            .getDocumentElement();
+        FilteredView view = new FilteredView(true, false, true);
+        List<Node> children = view.getChildren(a);
+        assertEquals(2, children.size());
+        assertEquals("b", children.get(0).getNodeName());
+        assertEquals(Node.TEXT_NODE, children.get(1).getNodeType());
+        assertEquals("xy", view.getValue(children.get(1)));
+    }
+
+    @Test
+    public void presentsCDATAAsTextWhenIgnoringComments() {
+        Element a = parse("<a>x<![CDATA[ y ]]></a>").getDocumentElement();
+        FilteredView view = new FilteredView(false, false, true);
+        List<Node> children = view.getChildren(a);
+        assertEquals(1, children.size());
+        assertEquals(Node.TEXT_NODE, view.getNodeType(children.get(0)));
+        assertEquals("x y ", view.getValue(children.get(0)));
+    }
+
+    @Test
+    public void normalizesTextualContent() {
+        Element a = parse("<a x=' 1 \t 2 '>\n  some \n text  </a>").getDocumentElement();
+        FilteredView view = new FilteredView(false, true, false);
+        assertEquals("1 2", view.getValue(a.getAttributeNode("x")));
+        assertEquals("some text", view.getValue(view.getChildren(a).get(0)));
+    }
+
+    @Test
+    public void unfilteredViewShowsEverythingButDoctype() {
+        Document d = parse("<!DOCTYPE a><a> <!-- c --> </a>");
+        assertTrue(FilteredView.UNFILTERED.isUnfiltered());
+        assertEquals(1, FilteredView.UNFILTERED.getChildren(d).size());
+        assertEquals(3, FilteredView.UNFILTERED
+                     .getChildren(d.getDocumentElement()).size());
+        assertNotNull(FilteredView.UNFILTERED.getDoctype(d));
+    }
+
+    @Test
+    public void findsSameDifferencesAsPreprocessedCopies() {
+        for (int options = 0; options < 8; options++) {
+            for (String control : DOCUMENTS) {
+                for (String test : DOCUMENTS) {
+                    List<String> copying =
+                        describe(builder(control, test, options).build()
+                                 .getDifferences());
+                    List<String> filtering =
+                        describe(builder(control, test, options).withoutCopying()
+                                 .build().getDifferences());
+                    assertEquals(options + ": " + control + " vs " + test,
+                                 copying, filtering);
+                }
+            }
+        }
+    }
+
+    private static DiffBuilder builder(String control, String test,
+                                       int options) {
+        DiffBuilder b = DiffBuilder.compare(control).withTest(test)
+            .checkForSimilar();
+        if ((options & 1) != 0) {
+            b.ignoreWhitespace();
+        }
+        if ((options & 2) != 0) {
+            b.normalizeWhitespace();
+        }
+        if ((options & 4) != 0) {
+            b.ignoreComments();
+        }
+        return b;
+    }
+
+    private static List<String> describe(Iterable<Difference> differences) {
+        List<String> l = new ArrayList<String>();
+        for (Difference d : differences) {
+            Comparison c = d.getComparison();
+            l.add(c.getType() + " " + d.getResult()
+                  + " " + c.getControlDetails().getXPath()
+                  + "=" + c.getControlDetails().getValue()
+                  + " " + c.getTestDetails().getXPath()
+                  + "=" + c.getTestDetails().getValue());
+        }
+        return l;
+    }
+
+    @Test public void viewsWithSameSettingsAreEqual() {
+        assertEquals(new FilteredView(true, false, true), new FilteredView(true, false, true));
+        assertEquals(new FilteredView(true, false, true).hashCode(),
+                     new FilteredView(true, false, true).hashCode());
+        assertFalse(new FilteredView(true, false, true).equals(new FilteredView(true, true, true)));
+    }
+
+    private static Document parse(String s) {
+        return Convert.toDocument(Input.fromString(s).build());
+    }
+}
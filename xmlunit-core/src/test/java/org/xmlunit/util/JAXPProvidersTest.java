@@ -0,0 +1,139 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParser;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.OutputKeys;
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xmlunit.builder.Input;
+import org.xmlunit.tree.CompactTree;
+
+import static org.junit.Assert.*;
+
+public class JAXPProvidersTest {
+
+    private final JAXPProviders originalDefault = JAXPProviders.getDefault();
+
+    @After public void restoreDefault() {
+        JAXPProviders.setDefault(originalDefault);
+    }
+
+    @Test public void createsFactoriesOnce() {
+        JAXPProviders p = new JAXPProviders();
+        assertSame(p.getDocumentBuilderFactory(), p.getDocumentBuilderFactory());
+        assertSame(p.getParserFactory(), p.getParserFactory());
+        assertSame(p.getValidatingParserFactory(), p.getValidatingParserFactory());
+        assertSame(p.getTransformerFactory(), p.getTransformerFactory());
+        assertTrue(p.getDocumentBuilderFactory().isNamespaceAware());
+        assertTrue(p.getParserFactory().isNamespaceAware());
+        assertFalse(p.getParserFactory().isValidating());
+        assertTrue(p.getValidatingParserFactory().isNamespaceAware());
+        assertTrue(p.getValidatingParserFactory().isValidating());
+    }
+
+    @Test public void reusesReleasedDocumentBuilders() {
+        JAXPProviders p = new JAXPProviders();
+        DocumentBuilder b = p.borrowDocumentBuilder();
+        assertTrue(b.isNamespaceAware());
+        DocumentBuilder other = p.borrowDocumentBuilder();
+        assertNotSame(b, other);
+        p.release(b);
+        assertSame(b, p.borrowDocumentBuilder());
+    }
+
+    @Test public void reusesReleasedParsers() {
+        JAXPProviders p = new JAXPProviders();
+        SAXParser s = p.borrowValidatingParser();
+        assertTrue(s.isValidating());
+        p.release(s);
+        assertSame(s, p.borrowValidatingParser());
+
+        SAXParser n = p.borrowParser();
+        assertFalse(n.isValidating());
+        p.release(n);
+        p.release(s);
+        assertSame(n, p.borrowParser());
+        assertSame(s, p.borrowValidatingParser());
+    }
+
+    @Test public void resetsReleasedTransformers() {
+        JAXPProviders p = new JAXPProviders();
+        Transformer t = p.borrowIdentityTransformer();
+        t.setOutputProperty(OutputKeys.INDENT, "yes");
+        t.setParameter("foo", "bar");
+        p.release(t);
+        Transformer again = p.borrowIdentityTransformer();
+        assertSame(t, again);
+        assertNull(again.getParameter("foo"));
+        assertFalse("yes".equals(again.getOutputProperties().getProperty(OutputKeys.INDENT)));
+    }
+
+    @Test public void usesGivenFactories() {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        JAXPProviders p = new JAXPProviders(dbf, null, null);
+        assertSame(dbf, p.getDocumentBuilderFactory());
+        assertTrue(dbf.isNamespaceAware());
+    }
+
+    @Test public void appliesTunings() throws Exception {
+        JAXPProviders p = new JAXPProviders(JAXPProviders.Tuning.SECURE_PROCESSING);
+        assertTrue(p.getDocumentBuilderFactory()
+                   .getFeature(XMLConstants.FEATURE_SECURE_PROCESSING));
+        assertTrue(p.getTransformerFactory()
+                   .getFeature(XMLConstants.FEATURE_SECURE_PROCESSING));
+        TransformerFactory fresh = p.newTransformerFactory();
+        assertNotSame(p.getTransformerFactory(), fresh);
+        assertSame(p.getTransformerFactory().getClass(), fresh.getClass());
+        assertTrue(fresh.getFeature(XMLConstants.FEATURE_SECURE_PROCESSING));
+    }
+
+    @Test public void ignoresUnsupportedTunings() {
+        JAXPProviders p = new JAXPProviders(JAXPProviders.Tuning.EAGER_NODE_EXPANSION,
+                                            JAXPProviders.Tuning.SECURE_PROCESSING);
+        assertEquals(2, p.getTunings().size());
+        assertNotNull(p.borrowDocumentBuilder());
+    }
+
+    @Test public void convertUsesDefault() {
+        JAXPProviders p = new JAXPProviders();
+        JAXPProviders.setDefault(p);
+        DocumentBuilder b = p.borrowDocumentBuilder();
+        p.release(b);
+        Document d = Convert.toDocument(Input.fromString("<a/>").build());
+        assertEquals("a", d.getDocumentElement().getNodeName());
+        assertSame(b, p.borrowDocumentBuilder());
+    }
+
+    @Test public void compactTreeUsesDefault() {
+        JAXPProviders p = new JAXPProviders();
+        JAXPProviders.setDefault(p);
+        SAXParser s = p.borrowParser();
+        p.release(s);
+        CompactTree t = CompactTree.parse(Input.fromString("<a/>").build());
+        assertEquals("a", t.getDocument().getDocumentElement().getNodeName());
+        assertSame(s, p.borrowParser());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void defaultMustNotBeNull() {
+        JAXPProviders.setDefault(null);
+    }
+}
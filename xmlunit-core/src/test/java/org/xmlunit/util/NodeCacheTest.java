@@ -0,0 +1,202 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.util.Map;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import static org.junit.Assert.*;
+
+public class NodeCacheTest {
+
+    private static final String SOME_URI = "urn:some:uri";
+
+    private Document doc;
+
+    @Before public void createDoc() throws Exception {
+        doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .newDocument();
+    }
+
+    @Test public void fallsBackToNodesWithoutActiveCache() {
+        Element e = doc.createElementNS(SOME_URI, "foo");
+        e.setAttribute("bar", "baz");
+        e.appendChild(doc.createTextNode("text"));
+        assertNotSame(NodeCache.getQName(e), NodeCache.getQName(e));
+        assertEquals(new QName(SOME_URI, "foo"), NodeCache.getQName(e));
+        assertEquals("text", NodeCache.getMergedNestedText(e));
+        assertEquals("baz", NodeCache.getAttributes(e).get(new QName("bar")));
+    }
+
+    @Test public void cachesInformationWhileActive() {
+        Element e = doc.createElement("foo");
+        e.setAttribute("bar", "baz");
+        e.appendChild(doc.createTextNode("text"));
+        NodeCache cache = NodeCache.begin();
+        try {
+            QName q = NodeCache.getQName(e);
+            String text = NodeCache.getMergedNestedText(e);
+            Map<QName, String> attrs = NodeCache.getAttributes(e);
+            assertSame(q, NodeCache.getQName(e));
+            assertSame(text, NodeCache.getMergedNestedText(e));
+            assertSame(attrs, NodeCache.getAttributes(e));
+        } finally {
+            cache.end();
+        }
+    }
+
+    @Test public void onlyCachesInformationAboutElements() {
+        Element e = doc.createElement("foo");
+        e.setAttribute("bar", "baz");
+        NodeCache cache = NodeCache.begin();
+        try {
+            assertNotSame(NodeCache.getChildren(e), NodeCache.getChildren(e));
+            Node a = e.getAttributeNode("bar");
+            assertNotSame(NodeCache.getAttributes(a), NodeCache.getAttributes(a));
+            assertSame(NodeCache.getAttributes(e), NodeCache.getAttributes(e));
+        } finally {
+            cache.end();
+        }
+    }
+
+    @Test public void endOfScopeDropsInformationCachedInIt() {
+        Element outer = doc.createElement("foo");
+        Element inner = doc.createElement("bar");
+        NodeCache cache = NodeCache.begin();
+        try {
+            String outerText = NodeCache.getMergedNestedText(outer);
+            NodeCache.beginScope();
+            String innerText = NodeCache.getMergedNestedText(inner);
+            assertSame(innerText, NodeCache.getMergedNestedText(inner));
+            assertSame(outerText, NodeCache.getMergedNestedText(outer));
+            NodeCache.endScope();
+            assertNotSame(innerText, NodeCache.getMergedNestedText(inner));
+            assertSame(outerText, NodeCache.getMergedNestedText(outer));
+        } finally {
+            cache.end();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cantEndScopeThatHasntBeenBegun() {
+        NodeCache cache = NodeCache.begin();
+        try {
+            NodeCache.endScope();
+        } finally {
+            cache.end();
+        }
+    }
+
+    @Test public void internsEqualQNames() {
+        Element e1 = doc.createElementNS(SOME_URI, "foo");
+        Element e2 = doc.createElementNS(SOME_URI, "foo");
+        NodeCache cache = NodeCache.begin();
+        try {
+            assertSame(NodeCache.getQName(e1), NodeCache.getQName(e2));
+        } finally {
+            cache.end();
+        }
+    }
+
+    @Test public void memoizesValuesPerNodeAndKey() {
+        final int[] calls = new int[1];
+        Mapper<Node, String> m = new Mapper<Node, String>() {
+            @Override
+            public String apply(Node n) {
+                calls[0]++;
+                return n.getNodeName() + calls[0];
+            }
+        };
+        Element e = doc.createElement("foo");
+        assertEquals("foo1", NodeCache.get(e, "a", m));
+        assertEquals("foo2", NodeCache.get(e, "a", m));
+        NodeCache cache = NodeCache.begin();
+        try {
+            assertEquals("foo3", NodeCache.get(e, "a", m));
+            assertEquals("foo3", NodeCache.get(e, "a", m));
+            assertEquals("foo4", NodeCache.get(e, "b", m));
+            assertEquals("bar5", NodeCache.get(doc.createElement("bar"), "a", m));
+        } finally {
+            cache.end();
+        }
+        assertEquals(5, calls[0]);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void attributesCantBeModified() {
+        Element e = doc.createElement("foo");
+        NodeCache.getAttributes(e).put(new QName("bar"), "baz");
+    }
+
+    @Test public void endReactivatesPreviousCache() {
+        Element e = doc.createElement("foo");
+        NodeCache outer = NodeCache.begin();
+        try {
+            QName q = NodeCache.getQName(e);
+            NodeCache inner = NodeCache.begin();
+            try {
+                assertNotSame(q, NodeCache.getQName(e));
+            } finally {
+                inner.end();
+            }
+            assertSame(q, NodeCache.getQName(e));
+        } finally {
+            outer.end();
+        }
+        assertNotSame(NodeCache.getQName(e), NodeCache.getQName(e));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cantEndInactiveCache() {
+        NodeCache outer = NodeCache.begin();
+        NodeCache inner = NodeCache.begin();
+        try {
+            outer.end();
+        } finally {
+            inner.end();
+            outer.end();
+        }
+    }
+
+    @Test public void snapshotIsSharedByCachesBegunWithIt() {
+        Element e = doc.createElement("foo");
+        e.setAttribute("bar", "baz");
+        e.appendChild(doc.createTextNode(" text "));
+        doc.appendChild(e);
+        FilteredView view = new FilteredView(true, false, false);
+        NodeCache.Snapshot snapshot = NodeCache.snapshot(doc, view);
+        QName q;
+        NodeCache cache = NodeCache.begin(snapshot);
+        try {
+            assertSame(view, NodeCache.getView());
+            q = NodeCache.getQName(e);
+            assertEquals("text", NodeCache.getMergedNestedText(e));
+            assertEquals("baz", NodeCache.getAttributes(e).get(new QName("bar")));
+        } finally {
+            cache.end();
+        }
+        cache = NodeCache.begin(snapshot);
+        try {
+            assertSame(q, NodeCache.getQName(e));
+        } finally {
+            cache.end();
+        }
+    }
+}
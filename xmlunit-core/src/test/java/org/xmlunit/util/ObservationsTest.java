@@ -0,0 +1,71 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xmlunit.builder.Input;
+
+import static org.junit.Assert.*;
+
+public class ObservationsTest {
+
+    private static final String XML = "<a x='1'><b>t</b><!-- c --></a>";
+
+    @Test public void isDisabledWithoutProvider() {
+        assertFalse(Observations.isEnabled());
+        assertNull(Observations.start(Instrumentation.Operation.PARSE));
+    }
+
+    @Test public void countsNodesIncludingAttributes() {
+        Document d = Convert.toDocument(Input.fromString(XML).build());
+        // document, a, x, b, text, comment
+        assertEquals(6, Observations.countNodes(d));
+        assertEquals(2, Observations.countNodes(d.getDocumentElement()
+                                                .getFirstChild()));
+        assertEquals(6, Observations.countNodes(new DOMSource(d)));
+    }
+
+    @Test public void cantCountNodesOfNonDOMSources() {
+        assertEquals(-1, Observations.countNodes(new StreamSource(new StringReader(XML))));
+        assertEquals(-1, Observations.countNodes((org.w3c.dom.Node) null));
+    }
+
+    @Test public void countsCharactersRead() throws Exception {
+        InputSource is = new InputSource(new StringReader(XML));
+        Observations.Counter c = Observations.count(is);
+        char[] buf = new char[100];
+        while (is.getCharacterStream().read(buf, 0, 7) > 0) {
+            // consume
+        }
+        assertEquals(XML.length(), c.getCount());
+    }
+
+    @Test public void countsBytesRead() throws Exception {
+        InputSource is = new InputSource(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        Observations.Counter c = Observations.count(is);
+        is.getByteStream().read();
+        is.getByteStream().read(new byte[10]);
+        assertEquals(11, c.getCount());
+    }
+
+    @Test public void doesntCountSystemIdOnlyInputSources() {
+        assertNull(Observations.count(new InputSource("file:/foo.xml")));
+    }
+}
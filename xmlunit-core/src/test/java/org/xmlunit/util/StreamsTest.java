@@ -0,0 +1,64 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StreamsTest {
+
+    @Test
+    public void readsStreamsFully() {
+        byte[] content = new byte[10000];
+        Arrays.fill(content, (byte) 42);
+        assertArrayEquals(content,
+                          Streams.readFully(new ByteArrayInputStream(content)));
+    }
+
+    @Test
+    public void readsReadersFully() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("<a/>");
+        }
+        assertEquals(sb.toString(),
+                     Streams.readFully(new StringReader(sb.toString())));
+    }
+
+    @Test
+    public void findsLocalFiles() throws Exception {
+        File f = File.createTempFile("xmlunit", ".xml");
+        try {
+            assertEquals(f.getCanonicalFile(),
+                         Streams.localFile(f.toURI().toString()).getCanonicalFile());
+        } finally {
+            f.delete();
+        }
+        assertNull(Streams.localFile(f.toURI().toString()));
+        assertNull(Streams.localFile("http://example.org/"));
+        assertNull(Streams.localFile("foo.xml"));
+        assertNull(Streams.localFile(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cantReadNullStream() {
+        Streams.readFully((InputStream) null);
+    }
+}
@@ -13,19 +13,40 @@
 */
 package org.xmlunit.xpath;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
+import java.util.Iterator;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathFactory;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.xmlunit.ConfigurationException;
+import org.xmlunit.builder.Input;
+import org.xmlunit.util.Convert;
 
 public class JAXPXPathEngineTest extends AbstractXPathEngineTest {
     @Mock
     private XPathFactory fac;
+    @Mock
+    private XPath xpath;
+    @Mock
+    private XPathExpression expr;
 
     @Before
     public void setupMocks() {
@@ -41,4 +62,45 @@ public void shouldTranslateExceptionInConstructor() throws Exception {
         when(fac.newXPath()).thenThrow(new NullPointerException());
         new JAXPXPathEngine(fac);
     }
+
+    @Test
+    public void shouldEvaluateDOMSourceWithoutCopying() {
+        Document doc = Convert.toDocument(Input.fromString("<a><b/></a>").build());
+        Iterator<Node> it = getEngine().selectNodes("//b", new DOMSource(doc)).iterator();
+        assertSame(doc.getDocumentElement().getFirstChild(), it.next());
+    }
+
+    @Test
+    public void shouldEvaluateRelativeToNodeOfDOMSource() {
+        Document doc = Convert.toDocument(Input.fromString("<a><b>x</b><c><b>y</b></c></a>").build());
+        Element c = (Element) doc.getDocumentElement().getLastChild();
+        assertEquals("y", getEngine().evaluate("b", new DOMSource(c)));
+    }
+
+    @Test
+    public void shouldResolveAbsolutePathsAgainstOwnerDocument() {
+        Document doc = Convert.toDocument(Input.fromString("<a><b>x</b><c><b>y</b></c></a>").build());
+        Element c = (Element) doc.getDocumentElement().getLastChild();
+        assertEquals("x", getEngine().evaluate("/a/b", new DOMSource(c)));
+        assertEquals("2", getEngine().evaluate("count(//b)", new DOMSource(c)));
+    }
+
+    @Test
+    public void shouldReuseCompiledExpressions() throws Exception {
+        when(fac.newXPath()).thenReturn(xpath);
+        when(xpath.compile("//b")).thenReturn(expr);
+        when(expr.evaluate(any(Node.class),
+                           eq(XPathConstants.STRING)))
+            .thenReturn("x");
+        JAXPXPathEngine e = new JAXPXPathEngine(fac);
+        Document doc = Convert.toDocument(Input.fromString("<a><b>x</b></a>").build());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("x", e.evaluate("//b", new DOMSource(doc)));
+        }
+        verify(xpath, times(1)).compile("//b");
+
+        e.setNamespaceContext(Collections.singletonMap("x", "urn:x"));
+        e.evaluate("//b", new DOMSource(doc));
+        verify(xpath, times(2)).compile("//b");
+    }
 }
@@ -0,0 +1,44 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Two documents have been compared by {@link
+ * org.xmlunit.diff.DOMDifferenceEngine}.
+ */
+@Name("org.xmlunit.Compare")
+@Label("Compare")
+@Description("Two documents have been compared by the DOMDifferenceEngine")
+public final class CompareEvent extends XMLUnitEvent {
+
+    @Label("Control System Id")
+    String controlSystemId;
+
+    @Label("Control Nodes")
+    long controlNodes;
+
+    @Label("Test Nodes")
+    long testNodes;
+
+    @Override
+    void set(String subject, long size, long nodes, long otherNodes) {
+        this.controlSystemId = subject;
+        this.controlNodes = nodes;
+        this.testNodes = otherNodes;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.jfr;
+
+import org.xmlunit.util.Instrumentation;
+
+/**
+ * {@link Instrumentation} emitting Java Flight Recorder events.
+ *
+ * <p>Registered as a service provider, so XMLUnit picks it up as soon
+ * as this module is on the classpath.  An operation is only observed
+ * if the corresponding event is enabled in the running recording,
+ * nodes are only counted if the event exceeds the recording's
+ * threshold.</p>
+ */
+public final class FlightRecorderInstrumentation implements Instrumentation {
+
+    @Override
+    public Observation start(Operation operation) {
+        XMLUnitEvent event = create(operation);
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return new EventObservation(event);
+    }
+
+    private static XMLUnitEvent create(Operation operation) {
+        switch (operation) {
+        case PARSE:
+            return new ParseEvent();
+        case TRANSFORM_SOURCE:
+            return new SourceTransformationEvent();
+        case COMPARE:
+            return new CompareEvent();
+        case MATCH:
+            return new MatchEvent();
+        case VALIDATE:
+            return new ValidateEvent();
+        case TRANSFORM:
+            return new TransformEvent();
+        default:
+            throw new IllegalArgumentException("unknown operation " + operation);
+        }
+    }
+
+    private static final class EventObservation implements Observation {
+        private final XMLUnitEvent event;
+
+        private EventObservation(XMLUnitEvent event) {
+            this.event = event;
+        }
+
+        @Override
+        public boolean shouldCommit() {
+            event.end();
+            return event.shouldCommit();
+        }
+
+        @Override
+        public void commit(String subject, long size, long nodes, long otherNodes) {
+            event.set(subject, size, nodes, otherNodes);
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * {@link org.xmlunit.diff.DefaultNodeMatcher} has matched long lists of
+ * nodes, see {@link org.xmlunit.util.Observations#MATCH_THRESHOLD}.
+ */
+@Name("org.xmlunit.Match")
+@Label("Match")
+@Description("DefaultNodeMatcher has matched long lists of sibling nodes")
+public final class MatchEvent extends XMLUnitEvent {
+
+    @Label("Control Nodes")
+    long controlNodes;
+
+    @Label("Test Nodes")
+    long testNodes;
+
+    @Label("Matches")
+    @Description("Number of pairs of nodes that have been matched")
+    long matches;
+
+    @Override
+    void set(String subject, long size, long nodes, long otherNodes) {
+        this.matches = size;
+        this.controlNodes = nodes;
+        this.testNodes = otherNodes;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A document has been parsed by {@link org.xmlunit.util.Convert#toDocument}.
+ */
+@Name("org.xmlunit.Parse")
+@Label("Parse")
+@Description("A document has been parsed into a DOM tree")
+public final class ParseEvent extends XMLUnitEvent {
+
+    @Label("System Id")
+    String systemId;
+
+    @Label("Size")
+    @Description("Number of bytes or characters read, -1 if unknown")
+    long size;
+
+    @Label("Nodes")
+    @Description("Number of nodes of the parsed document")
+    long nodes;
+
+    @Override
+    void set(String subject, long size, long nodes, long otherNodes) {
+        this.systemId = subject;
+        this.size = size;
+        this.nodes = nodes;
+    }
+}
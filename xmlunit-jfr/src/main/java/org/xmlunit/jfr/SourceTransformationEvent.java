@@ -0,0 +1,46 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One of the sources of the {@code org.xmlunit.input} package has been
+ * created.
+ */
+@Name("org.xmlunit.SourceTransformation")
+@Label("Source Transformation")
+@Description("A document has been preprocessed by one of the sources of org.xmlunit.input")
+public final class SourceTransformationEvent extends XMLUnitEvent {
+
+    @Label("Source Type")
+    String sourceType;
+
+    @Label("Input Nodes")
+    @Description("Number of nodes of the original document, -1 if unknown")
+    long inputNodes;
+
+    @Label("Output Nodes")
+    @Description("Number of nodes of the preprocessed document")
+    long outputNodes;
+
+    @Override
+    void set(String subject, long size, long nodes, long otherNodes) {
+        this.sourceType = subject;
+        this.inputNodes = nodes;
+        this.outputNodes = otherNodes;
+    }
+}
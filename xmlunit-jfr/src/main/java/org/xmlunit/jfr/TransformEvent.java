@@ -0,0 +1,47 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A stylesheet or identity transformation has been applied by {@link
+ * org.xmlunit.transform.Transformation}.
+ */
+@Name("org.xmlunit.Transform")
+@Label("Transform")
+@Description("A stylesheet or identity transformation has been applied")
+public final class TransformEvent extends XMLUnitEvent {
+
+    @Label("Stylesheet")
+    @Description("System Id of the stylesheet, null for identity transformations")
+    String stylesheet;
+
+    @Label("Source Nodes")
+    @Description("Number of nodes of the source, -1 unless it has been given as DOM")
+    long sourceNodes;
+
+    @Label("Result Nodes")
+    @Description("Number of nodes of the result, -1 unless it is a DOM result")
+    long resultNodes;
+
+    @Override
+    void set(String subject, long size, long nodes, long otherNodes) {
+        this.stylesheet = subject;
+        this.sourceNodes = nodes;
+        this.resultNodes = otherNodes;
+    }
+}
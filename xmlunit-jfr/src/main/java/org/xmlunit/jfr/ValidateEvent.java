@@ -0,0 +1,45 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An instance document has been validated by {@link
+ * org.xmlunit.validation.JAXPValidator}.
+ */
+@Name("org.xmlunit.Validate")
+@Label("Validate")
+@Description("An instance document has been validated by the JAXPValidator")
+public final class ValidateEvent extends XMLUnitEvent {
+
+    @Label("System Id")
+    String systemId;
+
+    @Label("Nodes")
+    @Description("Number of nodes of the instance document, -1 unless it has been given as DOM")
+    long nodes;
+
+    @Label("Problems")
+    long problems;
+
+    @Override
+    void set(String subject, long size, long nodes, long otherNodes) {
+        this.systemId = subject;
+        this.problems = size;
+        this.nodes = nodes;
+    }
+}
@@ -0,0 +1,30 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+
+/**
+ * Common base class of all events emitted by XMLUnit.
+ */
+@Category("XMLUnit")
+abstract class XMLUnitEvent extends Event {
+
+    /**
+     * Sets the event's fields from the values passed to {@link
+     * org.xmlunit.util.Instrumentation.Observation#commit}.
+     */
+    abstract void set(String subject, long size, long nodes, long otherNodes);
+}
@@ -0,0 +1,159 @@
+/*
+  This file is licensed to You under the Apache License, Version 2.0
+  (the "License"); you may not use this file except in compliance with
+  the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+package org.xmlunit.jfr;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.input.CommentLessSource;
+import org.xmlunit.transform.Transformation;
+import org.xmlunit.util.Convert;
+import org.xmlunit.util.Observations;
+import org.xmlunit.validation.Languages;
+import org.xmlunit.validation.ValidationResult;
+import org.xmlunit.validation.Validator;
+
+import static org.junit.Assert.*;
+
+public class FlightRecorderInstrumentationTest {
+
+    private static final String XML = "<a x='1'><b>t</b><!-- c --></a>";
+
+    @Test
+    public void isFoundByXMLUnit() {
+        assertTrue(Observations.isEnabled());
+    }
+
+    @Test
+    public void emitsParseEvents() throws Exception {
+        List<RecordedEvent> events = record("org.xmlunit.Parse", () ->
+            Convert.toDocument(Input.fromString(XML).build()));
+        assertEquals(1, events.size());
+        assertEquals(XML.length(), events.get(0).getLong("size"));
+        // document, a, x, b, text, comment
+        assertEquals(6, events.get(0).getLong("nodes"));
+    }
+
+    @Test
+    public void emitsSourceTransformationEvents() throws Exception {
+        List<RecordedEvent> events = record("org.xmlunit.SourceTransformation", () ->
+            new CommentLessSource(new DOMSource(document())));
+        assertEquals(1, events.size());
+        RecordedEvent e = events.get(0);
+        assertEquals(CommentLessSource.class.getName(), e.getString("sourceType"));
+        assertEquals(6, e.getLong("inputNodes"));
+        assertEquals(5, e.getLong("outputNodes"));
+    }
+
+    @Test
+    public void emitsCompareAndMatchEvents() throws Exception {
+        StringBuilder sb = new StringBuilder("<a>");
+        for (int i = 0; i < 60; i++) {
+            sb.append("<b/>");
+        }
+        String control = sb.append("</a>").toString();
+        List<RecordedEvent> events = record(null, () ->
+            DiffBuilder.compare(control).withTest(control).build());
+        RecordedEvent compare = only(events, "org.xmlunit.Compare");
+        assertEquals(62, compare.getLong("controlNodes"));
+        assertEquals(62, compare.getLong("testNodes"));
+        RecordedEvent match = only(events, "org.xmlunit.Match");
+        assertEquals(60, match.getLong("controlNodes"));
+        assertEquals(60, match.getLong("matches"));
+    }
+
+    @Test
+    public void emitsValidateEvents() throws Exception {
+        Validator v = Validator.forLanguage(Languages.W3C_XML_SCHEMA_NS_URI);
+        v.setSchemaSource(new StreamSource(new StringReader(
+            "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+            + "<xs:element name='a' type='xs:string'/></xs:schema>")));
+        List<RecordedEvent> events = record("org.xmlunit.Validate", () -> {
+                ValidationResult r = v.validateInstance(new DOMSource(document()));
+                assertFalse(r.isValid());
+            });
+        assertEquals(1, events.size());
+        assertEquals(6, events.get(0).getLong("nodes"));
+        assertTrue(events.get(0).getLong("problems") > 0);
+    }
+
+    @Test
+    public void emitsTransformEvents() throws Exception {
+        List<RecordedEvent> events = record("org.xmlunit.Transform", () ->
+            new Transformation(new DOMSource(document())).transformToDocument());
+        assertEquals(1, events.size());
+        assertNull(events.get(0).getString("stylesheet"));
+        assertEquals(6, events.get(0).getLong("sourceNodes"));
+        assertEquals(6, events.get(0).getLong("resultNodes"));
+    }
+
+    private static Document document() {
+        return Convert.toDocument(Input.fromString(XML).build());
+    }
+
+    private static RecordedEvent only(List<RecordedEvent> events, String name) {
+        RecordedEvent found = null;
+        for (RecordedEvent e : events) {
+            if (e.getEventType().getName().equals(name)) {
+                assertNull("more than one " + name, found);
+                found = e;
+            }
+        }
+        assertNotNull("no " + name, found);
+        return found;
+    }
+
+    /**
+     * Records the XMLUnit events - or only those with the given name
+     * - emitted by the given action.
+     */
+    private static List<RecordedEvent> record(String name, Runnable action) throws Exception {
+        Path file = File.createTempFile("xmlunit", ".jfr").toPath();
+        try {
+            try (Recording r = new Recording()) {
+                for (String event : new String[] {
+                        "org.xmlunit.Parse", "org.xmlunit.SourceTransformation",
+                        "org.xmlunit.Compare", "org.xmlunit.Match",
+                        "org.xmlunit.Validate", "org.xmlunit.Transform" }) {
+                    r.enable(event).withoutThreshold();
+                }
+                r.start();
+                action.run();
+                r.stop();
+                r.dump(file);
+            }
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+                String type = e.getEventType().getName();
+                if (type.startsWith("org.xmlunit.") && (name == null || name.equals(type))) {
+                    events.add(e);
+                }
+            }
+            return events;
+        } finally {
+            file.toFile().delete();
+        }
+    }
+}